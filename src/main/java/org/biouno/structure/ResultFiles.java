@@ -0,0 +1,213 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure;
+
+import hudson.FilePath;
+import hudson.FilePath.FileCallable;
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.biouno.structure.plot.PlotCache;
+import org.biouno.structure.results.MappedResult;
+import org.biouno.structure.results.ResultStore;
+import org.biouno.structure.results.StructureResult;
+
+/**
+ * Result files of structure runs. When runs use a scratch directory, the 
+ * files kept are moved to the workspace at the end of the run, optionally 
+ * compressed with gzip. Readers of the results use {@link #find(FilePath, String)} 
+ * and {@link #open(FilePath)}, so compressed files are read transparently.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public final class ResultFiles {
+	/**
+	 * Suffix of compressed result files.
+	 */
+	public static final String COMPRESSED_SUFFIX = ".gz";
+	/**
+	 * Hidden constructor.
+	 */
+	private ResultFiles() {
+	}
+	/**
+	 * Finds a result file, either as is or compressed.
+	 * @param directory results directory
+	 * @param name file name, without the compressed suffix
+	 * @return the file, or <code>null</code> if not found
+	 * @throws IOException if an error occurs accessing the file
+	 * @throws InterruptedException if interrupted
+	 */
+	public static FilePath find(FilePath directory, String name) throws IOException, InterruptedException {
+		if (directory == null) {
+			return null;
+		}
+		final FilePath file = new FilePath(directory, name);
+		if (file.exists()) {
+			return file;
+		}
+		final FilePath compressed = new FilePath(directory, name + COMPRESSED_SUFFIX);
+		if (compressed.exists()) {
+			return compressed;
+		}
+		return null;
+	}
+	/**
+	 * Opens a result file, decompressing it if necessary.
+	 * @param file result file
+	 * @return InputStream
+	 * @throws IOException if an error occurs opening the file
+	 */
+	public static InputStream open(FilePath file) throws IOException {
+		final InputStream input = file.read();
+		if (file.getName().endsWith(COMPRESSED_SUFFIX)) {
+			return new GZIPInputStream(input);
+		}
+		return input;
+	}
+	/**
+	 * Reads the metrics of a run from its output file, without the membership 
+	 * coefficients.
+	 * @param file output file, possibly compressed
+	 * @return StructureResult
+	 * @throws IOException if an error occurs reading the file
+	 */
+	public static StructureResult readMetrics(FilePath file) throws IOException {
+		final InputStream input = open(file);
+		try {
+			return StructureResult.readMetrics(new InputStreamReader(input, StructureBuilder.STRUCTURE_FILES_ENCODING));
+		} finally {
+			IOUtils.closeQuietly(input);
+		}
+	}
+	/**
+	 * Maps the results of a run, storing them in a build directory the first 
+	 * time. The results are stored under the path of the output file, and 
+	 * replaced when its size or modification time change.
+	 * @param file output file, possibly compressed
+	 * @param buildDirectory build directory
+	 * @return MappedResult, to be closed at the end of the request
+	 * @throws IOException if an error occurs reading the file or writing the 
+	 * store
+	 * @throws InterruptedException if interrupted
+	 */
+	public static MappedResult map(final FilePath file, File buildDirectory) throws IOException, InterruptedException {
+		final ResultStore store = new ResultStore(new File(buildDirectory, ResultStore.DIRECTORY));
+		return store.get(PlotCache.key(file.getRemote()), PlotCache.key(file.lastModified(), file.length()), 
+				new ResultStore.Source() {
+			public Reader open() throws IOException {
+				return new InputStreamReader(ResultFiles.open(file), StructureBuilder.STRUCTURE_FILES_ENCODING);
+			}
+		});
+	}
+	/**
+	 * Moves files from a run directory to their final location, optionally 
+	 * compressing them, and deletes the run directory. Runs in the node of 
+	 * the run directory, so the files do not go through the master.
+	 */
+	public static final class RetainCallable implements FileCallable<Void> {
+		/**
+		 * serialVersionUID.
+		 */
+		private static final long serialVersionUID = 8032736457346013718L;
+		/**
+		 * Files to keep, by name in the run directory, and their destination 
+		 * paths.
+		 */
+		private final Map<String, String> files = new LinkedHashMap<String, String>();
+		/**
+		 * Whether the files are compressed.
+		 */
+		private final boolean compress;
+		/**
+		 * Constructor with args.
+		 * @param compress whether the files are compressed
+		 */
+		public RetainCallable(boolean compress) {
+			this.compress = compress;
+		}
+		/**
+		 * Adds a file to keep.
+		 * @param name file name in the run directory
+		 * @param destination destination path, without the compressed suffix
+		 * @return this
+		 */
+		public RetainCallable keep(String name, String destination) {
+			files.put(name, destination);
+			return this;
+		}
+		/*
+		 * (non-Javadoc)
+		 * @see hudson.FilePath.FileCallable#invoke(java.io.File, hudson.remoting.VirtualChannel)
+		 */
+		public Void invoke(File directory, VirtualChannel channel) throws IOException, InterruptedException {
+			try {
+				for (Map.Entry<String, String> entry : files.entrySet()) {
+					final File source = new File(directory, entry.getKey());
+					if (!source.isFile()) {
+						continue;
+					}
+					final File plain = new File(entry.getValue());
+					final File compressed = new File(entry.getValue() + COMPRESSED_SUFFIX);
+					plain.getParentFile().mkdirs();
+					// remove results of previous runs, in either form
+					plain.delete();
+					compressed.delete();
+					if (compress) {
+						copy(source, new GZIPOutputStream(new FileOutputStream(compressed)));
+					} else if (!source.renameTo(plain)) {
+						// different file systems
+						copy(source, new FileOutputStream(plain));
+					}
+				}
+			} finally {
+				Util.deleteRecursive(directory);
+			}
+			return null;
+		}
+		private static void copy(File source, OutputStream output) throws IOException {
+			final InputStream input = new FileInputStream(source);
+			try {
+				IOUtils.copy(input, output);
+			} finally {
+				IOUtils.closeQuietly(input);
+				output.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,242 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure;
+
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.tools.ToolInstallation;
+import hudson.tools.ToolInstaller;
+import hudson.tools.ToolInstallerDescriptor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jenkins.model.Jenkins;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.biouno.structure.util.Messages;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * Installs structure in a node by extracting an archive (zip, tar or tar.gz) 
+ * kept in the master. Each version of the archive is extracted once per 
+ * node, in a directory named after the archive checksum, and reused by later 
+ * builds without transferring the archive again. The archive is extracted in 
+ * a temporary directory that is renamed when complete, so executors 
+ * installing it at the same time never see or remove a partial installation.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class StructureArchiveInstaller extends ToolInstaller {
+	/**
+	 * File created after the archive is extracted.
+	 */
+	public static final String INSTALLED_MARKER = ".structure-installed";
+	/**
+	 * Maximum number of archives with a known checksum.
+	 */
+	private static final int MAX_CHECKSUMS = 16;
+	/**
+	 * Checksums of the most recently used archives, by path, computed once 
+	 * for each archive modification.
+	 */
+	private static final Map<String, Checksum> CHECKSUMS = new LinkedHashMap<String, Checksum>(MAX_CHECKSUMS, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Checksum> eldest) {
+			return size() > MAX_CHECKSUMS;
+		}
+	};
+	/**
+	 * Path to the archive in the master, absolute or relative to 
+	 * JENKINS_HOME.
+	 */
+	private final String archive;
+	/**
+	 * Constructor with args.
+	 * @param label label expression of the nodes where this installer is used
+	 * @param archive path to the archive in the master
+	 */
+	@DataBoundConstructor
+	public StructureArchiveInstaller(String label, String archive) {
+		super(label);
+		this.archive = archive;
+	}
+	/**
+	 * @return the archive
+	 */
+	public String getArchive() {
+		return archive;
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see hudson.tools.ToolInstaller#performInstallation(hudson.tools.ToolInstallation, hudson.model.Node, hudson.model.TaskListener)
+	 */
+	@Override
+	public FilePath performInstallation(ToolInstallation tool, Node node, TaskListener log) throws IOException, InterruptedException {
+		final File archiveFile = getArchiveFile();
+		if (!archiveFile.isFile()) {
+			throw new AbortException("Structure archive not found in the master: " + archiveFile.getPath());
+		}
+		final String checksum = checksum(archiveFile);
+		final FilePath directory = preferredLocation(tool, node).child(checksum);
+		final FilePath marker = directory.child(INSTALLED_MARKER);
+		if (marker.exists()) {
+			return directory;
+		}
+		log.getLogger().println("Installing structure " + tool.getName() + " from " + archiveFile.getName() 
+				+ " (" + checksum + ") in " + directory.getRemote());
+		final FilePath parent = directory.getParent();
+		parent.mkdirs();
+		final FilePath temporary = parent.createTempDir(checksum, ".tmp");
+		try {
+			extract(tool, archiveFile, temporary);
+			temporary.child(INSTALLED_MARKER).write(checksum, StructureBuilder.STRUCTURE_FILES_ENCODING);
+			if (directory.exists() && !marker.exists()) {
+				// left by an interrupted installation of an earlier version
+				directory.deleteRecursive();
+			}
+			try {
+				temporary.renameTo(directory);
+			} catch (IOException e) {
+				if (!marker.exists()) {
+					throw e;
+				}
+			}
+		} finally {
+			// still there if another executor installed it first
+			if (temporary.exists()) {
+				temporary.deleteRecursive();
+			}
+		}
+		if (!marker.exists()) {
+			throw new AbortException("Failed to install structure " + tool.getName() + " in " + directory.getRemote());
+		}
+		return directory;
+	}
+	/**
+	 * Extracts the archive in a directory.
+	 * @param tool the installation
+	 * @param archiveFile the archive
+	 * @param directory the directory
+	 * @throws IOException if an error occurs extracting the archive
+	 * @throws InterruptedException if interrupted
+	 */
+	private void extract(ToolInstallation tool, File archiveFile, FilePath directory) throws IOException, InterruptedException {
+		final InputStream input = new FileInputStream(archiveFile);
+		try {
+			final String name = archiveFile.getName().toLowerCase();
+			if (name.endsWith(".zip")) {
+				directory.unzipFrom(input);
+			} else if (name.endsWith(".tar.gz") || name.endsWith(".tgz")) {
+				directory.untarFrom(input, FilePath.TarCompression.GZIP);
+			} else {
+				directory.untarFrom(input, FilePath.TarCompression.NONE);
+			}
+		} finally {
+			IOUtils.closeQuietly(input);
+		}
+		// zip files do not keep the file mode
+		if (tool instanceof StructureInstallation) {
+			final String executable = ((StructureInstallation) tool).getPathToExecutable();
+			if (StringUtils.isNotBlank(executable) && !new File(executable).isAbsolute()) {
+				final FilePath executableFile = directory.child(executable);
+				if (executableFile.exists()) {
+					executableFile.chmod(0755);
+				}
+			}
+		}
+	}
+	/**
+	 * Resolves the archive against JENKINS_HOME, unless it is absolute.
+	 * @return File
+	 */
+	private File getArchiveFile() {
+		final File file = new File(archive);
+		return file.isAbsolute() ? file : new File(Jenkins.getInstance().getRootDir(), archive);
+	}
+	/**
+	 * Computes the MD5 checksum of an archive, once per modification.
+	 */
+	private static String checksum(File file) throws IOException {
+		final String path = file.getAbsolutePath();
+		final long lastModified = file.lastModified();
+		final long length = file.length();
+		synchronized (CHECKSUMS) {
+			Checksum checksum = CHECKSUMS.get(path);
+			if (checksum == null || checksum.lastModified != lastModified || checksum.length != length) {
+				final InputStream input = new FileInputStream(file);
+				try {
+					checksum = new Checksum(lastModified, length, Util.getDigestOf(input));
+				} finally {
+					IOUtils.closeQuietly(input);
+				}
+				CHECKSUMS.put(path, checksum);
+			}
+			return checksum.digest;
+		}
+	}
+	/**
+	 * Checksum of a modification of an archive.
+	 */
+	private static final class Checksum {
+		private final long lastModified;
+		private final long length;
+		private final String digest;
+		Checksum(long lastModified, long length, String digest) {
+			this.lastModified = lastModified;
+			this.length = length;
+			this.digest = digest;
+		}
+	}
+	/**
+	 * Descriptor of the installer.
+	 */
+	@Extension
+	public static final class DescriptorImpl extends ToolInstallerDescriptor<StructureArchiveInstaller> {
+		/* (non-Javadoc)
+		 * @see hudson.model.Descriptor#getDisplayName()
+		 */
+		@Override
+		public String getDisplayName() {
+			return Messages.StructureArchiveInstaller_DisplayName();
+		}
+		/* (non-Javadoc)
+		 * @see hudson.tools.ToolInstallerDescriptor#isApplicable(java.lang.Class)
+		 */
+		@Override
+		public boolean isApplicable(Class<? extends ToolInstallation> toolType) {
+			return toolType == StructureInstallation.class;
+		}
+	}
+}
@@ -26,16 +26,48 @@ package org.biouno.structure;
 import hudson.FilePath;
 import hudson.model.Action;
 import hudson.model.AbstractBuild;
+import hudson.model.Run;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
+import javax.servlet.http.HttpServletResponse;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.biouno.structure.plot.PlotCache;
+import org.biouno.structure.plot.PlotFormat;
+import org.biouno.structure.plot.TraceChartRenderer;
+import org.biouno.structure.results.AlleleFrequencies;
+import org.biouno.structure.results.ClusterAligner;
+import org.biouno.structure.results.MappedResult;
+import org.biouno.structure.results.QMatrix;
+import org.biouno.structure.results.QRowQuery;
+import org.biouno.structure.results.StructureResult;
+import org.biouno.structure.trace.TraceSeries;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 
 /**
  * Structure build action. Adds a summary with the value of K and a list of the
  * output files with links. When clicked, the links will display the file
- * contents.
+ * contents. The summary also shows bar plots of the membership coefficients 
+ * of each run, charts of the Ln Like traces of the replicates, and a JSON API 
+ * over the run metrics, membership coefficients, allele frequencies and 
+ * traces. Membership coefficients and allele frequencies are read from 
+ * memory mapped {@link MappedResult}s stored in the build directory, which 
+ * are unmapped at the end of each request.
  * 
  * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
  * @since 0.1
@@ -46,20 +78,52 @@ public class StructureBuildSummaryAction implements Action {
 	 */
 	private static final String URL = "structureResults";
 	private static final String DISPLAY_NAME = "Structure results";
+	/**
+	 * Directory, within the build directory, where the results of runs 
+	 * without a workspace (e.g. Pipeline steps) are kept.
+	 */
+	public static final String RESULTS_DIRECTORY = "structure";
+	/*
+	 * Plot sizes, in pixels.
+	 */
+	private static final int DEFAULT_PLOT_WIDTH = 800;
+	private static final int DEFAULT_PLOT_HEIGHT = 120;
+	private static final int MAX_PLOT_WIDTH = 4000;
+	private static final int MAX_PLOT_HEIGHT = 1000;
+	private static final int MIN_PLOT_SIZE = 10;
+	private static final int DEFAULT_TRACE_HEIGHT = 200;
+	/*
+	 * Number of points of the traces API.
+	 */
+	private static final int DEFAULT_TRACE_POINTS = 500;
+	private static final int MAX_TRACE_POINTS = 10000;
+	/*
+	 * Page sizes of the membership coefficients API.
+	 */
+	private static final int DEFAULT_PAGE_SIZE = 100;
+	private static final int MAX_PAGE_SIZE = 10000;
 	// private static final String ICON_URL =
 	// "/plugin/structure/icons/icon-details.gif";
 	/**
 	 * Le owner of me.
 	 */
-	private final AbstractBuild<?, ?> owner;
+	private final Run<?, ?> owner;
+	/**
+	 * The runs.
+	 */
+	private List<StructureRun> runs;
 	/**
-	 * The list of files.
+	 * The list of files. Only used for reading actions saved before the runs 
+	 * metadata existed.
 	 */
-	private final String[] files;
+	@Deprecated
+	private String[] files;
 	/**
-	 * The value of K.
+	 * The value of K. Only used for reading actions saved before the runs 
+	 * metadata existed.
 	 */
-	private final int k;
+	@Deprecated
+	private Integer k;
 	/**
 	 * Constructor with args.
 	 * 
@@ -70,29 +134,511 @@ public class StructureBuildSummaryAction implements Action {
 	 * @param k
 	 *            the value of K
 	 */
-	public StructureBuildSummaryAction(AbstractBuild<?, ?> owner,
+	public StructureBuildSummaryAction(Run<?, ?> owner,
 			String[] files, int k) {
 		this.owner = owner;
-		this.files = files;
-		this.k = k;
+		this.runs = new ArrayList<StructureRun>();
+		for (String file : files) {
+			this.runs.add(new StructureRun(k, file, null));
+		}
+	}
+	/**
+	 * Constructor with args.
+	 * 
+	 * @param owner
+	 *            the build that is owner of this action
+	 * @param runs
+	 *            the runs
+	 */
+	public StructureBuildSummaryAction(Run<?, ?> owner, List<StructureRun> runs) {
+		this.owner = owner;
+		this.runs = new ArrayList<StructureRun>(runs);
+	}
+	/**
+	 * Converts actions saved before the runs metadata existed.
+	 * @return this
+	 */
+	private Object readResolve() {
+		if (runs == null) {
+			runs = new ArrayList<StructureRun>();
+			if (files != null) {
+				for (String file : files) {
+					runs.add(new StructureRun(k == null ? 0 : k, file, null));
+				}
+			}
+			files = null;
+			k = null;
+		}
+		return this;
 	}
 	/**
 	 * @return the owner
 	 */
-	public AbstractBuild<?, ?> getOwner() {
+	public Run<?, ?> getOwner() {
 		return owner;
 	}
+	/**
+	 * Gets the directory where the output files are. That is the workspace 
+	 * for freestyle builds, and a directory within the build directory for 
+	 * other runs, like Pipeline runs.
+	 * @return FilePath
+	 */
+	public FilePath getResultsDirectory() {
+		if (owner instanceof AbstractBuild) {
+			return ((AbstractBuild<?, ?>) owner).getWorkspace();
+		}
+		return new FilePath(new File(owner.getRootDir(), RESULTS_DIRECTORY));
+	}
+	/**
+	 * @return the runs
+	 */
+	public List<StructureRun> getRuns() {
+		return Collections.unmodifiableList(runs);
+	}
 	/**
 	 * @return the files
 	 */
 	public String[] getFiles() {
-		return files;
+		final String[] runFiles = new String[runs.size()];
+		for (int i = 0; i < runFiles.length; i++) {
+			runFiles[i] = runs.get(i).getFile();
+		}
+		return runFiles;
 	}
 	/**
-	 * @return the k
+	 * @return the k of the first run
 	 */
 	public int getK() {
-		return k;
+		return runs.isEmpty() ? 0 : runs.get(0).getK();
+	}
+	/**
+	 * Gets the runs of every structure action of the build. Endpoints are 
+	 * served by the first action, so runs are identified by their index in 
+	 * this list.
+	 * @return the runs of the build
+	 */
+	List<StructureRun> getAllRuns() {
+		final List<StructureRun> all = new ArrayList<StructureRun>();
+		for (StructureBuildSummaryAction action : owner.getActions(StructureBuildSummaryAction.class)) {
+			all.addAll(action.runs);
+		}
+		return all;
+	}
+	/**
+	 * @return the index of the first run of this action in {@link #getAllRuns()}
+	 */
+	public int getRunIndexOffset() {
+		int offset = 0;
+		for (StructureBuildSummaryAction action : owner.getActions(StructureBuildSummaryAction.class)) {
+			if (action == this) {
+				break;
+			}
+			offset += action.runs.size();
+		}
+		return offset;
+	}
+	/**
+	 * Serves the bar plot of the membership coefficients of a run. Replicates 
+	 * with the same dataset and K are aligned to the first run of the build 
+	 * with that dataset and K. 
+	 * Plots are cached in the build directory and served with an entity tag.
+	 * <p>
+	 * Parameters: <code>run</code> (index of the run), <code>width</code>, 
+	 * <code>height</code> and <code>format</code> (<code>png</code> or 
+	 * <code>svg</code>).
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void doPlot(final StaplerRequest request, final StaplerResponse response) 
+			throws IOException, InterruptedException {
+		final List<StructureRun> all = getAllRuns();
+		final int index = intParameter(request, "run", 0, 0, all.size() - 1);
+		final int width = intParameter(request, "width", DEFAULT_PLOT_WIDTH, MIN_PLOT_SIZE, MAX_PLOT_WIDTH);
+		final int height = intParameter(request, "height", DEFAULT_PLOT_HEIGHT, MIN_PLOT_SIZE, MAX_PLOT_HEIGHT);
+		final PlotFormat format = PlotFormat.fromExtension(request.getParameter("format"));
+		final FilePath directory = getResultsDirectory();
+		if (all.isEmpty() || ResultFiles.find(directory, all.get(index).getFile()) == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		final FilePath file = ResultFiles.find(directory, all.get(index).getFile());
+		final FilePath reference = findReference(all, index, directory);
+		final String key = PlotCache.key(index, file.getRemote(), file.lastModified(), file.length(), 
+				reference == null ? "" : reference.getRemote(), reference == null ? 0 : reference.lastModified(), 
+				width, height, format);
+		final String etag = "\"" + key + "\"";
+		if (etag.equals(request.getHeader("If-None-Match"))) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		final PlotCache cache = new PlotCache(new File(owner.getRootDir(), PlotCache.DIRECTORY));
+		// results mapped to render the plot, unmapped once it is rendered
+		final List<MappedResult> mapped = new ArrayList<MappedResult>();
+		final File plot;
+		try {
+			plot = cache.get(key, format, width, height, new PlotCache.Source() {
+				public QMatrix load() throws IOException, InterruptedException {
+					final MappedResult result = ResultFiles.map(file, owner.getRootDir());
+					mapped.add(result);
+					final QMatrix q = result.getQ();
+					if (reference == null) {
+						return q;
+					}
+					final MappedResult referenceResult = ResultFiles.map(reference, owner.getRootDir());
+					mapped.add(referenceResult);
+					return q.permute(ClusterAligner.align(referenceResult.getQ(), q));
+				}
+			});
+		} finally {
+			for (MappedResult result : mapped) {
+				result.close();
+			}
+		}
+		response.setContentType(format.getContentType());
+		response.setHeader("ETag", etag);
+		response.setContentLength((int) plot.length());
+		final InputStream input = new FileInputStream(plot);
+		try {
+			IOUtils.copy(input, response.getOutputStream());
+		} finally {
+			IOUtils.closeQuietly(input);
+		}
+	}
+	/**
+	 * Finds the output file of the run that the clusters of a run are aligned 
+	 * to: the first run of the build with the same dataset and K.
+	 * @param all runs of the build
+	 * @param index index of the run
+	 * @param directory results directory
+	 * @return the output file, or <code>null</code> if the run is the first
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private static FilePath findReference(List<StructureRun> all, int index, FilePath directory) 
+			throws IOException, InterruptedException {
+		for (int i = 0; i < index; i++) {
+			if (isSameGroup(all.get(index), all.get(i))) {
+				return ResultFiles.find(directory, all.get(i).getFile());
+			}
+		}
+		return null;
+	}
+	/**
+	 * Tells whether the chart of the Ln Like traces of a dataset and K is 
+	 * shown after a run, that is, after the last run of this action with that 
+	 * dataset and K that has a trace.
+	 * @param index index of the run in this action
+	 * @return <code>true</code> if the chart is shown after the run
+	 */
+	public boolean isTraceChart(int index) {
+		final StructureRun run = runs.get(index);
+		if (run.getTrace() == null) {
+			return false;
+		}
+		for (int i = index + 1; i < runs.size(); i++) {
+			if (runs.get(i).getTrace() != null && isSameGroup(run, runs.get(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+	/**
+	 * Serves the Ln Like traces of a run. As SVG, the default, the traces of 
+	 * every run of the build with the same dataset and K are drawn in one 
+	 * chart, so the mixing of the replicates can be compared. As JSON, the 
+	 * points of the run are returned as <code>[rep, lnLike]</code> pairs. 
+	 * Traces are reduced to about the width of the chart, or the number of 
+	 * points requested, keeping their shape.
+	 * <p>
+	 * Parameters: <code>run</code> (index of the run), <code>width</code>, 
+	 * <code>height</code>, <code>points</code> (JSON only), 
+	 * <code>burnin</code> (<code>true</code> to include the burn-in) and 
+	 * <code>format</code> (<code>svg</code> or <code>json</code>).
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	public void doTrace(final StaplerRequest request, final StaplerResponse response) throws IOException {
+		final List<StructureRun> all = getAllRuns();
+		final int index = intParameter(request, "run", 0, 0, all.size() - 1);
+		final File directory = new File(owner.getRootDir(), TraceSeries.DIRECTORY);
+		if (all.isEmpty() || all.get(index).getTrace() == null || !new File(directory, all.get(index).getTrace()).isFile()) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		final StructureRun run = all.get(index);
+		final boolean burnIn = Boolean.parseBoolean(request.getParameter("burnin"));
+		if ("json".equals(request.getParameter("format"))) {
+			final TraceSeries trace = readTrace(new File(directory, run.getTrace()))
+					.downsample(intParameter(request, "points", DEFAULT_TRACE_POINTS, 3, MAX_TRACE_POINTS), burnIn);
+			final JSONArray points = new JSONArray();
+			for (int i = 0; i < trace.size(); i++) {
+				final JSONArray point = new JSONArray();
+				point.add(trace.getRep(i));
+				point.add(trace.getLnLike(i));
+				points.add(point);
+			}
+			final JSONObject json = new JSONObject();
+			json.put("run", index);
+			json.put("k", run.getK());
+			json.put("burnInPoints", trace.getBurnInSize());
+			json.put("points", points);
+			writeJson(response, json);
+			return;
+		}
+		final int width = intParameter(request, "width", DEFAULT_PLOT_WIDTH, MIN_PLOT_SIZE, MAX_PLOT_WIDTH);
+		final int height = intParameter(request, "height", DEFAULT_TRACE_HEIGHT, MIN_PLOT_SIZE, MAX_PLOT_HEIGHT);
+		final List<File> files = new ArrayList<File>();
+		final List<String> names = new ArrayList<String>();
+		final List<Object> keyParts = new ArrayList<Object>();
+		for (StructureRun other : all) {
+			final File file = other.getTrace() == null ? null : new File(directory, other.getTrace());
+			if (file != null && file.isFile() && isSameGroup(run, other)) {
+				files.add(file);
+				names.add(other.getReplicate() > 0 ? "replicate " + other.getReplicate() : other.getFile());
+				keyParts.add(file.getName());
+				keyParts.add(file.length());
+			}
+		}
+		keyParts.add(width);
+		keyParts.add(height);
+		keyParts.add(burnIn);
+		final String etag = "\"" + PlotCache.key(keyParts.toArray()) + "\"";
+		if (etag.equals(request.getHeader("If-None-Match"))) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		final List<TraceSeries> traces = new ArrayList<TraceSeries>();
+		for (File file : files) {
+			traces.add(readTrace(file).downsample(width, burnIn));
+		}
+		response.setContentType(PlotFormat.SVG.getContentType());
+		response.setHeader("ETag", etag);
+		TraceChartRenderer.writeSvg(traces, names, width, height, response.getOutputStream());
+	}
+	private static boolean isSameGroup(StructureRun run, StructureRun other) {
+		return run.getK() == other.getK() && StringUtils.equals(run.getDataset(), other.getDataset());
+	}
+	private static TraceSeries readTrace(File file) throws IOException {
+		final InputStream input = new FileInputStream(file);
+		try {
+			return TraceSeries.read(input);
+		} finally {
+			IOUtils.closeQuietly(input);
+		}
+	}
+	/**
+	 * Serves the metadata and metrics of every run of the build as JSON. Only 
+	 * the beginning of each output file, up to the inferred ancestry section, 
+	 * is read.
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void doRuns(final StaplerRequest request, final StaplerResponse response) 
+			throws IOException, InterruptedException {
+		final FilePath directory = getResultsDirectory();
+		final JSONArray array = new JSONArray();
+		int index = 0;
+		for (StructureRun run : getAllRuns()) {
+			final JSONObject json = new JSONObject();
+			json.put("run", index++);
+			json.put("k", run.getK());
+			json.put("file", run.getFile());
+			if (run.getDataset() != null) {
+				json.put("dataset", run.getDataset());
+			}
+			if (run.getReplicate() > 0) {
+				json.put("replicate", run.getReplicate());
+			}
+			if (run.getPlacement() != null) {
+				json.put("placement", run.getPlacement());
+			}
+			json.put("trace", run.getTrace() != null);
+			final FilePath file = ResultFiles.find(directory, run.getFile());
+			if (file != null) {
+				final StructureResult metrics = ResultFiles.readMetrics(file);
+				putMetric(json, "numInds", metrics.getNumInds());
+				putMetric(json, "numLoci", metrics.getNumLoci());
+				putMetric(json, "estimatedLnProb", metrics.getEstimatedLnProb());
+				putMetric(json, "meanLnLikelihood", metrics.getMeanLnLikelihood());
+				putMetric(json, "varianceLnLikelihood", metrics.getVarianceLnLikelihood());
+				putMetric(json, "meanAlpha", metrics.getMeanAlpha());
+			}
+			array.add(json);
+		}
+		final JSONObject json = new JSONObject();
+		json.put("runs", array);
+		writeJson(response, json);
+	}
+	/**
+	 * Serves a page of the membership coefficients of a run as JSON, from 
+	 * the stored results of the run.
+	 * <p>
+	 * Parameters: <code>run</code> (index of the run), <code>offset</code>, 
+	 * <code>limit</code>, <code>columns</code> (comma separated, among 
+	 * <code>index</code>, <code>label</code>, <code>missing</code>, 
+	 * <code>population</code> and <code>q1</code> to <code>qK</code>) and 
+	 * <code>population</code> (comma separated populations).
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void doQ(final StaplerRequest request, final StaplerResponse response) 
+			throws IOException, InterruptedException {
+		final List<StructureRun> all = getAllRuns();
+		final int index = intParameter(request, "run", 0, 0, all.size() - 1);
+		final FilePath file = all.isEmpty() ? null : ResultFiles.find(getResultsDirectory(), all.get(index).getFile());
+		if (file == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		final QRowQuery query = new QRowQuery(
+				intParameter(request, "offset", 0, 0, Integer.MAX_VALUE), 
+				intParameter(request, "limit", DEFAULT_PAGE_SIZE, 1, MAX_PAGE_SIZE), 
+				listParameter(request, "columns"), 
+				listParameter(request, "population"));
+		final MappedResult result = ResultFiles.map(file, owner.getRootDir());
+		final JSONObject json;
+		try {
+			json = query.execute(result.getQ());
+		} finally {
+			result.close();
+		}
+		json.put("run", index);
+		json.put("k", all.get(index).getK());
+		writeJson(response, json);
+	}
+	/**
+	 * Serves a page of the estimated allele frequencies in each cluster of a 
+	 * run as JSON, with the expected heterozygosity of each cluster. Clusters 
+	 * are aligned like in the bar plots.
+	 * <p>
+	 * Parameters: <code>run</code> (index of the run), <code>offset</code> 
+	 * and <code>limit</code> (in loci).
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void doFrequencies(final StaplerRequest request, final StaplerResponse response) 
+			throws IOException, InterruptedException {
+		final List<StructureRun> all = getAllRuns();
+		final int index = intParameter(request, "run", 0, 0, all.size() - 1);
+		final FilePath directory = getResultsDirectory();
+		final FilePath file = all.isEmpty() ? null : ResultFiles.find(directory, all.get(index).getFile());
+		if (file == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		final int offset = intParameter(request, "offset", 0, 0, Integer.MAX_VALUE);
+		final int limit = intParameter(request, "limit", DEFAULT_PAGE_SIZE, 1, MAX_PAGE_SIZE);
+		final FilePath reference = findReference(all, index, directory);
+		final MappedResult result = ResultFiles.map(file, owner.getRootDir());
+		MappedResult referenceResult = null;
+		final JSONObject json;
+		try {
+			if (reference != null) {
+				referenceResult = ResultFiles.map(reference, owner.getRootDir());
+			}
+			json = getFrequencies(index, result, referenceResult, offset, limit);
+		} finally {
+			result.close();
+			if (referenceResult != null) {
+				referenceResult.close();
+			}
+		}
+		writeJson(response, json);
+	}
+	/**
+	 * Reads a page of the allele frequencies of a run.
+	 * @param index index of the run
+	 * @param result results of the run
+	 * @param referenceResult results of the run the clusters are aligned to, 
+	 * or <code>null</code>
+	 * @param offset index of the first locus
+	 * @param limit maximum number of loci
+	 * @return JSON object
+	 * @throws IOException if an error occurs mapping the results
+	 */
+	private static JSONObject getFrequencies(int index, MappedResult result, MappedResult referenceResult, 
+			int offset, int limit) throws IOException {
+		AlleleFrequencies frequencies = result.getFrequencies();
+		if (referenceResult != null) {
+			frequencies = frequencies.permute(ClusterAligner.align(referenceResult.getQ(), result.getQ()));
+		}
+		final JSONArray loci = new JSONArray();
+		for (int locus = offset; locus < frequencies.getNumLoci() && locus - offset < limit; locus++) {
+			final JSONArray alleles = new JSONArray();
+			for (int allele = 0; allele < frequencies.getNumAlleles(locus); allele++) {
+				final JSONArray values = new JSONArray();
+				for (int cluster = 0; cluster < frequencies.getK(); cluster++) {
+					values.add(Double.parseDouble(Float.toString(frequencies.get(locus, allele, cluster))));
+				}
+				final JSONObject json = new JSONObject();
+				json.put("allele", frequencies.getAllele(locus, allele));
+				json.put("frequencies", values);
+				alleles.add(json);
+			}
+			final JSONObject json = new JSONObject();
+			json.put("locus", locus);
+			json.put("alleles", alleles);
+			loci.add(json);
+		}
+		final JSONArray heterozygosity = new JSONArray();
+		for (double value : frequencies.getExpectedHeterozygosity()) {
+			heterozygosity.add(value);
+		}
+		final JSONObject json = new JSONObject();
+		json.put("run", index);
+		json.put("k", frequencies.getK());
+		json.put("numLoci", frequencies.getNumLoci());
+		json.put("offset", offset);
+		json.put("limit", limit);
+		json.put("more", offset + limit < frequencies.getNumLoci());
+		json.put("expectedHeterozygosity", heterozygosity);
+		json.put("loci", loci);
+		return json;
+	}
+	private static void putMetric(JSONObject json, String name, double value) {
+		// JSON has no NaN
+		if (!Double.isNaN(value) && !Double.isInfinite(value)) {
+			json.put(name, value);
+		}
+	}
+	private static void writeJson(StaplerResponse response, JSONObject json) throws IOException {
+		response.setContentType("application/json;charset=UTF-8");
+		final Writer writer = response.getWriter();
+		json.write(writer);
+		writer.flush();
+	}
+	private static Set<String> listParameter(StaplerRequest request, String name) {
+		final Set<String> values = new LinkedHashSet<String>();
+		final String parameter = request.getParameter(name);
+		if (parameter != null) {
+			for (String value : parameter.split(",")) {
+				if (value.trim().length() > 0) {
+					values.add(value.trim());
+				}
+			}
+		}
+		return values;
+	}
+	private static int intParameter(StaplerRequest request, String name, int defaultValue, int min, int max) {
+		int value = defaultValue;
+		final String parameter = request.getParameter(name);
+		if (parameter != null) {
+			try {
+				value = Integer.parseInt(parameter.trim());
+			} catch (NumberFormatException nfe) {
+				// use the default value
+			}
+		}
+		return Math.max(min, Math.min(max, value));
 	}
 	/**
 	 * Shows file content.
@@ -106,10 +652,15 @@ public class StructureBuildSummaryAction implements Action {
 		if(request.hasParameter("file")) {
 			String fileName = request.getParameter("file");
 			try {
-				FilePath workspace = owner.getWorkspace();
-				FilePath outputFile = new FilePath(workspace,fileName);
-				if(outputFile.exists()) {
-					fileContents = outputFile.readToString();
+				FilePath workspace = getResultsDirectory();
+				FilePath outputFile = ResultFiles.find(workspace, fileName);
+				if(outputFile != null) {
+					InputStream input = ResultFiles.open(outputFile);
+					try {
+						fileContents = IOUtils.toString(input, StructureBuilder.STRUCTURE_FILES_ENCODING);
+					} finally {
+						IOUtils.closeQuietly(input);
+					}
 				}
 			} catch(IOException ioe) {
 				fileContents = ioe.getMessage();
@@ -29,19 +29,45 @@ import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
 import hudson.model.BuildListener;
+import hudson.model.Computer;
 import hudson.model.AbstractBuild;
 import hudson.model.Hudson;
 import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.TaskListener;
 import hudson.tasks.Builder;
 import hudson.util.ArgumentListBuilder;
+import hudson.util.StreamTaskListener;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
+import org.biouno.structure.batch.AdaptiveKSearch;
+import org.biouno.structure.batch.Dataset;
+import org.biouno.structure.batch.DatasetDetector;
+import org.biouno.structure.batch.GridRunner;
+import org.biouno.structure.batch.PrefixedOutputStream;
+import org.biouno.structure.converter.InputConverter;
+import org.biouno.structure.engine.StructureEngineCallable;
 import org.biouno.structure.parser.MainParamsParser;
 import org.biouno.structure.parser.ParserException;
+import org.biouno.structure.placement.Placement;
+import org.biouno.structure.placement.PlacementAllocator;
+import org.biouno.structure.placement.PlacementMode;
+import org.biouno.structure.throttle.Permit;
+import org.biouno.structure.throttle.ProcessThrottle;
+import org.biouno.structure.trace.TraceRecorder;
+import org.biouno.structure.trace.TraceSeries;
+import org.biouno.structure.trace.TraceWriter;
 import org.biouno.structure.util.Messages;
 import org.kohsuke.stapler.DataBoundConstructor;
 
@@ -65,6 +91,7 @@ public class StructureBuilder extends Builder {
 	public static final String NUMINDS_OPTION = "-N";
 	public static final String INFILE_OPTION = "-i";
 	public static final String OUTFILE_OPTION = "-o";
+	public static final String SEED_OPTION = "-D";
 	/*
 	 * Structure constants used for the output file name.
 	 */
@@ -74,8 +101,18 @@ public class StructureBuilder extends Builder {
 	 * Constants used for creating structure files.
 	 */
 	public static final String MAINPARAMS_PARAM_SET_K_PREFIX = "mainparams.param_set.k";
+	public static final String MAINPARAMS_PARAM_SET_PREFIX = "mainparams.param_set";
 	public static final String STRUCTURE_EXTRAMPARAMS_FILENAME = "extraparams";
 	public static final String STRUCTURE_FILES_ENCODING = "UTF-8";
+	/**
+	 * Environment variable that overrides the scratch directory in a node.
+	 */
+	public static final String SCRATCH_ENV_VAR = "STRUCTURE_SCRATCH";
+	/**
+	 * Environment variable with the priority of the runs of a build in the 
+	 * queue of structure processes of a node.
+	 */
+	public static final String PRIORITY_ENV_VAR = "STRUCTURE_PRIORITY";
 	/**
 	 * Le builder extension.
 	 */
@@ -126,6 +163,37 @@ public class StructureBuilder extends Builder {
 	 * K.
 	 */
 	private final String kValue;
+	/**
+	 * CPU placement of the structure process, see {@link PlacementMode}.
+	 */
+	private final String placement;
+	/**
+	 * Input files of a batch, as a list of files or patterns relative to the 
+	 * workspace. When empty, the input file is used.
+	 */
+	private final String inFiles;
+	/**
+	 * Number of replicates of each (dataset, K) pair.
+	 */
+	private final Integer replicates;
+	/**
+	 * Maximum number of concurrent runs of a batch. Defaults to the number 
+	 * of processors of the node.
+	 */
+	private final Integer maxParallelRuns;
+	/**
+	 * VCF or PLINK file converted to the input file before running 
+	 * structure, or empty.
+	 */
+	private final String convertFrom;
+	/**
+	 * Whether the values of K are searched adaptively in batches.
+	 */
+	private final Boolean adaptiveK;
+	/**
+	 * Tolerance of the adaptive search, relative to Ln P(D).
+	 */
+	private final Double plateauTolerance;
 	/**
 	 * Constructor with args, called from Jelly populating the object properties
 	 * from the form.
@@ -139,12 +207,21 @@ public class StructureBuilder extends Builder {
 	 * @param mainParams
 	 * @param extraParams
 	 * @param kValue
+	 * @param placement
+	 * @param inFiles
+	 * @param replicates
+	 * @param maxParallelRuns
+	 * @param convertFrom
+	 * @param adaptiveK
+	 * @param plateauTolerance
 	 */
 	@DataBoundConstructor
 	public StructureBuilder(String structureInstallationName,
 			Integer numLoci, Integer numInds, Long burnIn, Long numReps,
 			String inFile, String outFile, String mainParams,
-			String extraParams, String kValue) {
+			String extraParams, String kValue, String placement, 
+			String inFiles, Integer replicates, Integer maxParallelRuns, 
+			String convertFrom, Boolean adaptiveK, Double plateauTolerance) {
 		super();
 		this.structureInstallationName = structureInstallationName;
 		this.numLoci = numLoci;
@@ -156,6 +233,13 @@ public class StructureBuilder extends Builder {
 		this.mainParams = mainParams;
 		this.extraParams = extraParams;
 		this.kValue = kValue;
+		this.placement = placement;
+		this.inFiles = inFiles;
+		this.replicates = replicates;
+		this.maxParallelRuns = maxParallelRuns;
+		this.convertFrom = convertFrom;
+		this.adaptiveK = adaptiveK;
+		this.plateauTolerance = plateauTolerance;
 		parser = new MainParamsParser(numLoci, numInds, burnIn, numReps, inFile, outFile);
 	}
 	/**
@@ -218,11 +302,57 @@ public class StructureBuilder extends Builder {
 	public String getKValue() {
 		return kValue;
 	}
+	/**
+	 * @return the placement
+	 */
+	public String getPlacement() {
+		return placement;
+	}
+	/**
+	 * @return the input files of a batch
+	 */
+	public String getInFiles() {
+		return inFiles;
+	}
+	/**
+	 * @return the number of replicates
+	 */
+	public Integer getReplicates() {
+		return replicates;
+	}
+	/**
+	 * @return the maximum number of concurrent runs
+	 */
+	public Integer getMaxParallelRuns() {
+		return maxParallelRuns;
+	}
+	/**
+	 * @return the VCF or PLINK file converted to the input file
+	 */
+	public String getConvertFrom() {
+		return convertFrom;
+	}
+	/**
+	 * @return whether the values of K are searched adaptively
+	 */
+	public Boolean getAdaptiveK() {
+		return adaptiveK;
+	}
+	/**
+	 * @return the tolerance of the adaptive search, relative to Ln P(D)
+	 */
+	public Double getPlateauTolerance() {
+		return plateauTolerance;
+	}
 	/**
 	 * Creates one mainparam file for each K, and creates jobs for running 
 	 * structure using each mainparam file. Finally, the output files are 
 	 * sent back to this builder's job workspace. Then an action is included in 
 	 * the build, to render summary about the plug-in execution.
+	 * <p>
+	 * When the builder is given a list of input files, several values of K 
+	 * or replicates, the runs of the (dataset, K, replicate) grid share a 
+	 * bounded pool of worker threads.
 	 * 
 	 * {@inheritDoc}
 	 */
@@ -234,82 +364,724 @@ public class StructureBuilder extends Builder {
 		envVars.overrideAll(build.getBuildVariables());
 		
 		// Get the structure installation used
-		final StructureInstallation structureInstallation = DESCRIPTOR.getInstallationByName(this.structureInstallationName);
-		if (structureInstallation == null) {
-			throw new AbortException(Messages.StructureBuilder_InvalidStructureInstallation());
+		final StructureInstallation structureInstallation = this.getStructureInstallation(build.getBuiltOn(), envVars, listener);
+		
+		final FilePath workspace = build.getWorkspace();
+		this.writeExtraParamsFile(workspace);
+		
+		// Convert VCF or PLINK files to the input file
+		final Dataset converted = this.convertInput(workspace, envVars, listener);
+		
+		if (this.isBatch(envVars)) {
+			return this.performBatch(build, workspace, launcher, envVars, structureInstallation, converted, listener);
 		}
 		
 		// Get K
-		int k;
-		try {
-			k = Integer.parseInt(envVars.expand(kValue));
-		} catch (NumberFormatException nfe) {
-			throw new AbortException("Couldn't expand K: " + nfe.getMessage());
-		}
+		final int k = this.expandK(envVars);
 		
 		// Inform the user about some important info
-		listener.getLogger().println("Using structure " + structureInstallation.getName() + " at " + structureInstallation.getPathToExecutable());
-		listener.getLogger().println("K="+k);
+		this.printInstallation(structureInstallation, k, listener);
 		
-		final FilePath workspace = build.getWorkspace();
-		
-		// Replace variables with the values provided by the user in the job configuration
-		String mainParamsFile = MAINPARAMS_PARAM_SET_K_PREFIX + k;
-		String extraParamsFile = STRUCTURE_EXTRAMPARAMS_FILENAME;
-		try {
-			final String mainParamContent = parser.parse(this.mainParams, k);
-			final FilePath mainparamsFilePath = new FilePath(workspace, mainParamsFile);
-			mainparamsFilePath.write(mainParamContent, STRUCTURE_FILES_ENCODING);
-			final FilePath extraparamsFilePath = new FilePath(workspace, extraParamsFile);
-			extraparamsFilePath.write(extraParams, STRUCTURE_FILES_ENCODING);
-		} catch(ParserException pe) {
-			pe.printStackTrace(listener.getLogger());
-			throw new AbortException(pe.getMessage());
+		final StructureJob job = new StructureJob(null, StringUtils.isNotBlank(inFile) ? envVars.expand(inFile) : null, 
+				converted != null ? Integer.valueOf(converted.getNumLoci()) : numLoci, 
+				converted != null ? Integer.valueOf(converted.getNumInds()) : numInds, 
+				k, 0, envVars.expand(outFile), MAINPARAMS_PARAM_SET_K_PREFIX + k, null);
+		final StructureRun run = this.runJob(workspace, build.getModuleRoot(), launcher, envVars, structureInstallation, job, 
+				1, new File(build.getRootDir(), TraceSeries.DIRECTORY), listener);
+		if (run == null) {
+			return Boolean.FALSE;
 		}
+		build.addAction(new StructureBuildSummaryAction(build, Collections.singletonList(run)));
+		listener.getLogger().println(Messages.StructureKBuilder_ExecuteStructureSuccess());
+		return Boolean.TRUE;
+	}
+	/**
+	 * Runs the (dataset, K, replicate) grid of a batch.
+	 * @param build build
+	 * @param workspace workspace
+	 * @param launcher launcher
+	 * @param envVars environment variables
+	 * @param structureInstallation structure installation
+	 * @param converted converted input file, or <code>null</code>
+	 * @param listener listener
+	 * @return <code>true</code> if every run succeeded
+	 * @throws IOException if an error occurs preparing the runs
+	 * @throws InterruptedException if interrupted
+	 */
+	private boolean performBatch(AbstractBuild<?, ?> build, final FilePath workspace, final Launcher launcher, 
+			final EnvVars envVars, final StructureInstallation structureInstallation, Dataset converted, 
+			final BuildListener listener) throws IOException, InterruptedException {
+		if (Boolean.TRUE.equals(adaptiveK)) {
+			return this.performAdaptiveSearch(build, workspace, launcher, envVars, structureInstallation, converted, listener);
+		}
+		final List<StructureJob> jobs = this.createJobs(workspace, envVars, converted, listener);
+		final int threads = this.getMaxParallelRuns(workspace);
+		this.printInstallation(structureInstallation, jobs.get(0).getK(), listener);
+		listener.getLogger().println(Messages.StructureBuilder_Batch(jobs.size(), threads));
 		
-		final String outputFile = envVars.expand(outFile);
-		FilePath outFileFilePath = new FilePath(workspace, outputFile+STRUCTURE_OUTPUT_FILE_SUFFIX);
-		if (!outFileFilePath.getParent().exists()) {
-			outFileFilePath.getParent().mkdirs();
+		final List<StructureRun> runs = new ArrayList<StructureRun>();
+		for (StructureRun run : this.runJobs(build, workspace, launcher, envVars, structureInstallation, jobs, threads, listener)) {
+			if (run != null) {
+				runs.add(run);
+			}
+		}
+		if (!runs.isEmpty()) {
+			build.addAction(new StructureBuildSummaryAction(build, runs));
+		}
+		if (runs.size() < jobs.size()) {
+			listener.getLogger().println(Messages.StructureBuilder_BatchFailures(jobs.size() - runs.size(), jobs.size()));
+			return Boolean.FALSE;
+		}
+		listener.getLogger().println(Messages.StructureKBuilder_ExecuteStructureSuccess());
+		return Boolean.TRUE;
+	}
+	/**
+	 * Searches the values of K adaptively, in rounds of runs, for each 
+	 * dataset. See {@link AdaptiveKSearch}. The replicates are the maximum 
+	 * number of replicates of each K.
+	 * @param build build
+	 * @param workspace workspace
+	 * @param launcher launcher
+	 * @param envVars environment variables
+	 * @param structureInstallation structure installation
+	 * @param converted converted input file, or <code>null</code>
+	 * @param listener listener
+	 * @return <code>true</code> if every run succeeded
+	 * @throws IOException if an error occurs preparing the runs
+	 * @throws InterruptedException if interrupted
+	 */
+	private boolean performAdaptiveSearch(AbstractBuild<?, ?> build, FilePath workspace, Launcher launcher, 
+			EnvVars envVars, StructureInstallation structureInstallation, Dataset converted, 
+			BuildListener listener) throws IOException, InterruptedException {
+		final List<Dataset> datasets = this.findDatasets(workspace, envVars, listener);
+		final List<Integer> candidates = this.expandKValues(envVars);
+		final int maxReplicates = replicates != null && replicates > 1 ? replicates : 1;
+		final int threads = this.getMaxParallelRuns(workspace);
+		this.printInstallation(structureInstallation, candidates.get(0), listener);
+		final List<AdaptiveKSearch> searches = new ArrayList<AdaptiveKSearch>();
+		for (int i = 0; i < datasets.size(); i++) {
+			searches.add(new AdaptiveKSearch(candidates, maxReplicates, 
+					plateauTolerance != null ? plateauTolerance : AdaptiveKSearch.DEFAULT_TOLERANCE));
 		}
 		
-		// Create structure command line
-		final ArgumentListBuilder args = this.createStructureArgs(structureInstallation, k, mainParamsFile, extraParamsFile, outputFile, workspace); 
+		final Random seeds = new Random();
+		final List<StructureRun> runs = new ArrayList<StructureRun>();
+		int total = 0;
+		int round = 0;
+		while (true) {
+			// runs of the next round of every dataset
+			final List<StructureJob> jobs = new ArrayList<StructureJob>();
+			final List<AdaptiveKSearch> jobSearches = new ArrayList<AdaptiveKSearch>();
+			for (int i = 0; i < datasets.size(); i++) {
+				final Dataset dataset = datasets.get(i);
+				final AdaptiveKSearch search = searches.get(i);
+				final List<String> decisions = new ArrayList<String>();
+				for (Map.Entry<Integer, Integer> entry : search.next(decisions).entrySet()) {
+					final int k = entry.getKey();
+					final int first = search.getScheduled(k) - entry.getValue() + 1;
+					for (int replicate = first; replicate <= search.getScheduled(k); replicate++) {
+						jobs.add(this.createJob(dataset, converted, envVars, k, replicate, 
+								Long.valueOf(1 + seeds.nextInt(Integer.MAX_VALUE - 1))));
+						jobSearches.add(search);
+					}
+				}
+				for (String decision : decisions) {
+					listener.getLogger().println(Messages.StructureBuilder_AdaptiveDecision(
+							dataset != null ? dataset.getName() + ": " + decision : decision));
+				}
+			}
+			if (jobs.isEmpty()) {
+				break;
+			}
+			round++;
+			total += jobs.size();
+			listener.getLogger().println(Messages.StructureBuilder_AdaptiveRound(round, jobs.size(), threads));
+			final List<StructureRun> results = this.runJobs(build, workspace, launcher, envVars, structureInstallation, 
+					jobs, threads, listener);
+			for (int j = 0; j < jobs.size(); j++) {
+				final StructureRun run = results.get(j);
+				final FilePath file = run != null ? ResultFiles.find(workspace, run.getFile()) : null;
+				jobSearches.get(j).add(jobs.get(j).getK(), 
+						file != null ? ResultFiles.readMetrics(file).getEstimatedLnProb() : Double.NaN);
+				if (run != null) {
+					runs.add(run);
+				}
+			}
+		}
+		for (int i = 0; i < datasets.size(); i++) {
+			for (String line : searches.get(i).describe()) {
+				listener.getLogger().println(Messages.StructureBuilder_AdaptiveDecision(
+						datasets.get(i) != null ? datasets.get(i).getName() + ": " + line : line));
+			}
+		}
 		
-		// Execute structure
-		// Env vars
-		final Map<String, String> env = build.getEnvironment(listener);
-		listener.getLogger().println(Messages.StructureKBuilder_ExecuteStructure(args.toStringWithQuote()));
-		final Integer exitCode = launcher.launch().cmds(args).envs(env)
-				.stdout(listener).pwd(build.getModuleRoot()).join();
-
-		if (exitCode != 0) {
-			listener.getLogger().println(Messages.StructureKBuilder_ExecuteStructureError(exitCode));
+		// the summary groups the runs by dataset, then K
+		final List<String> names = new ArrayList<String>();
+		for (Dataset dataset : datasets) {
+			names.add(dataset != null ? dataset.getName() : null);
+		}
+		Collections.sort(runs, new Comparator<StructureRun>() {
+			public int compare(StructureRun a, StructureRun b) {
+				final int byDataset = names.indexOf(a.getDataset()) - names.indexOf(b.getDataset());
+				if (byDataset != 0) {
+					return byDataset;
+				}
+				return a.getK() != b.getK() ? a.getK() - b.getK() : a.getReplicate() - b.getReplicate();
+			}
+		});
+		if (!runs.isEmpty()) {
+			build.addAction(new StructureBuildSummaryAction(build, runs));
+		}
+		if (runs.size() < total) {
+			listener.getLogger().println(Messages.StructureBuilder_BatchFailures(total - runs.size(), total));
 			return Boolean.FALSE;
+		}
+		listener.getLogger().println(Messages.StructureKBuilder_ExecuteStructureSuccess());
+		return Boolean.TRUE;
+	}
+	/**
+	 * @param workspace workspace
+	 * @return the maximum number of concurrent runs of a batch, by default 
+	 * the number of processors of the node
+	 * @throws IOException if the node cannot be reached
+	 * @throws InterruptedException if interrupted
+	 */
+	private int getMaxParallelRuns(FilePath workspace) throws IOException, InterruptedException {
+		return maxParallelRuns != null && maxParallelRuns > 0 ? maxParallelRuns 
+				: workspace.act(new GridRunner.ProcessorsCallable());
+	}
+	/**
+	 * Runs jobs on a pool of worker threads.
+	 * @param build build
+	 * @param workspace workspace
+	 * @param launcher launcher
+	 * @param envVars environment variables
+	 * @param structureInstallation structure installation
+	 * @param jobs jobs
+	 * @param threads number of worker threads
+	 * @param listener listener
+	 * @return the runs, in the order of the jobs, with <code>null</code> for 
+	 * the runs that failed
+	 * @throws InterruptedException if interrupted
+	 */
+	private List<StructureRun> runJobs(AbstractBuild<?, ?> build, final FilePath workspace, final Launcher launcher, 
+			final EnvVars envVars, final StructureInstallation structureInstallation, List<StructureJob> jobs, 
+			final int threads, final BuildListener listener) throws InterruptedException {
+		final FilePath moduleRoot = build.getModuleRoot();
+		final File traceDirectory = new File(build.getRootDir(), TraceSeries.DIRECTORY);
+		final List<GridRunner.Task<StructureRun>> tasks = new ArrayList<GridRunner.Task<StructureRun>>();
+		for (final StructureJob job : jobs) {
+			tasks.add(new GridRunner.Task<StructureRun>() {
+				public String getName() {
+					return job.getName();
+				}
+				public StructureRun call() throws Exception {
+					// lines of concurrent runs are prefixed with the run name
+					final TaskListener jobListener = new StreamTaskListener(
+							new PrefixedOutputStream(listener.getLogger(), "[" + job.getName() + "] "));
+					return runJob(workspace, moduleRoot, launcher, envVars, structureInstallation, job, threads, 
+							traceDirectory, jobListener);
+				}
+			});
+		}
+		return new GridRunner(threads, listener).run(tasks);
+	}
+	/**
+	 * Creates the jobs of the (dataset, K, replicate) grid. Datasets are 
+	 * found with the input files patterns, or the input file is used when 
+	 * there are no patterns. Replicates of structure get different seeds.
+	 * @param workspace workspace
+	 * @param envVars environment variables
+	 * @param converted converted input file, or <code>null</code>
+	 * @param listener listener
+	 * @return the jobs, ordered by dataset, K and replicate
+	 * @throws IOException if an error occurs detecting the datasets
+	 * @throws InterruptedException if interrupted
+	 */
+	List<StructureJob> createJobs(FilePath workspace, EnvVars envVars, Dataset converted, TaskListener listener) 
+			throws IOException, InterruptedException {
+		final List<Dataset> datasets = this.findDatasets(workspace, envVars, listener);
+		final int numReplicates = replicates != null && replicates > 1 ? replicates : 1;
+		final Random seeds = new Random();
+		final List<StructureJob> jobs = new ArrayList<StructureJob>();
+		for (Dataset dataset : datasets) {
+			for (int k : this.expandKValues(envVars)) {
+				for (int replicate = 1; replicate <= numReplicates; replicate++) {
+					jobs.add(this.createJob(dataset, converted, envVars, k, replicate, 
+							numReplicates > 1 ? Long.valueOf(1 + seeds.nextInt(Integer.MAX_VALUE - 1)) : null));
+				}
+			}
+		}
+		return jobs;
+	}
+	/**
+	 * Finds the datasets of a batch with the input files patterns.
+	 * @param workspace workspace
+	 * @param envVars environment variables
+	 * @param listener listener
+	 * @return the datasets, or a single <code>null</code> dataset for the 
+	 * input file of the builder when there are no patterns
+	 * @throws IOException if an error occurs reading the files
+	 * @throws InterruptedException if interrupted
+	 */
+	List<Dataset> findDatasets(FilePath workspace, EnvVars envVars, TaskListener listener) 
+			throws IOException, InterruptedException {
+		final List<Dataset> datasets = new ArrayList<Dataset>();
+		if (StringUtils.isNotBlank(inFiles)) {
+			datasets.addAll(DatasetDetector.find(workspace, envVars.expand(inFiles), this.getDefinitions()));
+			for (Dataset dataset : datasets) {
+				listener.getLogger().println(Messages.StructureBuilder_Dataset(dataset.getFile(), dataset.getNumInds(), dataset.getNumLoci()));
+			}
 		} else {
+			// the input file and dimensions of the builder
+			datasets.add(null);
+		}
+		return datasets;
+	}
+	/**
+	 * Creates the job of a (dataset, K, replicate) cell of a batch.
+	 * @param dataset dataset, or <code>null</code> for the input file of the 
+	 * builder
+	 * @param converted converted input file, or <code>null</code>
+	 * @param envVars environment variables
+	 * @param k K
+	 * @param replicate replicate number, starting at 1
+	 * @param seed seed, or <code>null</code>
+	 * @return StructureJob
+	 */
+	StructureJob createJob(Dataset dataset, Dataset converted, EnvVars envVars, int k, int replicate, Long seed) {
+		final String suffix = (dataset != null ? "_" + dataset.getName() : "") + "_k" + k + "_r" + replicate;
+		return new StructureJob(
+				dataset != null ? dataset.getName() : null, 
+				dataset != null ? dataset.getFile() : (StringUtils.isNotBlank(inFile) ? envVars.expand(inFile) : null), 
+				dataset != null ? Integer.valueOf(dataset.getNumLoci()) 
+						: (converted != null ? Integer.valueOf(converted.getNumLoci()) : numLoci), 
+				dataset != null ? Integer.valueOf(dataset.getNumInds()) 
+						: (converted != null ? Integer.valueOf(converted.getNumInds()) : numInds), 
+				k, replicate, envVars.expand(outFile) + suffix, MAINPARAMS_PARAM_SET_PREFIX + suffix, seed);
+	}
+	/**
+	 * Converts the VCF or PLINK file, if any, to the input file, in the node 
+	 * of the workspace. The conversion is skipped when the source has not 
+	 * changed since the last conversion.
+	 * @param workspace workspace
+	 * @param envVars environment variables
+	 * @param listener listener
+	 * @return the converted input file with its dimensions, or 
+	 * <code>null</code> if there is nothing to convert
+	 * @throws IOException if the conversion fails
+	 * @throws InterruptedException if interrupted
+	 */
+	Dataset convertInput(FilePath workspace, EnvVars envVars, TaskListener listener) throws IOException, InterruptedException {
+		if (StringUtils.isBlank(convertFrom)) {
+			return null;
+		}
+		if (StringUtils.isBlank(inFile)) {
+			throw new AbortException("The input data file (INFILE) is required for converting " + convertFrom);
+		}
+		final Dataset converted = workspace.act(new InputConverter.ConvertCallable(envVars.expand(convertFrom), 
+				envVars.expand(inFile), this.getDefinitions(), listener));
+		listener.getLogger().println(Messages.StructureBuilder_Dataset(converted.getFile(), converted.getNumInds(), converted.getNumLoci()));
+		return converted;
+	}
+	/**
+	 * @return the mainparams and extraparams entries, the latter overriding 
+	 * the former
+	 */
+	private Map<String, String> getDefinitions() {
+		final Map<String, String> definitions = new LinkedHashMap<String, String>(parser.parseDefinitions(mainParams));
+		definitions.putAll(parser.parseDefinitions(extraParams));
+		return definitions;
+	}
+	/**
+	 * Runs structure once, in the scratch directory of the node when there is 
+	 * one, keeping the output file and the mainparams file in the workspace.
+	 * @param workspace workspace
+	 * @param moduleRoot working directory of structure when there is no 
+	 * scratch directory
+	 * @param launcher launcher
+	 * @param envVars environment variables
+	 * @param structureInstallation structure installation
+	 * @param job job
+	 * @param parallelRuns number of runs sharing the node with this one, 
+	 * which share its processors when the built-in engine is used
+	 * @param traceDirectory directory where the Ln Like trace of the run is 
+	 * recorded, or <code>null</code>
+	 * @param listener listener
+	 * @return the run, or <code>null</code> if structure failed
+	 * @throws IOException if an error occurs preparing or running structure
+	 * @throws InterruptedException if interrupted
+	 */
+	StructureRun runJob(FilePath workspace, FilePath moduleRoot, Launcher launcher, EnvVars envVars, 
+			StructureInstallation structureInstallation, StructureJob job, int parallelRuns, File traceDirectory, 
+			TaskListener listener) 
+			throws IOException, InterruptedException {
+		final int k = job.getK();
+		// Each run may use its own directory in the local scratch of the node
+		final FilePath runDirectory = this.createRunDirectory(workspace, envVars, k, listener);
+		try {
+			// Replace variables with the values provided by the user in the job configuration
+			final String mainParamsFile = job.getMainParamsFile();
+			final String extraParamsFile = STRUCTURE_EXTRAMPARAMS_FILENAME;
+			final String mainParamContent = this.writeMainParamsFile(runDirectory != null ? runDirectory : workspace, job, listener);
+			if (runDirectory != null) {
+				this.writeExtraParamsFile(runDirectory);
+			}
+			
+			final String outputFile = job.getOutFile();
+			FilePath outFileFilePath = new FilePath(workspace, outputFile+STRUCTURE_OUTPUT_FILE_SUFFIX);
+			if (!outFileFilePath.getParent().exists()) {
+				outFileFilePath.getParent().mkdirs();
+			}
+			// Structure writes its output in the run directory, when there is one
+			final String runOutputFile = runDirectory != null ? 
+					runDirectory.child(new FilePath(workspace, outputFile).getName()).getRemote() : outputFile;
+			
+			// Record the Ln Like trace of the run while copying its output to the log
+			final File traceFile = this.createTraceFile(traceDirectory, job.getName());
+			final TraceRecorder trace = traceFile != null ? new TraceRecorder(listener.getLogger(), new TraceWriter(traceFile, false)) : null;
+			final TaskListener runListener = trace != null ? new StreamTaskListener(trace) : listener;
+			Integer exitCode = null;
+			Placement runPlacement = null;
+			Permit permit = null;
+			try {
+				// Wait for the limits of structure processes in the node
+				permit = this.acquirePermit(workspace, envVars, job, listener);
+				if (structureInstallation.isBuiltInEngine()) {
+					// Execute the built-in engine in the node of the workspace
+					exitCode = workspace.act(this.createEngineCallable(structureInstallation, job, parallelRuns, mainParamContent, 
+							runOutputFile, runListener));
+				} else {
+					// Create structure command line
+					ArgumentListBuilder args = this.createStructureArgs(structureInstallation, job, mainParamsFile, extraParamsFile, runOutputFile, workspace); 
+				
+					// Reserve a core of the node, if the process is placed
+					final PlacementMode placementMode = PlacementMode.fromValue(this.placement);
+					if (placementMode != PlacementMode.NONE) {
+						runPlacement = PlacementAllocator.get().acquire(workspace, placementMode, listener);
+					}
+					try {
+						if (runPlacement != null) {
+							listener.getLogger().println(Messages.StructureBuilder_Placement(runPlacement.getDescription()));
+							args = runPlacement.wrap(args);
+						}
+						// Execute structure
+						listener.getLogger().println(Messages.StructureKBuilder_ExecuteStructure(args.toStringWithQuote()));
+						exitCode = launcher.launch().cmds(args).envs(envVars)
+								.stdout(runListener).pwd(runDirectory != null ? runDirectory : moduleRoot).join();
+					} finally {
+						if (runPlacement != null) {
+							PlacementAllocator.get().release(runPlacement);
+						}
+					}
+				}
+			} finally {
+				if (permit != null) {
+					ProcessThrottle.get().release(permit);
+				}
+				if (trace != null) {
+					trace.close();
+					// Runs that failed or printed no progress have no trace
+					if (exitCode == null || exitCode != 0 || trace.getCount() == 0) {
+						traceFile.delete();
+					}
+				}
+			}
+	
+			if (exitCode != 0) {
+				listener.getLogger().println(Messages.StructureKBuilder_ExecuteStructureError(exitCode));
+				return null;
+			}
+			// Keep only the output and parameter files of the run directory
+			if (runDirectory != null) {
+				runDirectory.act(new ResultFiles.RetainCallable(DESCRIPTOR.isCompressResults())
+						.keep(outFileFilePath.getName(), outFileFilePath.getRemote())
+						.keep(mainParamsFile, workspace.child(mainParamsFile).getRemote()));
+			}
 			// If the command was executed with success, send the outfile back to the master
-			if(outFileFilePath.exists()) {
-				build.addAction(new StructureBuildSummaryAction(build, new String[]{outFileFilePath.getName()}, k));
-			} else {
+			if (ResultFiles.find(workspace, outputFile+STRUCTURE_OUTPUT_FILE_SUFFIX) == null) {
 				listener.fatalError("Couldn't find structure output file. Expected " + outFileFilePath.getRemote());
+				return null;
 			}
-			
-			listener.getLogger().println(Messages.StructureKBuilder_ExecuteStructureSuccess());
-			return Boolean.TRUE;
+			return new StructureRun(k, outputFile+STRUCTURE_OUTPUT_FILE_SUFFIX, 
+					runPlacement == null ? null : runPlacement.getDescription(), job.getDataset(), job.getReplicate(), 
+					traceFile != null && traceFile.exists() ? traceFile.getName() : null);
+		} finally {
+			if (runDirectory != null && runDirectory.exists()) {
+				runDirectory.deleteRecursive();
+			}
+		}
+	}
+	/**
+	 * Obtains a permit to run structure in the node of the workspace, within 
+	 * the limits of structure processes of the node, waiting if necessary. 
+	 * Runs are queued by the {@link #PRIORITY_ENV_VAR} priority, and shared 
+	 * fairly between builds.
+	 * @param workspace workspace, used for finding the node
+	 * @param envVars environment variables
+	 * @param job job
+	 * @param listener listener
+	 * @return the permit
+	 * @throws AbortException if the priority is not an integer
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	Permit acquirePermit(FilePath workspace, EnvVars envVars, StructureJob job, TaskListener listener) 
+			throws AbortException, InterruptedException {
+		final Computer computer = workspace.toComputer();
+		return ProcessThrottle.get().acquire(computer != null ? computer.getName() : "", envVars.get("BUILD_TAG", ""), 
+				this.getPriority(envVars), ProcessThrottle.estimateMemory(job.getNumInds(), job.getNumLoci(), job.getK()), 
+				listener);
+	}
+	/**
+	 * Gets the priority of the runs in the queue of structure processes of a 
+	 * node, given by the {@link #PRIORITY_ENV_VAR} environment variable.
+	 * @param envVars environment variables
+	 * @return the priority, 0 by default
+	 * @throws AbortException if the priority is not an integer
+	 */
+	int getPriority(EnvVars envVars) throws AbortException {
+		final String priority = envVars.get(PRIORITY_ENV_VAR);
+		if (StringUtils.isBlank(priority)) {
+			return 0;
+		}
+		try {
+			return Integer.parseInt(priority.trim());
+		} catch (NumberFormatException nfe) {
+			throw new AbortException("Invalid " + PRIORITY_ENV_VAR + ", it must be an integer: " + priority);
+		}
+	}
+	/**
+	 * Creates the file of the Ln Like trace of a run, named after the run.
+	 * @param traceDirectory directory of the traces, or <code>null</code>
+	 * @param name name of the run
+	 * @return the trace file, or <code>null</code> if traces are not recorded
+	 * @throws IOException if the file cannot be created
+	 */
+	File createTraceFile(File traceDirectory, String name) throws IOException {
+		if (traceDirectory == null) {
+			return null;
+		}
+		if (!traceDirectory.isDirectory() && !traceDirectory.mkdirs()) {
+			throw new IOException("Could not create " + traceDirectory);
+		}
+		return File.createTempFile(name.replaceAll("[^A-Za-z0-9._-]", "_") + "-", TraceSeries.EXTENSION, traceDirectory);
+	}
+	/**
+	 * Creates a directory for a run in the scratch directory of the node. The 
+	 * scratch directory is given by the {@link #SCRATCH_ENV_VAR} environment 
+	 * variable, or by the global configuration.
+	 * @param workspace workspace, used for finding the node
+	 * @param envVars environment variables
+	 * @param k K
+	 * @param listener listener
+	 * @return the run directory, or <code>null</code> if runs use the workspace
+	 * @throws IOException if an error occurs creating the directory
+	 * @throws InterruptedException if interrupted
+	 */
+	FilePath createRunDirectory(FilePath workspace, EnvVars envVars, int k, TaskListener listener) throws IOException, InterruptedException {
+		String scratch = envVars.get(SCRATCH_ENV_VAR);
+		if (StringUtils.isBlank(scratch)) {
+			scratch = DESCRIPTOR.getScratchDirectory();
+		}
+		if (StringUtils.isBlank(scratch)) {
+			return null;
+		}
+		final FilePath scratchDirectory = new FilePath(workspace.getChannel(), envVars.expand(scratch));
+		scratchDirectory.mkdirs();
+		final FilePath runDirectory = scratchDirectory.createTempDir("structure-k" + k + "-", "");
+		listener.getLogger().println(Messages.StructureBuilder_ScratchDirectory(runDirectory.getRemote()));
+		return runDirectory;
+	}
+	/**
+	 * Gets the structure installation used by this builder, installing it in 
+	 * the node if necessary.
+	 * @param node node where structure runs
+	 * @param envVars environment variables
+	 * @param listener listener
+	 * @return StructureInstallation
+	 * @throws AbortException if the installation does not exist
+	 * @throws IOException if an error occurs installing structure
+	 * @throws InterruptedException if interrupted
+	 */
+	StructureInstallation getStructureInstallation(Node node, EnvVars envVars, TaskListener listener) 
+			throws AbortException, IOException, InterruptedException {
+		StructureInstallation structureInstallation = DESCRIPTOR.getInstallationByName(this.structureInstallationName);
+		if (structureInstallation == null) {
+			throw new AbortException(Messages.StructureBuilder_InvalidStructureInstallation());
+		}
+		if (!structureInstallation.isBuiltInEngine() && node != null) {
+			structureInstallation = structureInstallation.forNode(node, listener);
+		}
+		return structureInstallation.forEnvironment(envVars);
+	}
+	/**
+	 * Expands the value of K.
+	 * @param envVars environment variables
+	 * @return K
+	 * @throws AbortException if K is not an integer
+	 */
+	int expandK(EnvVars envVars) throws AbortException {
+		try {
+			return Integer.parseInt(envVars.expand(kValue));
+		} catch (NumberFormatException nfe) {
+			throw new AbortException("Couldn't expand K: " + nfe.getMessage());
+		}
+	}
+	/**
+	 * Expands the values of K, given as a list of values and ranges, like 
+	 * <code>2,3,5-8</code>.
+	 * @param envVars environment variables
+	 * @return the values of K, in the order given
+	 * @throws AbortException if a value is not an integer or a range
+	 */
+	List<Integer> expandKValues(EnvVars envVars) throws AbortException {
+		final List<Integer> values = new ArrayList<Integer>();
+		for (String value : StringUtils.split(envVars.expand(kValue), ", ")) {
+			try {
+				final int range = value.indexOf('-', 1);
+				if (range > 0) {
+					final int first = Integer.parseInt(value.substring(0, range));
+					final int last = Integer.parseInt(value.substring(range + 1));
+					for (int k = first; k <= last; k++) {
+						values.add(k);
+					}
+				} else {
+					values.add(Integer.parseInt(value));
+				}
+			} catch (NumberFormatException nfe) {
+				throw new AbortException("Couldn't expand K: " + nfe.getMessage());
+			}
+		}
+		if (values.isEmpty()) {
+			throw new AbortException("Couldn't expand K: " + kValue);
+		}
+		return values;
+	}
+	/**
+	 * Tells whether the builder runs a batch: several input files, values of 
+	 * K or replicates, or an adaptive search of K.
+	 * @param envVars environment variables
+	 * @return <code>true</code> if the builder runs a batch
+	 * @throws AbortException if K cannot be expanded
+	 */
+	boolean isBatch(EnvVars envVars) throws AbortException {
+		return StringUtils.isNotBlank(inFiles) || (replicates != null && replicates > 1) 
+				|| this.expandKValues(envVars).size() > 1 || Boolean.TRUE.equals(adaptiveK);
+	}
+	/**
+	 * Prints the installation and K used.
+	 * @param structureInstallation structure installation
+	 * @param k K
+	 * @param listener listener
+	 */
+	void printInstallation(StructureInstallation structureInstallation, int k, TaskListener listener) {
+		if (structureInstallation.isBuiltInEngine()) {
+			listener.getLogger().println(Messages.StructureBuilder_UsingBuiltInEngine(structureInstallation.getName()));
+		} else {
+			listener.getLogger().println("Using structure " + structureInstallation.getName() + " at " + structureInstallation.getExecutable());
+		}
+		listener.getLogger().println("K="+k);
+	}
+	/**
+	 * Writes the mainparams file for K, and the extraparams file.
+	 * @param directory directory where the files are written
+	 * @param k K
+	 * @param listener listener
+	 * @return the mainparams content
+	 * @throws IOException if an error occurs writing the files
+	 * @throws InterruptedException if interrupted
+	 */
+	String writeParamsFiles(FilePath directory, int k, TaskListener listener) throws IOException, InterruptedException {
+		final String mainParamContent = this.writeMainParamsFile(directory, 
+				new StructureJob(null, inFile, numLoci, numInds, k, 0, outFile, MAINPARAMS_PARAM_SET_K_PREFIX + k, null), listener);
+		this.writeExtraParamsFile(directory);
+		return mainParamContent;
+	}
+	/**
+	 * Writes the mainparams file of a job.
+	 * @param directory directory where the file is written
+	 * @param job job
+	 * @param listener listener
+	 * @return the mainparams content
+	 * @throws IOException if an error occurs writing the file
+	 * @throws InterruptedException if interrupted
+	 */
+	String writeMainParamsFile(FilePath directory, StructureJob job, TaskListener listener) throws IOException, InterruptedException {
+		try {
+			final String mainParamContent = this.createParser(job).parse(this.mainParams, job.getK());
+			final FilePath mainparamsFilePath = new FilePath(directory, job.getMainParamsFile());
+			mainparamsFilePath.write(mainParamContent, STRUCTURE_FILES_ENCODING);
+			return mainParamContent;
+		} catch(ParserException pe) {
+			pe.printStackTrace(listener.getLogger());
+			throw new AbortException(pe.getMessage());
 		}
 	}
+	/**
+	 * Writes the extraparams file.
+	 * @param directory directory where the file is written
+	 * @throws IOException if an error occurs writing the file
+	 * @throws InterruptedException if interrupted
+	 */
+	void writeExtraParamsFile(FilePath directory) throws IOException, InterruptedException {
+		final FilePath extraparamsFilePath = new FilePath(directory, STRUCTURE_EXTRAMPARAMS_FILENAME);
+		extraparamsFilePath.write(extraParams, STRUCTURE_FILES_ENCODING);
+	}
+	/**
+	 * Creates the mainparams parser of a job, which replaces the input file, 
+	 * output file and dimensions with the ones of the job.
+	 * @param job job
+	 * @return MainParamsParser
+	 */
+	MainParamsParser createParser(StructureJob job) {
+		return new MainParamsParser(job.getNumLoci(), job.getNumInds(), burnIn, numReps, job.getInFile(), job.getOutFile());
+	}
+	/**
+	 * Creates the callable that runs the built-in engine for a job. Unless 
+	 * the installation sets the number of threads, the processors of the 
+	 * node are shared by the parallel runs, so a batch does not start more 
+	 * threads than processors.
+	 * @param structureInstallation structure installation
+	 * @param job job
+	 * @param parallelRuns number of runs sharing the node with this one
+	 * @param mainParamContent mainparams content
+	 * @param outputFile output file
+	 * @param listener listener
+	 * @return StructureEngineCallable
+	 */
+	StructureEngineCallable createEngineCallable(StructureInstallation structureInstallation, StructureJob job, 
+			int parallelRuns, String mainParamContent, String outputFile, TaskListener listener) {
+		final Integer threads = structureInstallation.getEngineThreads();
+		return new StructureEngineCallable(this.createParser(job), mainParamContent, extraParams, job.getK(), 
+				job.getInFile(), outputFile, threads == null ? 0 : threads, parallelRuns, listener);
+	}
 	/**
 	 * Creates structure args.
 	 * @param structure 
 	 * @param k
 	 * @param extraParamsFile 
 	 * @param mainParamsFile 
+	 * @param outputFile 
+	 * @param workspace 
+	 * @return ArgumentListBuilder
+	 */
+	ArgumentListBuilder createStructureArgs(StructureInstallation structure, int k, String mainParamsFile, String extraParamsFile, String outputFile, FilePath workspace) {
+		final StructureJob job = new StructureJob(null, inFile, numLoci, numInds, k, 0, outputFile, mainParamsFile, null);
+		return this.createStructureArgs(structure, job, mainParamsFile, extraParamsFile, outputFile, workspace);
+	}
+	/**
+	 * Creates structure args for a job.
+	 * @param structure 
+	 * @param job
+	 * @param extraParamsFile 
+	 * @param mainParamsFile 
+	 * @param outputFile 
 	 * @param workspace 
 	 * @return ArgumentListBuilder
 	 */
-	private ArgumentListBuilder createStructureArgs(StructureInstallation structure, int k, String mainParamsFile, String extraParamsFile, String outputFile, FilePath workspace) {
+	ArgumentListBuilder createStructureArgs(StructureInstallation structure, StructureJob job, String mainParamsFile, String extraParamsFile, String outputFile, FilePath workspace) {
 		ArgumentListBuilder args = new ArgumentListBuilder();
-		args.add(structure.getPathToExecutable());
+		args.add(structure.getExecutable());
 		// main params
 		args.add(MAINPARAMS_OPTION);
 		args.add(mainParamsFile);
@@ -318,27 +1090,32 @@ public class StructureBuilder extends Builder {
 		args.add(extraParamsFile);
 		// max pops (K)
 		args.add(MAXPOPS_OPTION);
-		args.add(k);
+		args.add(job.getK());
 		// number of loci
-		if (numLoci != null && numLoci > 0) {
+		if (job.getNumLoci() != null && job.getNumLoci() > 0) {
 			args.add(NUMLOCI_OPTION);
-			args.add(numLoci);
+			args.add(job.getNumLoci());
 		}
 		// number of individuals
-		if (numInds != null && numInds > 0) {
+		if (job.getNumInds() != null && job.getNumInds() > 0) {
 			args.add(NUMINDS_OPTION);
-			args.add(numInds);
+			args.add(job.getNumInds());
 		}
 		// input file
-		if (StringUtils.isNotBlank(inFile)) {
+		if (StringUtils.isNotBlank(job.getInFile())) {
 			args.add(INFILE_OPTION);
-			args.add(new FilePath(workspace, inFile).getRemote());
+			args.add(new FilePath(workspace, job.getInFile()).getRemote());
 		}
 		// output file
 		if (StringUtils.isNotBlank(outputFile)) {
 			args.add(OUTFILE_OPTION);
 			args.add(new FilePath(workspace, outputFile).getRemote());
 		}
+		// random seed, so that replicates started together differ
+		if (job.getSeed() != null) {
+			args.add(SEED_OPTION);
+			args.add(job.getSeed());
+		}
 		return args;
 	}
 	/**
@@ -24,9 +24,17 @@
 package org.biouno.structure;
 
 import hudson.CopyOnWrite;
+import hudson.Util;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
 import hudson.model.Descriptor;
 import hudson.tasks.Builder;
+import hudson.tools.ToolProperty;
 import hudson.util.FormValidation;
+
+import java.util.Collections;
+
+import jenkins.model.Jenkins;
 import net.sf.json.JSONObject;
 
 import org.apache.commons.lang.StringUtils;
@@ -50,11 +58,32 @@ public class StructureBuilderDescriptor extends Descriptor<Builder> {
 	 */
 	private static final String DISPLAY_NAME = Messages.StructureDescriptor_DisplayName();
 	/**
-	 * The list of available installations. They are copied when the form is 
-	 * submitted.
+	 * The list of installations saved before they became tool installations. 
+	 * They are moved to the {@link StructureInstallation.DescriptorImpl}.
 	 */
 	@CopyOnWrite
+	@Deprecated
 	private volatile StructureInstallation[] installations = new StructureInstallation[0];
+	/**
+	 * Directory in the nodes where each run gets its own working directory. 
+	 * May reference environment variables. Runs use the workspace when blank.
+	 */
+	private String scratchDirectory;
+	/**
+	 * Whether the files kept from a scratch directory are compressed.
+	 */
+	private boolean compressResults;
+	/**
+	 * Maximum number of concurrent structure processes in each node, 0 for 
+	 * no limit. Nodes may override it with a 
+	 * {@link org.biouno.structure.throttle.StructureNodeProperty}.
+	 */
+	private int maxProcessesPerNode;
+	/**
+	 * Maximum estimated memory of the concurrent structure processes in each 
+	 * node, in MB, 0 for no limit.
+	 */
+	private int maxMemoryPerNode;
 	/**
 	 * No args constructor to ensure the descriptor pattern.
 	 */
@@ -74,7 +103,43 @@ public class StructureBuilderDescriptor extends Descriptor<Builder> {
 	 * @return StructureInstallation[]
 	 */
 	public StructureInstallation[] getInstallations() {
-		return this.installations;
+		return getToolDescriptor().getInstallations();
+	}
+	/**
+	 * Moves the installations saved by older versions in this descriptor to 
+	 * the tool installations, once the descriptors have loaded their 
+	 * configuration.
+	 */
+	@Initializer(after = InitMilestone.EXTENSIONS_AUGMENTED)
+	public static void migrateInstallations() {
+		StructureBuilder.DESCRIPTOR.migrate();
+	}
+	/**
+	 * Moves the legacy installations, unless tool installations have been 
+	 * configured already.
+	 */
+	synchronized void migrate() {
+		if (this.installations == null || this.installations.length == 0) {
+			return;
+		}
+		final StructureInstallation.DescriptorImpl tools = getToolDescriptor();
+		if (tools.getInstallations().length == 0) {
+			final StructureInstallation[] migrated = new StructureInstallation[this.installations.length];
+			for (int i = 0; i < migrated.length; i++) {
+				final StructureInstallation old = this.installations[i];
+				migrated[i] = new StructureInstallation(old.getName(), null, old.getPathToExecutable(), 
+						old.getEngine(), old.getEngineThreads(), Collections.<ToolProperty<?>>emptyList());
+			}
+			tools.setInstallations(migrated);
+		}
+		this.installations = new StructureInstallation[0];
+		save();
+	}
+	/**
+	 * @return the descriptor of the structure installations
+	 */
+	private StructureInstallation.DescriptorImpl getToolDescriptor() {
+		return Jenkins.getInstance().getDescriptorByType(StructureInstallation.DescriptorImpl.class);
 	}
 	/**
 	 * Gets an installation by its name, or <code>null</code> if none found.
@@ -83,7 +148,7 @@ public class StructureBuilderDescriptor extends Descriptor<Builder> {
 	 */
 	public StructureInstallation getInstallationByName(String name) {
 		StructureInstallation found = null;
-		for(StructureInstallation installation : this.installations) {
+		for(StructureInstallation installation : this.getInstallations()) {
 			if (StringUtils.isNotEmpty(installation.getName())) {
 				if(name.equals(installation.getName())) {
 					found = installation;
@@ -93,13 +158,40 @@ public class StructureBuilderDescriptor extends Descriptor<Builder> {
 		}
 		return found;
 	}
+	/**
+	 * @return the scratchDirectory
+	 */
+	public String getScratchDirectory() {
+		return scratchDirectory;
+	}
+	/**
+	 * @return the compressResults
+	 */
+	public boolean isCompressResults() {
+		return compressResults;
+	}
+	/**
+	 * @return the maxProcessesPerNode
+	 */
+	public int getMaxProcessesPerNode() {
+		return maxProcessesPerNode;
+	}
+	/**
+	 * @return the maxMemoryPerNode, in MB
+	 */
+	public int getMaxMemoryPerNode() {
+		return maxMemoryPerNode;
+	}
 	/* (non-Javadoc)
 	 * @see hudson.model.Descriptor#configure(org.kohsuke.stapler.StaplerRequest, net.sf.json.JSONObject)
 	 */
 	@Override
 	public boolean configure(StaplerRequest req, JSONObject json)
 			throws hudson.model.Descriptor.FormException {
-		this.installations = req.bindParametersToList(StructureInstallation.class, "Structure.").toArray(new StructureInstallation[0]);
+		this.scratchDirectory = Util.fixEmptyAndTrim(json.optString("scratchDirectory"));
+		this.compressResults = json.optBoolean("compressResults");
+		this.maxProcessesPerNode = Math.max(0, json.optInt("maxProcessesPerNode"));
+		this.maxMemoryPerNode = Math.max(0, json.optInt("maxMemoryPerNode"));
 		save();
 		return Boolean.TRUE;
 	}
@@ -23,45 +23,75 @@
  */
 package org.biouno.structure;
 
-import java.io.Serializable;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.model.EnvironmentSpecific;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.NodeSpecific;
+import hudson.tools.ToolDescriptor;
+import hudson.tools.ToolInstallation;
+import hudson.tools.ToolProperty;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
 
 /**
  * Stores information about the installation of Structure. This information is 
- * used by the Builder to call Structure. This information is stored within a 
- * Descriptor that is, by its turn, used in the Builder.
+ * used by the Builder to call Structure. Installations are tool installations, 
+ * so they can be installed automatically in each node, for instance with the 
+ * {@link StructureArchiveInstaller}.
  * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
  * @since 0.1
  */
-public class StructureInstallation implements Serializable {
+public class StructureInstallation extends ToolInstallation implements NodeSpecific<StructureInstallation>, 
+		EnvironmentSpecific<StructureInstallation> {
 	/**
 	 * serialVersionUID.
 	 */
 	private static final long serialVersionUID = -7368296463056373402L;
-	/**
-	 * A name for a Structure installation. This name is referenced in the Job 
-	 * set up.
+	/*
+	 * Engines available for an installation.
 	 */
-	private final String name;
+	public static final String ENGINE_EXTERNAL = "external";
+	public static final String ENGINE_BUILT_IN = "builtin";
 	/**
-	 * Path to Structure executable.
+	 * Path to Structure executable, absolute or relative to the installation 
+	 * home.
 	 */
 	private final String pathToExecutable;
+	/**
+	 * Engine used for running structure, either the external executable or 
+	 * the built-in engine. <code>null</code> for installations created before 
+	 * the built-in engine existed, meaning the external executable.
+	 */
+	private final String engine;
+	/**
+	 * Number of threads used by the built-in engine. Every available 
+	 * processor is used when <code>null</code> or less than 1.
+	 */
+	private final Integer engineThreads;
 	/**
 	 * @param name the name for a Structure installation
-	 * @param pathToExecutable the path for a Structure executable 
+	 * @param home the installation directory, may be blank when the path to 
+	 * the executable is absolute
+	 * @param pathToExecutable the path for a Structure executable, absolute or 
+	 * relative to the installation directory
+	 * @param engine the engine, {@link #ENGINE_EXTERNAL} or {@link #ENGINE_BUILT_IN}
+	 * @param engineThreads number of threads used by the built-in engine
+	 * @param properties tool properties, like the installers
 	 */
 	@DataBoundConstructor
-	public StructureInstallation(String name, String pathToExecutable) {
-		this.name = name;
+	public StructureInstallation(String name, String home, String pathToExecutable, String engine, 
+			Integer engineThreads, List<? extends ToolProperty<?>> properties) {
+		super(name, home, properties);
 		this.pathToExecutable = pathToExecutable;
-	}
-	/**
-	 * @return the name
-	 */
-	public String getName() {
-		return name;
+		this.engine = engine;
+		this.engineThreads = engineThreads;
 	}
 	/**
 	 * @return the pathToExecutable
@@ -69,4 +99,79 @@ public class StructureInstallation implements Serializable {
 	public String getPathToExecutable() {
 		return pathToExecutable;
 	}
+	/**
+	 * Gets the executable, resolving the path to the executable against the 
+	 * installation directory when it is relative.
+	 * @return the executable
+	 */
+	public String getExecutable() {
+		if (StringUtils.isBlank(getHome()) || StringUtils.isBlank(pathToExecutable) 
+				|| new File(pathToExecutable).isAbsolute() || pathToExecutable.startsWith("/")) {
+			return pathToExecutable;
+		}
+		final String home = getHome();
+		final boolean separator = home.endsWith("/") || home.endsWith("\\");
+		return home + (separator ? "" : "/") + pathToExecutable;
+	}
+	/**
+	 * @return the engine
+	 */
+	public String getEngine() {
+		return engine == null ? ENGINE_EXTERNAL : engine;
+	}
+	/**
+	 * @return the engineThreads
+	 */
+	public Integer getEngineThreads() {
+		return engineThreads;
+	}
+	/**
+	 * @return <code>true</code> if this installation uses the built-in engine
+	 */
+	public boolean isBuiltInEngine() {
+		return ENGINE_BUILT_IN.equals(engine);
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see hudson.slaves.NodeSpecific#forNode(hudson.model.Node, hudson.model.TaskListener)
+	 */
+	public StructureInstallation forNode(Node node, TaskListener log) throws IOException, InterruptedException {
+		return new StructureInstallation(getName(), translateFor(node, log), pathToExecutable, engine, 
+				engineThreads, getProperties().toList());
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see hudson.model.EnvironmentSpecific#forEnvironment(hudson.EnvVars)
+	 */
+	public StructureInstallation forEnvironment(EnvVars environment) {
+		return new StructureInstallation(getName(), environment.expand(getHome()), environment.expand(pathToExecutable), 
+				engine, engineThreads, getProperties().toList());
+	}
+	/**
+	 * Descriptor of the structure installations.
+	 */
+	@Extension
+	public static final class DescriptorImpl extends ToolDescriptor<StructureInstallation> {
+		/**
+		 * No args constructor, loading the installations.
+		 */
+		public DescriptorImpl() {
+			load();
+		}
+		/* (non-Javadoc)
+		 * @see hudson.model.Descriptor#getDisplayName()
+		 */
+		@Override
+		public String getDisplayName() {
+			return "Structure";
+		}
+		/* (non-Javadoc)
+		 * @see hudson.tools.ToolDescriptor#setInstallations(T[])
+		 */
+		@Override
+		public void setInstallations(StructureInstallation... installations) {
+			super.setInstallations(installations);
+			save();
+		}
+	}
 }
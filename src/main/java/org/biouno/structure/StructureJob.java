@@ -0,0 +1,165 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure;
+
+/**
+ * One structure run of a builder: an input file, with its dimensions, a 
+ * value of K and a replicate. Single runs use the input file and dimensions 
+ * of the builder, while batch runs use one job per cell of the 
+ * (dataset, K, replicate) grid.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class StructureJob {
+	/**
+	 * Dataset name, or <code>null</code>.
+	 */
+	private final String dataset;
+	/**
+	 * Input file, relative to the workspace, or <code>null</code> to use the 
+	 * mainparams INFILE.
+	 */
+	private final String inFile;
+	/**
+	 * Number of loci (NUMLOCI), or <code>null</code>.
+	 */
+	private final Integer numLoci;
+	/**
+	 * Number of individuals (NUMINDS), or <code>null</code>.
+	 */
+	private final Integer numInds;
+	/**
+	 * K.
+	 */
+	private final int k;
+	/**
+	 * Replicate number, starting at 1, or 0 for single runs.
+	 */
+	private final int replicate;
+	/**
+	 * Output file, relative to the workspace, without the <code>_f</code> 
+	 * suffix.
+	 */
+	private final String outFile;
+	/**
+	 * Name of the mainparams file of the run.
+	 */
+	private final String mainParamsFile;
+	/**
+	 * Random seed given to structure, or <code>null</code> to use mainparams.
+	 */
+	private final Long seed;
+	/**
+	 * Constructor with args.
+	 * @param dataset dataset name, or <code>null</code>
+	 * @param inFile input file, or <code>null</code>
+	 * @param numLoci number of loci, or <code>null</code>
+	 * @param numInds number of individuals, or <code>null</code>
+	 * @param k K
+	 * @param replicate replicate number, or 0
+	 * @param outFile output file, without the <code>_f</code> suffix
+	 * @param mainParamsFile name of the mainparams file
+	 * @param seed random seed, or <code>null</code>
+	 */
+	public StructureJob(String dataset, String inFile, Integer numLoci, Integer numInds, int k, int replicate, 
+			String outFile, String mainParamsFile, Long seed) {
+		this.dataset = dataset;
+		this.inFile = inFile;
+		this.numLoci = numLoci;
+		this.numInds = numInds;
+		this.k = k;
+		this.replicate = replicate;
+		this.outFile = outFile;
+		this.mainParamsFile = mainParamsFile;
+		this.seed = seed;
+	}
+	/**
+	 * @return the dataset name, or <code>null</code>
+	 */
+	public String getDataset() {
+		return dataset;
+	}
+	/**
+	 * @return the input file, or <code>null</code>
+	 */
+	public String getInFile() {
+		return inFile;
+	}
+	/**
+	 * @return the number of loci, or <code>null</code>
+	 */
+	public Integer getNumLoci() {
+		return numLoci;
+	}
+	/**
+	 * @return the number of individuals, or <code>null</code>
+	 */
+	public Integer getNumInds() {
+		return numInds;
+	}
+	/**
+	 * @return the k
+	 */
+	public int getK() {
+		return k;
+	}
+	/**
+	 * @return the replicate number, or 0
+	 */
+	public int getReplicate() {
+		return replicate;
+	}
+	/**
+	 * @return the output file, without the <code>_f</code> suffix
+	 */
+	public String getOutFile() {
+		return outFile;
+	}
+	/**
+	 * @return the name of the mainparams file
+	 */
+	public String getMainParamsFile() {
+		return mainParamsFile;
+	}
+	/**
+	 * @return the random seed, or <code>null</code>
+	 */
+	public Long getSeed() {
+		return seed;
+	}
+	/**
+	 * @return a short description of the job, used in the log
+	 */
+	public String getName() {
+		final StringBuilder sb = new StringBuilder();
+		if (dataset != null) {
+			sb.append(dataset).append(' ');
+		}
+		sb.append("K=").append(k);
+		if (replicate > 0) {
+			sb.append(" rep ").append(replicate);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure;
+
+import java.io.Serializable;
+
+/**
+ * Metadata of one structure run, displayed in the build summary.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class StructureRun implements Serializable {
+	/**
+	 * serialVersionUID.
+	 */
+	private static final long serialVersionUID = -5301873126473000946L;
+	/**
+	 * The value of K.
+	 */
+	private final int k;
+	/**
+	 * Output file (<code>_f</code>), relative to the results directory.
+	 */
+	private final String file;
+	/**
+	 * Description of the CPU placement of the process, or <code>null</code> 
+	 * if it was not placed.
+	 */
+	private final String placement;
+	/**
+	 * Name of the input dataset, or <code>null</code> if the builder was 
+	 * not given a list of datasets.
+	 */
+	private final String dataset;
+	/**
+	 * Replicate number, starting at 1, or 0 for single runs.
+	 */
+	private final int replicate;
+	/**
+	 * Ln Like trace file, relative to the traces directory of the build, or 
+	 * <code>null</code> if the trace was not recorded.
+	 */
+	private final String trace;
+	/**
+	 * Constructor with args.
+	 * @param k the value of K
+	 * @param file the output file
+	 * @param placement the CPU placement, may be <code>null</code>
+	 */
+	public StructureRun(int k, String file, String placement) {
+		this(k, file, placement, null, 0);
+	}
+	/**
+	 * Constructor with args.
+	 * @param k the value of K
+	 * @param file the output file
+	 * @param placement the CPU placement, may be <code>null</code>
+	 * @param dataset the dataset name, may be <code>null</code>
+	 * @param replicate the replicate number, or 0 for single runs
+	 */
+	public StructureRun(int k, String file, String placement, String dataset, int replicate) {
+		this(k, file, placement, dataset, replicate, null);
+	}
+	/**
+	 * Constructor with args.
+	 * @param k the value of K
+	 * @param file the output file
+	 * @param placement the CPU placement, may be <code>null</code>
+	 * @param dataset the dataset name, may be <code>null</code>
+	 * @param replicate the replicate number, or 0 for single runs
+	 * @param trace the Ln Like trace file, may be <code>null</code>
+	 */
+	public StructureRun(int k, String file, String placement, String dataset, int replicate, String trace) {
+		this.k = k;
+		this.file = file;
+		this.placement = placement;
+		this.dataset = dataset;
+		this.replicate = replicate;
+		this.trace = trace;
+	}
+	/**
+	 * @return the k
+	 */
+	public int getK() {
+		return k;
+	}
+	/**
+	 * @return the file
+	 */
+	public String getFile() {
+		return file;
+	}
+	/**
+	 * @return the placement, or <code>null</code>
+	 */
+	public String getPlacement() {
+		return placement;
+	}
+	/**
+	 * @return the dataset name, or <code>null</code>
+	 */
+	public String getDataset() {
+		return dataset;
+	}
+	/**
+	 * @return the replicate number, or 0 for single runs
+	 */
+	public int getReplicate() {
+		return replicate;
+	}
+	/**
+	 * @return the Ln Like trace file, or <code>null</code>
+	 */
+	public String getTrace() {
+		return trace;
+	}
+}
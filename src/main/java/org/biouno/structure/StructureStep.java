@@ -0,0 +1,218 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure;
+
+import hudson.Extension;
+
+import org.biouno.structure.util.Messages;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * Pipeline step that runs structure. The structure process is launched as a 
+ * durable task, so the step does not hold an executor thread while 
+ * structure runs, and survives restarts of the master. See 
+ * {@link StructureStepExecution}.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class StructureStep extends AbstractStepImpl {
+	/**
+	 * Structure installation.
+	 */
+	private final String structureInstallationName;
+	/**
+	 * Number of loci in data file (NUMLOCI).
+	 */
+	private final Integer numLoci;
+	/**
+	 * Number of diploid individuals in data file (NUMINDS).
+	 */
+	private final Integer numInds;
+	/**
+	 * Length of burn-in period (BURNIN).
+	 */
+	private final Long burnIn;
+	/**
+	 * Number of MCMC steps after burn-in (NUMREPS).
+	 */
+	private final Long numReps;
+	/**
+	 * Name of input data file (INFILE).
+	 */
+	private final String inFile;
+	/**
+	 * Name of output data file (OUTFILE).
+	 */
+	private final String outFile;
+	/**
+	 * Main parameters (mainparams).
+	 */
+	private final String mainParams;
+	/**
+	 * Extra parameters (extraparams).
+	 */
+	private final String extraParams;
+	/**
+	 * K.
+	 */
+	private final String kValue;
+	/**
+	 * Constructor with args, used by Pipeline scripts and by the snippet 
+	 * generator.
+	 * @param structureInstallationName
+	 * @param numLoci
+	 * @param numInds
+	 * @param burnIn
+	 * @param numReps
+	 * @param inFile
+	 * @param outFile
+	 * @param mainParams
+	 * @param extraParams
+	 * @param kValue
+	 */
+	@DataBoundConstructor
+	public StructureStep(String structureInstallationName,
+			Integer numLoci, Integer numInds, Long burnIn, Long numReps,
+			String inFile, String outFile, String mainParams,
+			String extraParams, String kValue) {
+		this.structureInstallationName = structureInstallationName;
+		this.numLoci = numLoci;
+		this.numInds = numInds;
+		this.burnIn = burnIn;
+		this.numReps = numReps;
+		this.inFile = inFile;
+		this.outFile = outFile;
+		this.mainParams = mainParams;
+		this.extraParams = extraParams;
+		this.kValue = kValue;
+	}
+	/**
+	 * @return the structureInstallationName
+	 */
+	public String getStructureInstallationName() {
+		return structureInstallationName;
+	}
+	/**
+	 * @return the numLoci
+	 */
+	public Integer getNumLoci() {
+		return numLoci;
+	}
+	/**
+	 * @return the numInds
+	 */
+	public Integer getNumInds() {
+		return numInds;
+	}
+	/**
+	 * @return the burnIn
+	 */
+	public Long getBurnIn() {
+		return burnIn;
+	}
+	/**
+	 * @return the numReps
+	 */
+	public Long getNumReps() {
+		return numReps;
+	}
+	/**
+	 * @return the inFile
+	 */
+	public String getInFile() {
+		return inFile;
+	}
+	/**
+	 * @return the outFile
+	 */
+	public String getOutFile() {
+		return outFile;
+	}
+	/**
+	 * @return the mainParams
+	 */
+	public String getMainParams() {
+		return mainParams;
+	}
+	/**
+	 * @return the extraParams
+	 */
+	public String getExtraParams() {
+		return extraParams;
+	}
+	/**
+	 * @return the value of k
+	 */
+	public String getKValue() {
+		return kValue;
+	}
+	/**
+	 * Creates a builder with the same configuration, used for preparing the 
+	 * structure files and command line.
+	 * @return StructureBuilder
+	 */
+	StructureBuilder createBuilder() {
+		return new StructureBuilder(structureInstallationName, numLoci, numInds, burnIn, numReps, 
+				inFile, outFile, mainParams, extraParams, kValue, null, null, null, null, null, null, null);
+	}
+	/**
+	 * Descriptor of the step.
+	 */
+	@Extension
+	public static final class DescriptorImpl extends AbstractStepDescriptorImpl {
+		/**
+		 * Function name used in Pipeline scripts.
+		 */
+		private static final String FUNCTION_NAME = "structure";
+		/**
+		 * No args constructor.
+		 */
+		public DescriptorImpl() {
+			super(StructureStepExecution.class);
+		}
+		/* (non-Javadoc)
+		 * @see org.jenkinsci.plugins.workflow.steps.StepDescriptor#getFunctionName()
+		 */
+		@Override
+		public String getFunctionName() {
+			return FUNCTION_NAME;
+		}
+		/* (non-Javadoc)
+		 * @see hudson.model.Descriptor#getDisplayName()
+		 */
+		@Override
+		public String getDisplayName() {
+			return Messages.StructureStep_DisplayName();
+		}
+		/**
+		 * Gets the list of installations, shared with the builder.
+		 * @return StructureInstallation[]
+		 */
+		public StructureInstallation[] getInstallations() {
+			return StructureBuilder.DESCRIPTOR.getInstallations();
+		}
+	}
+}
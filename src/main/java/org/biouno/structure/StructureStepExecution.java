@@ -0,0 +1,481 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure;
+
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.ArgumentListBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+
+import org.biouno.structure.throttle.Permit;
+import org.biouno.structure.throttle.ProcessThrottle;
+import org.biouno.structure.trace.TraceRecorder;
+import org.biouno.structure.trace.TraceSeries;
+import org.biouno.structure.trace.TraceWriter;
+import org.biouno.structure.util.Messages;
+import org.jenkinsci.plugins.durabletask.BourneShellScript;
+import org.jenkinsci.plugins.durabletask.Controller;
+import org.jenkinsci.plugins.durabletask.DurableTask;
+import org.jenkinsci.plugins.durabletask.WindowsBatchScript;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
+import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
+
+import com.google.inject.Inject;
+
+/**
+ * Execution of the {@link StructureStep}. The structure command is launched 
+ * as a durable task in the workspace node, and the execution polls it from a 
+ * timer, so no thread is blocked while structure runs. Only the task 
+ * controller and the node and workspace path are kept, so after a restart of 
+ * the master the execution resumes polling the same process. When the 
+ * process finishes, the output file is copied to the build directory and a 
+ * {@link StructureBuildSummaryAction} is added to the run. The Ln Like trace 
+ * is recorded from the output of the process as it is copied to the log. 
+ * The process is launched once the limits of structure processes of the 
+ * node allow it, see {@link ProcessThrottle}. Permits live in the master, so 
+ * after a restart the permit of a running process is registered again, and 
+ * an execution that was still waiting is queued again. Every terminal path 
+ * goes through {@link #done(Throwable)}, and the step completes once, even 
+ * when it is stopped while the process exits.
+ * <p>
+ * The built-in engine runs inside the agent JVM and would hold a thread for 
+ * the whole run, so installations using it are rejected by the step.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class StructureStepExecution extends AbstractStepExecutionImpl {
+	/**
+	 * serialVersionUID.
+	 */
+	private static final long serialVersionUID = 6613209764862183092L;
+	/*
+	 * Le logger.
+	 */
+	private static final Logger LOGGER = Logger.getLogger("org.biouno.structure");
+	/**
+	 * Interval between checks of the structure process, in milliseconds.
+	 */
+	private static final long POLL_INTERVAL = 5000L;
+	@Inject(optional = true)
+	private transient StructureStep step;
+	@StepContextParameter
+	private transient FilePath workspace;
+	@StepContextParameter
+	private transient Launcher launcher;
+	@StepContextParameter
+	private transient TaskListener listener;
+	@StepContextParameter
+	private transient EnvVars envVars;
+	/**
+	 * Controller of the durable task, or <code>null</code> when not running.
+	 */
+	private Controller controller;
+	/**
+	 * Name of the node of the workspace, empty for the master.
+	 */
+	private String node;
+	/**
+	 * Remote path of the workspace.
+	 */
+	private String remote;
+	/**
+	 * K.
+	 */
+	private int k;
+	/**
+	 * Output file, relative to the workspace.
+	 */
+	private String outputFile;
+	/**
+	 * Ln Like trace file, in the traces directory of the build.
+	 */
+	private String traceFile;
+	/**
+	 * Recorder of the Ln Like trace, created again after a restart.
+	 */
+	private transient TraceRecorder trace;
+	/**
+	 * Command of structure, quoted for the shell of the node.
+	 */
+	private String command;
+	/**
+	 * Whether the node is Unix.
+	 */
+	private boolean unix;
+	/**
+	 * Owner of the permit, the build tag.
+	 */
+	private String owner;
+	/**
+	 * Priority of the permit.
+	 */
+	private int priority;
+	/**
+	 * Estimated memory of the process, in MB.
+	 */
+	private long memory;
+	/**
+	 * Permit of the structure process in the node, obtained again after a 
+	 * restart.
+	 */
+	private transient volatile Permit permit;
+	/**
+	 * Next check of the process.
+	 */
+	private transient volatile Future<?> task;
+	/**
+	 * Whether the step completed, or is completing.
+	 */
+	private final AtomicBoolean completed = new AtomicBoolean();
+	/* (non-Javadoc)
+	 * @see org.jenkinsci.plugins.workflow.steps.StepExecution#start()
+	 */
+	@Override
+	public boolean start() throws Exception {
+		listener.getLogger().println(Messages.StructureBuilder_InvokingStructure());
+		final Computer computer = workspace.toComputer();
+		if (computer == null) {
+			throw new AbortException(Messages.StructureStep_WorkspaceOffline(workspace.getRemote()));
+		}
+		node = computer.getName();
+		remote = workspace.getRemote();
+
+		final StructureBuilder builder = step.createBuilder();
+		final StructureInstallation structureInstallation = builder.getStructureInstallation(computer.getNode(), envVars, listener);
+		if (structureInstallation.isBuiltInEngine()) {
+			throw new AbortException(Messages.StructureStep_BuiltInEngineNotSupported(structureInstallation.getName()));
+		}
+		k = builder.expandK(envVars);
+		builder.printInstallation(structureInstallation, k, listener);
+
+		builder.writeParamsFiles(workspace, k, listener);
+		outputFile = envVars.expand(step.getOutFile());
+		final FilePath outFileFilePath = new FilePath(workspace, outputFile + StructureBuilder.STRUCTURE_OUTPUT_FILE_SUFFIX);
+		if (!outFileFilePath.getParent().exists()) {
+			outFileFilePath.getParent().mkdirs();
+		}
+
+		final ArgumentListBuilder args = builder.createStructureArgs(structureInstallation, k, 
+				StructureBuilder.MAINPARAMS_PARAM_SET_K_PREFIX + k, StructureBuilder.STRUCTURE_EXTRAMPARAMS_FILENAME, outputFile, workspace);
+		unix = launcher.isUnix();
+		command = unix ? args.toStringWithQuote() : args.toWindowsCommand().toStringWithQuote();
+		owner = envVars.get("BUILD_TAG", "");
+		priority = builder.getPriority(envVars);
+		memory = ProcessThrottle.estimateMemory(builder.getNumInds(), builder.getNumLoci(), k);
+		// deleted when the step fails
+		final File traces = new File(getContext().get(Run.class).getRootDir(), TraceSeries.DIRECTORY);
+		traceFile = builder.createTraceFile(traces, "K=" + k).getName();
+		// Launch structure once the node has room for another structure process
+		enqueue(listener);
+		return false;
+	}
+	/**
+	 * Queues the permit of the structure process, launching it once the node 
+	 * has room for another structure process.
+	 * @param taskListener listener
+	 */
+	private void enqueue(TaskListener taskListener) {
+		permit = ProcessThrottle.get().enqueue(node, owner, priority, memory, new Runnable() {
+			public void run() {
+				task = Timer.get().submit(new Runnable() {
+					public void run() {
+						try {
+							launch();
+						} catch (Exception e) {
+							done(e);
+						}
+					}
+				});
+			}
+		});
+		if (!permit.isGranted()) {
+			taskListener.getLogger().println(ProcessThrottle.get().describe(node) + ", waiting for a structure process to finish");
+		}
+	}
+	/**
+	 * Launches structure as a durable task.
+	 * @throws Exception if structure cannot be launched
+	 */
+	private void launch() throws Exception {
+		if (completed.get()) {
+			// stopped while queued
+			return;
+		}
+		final FilePath ws = getWorkspace();
+		if (ws == null) {
+			throw new AbortException(Messages.StructureStep_WorkspaceOffline(remote));
+		}
+		final TaskListener taskListener = getContext().get(TaskListener.class);
+		taskListener.getLogger().println(Messages.StructureKBuilder_ExecuteStructure(command));
+		final DurableTask durableTask = unix ? new BourneShellScript(command) : new WindowsBatchScript(command);
+		controller = durableTask.launch(getContext().get(EnvVars.class), ws, getContext().get(Launcher.class), taskListener);
+		if (completed.get()) {
+			// stopped while launching
+			controller.stop(ws);
+			controller = null;
+			return;
+		}
+		schedule();
+	}
+	/* (non-Javadoc)
+	 * @see org.jenkinsci.plugins.workflow.steps.StepExecution#stop(java.lang.Throwable)
+	 */
+	@Override
+	public void stop(Throwable cause) throws Exception {
+		final Future<?> current = task;
+		if (current != null) {
+			current.cancel(true);
+		}
+		final Controller running = controller;
+		controller = null;
+		if (running != null) {
+			final FilePath ws = getWorkspace();
+			if (ws != null) {
+				running.stop(ws);
+			}
+		}
+		done(cause);
+	}
+	/* (non-Javadoc)
+	 * @see org.jenkinsci.plugins.workflow.steps.StepExecution#onResume()
+	 */
+	@Override
+	public void onResume() {
+		super.onResume();
+		if (controller != null) {
+			// the process kept running, count it again in the node
+			permit = ProcessThrottle.get().register(node, owner, priority, memory);
+			schedule();
+			return;
+		}
+		// still waiting, or not launched yet
+		try {
+			enqueue(getContext().get(TaskListener.class));
+		} catch (Exception e) {
+			done(e);
+		}
+	}
+	/**
+	 * Schedules the next check of the process.
+	 */
+	private void schedule() {
+		task = Timer.get().schedule(new Runnable() {
+			public void run() {
+				check();
+			}
+		}, POLL_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+	/**
+	 * Copies new output of the process to the log, and finishes the 
+	 * execution when the process exits.
+	 */
+	private void check() {
+		final Controller running = controller;
+		if (running == null) {
+			// stopped
+			return;
+		}
+		final FilePath ws = getWorkspace();
+		if (ws == null) {
+			// the agent is offline, wait for it to reconnect
+			schedule();
+			return;
+		}
+		final Integer exitCode;
+		try {
+			final TaskListener taskListener = getContext().get(TaskListener.class);
+			running.writeLog(ws, getTrace(taskListener));
+			exitCode = running.exitStatus(ws);
+			if (exitCode == null) {
+				schedule();
+				return;
+			}
+			running.writeLog(ws, getTrace(taskListener));
+			running.cleanup(ws);
+		} catch (IOException ioe) {
+			// the channel may have been closed, try again later
+			LOGGER.log(Level.FINE, "Could not check the structure process in " + remote, ioe);
+			schedule();
+			return;
+		} catch (Exception e) {
+			done(e);
+			return;
+		}
+		if (!completed.compareAndSet(false, true)) {
+			// stopped meanwhile
+			return;
+		}
+		controller = null;
+		Throwable failure = null;
+		try {
+			finish(ws, exitCode);
+		} catch (Exception e) {
+			failure = e;
+		}
+		complete(failure);
+	}
+	/**
+	 * Collects the output file of the process.
+	 * @param ws workspace
+	 * @param exitCode exit code of structure
+	 * @throws Exception if structure failed or its output cannot be collected
+	 */
+	private void finish(FilePath ws, int exitCode) throws Exception {
+		final TaskListener taskListener = getContext().get(TaskListener.class);
+		if (exitCode != 0) {
+			taskListener.getLogger().println(Messages.StructureKBuilder_ExecuteStructureError(exitCode));
+			throw new AbortException(Messages.StructureKBuilder_ExecuteStructureError(exitCode));
+		}
+		final FilePath outFileFilePath = new FilePath(ws, outputFile + StructureBuilder.STRUCTURE_OUTPUT_FILE_SUFFIX);
+		if (!outFileFilePath.exists()) {
+			throw new AbortException("Couldn't find structure output file. Expected " + outFileFilePath.getRemote());
+		}
+		// Runs without a workspace keep the results in the build directory
+		final Run<?, ?> run = getContext().get(Run.class);
+		final FilePath results = new FilePath(new File(run.getRootDir(), StructureBuildSummaryAction.RESULTS_DIRECTORY));
+		results.mkdirs();
+		outFileFilePath.copyTo(new FilePath(results, outFileFilePath.getName()));
+		final File traces = new File(run.getRootDir(), TraceSeries.DIRECTORY);
+		run.addAction(new StructureBuildSummaryAction(run, Collections.singletonList(new StructureRun(k, 
+				outFileFilePath.getName(), null, null, 0, 
+				traceFile != null && new File(traces, traceFile).exists() ? traceFile : null))));
+		run.save();
+		taskListener.getLogger().println(Messages.StructureKBuilder_ExecuteStructureSuccess());
+	}
+	/**
+	 * Completes the step, unless it already completed.
+	 * @param failure cause of the failure, or <code>null</code> on success
+	 */
+	private void done(Throwable failure) {
+		if (completed.compareAndSet(false, true)) {
+			complete(failure);
+		}
+	}
+	/**
+	 * Completes the step: releases the permit of the process, closes the 
+	 * Ln Like trace, deleting it if the step failed, then reports the 
+	 * result. Only called by the caller that set {@link #completed}.
+	 * @param failure cause of the failure, or <code>null</code> on success
+	 */
+	private void complete(Throwable failure) {
+		releasePermit();
+		closeTrace();
+		if (failure != null) {
+			deleteTrace();
+			getContext().onFailure(failure);
+		} else {
+			getContext().onSuccess(null);
+		}
+	}
+	/**
+	 * Gets the recorder of the Ln Like trace, appending to the trace file 
+	 * when it is created again after a restart.
+	 * @param taskListener listener where the output is copied
+	 * @return the recorder, or the log of the listener for executions 
+	 * started without a trace
+	 * @throws IOException if the trace file cannot be opened
+	 * @throws InterruptedException if interrupted
+	 */
+	private OutputStream getTrace(TaskListener taskListener) throws IOException, InterruptedException {
+		if (traceFile == null) {
+			return taskListener.getLogger();
+		}
+		if (trace == null) {
+			final File traces = new File(getContext().get(Run.class).getRootDir(), TraceSeries.DIRECTORY);
+			trace = new TraceRecorder(taskListener.getLogger(), new TraceWriter(new File(traces, traceFile), true));
+		}
+		return trace;
+	}
+	/**
+	 * Releases the permit of the structure process, if any.
+	 */
+	private void releasePermit() {
+		final Permit current = permit;
+		permit = null;
+		if (current != null) {
+			ProcessThrottle.get().release(current);
+		}
+	}
+	/**
+	 * Closes the recorder of the Ln Like trace, if any.
+	 */
+	private void closeTrace() {
+		final TraceRecorder recorder = trace;
+		trace = null;
+		if (recorder != null) {
+			try {
+				recorder.close();
+			} catch (IOException ioe) {
+				LOGGER.log(Level.FINE, "Could not close the Ln Like trace " + traceFile, ioe);
+			}
+		}
+	}
+	/**
+	 * Deletes the Ln Like trace file, if any, like the builder does for runs 
+	 * that failed.
+	 */
+	private void deleteTrace() {
+		if (traceFile == null) {
+			return;
+		}
+		try {
+			final File traces = new File(getContext().get(Run.class).getRootDir(), TraceSeries.DIRECTORY);
+			if (!new File(traces, traceFile).delete()) {
+				LOGGER.log(Level.FINE, "Could not delete the Ln Like trace " + traceFile);
+			}
+		} catch (Exception e) {
+			LOGGER.log(Level.FINE, "Could not delete the Ln Like trace " + traceFile, e);
+		}
+	}
+	/**
+	 * Gets the workspace, or <code>null</code> if its node is offline.
+	 * @return FilePath or <code>null</code>
+	 */
+	private FilePath getWorkspace() {
+		final Jenkins jenkins = Jenkins.getInstance();
+		final Node workspaceNode = node.length() == 0 ? jenkins : jenkins.getNode(node);
+		if (workspaceNode == null) {
+			return null;
+		}
+		return workspaceNode.createPath(remote);
+	}
+}
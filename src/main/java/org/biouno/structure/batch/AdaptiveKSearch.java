@@ -0,0 +1,298 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.batch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Adaptive search of K for one dataset. Instead of running every candidate K 
+ * with every replicate, the search starts with every other candidate and a 
+ * few replicates, and then, round after round:
+ * <ul>
+ * <li>locates the plateau of Ln P(D), the smallest K that no larger K 
+ * improves by more than the tolerance or the noise of the replicates;</li>
+ * <li>adds the candidates around the plateau that were skipped, so that 
+ * Evanno's &Delta;K can be computed there;</li>
+ * <li>adds replicates to the K values around the plateau whose Ln P(D) 
+ * varies more than the tolerance, up to the maximum number of replicates.</li>
+ * </ul>
+ * The search stops when a round adds no runs. Candidates past the plateau 
+ * are never run. Every decision is described, so it can be logged.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class AdaptiveKSearch {
+	/**
+	 * Default tolerance, relative to Ln P(D).
+	 */
+	public static final double DEFAULT_TOLERANCE = 0.001;
+	/**
+	 * Number of replicates of the first round, and added per round.
+	 */
+	private static final int REPLICATES_PER_ROUND = 2;
+	/**
+	 * Candidate values of K, sorted.
+	 */
+	private final List<Integer> candidates;
+	/**
+	 * Maximum number of replicates of each K.
+	 */
+	private final int maxReplicates;
+	/**
+	 * Tolerance, relative to Ln P(D).
+	 */
+	private final double tolerance;
+	/**
+	 * Number of runs scheduled for each K.
+	 */
+	private final Map<Integer, Integer> scheduled = new TreeMap<Integer, Integer>();
+	/**
+	 * Ln P(D) of the finished runs of each K.
+	 */
+	private final SortedMap<Integer, List<Double>> results = new TreeMap<Integer, List<Double>>();
+	/**
+	 * Constructor with args.
+	 * @param candidates candidate values of K
+	 * @param maxReplicates maximum number of replicates of each K
+	 * @param tolerance tolerance, relative to Ln P(D), e.g. 0.001
+	 */
+	public AdaptiveKSearch(List<Integer> candidates, int maxReplicates, double tolerance) {
+		this.candidates = new ArrayList<Integer>(new TreeSet<Integer>(candidates));
+		this.maxReplicates = Math.max(1, maxReplicates);
+		this.tolerance = tolerance > 0 ? tolerance : DEFAULT_TOLERANCE;
+	}
+	/**
+	 * Records the Ln P(D) of a finished run.
+	 * @param k K of the run
+	 * @param estimatedLnProb estimated Ln P(D), or NaN if the run failed
+	 */
+	public void add(int k, double estimatedLnProb) {
+		if (Double.isNaN(estimatedLnProb)) {
+			return;
+		}
+		List<Double> values = results.get(k);
+		if (values == null) {
+			values = new ArrayList<Double>();
+			results.put(k, values);
+		}
+		values.add(estimatedLnProb);
+	}
+	/**
+	 * @param k K
+	 * @return the number of runs scheduled for K
+	 */
+	public int getScheduled(int k) {
+		final Integer count = scheduled.get(k);
+		return count == null ? 0 : count;
+	}
+	/**
+	 * Decides the runs of the next round.
+	 * @param decisions list where the decisions are described
+	 * @return the number of new replicates of each K, empty when the search 
+	 * is over
+	 */
+	public SortedMap<Integer, Integer> next(List<String> decisions) {
+		final SortedMap<Integer, Integer> runs = new TreeMap<Integer, Integer>();
+		final int replicates = Math.min(REPLICATES_PER_ROUND, maxReplicates);
+		if (scheduled.isEmpty()) {
+			for (int i = 0; i < candidates.size(); i++) {
+				// every other candidate, and the largest one
+				if (i % 2 == 0 || i == candidates.size() - 1) {
+					runs.put(candidates.get(i), replicates);
+				}
+			}
+			decisions.add(String.format(Locale.ENGLISH, "Starting with K=%s, %d replicate(s) each", 
+					join(runs.keySet()), replicates));
+			return schedule(runs);
+		}
+		if (results.isEmpty()) {
+			decisions.add("Stopping, no run succeeded");
+			return runs;
+		}
+		final int plateau = getPlateau();
+		final int index = candidates.indexOf(plateau);
+		final int previous = index > 0 ? candidates.get(index - 1) : plateau;
+		final int next = index < candidates.size() - 1 ? candidates.get(index + 1) : plateau;
+		// candidates around the plateau that were skipped
+		for (int k : candidates) {
+			if (k >= previous && k <= next && getScheduled(k) == 0) {
+				runs.put(k, replicates);
+				decisions.add(String.format(Locale.ENGLISH, "K=%d: added, next to the plateau of Ln P(D) at K=%d", 
+						k, plateau));
+			}
+		}
+		// replicates of the values around the plateau with a noisy Ln P(D)
+		for (int k : new int[] { previous, plateau, next }) {
+			final List<Double> values = results.get(k);
+			if (runs.containsKey(k) || values == null || getScheduled(k) >= maxReplicates) {
+				continue;
+			}
+			final double sd = getStandardDeviation(k);
+			if (values.size() < 2 || sd > tolerance * Math.abs(getMean(k))) {
+				final int more = Math.min(replicates, maxReplicates - getScheduled(k));
+				runs.put(k, more);
+				decisions.add(String.format(Locale.ENGLISH, 
+						"K=%d: %d replicate(s) added, standard deviation of Ln P(D) %.1f above the tolerance %.1f", 
+						k, more, sd, tolerance * Math.abs(getMean(k))));
+			}
+		}
+		if (runs.isEmpty()) {
+			final List<Integer> below = new ArrayList<Integer>();
+			final List<Integer> above = new ArrayList<Integer>();
+			for (int k : candidates) {
+				if (getScheduled(k) == 0) {
+					(k < plateau ? below : above).add(k);
+				}
+			}
+			if (!below.isEmpty()) {
+				decisions.add(String.format(Locale.ENGLISH, 
+						"K=%s: skipped, Ln P(D) still increases there, away from the plateau", join(below)));
+			}
+			if (!above.isEmpty()) {
+				decisions.add(String.format(Locale.ENGLISH, "K=%s: skipped, past the plateau of Ln P(D)", join(above)));
+			}
+			if (plateau == candidates.get(candidates.size() - 1)) {
+				decisions.add(String.format(Locale.ENGLISH, 
+						"Stopping, Ln P(D) still increases at the largest candidate K=%d", plateau));
+			} else {
+				decisions.add(String.format(Locale.ENGLISH, "Stopping, Ln P(D) reaches a plateau at K=%d", plateau));
+			}
+		}
+		return schedule(runs);
+	}
+	private SortedMap<Integer, Integer> schedule(SortedMap<Integer, Integer> runs) {
+		for (Map.Entry<Integer, Integer> entry : runs.entrySet()) {
+			scheduled.put(entry.getKey(), getScheduled(entry.getKey()) + entry.getValue());
+		}
+		return runs;
+	}
+	/**
+	 * Gets the plateau of Ln P(D): the smallest K with results such that no 
+	 * larger K has a mean Ln P(D) larger by more than the tolerance, or than 
+	 * twice the standard error of the difference.
+	 * @return the K of the plateau
+	 */
+	public int getPlateau() {
+		final List<Integer> evaluated = new ArrayList<Integer>(results.keySet());
+		for (int i = 0; i < evaluated.size(); i++) {
+			final int k = evaluated.get(i);
+			boolean plateau = true;
+			for (int j = i + 1; j < evaluated.size() && plateau; j++) {
+				final int other = evaluated.get(j);
+				final double threshold = Math.max(tolerance * Math.abs(getMean(k)), 
+						2 * Math.sqrt(getStandardError(k) * getStandardError(k) 
+								+ getStandardError(other) * getStandardError(other)));
+				plateau = getMean(other) - getMean(k) <= threshold;
+			}
+			if (plateau) {
+				return k;
+			}
+		}
+		return evaluated.get(evaluated.size() - 1);
+	}
+	/**
+	 * @param k K
+	 * @return the mean Ln P(D) of K, or NaN if it has no results
+	 */
+	public double getMean(int k) {
+		final List<Double> values = results.get(k);
+		if (values == null || values.isEmpty()) {
+			return Double.NaN;
+		}
+		double sum = 0;
+		for (double value : values) {
+			sum += value;
+		}
+		return sum / values.size();
+	}
+	/**
+	 * @param k K
+	 * @return the standard deviation of Ln P(D) of K, 0 with less than two 
+	 * results
+	 */
+	public double getStandardDeviation(int k) {
+		final List<Double> values = results.get(k);
+		if (values == null || values.size() < 2) {
+			return 0;
+		}
+		final double mean = getMean(k);
+		double sum = 0;
+		for (double value : values) {
+			sum += (value - mean) * (value - mean);
+		}
+		return Math.sqrt(sum / (values.size() - 1));
+	}
+	private double getStandardError(int k) {
+		final List<Double> values = results.get(k);
+		return values == null || values.isEmpty() ? 0 : getStandardDeviation(k) / Math.sqrt(values.size());
+	}
+	/**
+	 * Gets Evanno's &Delta;K, the second order rate of change of Ln P(D) 
+	 * divided by its standard deviation, using the neighbouring candidates.
+	 * @param k K
+	 * @return &Delta;K, or NaN if it cannot be computed
+	 */
+	public double getDeltaK(int k) {
+		final int index = candidates.indexOf(k);
+		if (index <= 0 || index >= candidates.size() - 1) {
+			return Double.NaN;
+		}
+		final double sd = getStandardDeviation(k);
+		if (sd <= 0) {
+			return Double.NaN;
+		}
+		return Math.abs(getMean(candidates.get(index + 1)) - 2 * getMean(k) + getMean(candidates.get(index - 1))) / sd;
+	}
+	/**
+	 * Describes the results of every K that was run.
+	 * @return one line per K
+	 */
+	public List<String> describe() {
+		final List<String> lines = new ArrayList<String>();
+		for (Map.Entry<Integer, List<Double>> entry : results.entrySet()) {
+			final int k = entry.getKey();
+			final double deltaK = getDeltaK(k);
+			lines.add(String.format(Locale.ENGLISH, "K=%d: %d run(s), mean Ln P(D) %.1f, standard deviation %.1f%s", 
+					k, entry.getValue().size(), getMean(k), getStandardDeviation(k), 
+					Double.isNaN(deltaK) ? "" : String.format(Locale.ENGLISH, ", delta K %.2f", deltaK)));
+		}
+		return lines;
+	}
+	private static String join(Iterable<Integer> values) {
+		final StringBuilder sb = new StringBuilder();
+		for (Integer value : values) {
+			if (sb.length() > 0) {
+				sb.append(',');
+			}
+			sb.append(value);
+		}
+		return sb.toString();
+	}
+}
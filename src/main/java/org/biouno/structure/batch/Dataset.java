@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.batch;
+
+import java.io.Serializable;
+
+/**
+ * An input dataset of a batch, with its dimensions detected from the file.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class Dataset implements Serializable {
+	/**
+	 * serialVersionUID.
+	 */
+	private static final long serialVersionUID = -2268720938468834419L;
+	/**
+	 * Input file, relative to the workspace.
+	 */
+	private final String file;
+	/**
+	 * Name, used in the output file names and in the summary.
+	 */
+	private final String name;
+	/**
+	 * Number of individuals (NUMINDS).
+	 */
+	private final int numInds;
+	/**
+	 * Number of loci (NUMLOCI).
+	 */
+	private final int numLoci;
+	/**
+	 * Constructor with args.
+	 * @param file input file, relative to the workspace
+	 * @param name name
+	 * @param numInds number of individuals
+	 * @param numLoci number of loci
+	 */
+	public Dataset(String file, String name, int numInds, int numLoci) {
+		this.file = file;
+		this.name = name;
+		this.numInds = numInds;
+		this.numLoci = numLoci;
+	}
+	/**
+	 * @return the input file, relative to the workspace
+	 */
+	public String getFile() {
+		return file;
+	}
+	/**
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+	/**
+	 * @return the number of individuals
+	 */
+	public int getNumInds() {
+		return numInds;
+	}
+	/**
+	 * @return the number of loci
+	 */
+	public int getNumLoci() {
+		return numLoci;
+	}
+}
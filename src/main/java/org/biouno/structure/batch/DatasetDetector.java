@@ -0,0 +1,182 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.batch;
+
+import hudson.FilePath;
+import hudson.FilePath.FileCallable;
+import hudson.remoting.VirtualChannel;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.biouno.structure.engine.EngineParameters;
+import org.biouno.structure.parser.ParserException;
+
+/**
+ * Finds the input datasets of a batch, and detects their dimensions 
+ * (NUMINDS and NUMLOCI) from the layout given in mainparams.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public final class DatasetDetector {
+	/**
+	 * Hidden constructor.
+	 */
+	private DatasetDetector() {
+	}
+	/**
+	 * Finds the datasets matching a list of files or Ant-style patterns.
+	 * @param workspace workspace
+	 * @param patterns files or patterns, separated by commas or new lines, 
+	 * relative to the workspace
+	 * @param definitions mainparams and extraparams entries, describing the 
+	 * layout of the files
+	 * @return the datasets, sorted by file name
+	 * @throws IOException if no file matches, or the dimensions of a file 
+	 * cannot be detected
+	 * @throws InterruptedException if interrupted
+	 */
+	public static List<Dataset> find(FilePath workspace, String patterns, Map<String, String> definitions) 
+			throws IOException, InterruptedException {
+		final String includes = StringUtils.join(StringUtils.split(patterns, ",\r\n"), ',');
+		final FilePath[] files = workspace.list(includes);
+		if (files.length == 0) {
+			throw new IOException("No input files match " + includes);
+		}
+		Arrays.sort(files, new Comparator<FilePath>() {
+			public int compare(FilePath a, FilePath b) {
+				return a.getRemote().compareTo(b.getRemote());
+			}
+		});
+		final List<Dataset> datasets = new ArrayList<Dataset>();
+		final String root = workspace.getRemote();
+		for (FilePath file : files) {
+			String relative = file.getRemote();
+			if (relative.startsWith(root)) {
+				relative = relative.substring(root.length() + 1);
+			}
+			final int[] dimensions = file.act(new DimensionsCallable(definitions));
+			datasets.add(new Dataset(relative, toName(relative), dimensions[0], dimensions[1]));
+		}
+		return datasets;
+	}
+	/**
+	 * Creates a dataset name usable in file names, from the path without 
+	 * extension.
+	 * @param path relative path
+	 * @return name
+	 */
+	static String toName(String path) {
+		String name = path.replace('\\', '/');
+		final int extension = name.lastIndexOf('.');
+		if (extension > name.lastIndexOf('/') + 1) {
+			name = name.substring(0, extension);
+		}
+		return name.replaceAll("[^A-Za-z0-9_\\-]", "_");
+	}
+	/**
+	 * Counts the rows and columns of an input file in its node, returning 
+	 * NUMINDS and NUMLOCI.
+	 */
+	static final class DimensionsCallable implements FileCallable<int[]> {
+		/**
+		 * serialVersionUID.
+		 */
+		private static final long serialVersionUID = 6051735346416474917L;
+		/**
+		 * mainparams and extraparams entries.
+		 */
+		private final HashMap<String, String> definitions;
+		DimensionsCallable(Map<String, String> definitions) {
+			this.definitions = new HashMap<String, String>(definitions);
+		}
+		/*
+		 * (non-Javadoc)
+		 * @see hudson.FilePath.FileCallable#invoke(java.io.File, hudson.remoting.VirtualChannel)
+		 */
+		public int[] invoke(File file, VirtualChannel channel) throws IOException, InterruptedException {
+			final EngineParameters params = new EngineParameters(definitions, null);
+			final int ploidy;
+			final boolean oneRowPerInd;
+			int precedingColumns = 0;
+			int headerRows = 0;
+			try {
+				ploidy = params.getInt(EngineParameters.PLOIDY, 2);
+				oneRowPerInd = params.getFlag(EngineParameters.ONEROWPERIND, false);
+				precedingColumns += params.getFlag(EngineParameters.LABEL, true) ? 1 : 0;
+				precedingColumns += params.getFlag(EngineParameters.POPDATA, true) ? 1 : 0;
+				precedingColumns += params.getFlag(EngineParameters.POPFLAG, false) ? 1 : 0;
+				precedingColumns += params.getFlag(EngineParameters.LOCDATA, false) ? 1 : 0;
+				precedingColumns += params.getFlag(EngineParameters.PHENOTYPE, false) ? 1 : 0;
+				precedingColumns += params.getInt(EngineParameters.EXTRACOLS, 0);
+				headerRows += params.getFlag(EngineParameters.MARKERNAMES, false) ? 1 : 0;
+				headerRows += params.getFlag(EngineParameters.RECESSIVEALLELES, false) ? 1 : 0;
+				headerRows += params.getFlag(EngineParameters.MAPDISTANCES, false) ? 1 : 0;
+			} catch (ParserException pe) {
+				throw new IOException(pe.getMessage());
+			}
+			final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+			int rows = 0;
+			int columns = -1;
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					final String trimmed = line.trim();
+					if (trimmed.length() == 0) {
+						continue;
+					}
+					if (headerRows > 0) {
+						headerRows--;
+						continue;
+					}
+					if (columns < 0) {
+						columns = trimmed.split("\\s+").length;
+					}
+					rows++;
+				}
+			} finally {
+				reader.close();
+			}
+			final int genotypeColumns = columns - precedingColumns;
+			final int numInds = oneRowPerInd ? rows : rows / ploidy;
+			final int numLoci = oneRowPerInd ? genotypeColumns / ploidy : genotypeColumns;
+			if (numInds <= 0 || numLoci <= 0 || (!oneRowPerInd && rows % ploidy != 0) 
+					|| (oneRowPerInd && genotypeColumns % ploidy != 0)) {
+				throw new IOException("Couldn't detect NUMINDS and NUMLOCI of " + file + ": " + rows 
+						+ " rows and " + columns + " columns do not match the mainparams layout");
+			}
+			return new int[] { numInds, numLoci };
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.batch;
+
+import hudson.model.TaskListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a grid of structure runs on a bounded pool of worker threads. The 
+ * runner knows nothing about builds, so it can be used by builders and steps 
+ * alike.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class GridRunner {
+	/**
+	 * A cell of the grid.
+	 * @param <R> result type
+	 */
+	public interface Task<R> {
+		/**
+		 * @return the name of the task, used in the log
+		 */
+		String getName();
+		/**
+		 * Runs the task.
+		 * @return the result, or <code>null</code> if the run failed
+		 * @throws Exception if an error occurs
+		 */
+		R call() throws Exception;
+	}
+	/**
+	 * Number of worker threads.
+	 */
+	private final int threads;
+	/**
+	 * Listener, for reporting errors.
+	 */
+	private final TaskListener listener;
+	/**
+	 * Constructor with args.
+	 * @param threads number of worker threads
+	 * @param listener listener
+	 */
+	public GridRunner(int threads, TaskListener listener) {
+		this.threads = Math.max(1, threads);
+		this.listener = listener;
+	}
+	/**
+	 * Runs the tasks, waiting for all of them. A task that fails does not 
+	 * stop the others.
+	 * @param tasks tasks
+	 * @param <R> result type
+	 * @return the results, in the order of the tasks, with <code>null</code> 
+	 * for tasks that failed
+	 * @throws InterruptedException if interrupted, in which case the running 
+	 * tasks are interrupted too
+	 */
+	public <R> List<R> run(List<? extends Task<R>> tasks) throws InterruptedException {
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, tasks.size())), 
+				new WorkerThreadFactory());
+		try {
+			final List<Future<R>> futures = new ArrayList<Future<R>>();
+			for (final Task<R> task : tasks) {
+				futures.add(executor.submit(new Callable<R>() {
+					public R call() throws Exception {
+						return task.call();
+					}
+				}));
+			}
+			final List<R> results = new ArrayList<R>();
+			for (int i = 0; i < futures.size(); i++) {
+				try {
+					results.add(futures.get(i).get());
+				} catch (ExecutionException ee) {
+					ee.getCause().printStackTrace(listener.error("Structure run " + tasks.get(i).getName() + " failed"));
+					results.add(null);
+				}
+			}
+			return results;
+		} finally {
+			// interrupts the tasks still running when the build is aborted
+			executor.shutdownNow();
+		}
+	}
+	/**
+	 * Gets the number of processors of a node, the default size of the pool.
+	 */
+	public static final class ProcessorsCallable implements hudson.remoting.Callable<Integer, RuntimeException> {
+		/**
+		 * serialVersionUID.
+		 */
+		private static final long serialVersionUID = -3587337305469616178L;
+		/*
+		 * (non-Javadoc)
+		 * @see hudson.remoting.Callable#call()
+		 */
+		public Integer call() {
+			return Runtime.getRuntime().availableProcessors();
+		}
+	}
+	/**
+	 * Creates daemon worker threads with a descriptive name.
+	 */
+	private static final class WorkerThreadFactory implements ThreadFactory {
+		private static final AtomicInteger POOL = new AtomicInteger();
+		private final int pool = POOL.incrementAndGet();
+		private final AtomicInteger count = new AtomicInteger();
+		public Thread newThread(Runnable r) {
+			final Thread thread = new Thread(r, "structure-grid-" + pool + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
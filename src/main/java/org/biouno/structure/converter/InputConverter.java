@@ -0,0 +1,421 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.converter;
+
+import hudson.FilePath.FileCallable;
+import hudson.Util;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.biouno.structure.batch.Dataset;
+
+/**
+ * Converts VCF files (plain or gzip/bgzip compressed) and PLINK binary 
+ * filesets (<code>.bed</code>, <code>.bim</code> and <code>.fam</code>) to the 
+ * STRUCTURE input format, detecting the number of individuals and loci.
+ * <p>
+ * VCF files are streamed and encoded in parallel to a temporary 
+ * <code>.bed</code> file, and <code>.bed</code> files are memory mapped. The 
+ * genotypes are then transposed to one or two rows per individual in blocks 
+ * of bounded size. A digest of the sources and layout is kept next to the 
+ * converted file, and the conversion is skipped when they have not changed.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class InputConverter {
+	/**
+	 * Formats of the sources.
+	 */
+	public enum Format {
+		VCF,
+		PLINK
+	}
+	/**
+	 * Suffix of the file, next to the converted file, with the state of the 
+	 * last conversion.
+	 */
+	public static final String STATE_SUFFIX = ".source";
+	/**
+	 * Default memory used for each block of transposed individuals.
+	 */
+	public static final long DEFAULT_BLOCK_BYTES = 64L * 1024 * 1024;
+	/*
+	 * Keys of the state file.
+	 */
+	private static final String STATE_STAMP = "stamp";
+	private static final String STATE_DIGEST = "digest";
+	private static final String STATE_NUMINDS = "numInds";
+	private static final String STATE_NUMLOCI = "numLoci";
+	/**
+	 * Layout of the files written.
+	 */
+	private final Layout layout;
+	/**
+	 * Number of threads.
+	 */
+	private final int threads;
+	/**
+	 * Memory used for each block of transposed individuals.
+	 */
+	private final long blockBytes;
+	/**
+	 * Logger.
+	 */
+	private final PrintStream logger;
+	/**
+	 * Constructor with args.
+	 * @param layout layout of the files written
+	 * @param threads number of threads
+	 * @param blockBytes memory used for each block of transposed individuals
+	 * @param logger logger
+	 */
+	public InputConverter(Layout layout, int threads, long blockBytes, PrintStream logger) {
+		this.layout = layout;
+		this.threads = Math.max(1, threads);
+		this.blockBytes = blockBytes;
+		this.logger = logger;
+	}
+	/**
+	 * Detects the format of a source from its name.
+	 * @param source source file
+	 * @return the format
+	 * @throws IOException if the format is not supported
+	 */
+	public static Format detect(File source) throws IOException {
+		final String name = source.getName().toLowerCase(Locale.ENGLISH);
+		if (name.endsWith(".vcf") || name.endsWith(".vcf.gz") || name.endsWith(".vcf.bgz")) {
+			return Format.VCF;
+		}
+		if (name.endsWith(".bed")) {
+			return Format.PLINK;
+		}
+		throw new IOException("Unsupported input format " + source.getName() 
+				+ ", expected .vcf, .vcf.gz, .vcf.bgz or PLINK .bed");
+	}
+	/**
+	 * Converts a source, unless the target is up to date.
+	 * @param source VCF file, or <code>.bed</code> file of a PLINK fileset
+	 * @param target STRUCTURE file written
+	 * @return the number of individuals and loci
+	 * @throws IOException if the source is invalid, or an error occurs 
+	 * reading or writing
+	 * @throws InterruptedException if interrupted
+	 */
+	public int[] convert(File source, File target) throws IOException, InterruptedException {
+		final Format format = detect(source);
+		final List<File> sources = new ArrayList<File>();
+		sources.add(source);
+		if (format == Format.PLINK) {
+			sources.add(sibling(source, ".bim"));
+			sources.add(sibling(source, ".fam"));
+		}
+		final StringBuilder stamp = new StringBuilder(layout.toString());
+		for (File file : sources) {
+			if (!file.isFile()) {
+				throw new IOException("Missing input file " + file);
+			}
+			stamp.append('|').append(file.getAbsolutePath()).append('|').append(file.length()).append('|').append(file.lastModified());
+		}
+		// unchanged sources, by timestamp or by content
+		final File stateFile = new File(target.getPath() + STATE_SUFFIX);
+		final Properties state = new Properties();
+		if (stateFile.isFile() && target.isFile()) {
+			final InputStream input = new FileInputStream(stateFile);
+			try {
+				state.load(input);
+			} finally {
+				IOUtils.closeQuietly(input);
+			}
+		}
+		if (stamp.toString().equals(state.getProperty(STATE_STAMP))) {
+			logger.println("Converted input " + target + " is up to date");
+			return dimensions(state);
+		}
+		final String digest = digest(sources, layout.toString());
+		if (digest.equals(state.getProperty(STATE_DIGEST))) {
+			logger.println("Converted input " + target + " is up to date (same content)");
+			state.setProperty(STATE_STAMP, stamp.toString());
+			save(state, stateFile);
+			return dimensions(state);
+		}
+
+		logger.println("Converting " + source + " to " + target);
+		final long start = System.currentTimeMillis();
+		final File temp = new File(target.getPath() + ".tmp");
+		final ExecutorService pool = Executors.newFixedThreadPool(threads);
+		final int[] dimensions;
+		try {
+			final OutputStream out = new BufferedOutputStream(new FileOutputStream(temp), 1 << 20);
+			try {
+				dimensions = format == Format.VCF ? convertVcf(source, target, pool, out) : convertPlink(source, target, pool, out);
+			} finally {
+				out.close();
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		if (target.exists() && !target.delete()) {
+			throw new IOException("Failed to delete " + target);
+		}
+		if (!temp.renameTo(target)) {
+			throw new IOException("Failed to rename " + temp + " to " + target);
+		}
+		logger.println(String.format(Locale.ENGLISH, "Converted %d individuals and %d loci in %.1f s", 
+				dimensions[0], dimensions[1], (System.currentTimeMillis() - start) / 1000.0));
+		state.setProperty(STATE_STAMP, stamp.toString());
+		state.setProperty(STATE_DIGEST, digest);
+		state.setProperty(STATE_NUMINDS, Integer.toString(dimensions[0]));
+		state.setProperty(STATE_NUMLOCI, Integer.toString(dimensions[1]));
+		save(state, stateFile);
+		return dimensions;
+	}
+	private int[] convertVcf(File source, File target, ExecutorService pool, OutputStream out) 
+			throws IOException, InterruptedException {
+		final File bed = new File(target.getPath() + ".bed.tmp");
+		final File markers = new File(target.getPath() + ".markers.tmp");
+		try {
+			final VcfEncoder encoder = new VcfEncoder(pool, threads);
+			final BufferedReader reader = new BufferedReader(new InputStreamReader(openVcf(source), "UTF-8"), 1 << 20);
+			try {
+				encoder.encode(reader, bed, markers);
+			} finally {
+				reader.close();
+			}
+			if (encoder.getSkipped() > 0) {
+				logger.println("Skipped " + encoder.getSkipped() + " multiallelic sites or sites without GT");
+			}
+			final String[] samples = encoder.getSamples();
+			final int[] populations = new int[samples.length];
+			Arrays.fill(populations, 1);
+			write(new PackedGenotypes(bed, samples.length, encoder.getNumLoci()), samples, populations, markers, pool, out);
+			return new int[] { samples.length, encoder.getNumLoci() };
+		} finally {
+			bed.delete();
+			markers.delete();
+		}
+	}
+	private int[] convertPlink(File bed, File target, ExecutorService pool, OutputStream out) 
+			throws IOException, InterruptedException {
+		// individuals: family (population) and individual ids
+		final List<String> labels = new ArrayList<String>();
+		final List<Integer> populations = new ArrayList<Integer>();
+		final Map<String, Integer> families = new LinkedHashMap<String, Integer>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(sibling(bed, ".fam")), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final String[] columns = line.trim().split("\\s+");
+				if (columns.length < 2) {
+					continue;
+				}
+				Integer population = families.get(columns[0]);
+				if (population == null) {
+					population = families.size() + 1;
+					families.put(columns[0], population);
+				}
+				labels.add(columns[1]);
+				populations.add(population);
+			}
+		} finally {
+			reader.close();
+		}
+		// loci, with the marker names when needed
+		final File markers = new File(target.getPath() + ".markers.tmp");
+		int numLoci = 0;
+		reader = new BufferedReader(new InputStreamReader(new FileInputStream(sibling(bed, ".bim")), "UTF-8"));
+		final Writer markerWriter = layout.isMarkerNames() ? new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(markers), "UTF-8")) : null;
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final String[] columns = line.trim().split("\\s+");
+				if (columns.length < 2) {
+					continue;
+				}
+				if (markerWriter != null) {
+					markerWriter.write(columns[1]);
+					markerWriter.write('\n');
+				}
+				numLoci++;
+			}
+		} finally {
+			reader.close();
+			if (markerWriter != null) {
+				markerWriter.close();
+			}
+		}
+		try {
+			final int[] pops = new int[populations.size()];
+			for (int i = 0; i < pops.length; i++) {
+				pops[i] = populations.get(i);
+			}
+			write(new PackedGenotypes(bed, labels.size(), numLoci), labels.toArray(new String[labels.size()]), pops, markers, pool, out);
+			return new int[] { labels.size(), numLoci };
+		} finally {
+			markers.delete();
+		}
+	}
+	private void write(PackedGenotypes genotypes, String[] labels, int[] populations, File markers, 
+			ExecutorService pool, OutputStream out) throws IOException, InterruptedException {
+		final BufferedReader markerReader = layout.isMarkerNames() 
+				? new BufferedReader(new InputStreamReader(new FileInputStream(markers), "UTF-8")) : null;
+		try {
+			new StructureFileWriter(layout, pool, threads, blockBytes).write(genotypes, labels, populations, markerReader, out);
+		} finally {
+			IOUtils.closeQuietly(markerReader);
+		}
+	}
+	/**
+	 * Opens a VCF file, decompressing it when it starts with the gzip magic 
+	 * number. bgzip files are gzip files with several members.
+	 */
+	private static InputStream openVcf(File source) throws IOException {
+		final InputStream input = new BufferedInputStream(new FileInputStream(source), 1 << 20);
+		input.mark(2);
+		final int first = input.read();
+		final int second = input.read();
+		input.reset();
+		if (first == 0x1f && second == 0x8b) {
+			return new GZIPInputStream(input, 1 << 16);
+		}
+		return input;
+	}
+	private static File sibling(File bed, String extension) {
+		final String name = bed.getName();
+		return new File(bed.getParentFile(), name.substring(0, name.length() - ".bed".length()) + extension);
+	}
+	private static int[] dimensions(Properties state) throws IOException {
+		try {
+			return new int[] { Integer.parseInt(state.getProperty(STATE_NUMINDS)), 
+					Integer.parseInt(state.getProperty(STATE_NUMLOCI)) };
+		} catch (NumberFormatException nfe) {
+			throw new IOException("Invalid conversion state: " + nfe.getMessage());
+		}
+	}
+	private static void save(Properties state, File stateFile) throws IOException {
+		final OutputStream output = new FileOutputStream(stateFile);
+		try {
+			state.store(output, "Conversion of structure input");
+		} finally {
+			output.close();
+		}
+	}
+	/**
+	 * Digests the content of the sources.
+	 */
+	private static String digest(List<File> sources, String layout) throws IOException {
+		try {
+			final MessageDigest md5 = MessageDigest.getInstance("MD5");
+			final byte[] buffer = new byte[1 << 20];
+			for (File file : sources) {
+				final InputStream input = new FileInputStream(file);
+				try {
+					int read;
+					while ((read = input.read(buffer)) != -1) {
+						md5.update(buffer, 0, read);
+					}
+				} finally {
+					input.close();
+				}
+			}
+			md5.update(layout.getBytes("UTF-8"));
+			return Util.toHexString(md5.digest());
+		} catch (NoSuchAlgorithmException nsae) {
+			throw new IOException(nsae.getMessage());
+		}
+	}
+	/**
+	 * Converts an input file in the node of the workspace.
+	 */
+	public static final class ConvertCallable implements FileCallable<Dataset> {
+		/**
+		 * serialVersionUID.
+		 */
+		private static final long serialVersionUID = 3478224926152412237L;
+		private final String source;
+		private final String target;
+		private final HashMap<String, String> definitions;
+		private final TaskListener listener;
+		/**
+		 * Constructor with args.
+		 * @param source source file, relative to the workspace
+		 * @param target STRUCTURE file, relative to the workspace
+		 * @param definitions mainparams and extraparams entries
+		 * @param listener listener
+		 */
+		public ConvertCallable(String source, String target, Map<String, String> definitions, TaskListener listener) {
+			this.source = source;
+			this.target = target;
+			this.definitions = new HashMap<String, String>(definitions);
+			this.listener = listener;
+		}
+		/*
+		 * (non-Javadoc)
+		 * @see hudson.FilePath.FileCallable#invoke(java.io.File, hudson.remoting.VirtualChannel)
+		 */
+		public Dataset invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+			final InputConverter converter = new InputConverter(new Layout(definitions), 
+					Runtime.getRuntime().availableProcessors(), DEFAULT_BLOCK_BYTES, listener.getLogger());
+			final File targetFile = resolve(workspace, target);
+			if (targetFile.getParentFile() != null) {
+				targetFile.getParentFile().mkdirs();
+			}
+			final int[] dimensions = converter.convert(resolve(workspace, source), targetFile);
+			return new Dataset(target, null, dimensions[0], dimensions[1]);
+		}
+		private static File resolve(File workspace, String name) {
+			final File file = new File(name);
+			return file.isAbsolute() ? file : new File(workspace, name);
+		}
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.converter;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.util.Map;
+
+import org.biouno.structure.engine.EngineParameters;
+import org.biouno.structure.parser.ParserException;
+
+/**
+ * Layout of the STRUCTURE files written by the converter, read from the 
+ * mainparams and extraparams entries, so the files match the parameters 
+ * given to structure.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class Layout implements Serializable {
+	/**
+	 * serialVersionUID.
+	 */
+	private static final long serialVersionUID = -1833209934561452069L;
+	private final boolean oneRowPerInd;
+	private final boolean label;
+	private final boolean popData;
+	private final boolean markerNames;
+	private final String missing;
+	/**
+	 * Reads the layout from mainparams and extraparams entries.
+	 * @param definitions mainparams and extraparams entries
+	 * @throws IOException if the entries ask for columns or rows the 
+	 * converter cannot produce
+	 */
+	public Layout(Map<String, String> definitions) throws IOException {
+		final EngineParameters params = new EngineParameters(definitions, null);
+		try {
+			if (params.getInt(EngineParameters.PLOIDY, 2) != 2) {
+				throw new IOException("The converter only writes diploid data (PLOIDY 2)");
+			}
+			if (params.getFlag(EngineParameters.POPFLAG, false) || params.getFlag(EngineParameters.LOCDATA, false) 
+					|| params.getFlag(EngineParameters.PHENOTYPE, false) || params.getInt(EngineParameters.EXTRACOLS, 0) != 0 
+					|| params.getFlag(EngineParameters.RECESSIVEALLELES, false) || params.getFlag(EngineParameters.MAPDISTANCES, false)) {
+				throw new IOException("The converter does not write POPFLAG, LOCDATA, PHENOTYPE, EXTRACOLS, " 
+						+ "RECESSIVEALLELES or MAPDISTANCES data, set them to 0");
+			}
+			oneRowPerInd = params.getFlag(EngineParameters.ONEROWPERIND, false);
+			label = params.getFlag(EngineParameters.LABEL, true);
+			popData = params.getFlag(EngineParameters.POPDATA, true);
+			markerNames = params.getFlag(EngineParameters.MARKERNAMES, false);
+			missing = Integer.toString(params.getInt(EngineParameters.MISSING, -9));
+		} catch (ParserException pe) {
+			throw new IOException(pe.getMessage());
+		}
+	}
+	/**
+	 * @return whether each individual is written in one row
+	 */
+	public boolean isOneRowPerInd() {
+		return oneRowPerInd;
+	}
+	/**
+	 * @return whether labels are written
+	 */
+	public boolean isLabel() {
+		return label;
+	}
+	/**
+	 * @return whether populations are written
+	 */
+	public boolean isPopData() {
+		return popData;
+	}
+	/**
+	 * @return whether a row of marker names is written
+	 */
+	public boolean isMarkerNames() {
+		return markerNames;
+	}
+	/**
+	 * @return the missing allele value, encoded
+	 */
+	byte[] getMissing() {
+		try {
+			return missing.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException uee) {
+			throw new IllegalStateException(uee);
+		}
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "ONEROWPERIND=" + oneRowPerInd + ",LABEL=" + label + ",POPDATA=" + popData 
+				+ ",MARKERNAMES=" + markerNames + ",MISSING=" + missing;
+	}
+}
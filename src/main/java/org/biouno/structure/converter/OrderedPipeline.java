@@ -0,0 +1,104 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.converter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs chunks of work on a pool of threads and consumes their results in the 
+ * order the chunks were submitted. At most a fixed number of chunks are in 
+ * flight, so the memory used does not depend on the size of the input.
+ * @param <T> result type
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+abstract class OrderedPipeline<T> {
+	/**
+	 * Pool of threads.
+	 */
+	private final ExecutorService pool;
+	/**
+	 * Maximum number of chunks in flight.
+	 */
+	private final int maxInFlight;
+	/**
+	 * Chunks in flight, in submission order.
+	 */
+	private final Deque<Future<T>> pending = new ArrayDeque<Future<T>>();
+	/**
+	 * Constructor with args.
+	 * @param pool pool of threads
+	 * @param maxInFlight maximum number of chunks in flight
+	 */
+	OrderedPipeline(ExecutorService pool, int maxInFlight) {
+		this.pool = pool;
+		this.maxInFlight = Math.max(1, maxInFlight);
+	}
+	/**
+	 * Submits a chunk, consuming the results of earlier chunks while too 
+	 * many are in flight.
+	 * @param chunk chunk
+	 * @throws IOException if a chunk or the consumer fails
+	 * @throws InterruptedException if interrupted
+	 */
+	void submit(Callable<T> chunk) throws IOException, InterruptedException {
+		pending.addLast(pool.submit(chunk));
+		while (pending.size() > maxInFlight) {
+			consumeNext();
+		}
+	}
+	/**
+	 * Consumes the results of every chunk in flight.
+	 * @throws IOException if a chunk or the consumer fails
+	 * @throws InterruptedException if interrupted
+	 */
+	void finish() throws IOException, InterruptedException {
+		while (!pending.isEmpty()) {
+			consumeNext();
+		}
+	}
+	private void consumeNext() throws IOException, InterruptedException {
+		try {
+			consume(pending.removeFirst().get());
+		} catch (ExecutionException ee) {
+			final Throwable cause = ee.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException(cause.getMessage(), cause);
+		}
+	}
+	/**
+	 * Consumes the result of a chunk, in submission order.
+	 * @param result result
+	 * @throws IOException if an error occurs
+	 */
+	abstract void consume(T result) throws IOException;
+}
@@ -0,0 +1,161 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.converter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Genotypes stored in the PLINK <code>.bed</code> layout (SNP-major), read 
+ * through memory mapped segments. Each locus is a row of 2-bit codes, four 
+ * individuals per byte, with the first individual in the lowest bits: 
+ * <code>00</code> homozygous for the first allele, <code>01</code> missing, 
+ * <code>10</code> heterozygous and <code>11</code> homozygous for the second 
+ * allele.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class PackedGenotypes {
+	/**
+	 * Magic number of SNP-major <code>.bed</code> files.
+	 */
+	static final byte[] MAGIC = { 0x6c, 0x1b, 0x01 };
+	/*
+	 * Genotype codes.
+	 */
+	public static final int HOM_FIRST = 0;
+	public static final int MISSING = 1;
+	public static final int HET = 2;
+	public static final int HOM_SECOND = 3;
+	/**
+	 * Maximum size of a mapped segment.
+	 */
+	private static final long SEGMENT_SIZE = 1L << 30;
+	/**
+	 * Number of individuals.
+	 */
+	private final int numInds;
+	/**
+	 * Number of loci.
+	 */
+	private final int numLoci;
+	/**
+	 * Bytes of each locus.
+	 */
+	private final int bytesPerLocus;
+	/**
+	 * Loci in each mapped segment.
+	 */
+	private final int lociPerSegment;
+	/**
+	 * Mapped segments, each holding whole loci.
+	 */
+	private final ByteBuffer[] segments;
+	/**
+	 * Maps a <code>.bed</code> file.
+	 * @param file file
+	 * @param numInds number of individuals
+	 * @param numLoci number of loci
+	 * @throws IOException if the file cannot be mapped, or does not match the 
+	 * dimensions
+	 */
+	public PackedGenotypes(File file, int numInds, int numLoci) throws IOException {
+		this.numInds = numInds;
+		this.numLoci = numLoci;
+		this.bytesPerLocus = bytesPerLocus(numInds);
+		this.lociPerSegment = (int) Math.max(1, SEGMENT_SIZE / Math.max(1, bytesPerLocus));
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final byte[] magic = new byte[MAGIC.length];
+			raf.readFully(magic);
+			for (int i = 0; i < MAGIC.length; i++) {
+				if (magic[i] != MAGIC[i]) {
+					throw new IOException(file + " is not a SNP-major PLINK .bed file");
+				}
+			}
+			final long expected = MAGIC.length + (long) numLoci * bytesPerLocus;
+			if (raf.length() != expected) {
+				throw new IOException(file + " has " + raf.length() + " bytes, expected " + expected 
+						+ " for " + numInds + " individuals and " + numLoci + " loci");
+			}
+			final FileChannel channel = raf.getChannel();
+			segments = new ByteBuffer[(numLoci + lociPerSegment - 1) / lociPerSegment];
+			for (int segment = 0; segment < segments.length; segment++) {
+				final int loci = Math.min(lociPerSegment, numLoci - segment * lociPerSegment);
+				final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 
+						MAGIC.length + (long) segment * lociPerSegment * bytesPerLocus, (long) loci * bytesPerLocus);
+				segments[segment] = buffer;
+			}
+		} finally {
+			// the mappings remain valid after the file is closed
+			raf.close();
+		}
+	}
+	/**
+	 * @param numInds number of individuals
+	 * @return the bytes of each locus
+	 */
+	public static int bytesPerLocus(int numInds) {
+		return (numInds + 3) / 4;
+	}
+	/**
+	 * @return the number of individuals
+	 */
+	public int getNumInds() {
+		return numInds;
+	}
+	/**
+	 * @return the number of loci
+	 */
+	public int getNumLoci() {
+		return numLoci;
+	}
+	/**
+	 * Copies part of the row of a locus. Not thread safe.
+	 * @param locus locus
+	 * @param offset first byte of the row
+	 * @param destination destination
+	 * @param destinationOffset first byte of the destination
+	 * @param length number of bytes
+	 */
+	public void read(int locus, int offset, byte[] destination, int destinationOffset, int length) {
+		final ByteBuffer segment = segments[locus / lociPerSegment];
+		segment.position((locus % lociPerSegment) * bytesPerLocus + offset);
+		segment.get(destination, destinationOffset, length);
+	}
+	/**
+	 * Gets a genotype code from a packed row.
+	 * @param row packed row
+	 * @param rowOffset first byte of the row
+	 * @param index index of the individual in the row
+	 * @return the genotype code
+	 */
+	public static int genotype(byte[] row, int rowOffset, int index) {
+		return (row[rowOffset + (index >> 2)] >> ((index & 3) << 1)) & 3;
+	}
+}
@@ -0,0 +1,225 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.converter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Writes genotypes in the STRUCTURE input format. Individuals are transposed 
+ * from the locus-major packed genotypes in blocks, so only one block of the 
+ * genotypes is in memory, and the rows of each block are formatted in 
+ * parallel.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+class StructureFileWriter {
+	/**
+	 * Approximate size of the formatted rows of a chunk.
+	 */
+	private static final int CHUNK_BYTES = 4 * 1024 * 1024;
+	/**
+	 * Layout of the file.
+	 */
+	private final Layout layout;
+	/**
+	 * Pool of threads.
+	 */
+	private final ExecutorService pool;
+	/**
+	 * Number of threads.
+	 */
+	private final int threads;
+	/**
+	 * Memory used for each block of individuals, in bytes.
+	 */
+	private final long blockBytes;
+	/**
+	 * Constructor with args.
+	 * @param layout layout of the file
+	 * @param pool pool of threads
+	 * @param threads number of threads
+	 * @param blockBytes memory used for each block of individuals
+	 */
+	StructureFileWriter(Layout layout, ExecutorService pool, int threads, long blockBytes) {
+		this.layout = layout;
+		this.pool = pool;
+		this.threads = threads;
+		this.blockBytes = blockBytes;
+	}
+	/**
+	 * Writes the file.
+	 * @param genotypes genotypes
+	 * @param labels labels of the individuals
+	 * @param populations populations of the individuals, or <code>null</code>
+	 * @param markers marker names, one per line, read only if the layout 
+	 * has marker names
+	 * @param out output stream
+	 * @throws IOException if an error occurs writing
+	 * @throws InterruptedException if interrupted
+	 */
+	void write(final PackedGenotypes genotypes, final String[] labels, final int[] populations, 
+			BufferedReader markers, final OutputStream out) throws IOException, InterruptedException {
+		final int numInds = genotypes.getNumInds();
+		final int numLoci = genotypes.getNumLoci();
+		if (layout.isMarkerNames()) {
+			final StringBuilder names = new StringBuilder();
+			for (int locus = 0; locus < numLoci; locus++) {
+				final String name = markers.readLine();
+				if (name == null) {
+					throw new IOException("Missing marker names");
+				}
+				if (locus > 0) {
+					names.append(' ');
+				}
+				names.append(name);
+			}
+			names.append('\n');
+			out.write(names.toString().getBytes("UTF-8"));
+		}
+		// individuals of a block, a multiple of 4 so blocks start at a byte
+		final int blockInds = (int) Math.min((long) numInds + 3, Math.max(4, blockBytes / Math.max(1, numLoci) * 4)) / 4 * 4;
+		final int rowBytes = numLoci * (layout.getMissing().length + 1) * 2 + 64;
+		final int indsPerChunk = Math.max(1, CHUNK_BYTES / rowBytes);
+		final OrderedPipeline<byte[]> pipeline = new OrderedPipeline<byte[]>(pool, threads + 1) {
+			@Override
+			void consume(byte[] rows) throws IOException {
+				out.write(rows);
+			}
+		};
+		for (int first = 0; first < numInds; first += blockInds) {
+			final int count = Math.min(blockInds, numInds - first);
+			final int bytes = PackedGenotypes.bytesPerLocus(count);
+			// the chunks of the previous block must be done before reusing it
+			pipeline.finish();
+			final byte[] block = new byte[numLoci * bytes];
+			for (int locus = 0; locus < numLoci; locus++) {
+				genotypes.read(locus, first / 4, block, locus * bytes, bytes);
+			}
+			for (int chunk = 0; chunk < count; chunk += indsPerChunk) {
+				final int blockFirst = first;
+				final int chunkFirst = chunk;
+				final int chunkCount = Math.min(indsPerChunk, count - chunk);
+				pipeline.submit(new Callable<byte[]>() {
+					public byte[] call() throws IOException {
+						final ByteBuilder rows = new ByteBuilder(chunkCount * rowBytes);
+						for (int i = chunkFirst; i < chunkFirst + chunkCount; i++) {
+							final int ind = blockFirst + i;
+							formatIndividual(block, bytes, numLoci, i, labels[ind], 
+									populations == null ? 0 : populations[ind], rows);
+						}
+						return rows.toByteArray();
+					}
+				});
+			}
+		}
+		pipeline.finish();
+	}
+	/**
+	 * Formats the rows of an individual.
+	 */
+	private void formatIndividual(byte[] block, int bytes, int numLoci, int index, String label, int population, 
+			ByteBuilder rows) throws IOException {
+		final byte[] prefix = prefix(label, population);
+		if (layout.isOneRowPerInd()) {
+			rows.append(prefix);
+			for (int locus = 0; locus < numLoci; locus++) {
+				final int code = PackedGenotypes.genotype(block, locus * bytes, index);
+				rows.append(' ').append(allele(code, 0)).append(' ').append(allele(code, 1));
+			}
+			rows.append('\n');
+		} else {
+			for (int copy = 0; copy < 2; copy++) {
+				rows.append(prefix);
+				for (int locus = 0; locus < numLoci; locus++) {
+					rows.append(' ').append(allele(PackedGenotypes.genotype(block, locus * bytes, index), copy));
+				}
+				rows.append('\n');
+			}
+		}
+	}
+	private byte[] prefix(String label, int population) throws IOException {
+		final StringBuilder sb = new StringBuilder();
+		if (layout.isLabel()) {
+			sb.append(label);
+		}
+		if (layout.isPopData()) {
+			if (sb.length() > 0) {
+				sb.append(' ');
+			}
+			sb.append(population);
+		}
+		return sb.toString().getBytes("UTF-8");
+	}
+	/*
+	 * Alleles are coded 1 and 2.
+	 */
+	private static final byte[] FIRST = { '1' };
+	private static final byte[] SECOND = { '2' };
+	private byte[] allele(int code, int copy) {
+		switch (code) {
+		case PackedGenotypes.HOM_FIRST:
+			return FIRST;
+		case PackedGenotypes.HET:
+			return copy == 0 ? FIRST : SECOND;
+		case PackedGenotypes.HOM_SECOND:
+			return SECOND;
+		default:
+			return layout.getMissing();
+		}
+	}
+	/**
+	 * A growable byte array.
+	 */
+	private static final class ByteBuilder {
+		private byte[] bytes;
+		private int length;
+		ByteBuilder(int capacity) {
+			bytes = new byte[Math.max(16, capacity)];
+		}
+		ByteBuilder append(byte[] values) {
+			ensure(values.length);
+			System.arraycopy(values, 0, bytes, length, values.length);
+			length += values.length;
+			return this;
+		}
+		ByteBuilder append(char value) {
+			ensure(1);
+			bytes[length++] = (byte) value;
+			return this;
+		}
+		private void ensure(int extra) {
+			if (length + extra > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+			}
+		}
+		byte[] toByteArray() {
+			return Arrays.copyOf(bytes, length);
+		}
+	}
+}
@@ -0,0 +1,283 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.converter;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Encodes the genotypes of a VCF file in the PLINK <code>.bed</code> layout. 
+ * The file is streamed, and chunks of lines are encoded in parallel. Only 
+ * biallelic sites with diploid GT fields are kept.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+class VcfEncoder {
+	/**
+	 * Characters of VCF lines in each chunk.
+	 */
+	private static final int CHUNK_CHARS = 2 * 1024 * 1024;
+	/**
+	 * Index of the first sample column.
+	 */
+	private static final int FIRST_SAMPLE_COLUMN = 9;
+	/**
+	 * Pool of threads.
+	 */
+	private final ExecutorService pool;
+	/**
+	 * Number of threads.
+	 */
+	private final int threads;
+	/*
+	 * Results.
+	 */
+	private String[] samples;
+	private int numLoci;
+	private int skipped;
+	/**
+	 * Constructor with args.
+	 * @param pool pool of threads
+	 * @param threads number of threads
+	 */
+	VcfEncoder(ExecutorService pool, int threads) {
+		this.pool = pool;
+		this.threads = threads;
+	}
+	/**
+	 * @return the sample names
+	 */
+	String[] getSamples() {
+		return samples;
+	}
+	/**
+	 * @return the number of loci kept
+	 */
+	int getNumLoci() {
+		return numLoci;
+	}
+	/**
+	 * @return the number of sites skipped
+	 */
+	int getSkipped() {
+		return skipped;
+	}
+	/**
+	 * Encodes a VCF file.
+	 * @param reader VCF reader
+	 * @param bed <code>.bed</code> file written
+	 * @param markers file where the marker names are written, one per line
+	 * @throws IOException if the file is not a valid VCF file, or an error 
+	 * occurs reading or writing
+	 * @throws InterruptedException if interrupted
+	 */
+	void encode(BufferedReader reader, File bed, File markers) throws IOException, InterruptedException {
+		String line;
+		while ((line = reader.readLine()) != null && line.startsWith("##")) {
+			// meta-information
+		}
+		if (line == null || !line.startsWith("#CHROM")) {
+			throw new IOException("Missing VCF header line (#CHROM)");
+		}
+		final String[] header = line.split("\t");
+		if (header.length <= FIRST_SAMPLE_COLUMN) {
+			throw new IOException("The VCF file has no samples");
+		}
+		samples = new String[header.length - FIRST_SAMPLE_COLUMN];
+		System.arraycopy(header, FIRST_SAMPLE_COLUMN, samples, 0, samples.length);
+		final int numInds = samples.length;
+
+		final OutputStream out = new BufferedOutputStream(new FileOutputStream(bed), 1 << 20);
+		final Writer markerWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(markers), "UTF-8"));
+		try {
+			out.write(PackedGenotypes.MAGIC);
+			final OrderedPipeline<Chunk> pipeline = new OrderedPipeline<Chunk>(pool, threads + 1) {
+				@Override
+				void consume(Chunk chunk) throws IOException {
+					out.write(chunk.rows, 0, chunk.loci * PackedGenotypes.bytesPerLocus(numInds));
+					for (int i = 0; i < chunk.loci; i++) {
+						markerWriter.write(chunk.markers[i]);
+						markerWriter.write('\n');
+					}
+					numLoci += chunk.loci;
+					skipped += chunk.skipped;
+				}
+			};
+			List<String> lines = new ArrayList<String>();
+			int chars = 0;
+			while ((line = reader.readLine()) != null) {
+				if (line.length() == 0) {
+					continue;
+				}
+				lines.add(line);
+				chars += line.length();
+				if (chars >= CHUNK_CHARS) {
+					pipeline.submit(new EncodeChunk(lines, numInds));
+					lines = new ArrayList<String>();
+					chars = 0;
+				}
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+			}
+			if (!lines.isEmpty()) {
+				pipeline.submit(new EncodeChunk(lines, numInds));
+			}
+			pipeline.finish();
+		} finally {
+			out.close();
+			markerWriter.close();
+		}
+	}
+	/**
+	 * Encoded lines.
+	 */
+	private static final class Chunk {
+		private byte[] rows;
+		private String[] markers;
+		private int loci;
+		private int skipped;
+	}
+	/**
+	 * Encodes a chunk of lines.
+	 */
+	private static final class EncodeChunk implements Callable<Chunk> {
+		private final List<String> lines;
+		private final int numInds;
+		EncodeChunk(List<String> lines, int numInds) {
+			this.lines = lines;
+			this.numInds = numInds;
+		}
+		public Chunk call() throws IOException {
+			final int bytesPerLocus = PackedGenotypes.bytesPerLocus(numInds);
+			final Chunk chunk = new Chunk();
+			chunk.rows = new byte[lines.size() * bytesPerLocus];
+			chunk.markers = new String[lines.size()];
+			for (String line : lines) {
+				final String marker = encode(line, chunk.rows, chunk.loci * bytesPerLocus);
+				if (marker == null) {
+					chunk.skipped++;
+				} else {
+					chunk.markers[chunk.loci++] = marker;
+				}
+			}
+			return chunk;
+		}
+		/**
+		 * Encodes a line.
+		 * @return the marker name, or <code>null</code> if the site is skipped
+		 */
+		private String encode(String line, byte[] rows, int offset) throws IOException {
+			// CHROM POS ID REF ALT QUAL FILTER INFO FORMAT
+			final int[] tabs = new int[FIRST_SAMPLE_COLUMN];
+			int position = -1;
+			for (int i = 0; i < FIRST_SAMPLE_COLUMN; i++) {
+				position = line.indexOf('\t', position + 1);
+				if (position < 0) {
+					throw new IOException("Invalid VCF line: " + abbreviate(line));
+				}
+				tabs[i] = position;
+			}
+			final String alt = line.substring(tabs[3] + 1, tabs[4]);
+			if (alt.indexOf(',') >= 0) {
+				// multiallelic
+				return null;
+			}
+			final int gtIndex = indexOf(line.substring(tabs[7] + 1, tabs[8]).split(":"), "GT");
+			if (gtIndex < 0) {
+				return null;
+			}
+			String marker = line.substring(tabs[1] + 1, tabs[2]);
+			if (".".equals(marker)) {
+				marker = line.substring(0, tabs[0]) + ":" + line.substring(tabs[0] + 1, tabs[1]);
+			}
+			int start = tabs[8] + 1;
+			for (int ind = 0; ind < numInds; ind++) {
+				int end = line.indexOf('\t', start);
+				if (end < 0) {
+					end = line.length();
+				}
+				if (start > line.length()) {
+					throw new IOException("Missing samples in VCF line: " + abbreviate(line));
+				}
+				final int code = genotype(line, start, end, gtIndex);
+				rows[offset + (ind >> 2)] |= code << ((ind & 3) << 1);
+				start = end + 1;
+			}
+			return marker;
+		}
+		/**
+		 * Parses the GT subfield of a sample field.
+		 */
+		private static int genotype(String line, int start, int end, int gtIndex) {
+			int position = start;
+			for (int i = 0; i < gtIndex; i++) {
+				position = line.indexOf(':', position);
+				if (position < 0 || position >= end) {
+					return PackedGenotypes.MISSING;
+				}
+				position++;
+			}
+			// a/b or a|b, with single digit alleles
+			if (position + 3 > end || (position + 3 < end && line.charAt(position + 3) != ':')) {
+				return PackedGenotypes.MISSING;
+			}
+			final char first = line.charAt(position);
+			final char separator = line.charAt(position + 1);
+			final char second = line.charAt(position + 2);
+			if ((separator != '/' && separator != '|') || !isAllele(first) || !isAllele(second)) {
+				return PackedGenotypes.MISSING;
+			}
+			if (first != second) {
+				return PackedGenotypes.HET;
+			}
+			return first == '0' ? PackedGenotypes.HOM_FIRST : PackedGenotypes.HOM_SECOND;
+		}
+		private static boolean isAllele(char c) {
+			return c == '0' || c == '1';
+		}
+		private static int indexOf(String[] values, String value) {
+			for (int i = 0; i < values.length; i++) {
+				if (value.equals(values[i])) {
+					return i;
+				}
+			}
+			return -1;
+		}
+		private static String abbreviate(String line) {
+			return line.length() > 80 ? line.substring(0, 80) + "..." : line;
+		}
+	}
+}
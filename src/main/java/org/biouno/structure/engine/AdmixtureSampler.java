@@ -0,0 +1,657 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.biouno.structure.parser.ParserException;
+
+/**
+ * Gibbs sampler for the admixture and no-admixture models, with independent 
+ * or correlated allele frequencies (Pritchard et al, 2000; Falush et al, 
+ * 2003). Linkage and prior population information are not supported.
+ * <p>
+ * Each sweep updates the allele frequencies (P) of each locus, and then the 
+ * ancestry (Z) and the admixture proportions (Q) of each individual. Loci and 
+ * individuals are split into a fixed number of chunks, each with its own 
+ * random number generator, and the chunks are updated concurrently when an 
+ * executor is given. As the chunks do not depend on the number of threads, 
+ * the same seed gives the same results with any number of threads.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class AdmixtureSampler {
+	/**
+	 * Maximum number of chunks of loci and of individuals.
+	 */
+	private static final int MAX_CHUNKS = 64;
+	/**
+	 * Standard deviation of the F proposals.
+	 */
+	private static final double F_PROPOSAL_SD = 0.05;
+	/**
+	 * Maximum mass moved between two alleles in the ancestral frequencies 
+	 * proposals.
+	 */
+	private static final double ANCESTRAL_PROPOSAL = 0.05;
+	/*
+	 * Data.
+	 */
+	private final int k;
+	private final int numInds;
+	private final int numLoci;
+	private final int ploidy;
+	private final short[] alleles;
+	private final int[] numAlleles;
+	private final int maxAlleles;
+	/*
+	 * Model.
+	 */
+	private final boolean admixture;
+	private final boolean freqsCorr;
+	private final boolean inferAlpha;
+	private final double lambda;
+	private final double alphaPropSd;
+	private final double alphaMax;
+	private final double fPriorShape;
+	private final double fPriorScale;
+	/*
+	 * State. Allele frequencies of locus l in cluster kk start at 
+	 * pOffset[l] + kk * numAlleles[l].
+	 */
+	private final int[] pOffset;
+	private final int[] ancestralOffset;
+	private final byte[] z;
+	private final int[] populationZ;
+	private final double[] q;
+	private final double[] p;
+	private final double[] ancestral;
+	private final double[] f;
+	private double alpha;
+	/*
+	 * Posterior sums, recorded after the burn-in.
+	 */
+	private final double[] qSum;
+	private final double[] pSum;
+	private final double[] ancestralSum;
+	private final double[] fSum;
+	private double alphaSum;
+	private double lnLikeSum;
+	private double lnLikeSquaredSum;
+	private long samples;
+	/*
+	 * Random number generators and chunks.
+	 */
+	private final Random random;
+	private final Random[] individualRandoms;
+	private final Random[] locusRandoms;
+	private final int[] individualBounds;
+	private final int[] locusBounds;
+	private final ExecutorService executor;
+	/**
+	 * Constructor with args.
+	 * @param data genotypes
+	 * @param params engine parameters
+	 * @param k number of clusters
+	 * @param seed random seed
+	 * @param executor executor used for the chunks, or <code>null</code> to 
+	 * run in the calling thread
+	 * @throws ParserException if a parameter is invalid
+	 */
+	public AdmixtureSampler(GenotypeData data, EngineParameters params, int k, long seed, ExecutorService executor) throws ParserException {
+		if (k < 1 || k > Byte.MAX_VALUE) {
+			throw new ParserException("MAXPOPS must be between 1 and " + Byte.MAX_VALUE);
+		}
+		if (params.getFlag(EngineParameters.LINKAGE, false)) {
+			throw new ParserException("The built-in engine does not support the linkage model (LINKAGE=1)");
+		}
+		if (params.getFlag(EngineParameters.USEPOPINFO, false)) {
+			throw new ParserException("The built-in engine does not support USEPOPINFO=1");
+		}
+		this.k = k;
+		this.numInds = data.getNumInds();
+		this.numLoci = data.getNumLoci();
+		this.ploidy = data.getPloidy();
+		this.alleles = data.getAlleles();
+		this.numAlleles = data.getNumAlleles();
+		this.admixture = !params.getFlag(EngineParameters.NOADMIX, false);
+		this.freqsCorr = params.getFlag(EngineParameters.FREQSCORR, true);
+		this.inferAlpha = admixture && params.getFlag(EngineParameters.INFERALPHA, true);
+		this.lambda = params.getDouble(EngineParameters.LAMBDA, 1.0);
+		this.alpha = params.getDouble(EngineParameters.ALPHA, 1.0);
+		this.alphaPropSd = params.getDouble(EngineParameters.ALPHAPROPSD, 0.025);
+		this.alphaMax = params.getDouble(EngineParameters.ALPHAMAX, 10.0);
+		final double fPriorMean = params.getDouble(EngineParameters.FPRIORMEAN, 0.01);
+		final double fPriorSd = params.getDouble(EngineParameters.FPRIORSD, 0.05);
+		this.fPriorShape = (fPriorMean * fPriorMean) / (fPriorSd * fPriorSd);
+		this.fPriorScale = (fPriorSd * fPriorSd) / fPriorMean;
+		this.executor = executor;
+
+		this.pOffset = new int[numLoci];
+		this.ancestralOffset = new int[numLoci];
+		int pSize = 0;
+		int ancestralSize = 0;
+		int max = 1;
+		for (int l = 0; l < numLoci; l++) {
+			pOffset[l] = pSize;
+			ancestralOffset[l] = ancestralSize;
+			pSize += k * numAlleles[l];
+			ancestralSize += numAlleles[l];
+			max = Math.max(max, numAlleles[l]);
+		}
+		this.maxAlleles = max;
+		this.q = new double[numInds * k];
+		this.p = new double[pSize];
+		this.ancestral = new double[ancestralSize];
+		this.f = new double[k];
+		this.qSum = new double[q.length];
+		this.pSum = new double[p.length];
+		this.ancestralSum = new double[ancestral.length];
+		this.fSum = new double[k];
+
+		this.random = new Random(seed);
+		this.individualBounds = bounds(numInds);
+		this.locusBounds = bounds(numLoci);
+		this.individualRandoms = randoms(individualBounds.length - 1);
+		this.locusRandoms = randoms(locusBounds.length - 1);
+
+		// initial state: random ancestry, uniform Q and ancestral frequencies
+		Arrays.fill(q, 1.0 / k);
+		Arrays.fill(f, fPriorMean);
+		for (int l = 0; l < numLoci; l++) {
+			for (int a = 0; a < numAlleles[l]; a++) {
+				ancestral[ancestralOffset[l] + a] = 1.0 / numAlleles[l];
+			}
+		}
+		if (admixture) {
+			this.z = new byte[alleles.length];
+			this.populationZ = null;
+			for (int i = 0; i < z.length; i++) {
+				z[i] = (byte) random.nextInt(k);
+			}
+		} else {
+			this.z = null;
+			this.populationZ = new int[numInds];
+			for (int i = 0; i < numInds; i++) {
+				populationZ[i] = random.nextInt(k);
+			}
+		}
+	}
+	/**
+	 * Runs one sweep of the sampler.
+	 * @return the ln likelihood of the data, computed while the individuals 
+	 * are updated: with the allele frequencies sampled in this sweep and the 
+	 * admixture proportions of the previous sweep (without admixture, with 
+	 * the cluster sampled for each individual)
+	 * @throws InterruptedException if interrupted while waiting for the chunks
+	 */
+	public double sweep() throws InterruptedException {
+		sweepLoci();
+		if (freqsCorr) {
+			updateF();
+		}
+		final double lnLike = sweepIndividuals();
+		if (inferAlpha) {
+			updateAlpha();
+		}
+		return lnLike;
+	}
+	/**
+	 * Adds the current state to the posterior sums.
+	 * @param lnLike ln likelihood of the sweep
+	 */
+	public void record(double lnLike) {
+		add(qSum, q);
+		add(pSum, p);
+		add(ancestralSum, ancestral);
+		add(fSum, f);
+		alphaSum += alpha;
+		lnLikeSum += lnLike;
+		lnLikeSquaredSum += lnLike * lnLike;
+		samples++;
+	}
+	/**
+	 * Updates the allele frequencies of a chunk of loci.
+	 */
+	private void updateLoci(int chunk) {
+		final Random rnd = locusRandoms[chunk];
+		final int[] counts = new int[k * maxAlleles];
+		final double[] params = new double[maxAlleles];
+		final int copies = numInds * ploidy;
+		for (int l = locusBounds[chunk]; l < locusBounds[chunk + 1]; l++) {
+			final int numA = numAlleles[l];
+			if (numA == 0) {
+				continue;
+			}
+			Arrays.fill(counts, 0, k * numA, 0);
+			for (int copy = 0; copy < copies; copy++) {
+				final int index = copy * numLoci + l;
+				final int a = alleles[index];
+				if (a >= 0) {
+					final int cluster = admixture ? z[index] : populationZ[copy / ploidy];
+					counts[cluster * numA + a]++;
+				}
+			}
+			for (int kk = 0; kk < k; kk++) {
+				for (int a = 0; a < numA; a++) {
+					params[a] = prior(l, kk, a) + counts[kk * numA + a];
+				}
+				EngineMath.dirichlet(rnd, params, 0, p, pOffset[l] + kk * numA, numA);
+			}
+			if (freqsCorr && numA > 1) {
+				updateAncestral(rnd, l);
+			}
+		}
+	}
+	/**
+	 * Prior of the allele frequencies.
+	 */
+	private double prior(int l, int kk, int a) {
+		if (freqsCorr) {
+			return ancestral[ancestralOffset[l] + a] * (1.0 - f[kk]) / f[kk];
+		}
+		return lambda;
+	}
+	/**
+	 * Metropolis-Hastings update of the ancestral frequencies of a locus, 
+	 * moving some mass between two alleles.
+	 */
+	private void updateAncestral(Random rnd, int l) {
+		final int numA = numAlleles[l];
+		final int base = ancestralOffset[l];
+		final int a = rnd.nextInt(numA);
+		int b = rnd.nextInt(numA - 1);
+		if (b >= a) {
+			b++;
+		}
+		final double delta = rnd.nextDouble() * ANCESTRAL_PROPOSAL;
+		if (ancestral[base + b] - delta <= 0) {
+			return;
+		}
+		final double before = lnAncestral(l);
+		ancestral[base + a] += delta;
+		ancestral[base + b] -= delta;
+		final double after = lnAncestral(l);
+		if (Math.log(rnd.nextDouble()) >= after - before) {
+			ancestral[base + a] -= delta;
+			ancestral[base + b] += delta;
+		}
+	}
+	/**
+	 * Log density of the ancestral frequencies of a locus, and of the 
+	 * allele frequencies given the ancestral frequencies.
+	 */
+	private double lnAncestral(int l) {
+		final int numA = numAlleles[l];
+		final int base = ancestralOffset[l];
+		double result = 0;
+		for (int a = 0; a < numA; a++) {
+			result += (lambda - 1.0) * Math.log(ancestral[base + a]);
+		}
+		for (int kk = 0; kk < k; kk++) {
+			result += EngineMath.lnDirichlet(p, pOffset[l] + kk * numA, ancestral, base, (1.0 - f[kk]) / f[kk], numA);
+		}
+		return result;
+	}
+	/**
+	 * Metropolis-Hastings update of the F value of each cluster.
+	 */
+	private void updateF() {
+		for (int kk = 0; kk < k; kk++) {
+			final double oldF = f[kk];
+			final double newF = oldF + random.nextGaussian() * F_PROPOSAL_SD;
+			if (newF <= 0 || newF >= 1) {
+				continue;
+			}
+			double lnRatio = lnFPrior(newF) - lnFPrior(oldF);
+			for (int l = 0; l < numLoci; l++) {
+				final int numA = numAlleles[l];
+				if (numA < 2) {
+					continue;
+				}
+				final int offset = pOffset[l] + kk * numA;
+				lnRatio += EngineMath.lnDirichlet(p, offset, ancestral, ancestralOffset[l], (1.0 - newF) / newF, numA)
+						- EngineMath.lnDirichlet(p, offset, ancestral, ancestralOffset[l], (1.0 - oldF) / oldF, numA);
+			}
+			if (Math.log(random.nextDouble()) < lnRatio) {
+				f[kk] = newF;
+			}
+		}
+	}
+	/**
+	 * Log density of the gamma prior of F, up to a constant.
+	 */
+	private double lnFPrior(double value) {
+		return (fPriorShape - 1.0) * Math.log(value) - value / fPriorScale;
+	}
+	/**
+	 * Metropolis-Hastings update of alpha, with a uniform prior on 
+	 * <code>(0, ALPHAMAX]</code>.
+	 */
+	private void updateAlpha() {
+		final double newAlpha = alpha + random.nextGaussian() * alphaPropSd;
+		if (newAlpha <= 0 || newAlpha > alphaMax) {
+			return;
+		}
+		double sumLnQ = 0;
+		for (int i = 0; i < q.length; i++) {
+			sumLnQ += Math.log(Math.max(q[i], EngineMath.TINY));
+		}
+		final double lnRatio = numInds * (EngineMath.lnGamma(k * newAlpha) - k * EngineMath.lnGamma(newAlpha)
+				- EngineMath.lnGamma(k * alpha) + k * EngineMath.lnGamma(alpha))
+				+ (newAlpha - alpha) * sumLnQ;
+		if (Math.log(random.nextDouble()) < lnRatio) {
+			alpha = newAlpha;
+		}
+	}
+	/**
+	 * Updates the ancestry and admixture proportions of a chunk of 
+	 * individuals.
+	 * @return the ln likelihood of the chunk
+	 */
+	private double updateIndividuals(int chunk) {
+		final Random rnd = individualRandoms[chunk];
+		final double[] weights = new double[k];
+		final double[] params = new double[k];
+		final int[] counts = new int[k];
+		double lnLike = 0;
+		for (int ind = individualBounds[chunk]; ind < individualBounds[chunk + 1]; ind++) {
+			final int qBase = ind * k;
+			if (admixture) {
+				Arrays.fill(counts, 0);
+				for (int copy = 0; copy < ploidy; copy++) {
+					final int rowBase = (ind * ploidy + copy) * numLoci;
+					for (int l = 0; l < numLoci; l++) {
+						final int index = rowBase + l;
+						final int a = alleles[index];
+						if (a < 0) {
+							continue;
+						}
+						final int numA = numAlleles[l];
+						final int pBase = pOffset[l] + a;
+						double sum = 0;
+						for (int kk = 0; kk < k; kk++) {
+							final double w = q[qBase + kk] * p[pBase + kk * numA];
+							weights[kk] = w;
+							sum += w;
+						}
+						lnLike += Math.log(Math.max(sum, EngineMath.TINY));
+						final int cluster = EngineMath.sample(rnd, weights, k, sum);
+						z[index] = (byte) cluster;
+						counts[cluster]++;
+					}
+				}
+				for (int kk = 0; kk < k; kk++) {
+					params[kk] = alpha + counts[kk];
+				}
+				EngineMath.dirichlet(rnd, params, 0, q, qBase, k);
+			} else {
+				Arrays.fill(params, 0);
+				for (int copy = 0; copy < ploidy; copy++) {
+					final int rowBase = (ind * ploidy + copy) * numLoci;
+					for (int l = 0; l < numLoci; l++) {
+						final int a = alleles[rowBase + l];
+						if (a < 0) {
+							continue;
+						}
+						final int numA = numAlleles[l];
+						final int pBase = pOffset[l] + a;
+						for (int kk = 0; kk < k; kk++) {
+							params[kk] += Math.log(Math.max(p[pBase + kk * numA], EngineMath.TINY));
+						}
+					}
+				}
+				double max = Double.NEGATIVE_INFINITY;
+				for (int kk = 0; kk < k; kk++) {
+					max = Math.max(max, params[kk]);
+				}
+				double sum = 0;
+				for (int kk = 0; kk < k; kk++) {
+					weights[kk] = Math.exp(params[kk] - max);
+					sum += weights[kk];
+				}
+				final int cluster = EngineMath.sample(rnd, weights, k, sum);
+				populationZ[ind] = cluster;
+				lnLike += params[cluster];
+				for (int kk = 0; kk < k; kk++) {
+					q[qBase + kk] = weights[kk] / sum;
+				}
+			}
+		}
+		return lnLike;
+	}
+	/**
+	 * Updates every chunk of loci, concurrently if an executor is available.
+	 */
+	private void sweepLoci() throws InterruptedException {
+		final int chunks = locusRandoms.length;
+		if (executor == null || chunks == 1) {
+			for (int chunk = 0; chunk < chunks; chunk++) {
+				updateLoci(chunk);
+			}
+			return;
+		}
+		final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(chunks);
+		for (int chunk = 0; chunk < chunks; chunk++) {
+			final int index = chunk;
+			tasks.add(new Callable<Void>() {
+				public Void call() throws Exception {
+					updateLoci(index);
+					return null;
+				}
+			});
+		}
+		invokeAll(tasks);
+	}
+	/**
+	 * Updates every chunk of individuals, concurrently if an executor is 
+	 * available.
+	 * @return the ln likelihood of the data, summed in the order of the 
+	 * chunks
+	 */
+	private double sweepIndividuals() throws InterruptedException {
+		final int chunks = individualRandoms.length;
+		double total = 0;
+		if (executor == null || chunks == 1) {
+			for (int chunk = 0; chunk < chunks; chunk++) {
+				total += updateIndividuals(chunk);
+			}
+			return total;
+		}
+		final List<Callable<Double>> tasks = new ArrayList<Callable<Double>>(chunks);
+		for (int chunk = 0; chunk < chunks; chunk++) {
+			final int index = chunk;
+			tasks.add(new Callable<Double>() {
+				public Double call() throws Exception {
+					return updateIndividuals(index);
+				}
+			});
+		}
+		for (double lnLike : invokeAll(tasks)) {
+			total += lnLike;
+		}
+		return total;
+	}
+	/**
+	 * Runs the tasks of the chunks in the executor.
+	 * @return the results of the tasks, in order
+	 */
+	private <T> List<T> invokeAll(List<Callable<T>> tasks) throws InterruptedException {
+		final List<T> results = new ArrayList<T>(tasks.size());
+		for (Future<T> future : executor.invokeAll(tasks)) {
+			try {
+				results.add(future.get());
+			} catch (ExecutionException ee) {
+				throw new IllegalStateException("Error updating the sampler: " + ee.getCause().getMessage(), ee.getCause());
+			}
+		}
+		return results;
+	}
+	/**
+	 * Splits <code>n</code> elements into chunks.
+	 */
+	private static int[] bounds(int n) {
+		final int chunks = Math.max(1, Math.min(MAX_CHUNKS, n));
+		final int[] bounds = new int[chunks + 1];
+		for (int i = 0; i <= chunks; i++) {
+			bounds[i] = (int) ((long) n * i / chunks);
+		}
+		return bounds;
+	}
+	/**
+	 * Creates one random number generator for each chunk.
+	 */
+	private Random[] randoms(int count) {
+		final Random[] randoms = new Random[count];
+		for (int i = 0; i < count; i++) {
+			randoms[i] = new Random(random.nextLong());
+		}
+		return randoms;
+	}
+	private static void add(double[] sum, double[] values) {
+		for (int i = 0; i < values.length; i++) {
+			sum[i] += values[i];
+		}
+	}
+	private double[] mean(double[] sum) {
+		final double[] mean = new double[sum.length];
+		for (int i = 0; i < sum.length; i++) {
+			mean[i] = samples == 0 ? 0 : sum[i] / samples;
+		}
+		return mean;
+	}
+	/**
+	 * @return the number of clusters
+	 */
+	public int getK() {
+		return k;
+	}
+	/**
+	 * @return whether the admixture model is used
+	 */
+	public boolean isAdmixture() {
+		return admixture;
+	}
+	/**
+	 * @return whether the correlated allele frequencies model is used
+	 */
+	public boolean isFreqsCorr() {
+		return freqsCorr;
+	}
+	/**
+	 * @return the current alpha
+	 */
+	public double getAlpha() {
+		return alpha;
+	}
+	/**
+	 * @param cluster cluster index
+	 * @return the current F of the cluster
+	 */
+	public double getF(int cluster) {
+		return f[cluster];
+	}
+	/**
+	 * @return the number of recorded sweeps
+	 */
+	public long getSamples() {
+		return samples;
+	}
+	/**
+	 * @return the mean Q, <code>[ind * k + cluster]</code>
+	 */
+	public double[] getMeanQ() {
+		return mean(qSum);
+	}
+	/**
+	 * @return the mean allele frequencies, see {@link #getFrequencyOffset(int)}
+	 */
+	public double[] getMeanP() {
+		return mean(pSum);
+	}
+	/**
+	 * @return the mean ancestral frequencies, see {@link #getAncestralOffset(int)}
+	 */
+	public double[] getMeanAncestral() {
+		return mean(ancestralSum);
+	}
+	/**
+	 * @return the mean F of each cluster
+	 */
+	public double[] getMeanF() {
+		return mean(fSum);
+	}
+	/**
+	 * @return the mean alpha
+	 */
+	public double getMeanAlpha() {
+		return samples == 0 ? alpha : alphaSum / samples;
+	}
+	/**
+	 * @return the mean ln likelihood
+	 */
+	public double getMeanLnLike() {
+		return samples == 0 ? 0 : lnLikeSum / samples;
+	}
+	/**
+	 * @return the variance of the ln likelihood
+	 */
+	public double getVarianceLnLike() {
+		if (samples < 2) {
+			return 0;
+		}
+		final double mean = lnLikeSum / samples;
+		return (lnLikeSquaredSum - samples * mean * mean) / (samples - 1);
+	}
+	/**
+	 * Estimated ln probability of the data, as in Pritchard et al (2000): 
+	 * the mean ln likelihood minus half its variance.
+	 * @return the estimated ln P(D)
+	 */
+	public double getEstimatedLnProb() {
+		return getMeanLnLike() - getVarianceLnLike() / 2.0;
+	}
+	/**
+	 * @param locus locus index
+	 * @return offset of the first allele frequency of the locus in cluster 
+	 * 0; cluster kk starts at <code>offset + kk * numAlleles</code>
+	 */
+	public int getFrequencyOffset(int locus) {
+		return pOffset[locus];
+	}
+	/**
+	 * @param locus locus index
+	 * @return offset of the first ancestral frequency of the locus
+	 */
+	public int getAncestralOffset(int locus) {
+		return ancestralOffset[locus];
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.engine;
+
+import java.util.Random;
+
+/**
+ * Random variates and special functions used by the built-in engine.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public final class EngineMath {
+	/**
+	 * Smallest value used in place of zero probabilities, to avoid 
+	 * <code>log(0)</code>.
+	 */
+	public static final double TINY = 1e-300;
+	/*
+	 * Lanczos approximation coefficients.
+	 */
+	private static final double[] LANCZOS = {
+		0.99999999999980993, 676.5203681218851, -1259.1392167224028,
+		771.32342877765313, -176.61502916214059, 12.507343278686905,
+		-0.13857109526572012, 9.9843695780195716e-6, 1.5056327351493116e-7
+	};
+	private static final double HALF_LOG_2_PI = 0.5 * Math.log(2 * Math.PI);
+	/**
+	 * Hidden constructor.
+	 */
+	private EngineMath() {
+	}
+	/**
+	 * Natural logarithm of the gamma function, for <code>x &gt; 0</code>.
+	 * @param x value
+	 * @return ln(Gamma(x))
+	 */
+	public static double lnGamma(double x) {
+		if (x < 0.5) {
+			// reflection formula
+			return Math.log(Math.PI / Math.abs(Math.sin(Math.PI * x))) - lnGamma(1.0 - x);
+		}
+		x -= 1.0;
+		double a = LANCZOS[0];
+		final double t = x + 7.5;
+		for (int i = 1; i < LANCZOS.length; i++) {
+			a += LANCZOS[i] / (x + i);
+		}
+		return HALF_LOG_2_PI + (x + 0.5) * Math.log(t) - t + Math.log(a);
+	}
+	/**
+	 * Draws a value from Gamma(shape, 1), using Marsaglia and Tsang's method.
+	 * @param random random number generator
+	 * @param shape shape, greater than zero
+	 * @return double
+	 */
+	public static double gamma(Random random, double shape) {
+		if (shape < 1.0) {
+			final double u = random.nextDouble();
+			return gamma(random, shape + 1.0) * Math.pow(u, 1.0 / shape);
+		}
+		final double d = shape - 1.0 / 3.0;
+		final double c = 1.0 / Math.sqrt(9.0 * d);
+		while (true) {
+			double x;
+			double v;
+			do {
+				x = random.nextGaussian();
+				v = 1.0 + c * x;
+			} while (v <= 0);
+			v = v * v * v;
+			final double u = random.nextDouble();
+			if (u < 1.0 - 0.0331 * x * x * x * x) {
+				return d * v;
+			}
+			if (Math.log(u) < 0.5 * x * x + d * (1.0 - v + Math.log(v))) {
+				return d * v;
+			}
+		}
+	}
+	/**
+	 * Draws a value from a Dirichlet distribution into 
+	 * <code>target[offset..offset+length-1]</code>.
+	 * @param random random number generator
+	 * @param params Dirichlet parameters
+	 * @param paramsOffset offset of the first parameter
+	 * @param target array receiving the values
+	 * @param offset offset of the first value
+	 * @param length number of components
+	 */
+	public static void dirichlet(Random random, double[] params, int paramsOffset, double[] target, int offset, int length) {
+		double sum = 0;
+		for (int i = 0; i < length; i++) {
+			final double g = gamma(random, params[paramsOffset + i]);
+			target[offset + i] = g;
+			sum += g;
+		}
+		if (sum <= 0) {
+			// every draw underflowed, fall back to a single component
+			final int chosen = random.nextInt(length);
+			for (int i = 0; i < length; i++) {
+				target[offset + i] = i == chosen ? 1.0 : 0.0;
+			}
+			return;
+		}
+		for (int i = 0; i < length; i++) {
+			target[offset + i] /= sum;
+		}
+	}
+	/**
+	 * Log density of a Dirichlet distribution with parameters 
+	 * <code>scale * base[i]</code>.
+	 * @param x values
+	 * @param xOffset offset of the first value
+	 * @param base base parameters
+	 * @param baseOffset offset of the first base parameter
+	 * @param scale scale applied to the base parameters
+	 * @param length number of components
+	 * @return log density
+	 */
+	public static double lnDirichlet(double[] x, int xOffset, double[] base, int baseOffset, double scale, int length) {
+		double sumParams = 0;
+		double result = 0;
+		for (int i = 0; i < length; i++) {
+			final double param = scale * base[baseOffset + i];
+			sumParams += param;
+			result += (param - 1.0) * Math.log(Math.max(x[xOffset + i], TINY)) - lnGamma(param);
+		}
+		return result + lnGamma(sumParams);
+	}
+	/**
+	 * Samples an index proportionally to the given weights.
+	 * @param random random number generator
+	 * @param weights weights
+	 * @param length number of weights used
+	 * @param sum sum of the weights
+	 * @return index
+	 */
+	public static int sample(Random random, double[] weights, int length, double sum) {
+		double u = random.nextDouble() * sum;
+		for (int i = 0; i < length - 1; i++) {
+			u -= weights[i];
+			if (u < 0) {
+				return i;
+			}
+		}
+		return length - 1;
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.engine;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.biouno.structure.parser.ParserException;
+
+/**
+ * Parameters used by the built-in engine. The values are read from the 
+ * mainparams and extraparams entries, using the same names and defaults 
+ * used by structure.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class EngineParameters implements Serializable {
+	/**
+	 * serialVersionUID.
+	 */
+	private static final long serialVersionUID = 2803917385240712655L;
+	/*
+	 * Data file parameters.
+	 */
+	public static final String MAXPOPS = "MAXPOPS";
+	public static final String NUMLOCI = "NUMLOCI";
+	public static final String NUMINDS = "NUMINDS";
+	public static final String BURNIN = "BURNIN";
+	public static final String NUMREPS = "NUMREPS";
+	public static final String INFILE = "INFILE";
+	public static final String OUTFILE = "OUTFILE";
+	public static final String PLOIDY = "PLOIDY";
+	public static final String MISSING = "MISSING";
+	public static final String ONEROWPERIND = "ONEROWPERIND";
+	public static final String LABEL = "LABEL";
+	public static final String POPDATA = "POPDATA";
+	public static final String POPFLAG = "POPFLAG";
+	public static final String LOCDATA = "LOCDATA";
+	public static final String PHENOTYPE = "PHENOTYPE";
+	public static final String EXTRACOLS = "EXTRACOLS";
+	public static final String MARKERNAMES = "MARKERNAMES";
+	public static final String RECESSIVEALLELES = "RECESSIVEALLELES";
+	public static final String MAPDISTANCES = "MAPDISTANCES";
+	/*
+	 * Model parameters.
+	 */
+	public static final String NOADMIX = "NOADMIX";
+	public static final String LINKAGE = "LINKAGE";
+	public static final String USEPOPINFO = "USEPOPINFO";
+	public static final String FREQSCORR = "FREQSCORR";
+	public static final String INFERALPHA = "INFERALPHA";
+	public static final String ALPHA = "ALPHA";
+	public static final String ALPHAPROPSD = "ALPHAPROPSD";
+	public static final String ALPHAMAX = "ALPHAMAX";
+	public static final String LAMBDA = "LAMBDA";
+	public static final String FPRIORMEAN = "FPRIORMEAN";
+	public static final String FPRIORSD = "FPRIORSD";
+	public static final String UPDATEFREQ = "UPDATEFREQ";
+	public static final String RANDOMIZE = "RANDOMIZE";
+	public static final String SEED = "SEED";
+	/**
+	 * All the values, as read from mainparams and extraparams.
+	 */
+	private final Map<String, String> values;
+	/**
+	 * Constructor with args. Entries in <code>extraParams</code> override 
+	 * entries with the same name in <code>mainParams</code>.
+	 * @param mainParams mainparams entries
+	 * @param extraParams extraparams entries
+	 */
+	public EngineParameters(Map<String, String> mainParams, Map<String, String> extraParams) {
+		this.values = new HashMap<String, String>();
+		if (mainParams != null) {
+			this.values.putAll(mainParams);
+		}
+		if (extraParams != null) {
+			this.values.putAll(extraParams);
+		}
+	}
+	/**
+	 * Overrides a value, as done by the structure command line options.
+	 * @param name parameter name
+	 * @param value parameter value
+	 */
+	public void set(String name, Object value) {
+		this.values.put(name, String.valueOf(value));
+	}
+	/**
+	 * @param name parameter name
+	 * @return the raw value, or <code>null</code>
+	 */
+	public String get(String name) {
+		return this.values.get(name);
+	}
+	/**
+	 * Gets an integer value.
+	 * @param name parameter name
+	 * @param defaultValue default value, used when the parameter is absent
+	 * @return int
+	 * @throws ParserException if the value is not an integer
+	 */
+	public int getInt(String name, int defaultValue) throws ParserException {
+		final String value = this.values.get(name);
+		if (StringUtils.isBlank(value)) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException nfe) {
+			throw new ParserException("Invalid integer value for " + name + ": " + value, nfe);
+		}
+	}
+	/**
+	 * Gets a long value.
+	 * @param name parameter name
+	 * @param defaultValue default value, used when the parameter is absent
+	 * @return long
+	 * @throws ParserException if the value is not an integer
+	 */
+	public long getLong(String name, long defaultValue) throws ParserException {
+		final String value = this.values.get(name);
+		if (StringUtils.isBlank(value)) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException nfe) {
+			throw new ParserException("Invalid integer value for " + name + ": " + value, nfe);
+		}
+	}
+	/**
+	 * Gets a double value.
+	 * @param name parameter name
+	 * @param defaultValue default value, used when the parameter is absent
+	 * @return double
+	 * @throws ParserException if the value is not a number
+	 */
+	public double getDouble(String name, double defaultValue) throws ParserException {
+		final String value = this.values.get(name);
+		if (StringUtils.isBlank(value)) {
+			return defaultValue;
+		}
+		try {
+			return Double.parseDouble(value.trim());
+		} catch (NumberFormatException nfe) {
+			throw new ParserException("Invalid numeric value for " + name + ": " + value, nfe);
+		}
+	}
+	/**
+	 * Gets a boolean value, stored as 0 or 1 by structure.
+	 * @param name parameter name
+	 * @param defaultValue default value, used when the parameter is absent
+	 * @return boolean
+	 * @throws ParserException if the value is not an integer
+	 */
+	public boolean getFlag(String name, boolean defaultValue) throws ParserException {
+		return getInt(name, defaultValue ? 1 : 0) != 0;
+	}
+	/**
+	 * @return a copy of all the values
+	 */
+	public Map<String, String> getValues() {
+		return new HashMap<String, String>(this.values);
+	}
+}
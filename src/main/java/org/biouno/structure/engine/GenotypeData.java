@@ -0,0 +1,325 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.engine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+import org.biouno.structure.parser.ParserException;
+
+/**
+ * Genotypes read from a structure input file, stored in primitive arrays. 
+ * Alleles are recoded per locus to <code>0..numAlleles-1</code>, and missing 
+ * data is stored as <code>-1</code>.
+ * <p>
+ * Gene copies are laid out as <code>[individual][copy][locus]</code>, so the 
+ * index of a gene copy is <code>(ind * ploidy + copy) * numLoci + locus</code>.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class GenotypeData {
+	/**
+	 * Value used for missing alleles.
+	 */
+	public static final short MISSING_ALLELE = -1;
+	/**
+	 * Number of individuals.
+	 */
+	private final int numInds;
+	/**
+	 * Number of loci.
+	 */
+	private final int numLoci;
+	/**
+	 * Ploidy.
+	 */
+	private final int ploidy;
+	/**
+	 * Recoded alleles.
+	 */
+	private final short[] alleles;
+	/**
+	 * Number of distinct alleles of each locus.
+	 */
+	private final int[] numAlleles;
+	/**
+	 * Original allele codes of each locus.
+	 */
+	private final int[][] alleleCodes;
+	/**
+	 * Individual labels.
+	 */
+	private final String[] labels;
+	/**
+	 * Population of each individual, or <code>null</code> if POPDATA is off.
+	 */
+	private final int[] populations;
+	/**
+	 * Constructor with args.
+	 * @param numInds number of individuals
+	 * @param numLoci number of loci
+	 * @param ploidy ploidy
+	 * @param alleles recoded alleles
+	 * @param numAlleles number of alleles of each locus
+	 * @param alleleCodes original allele codes of each locus
+	 * @param labels individual labels
+	 * @param populations population of each individual, may be <code>null</code>
+	 */
+	public GenotypeData(int numInds, int numLoci, int ploidy, short[] alleles,
+			int[] numAlleles, int[][] alleleCodes, String[] labels, int[] populations) {
+		this.numInds = numInds;
+		this.numLoci = numLoci;
+		this.ploidy = ploidy;
+		this.alleles = alleles;
+		this.numAlleles = numAlleles;
+		this.alleleCodes = alleleCodes;
+		this.labels = labels;
+		this.populations = populations;
+	}
+	/**
+	 * @return the numInds
+	 */
+	public int getNumInds() {
+		return numInds;
+	}
+	/**
+	 * @return the numLoci
+	 */
+	public int getNumLoci() {
+		return numLoci;
+	}
+	/**
+	 * @return the ploidy
+	 */
+	public int getPloidy() {
+		return ploidy;
+	}
+	/**
+	 * @return the recoded alleles
+	 */
+	public short[] getAlleles() {
+		return alleles;
+	}
+	/**
+	 * @return the number of alleles of each locus
+	 */
+	public int[] getNumAlleles() {
+		return numAlleles;
+	}
+	/**
+	 * @return the original allele codes of each locus
+	 */
+	public int[][] getAlleleCodes() {
+		return alleleCodes;
+	}
+	/**
+	 * @return the labels
+	 */
+	public String[] getLabels() {
+		return labels;
+	}
+	/**
+	 * @return the populations, or <code>null</code>
+	 */
+	public int[] getPopulations() {
+		return populations;
+	}
+	/**
+	 * Gets the percentage of missing gene copies of an individual.
+	 * @param ind individual index
+	 * @return percentage, from 0 to 100
+	 */
+	public int getPercentMissing(int ind) {
+		final int copies = ploidy * numLoci;
+		final int start = ind * copies;
+		int missing = 0;
+		for (int i = start; i < start + copies; i++) {
+			if (alleles[i] == MISSING_ALLELE) {
+				missing++;
+			}
+		}
+		return copies == 0 ? 0 : (int) Math.round(100.0 * missing / copies);
+	}
+	/**
+	 * Gets the fraction of missing gene copies of a locus.
+	 * @param locus locus index
+	 * @return fraction, from 0 to 1
+	 */
+	public double getFractionMissing(int locus) {
+		final int copies = numInds * ploidy;
+		int missing = 0;
+		for (int c = 0; c < copies; c++) {
+			if (alleles[c * numLoci + locus] == MISSING_ALLELE) {
+				missing++;
+			}
+		}
+		return copies == 0 ? 0 : (double) missing / copies;
+	}
+	/**
+	 * Reads a structure input file, honouring the data file parameters 
+	 * (LABEL, POPDATA, ONEROWPERIND, etc).
+	 * @param reader input file reader
+	 * @param params engine parameters
+	 * @return GenotypeData
+	 * @throws IOException if an error occurs reading the file
+	 * @throws ParserException if the file does not match the parameters
+	 */
+	public static GenotypeData read(Reader reader, EngineParameters params) throws IOException, ParserException {
+		final int numInds = params.getInt(EngineParameters.NUMINDS, 0);
+		final int numLoci = params.getInt(EngineParameters.NUMLOCI, 0);
+		final int ploidy = params.getInt(EngineParameters.PLOIDY, 2);
+		final int missing = params.getInt(EngineParameters.MISSING, -9);
+		final boolean oneRowPerInd = params.getFlag(EngineParameters.ONEROWPERIND, false);
+		final boolean label = params.getFlag(EngineParameters.LABEL, true);
+		final boolean popData = params.getFlag(EngineParameters.POPDATA, true);
+		final boolean popFlag = params.getFlag(EngineParameters.POPFLAG, false);
+		final boolean locData = params.getFlag(EngineParameters.LOCDATA, false);
+		final boolean phenotype = params.getFlag(EngineParameters.PHENOTYPE, false);
+		final int extraCols = params.getInt(EngineParameters.EXTRACOLS, 0);
+		if (numInds <= 0 || numLoci <= 0 || ploidy <= 0) {
+			throw new ParserException("NUMINDS, NUMLOCI and PLOIDY must be greater than zero");
+		}
+		final Tokenizer tokenizer = new Tokenizer(reader);
+		// header rows
+		if (params.getFlag(EngineParameters.MARKERNAMES, false)) {
+			tokenizer.skip(numLoci);
+		}
+		if (params.getFlag(EngineParameters.RECESSIVEALLELES, false)) {
+			tokenizer.skip(numLoci);
+		}
+		if (params.getFlag(EngineParameters.MAPDISTANCES, false)) {
+			tokenizer.skip(numLoci);
+		}
+		final short[] alleles = new short[numInds * ploidy * numLoci];
+		final int[] numAlleles = new int[numLoci];
+		final int[][] alleleCodes = new int[numLoci][4];
+		final String[] labels = new String[numInds];
+		final int[] populations = popData ? new int[numInds] : null;
+		final int rows = oneRowPerInd ? 1 : ploidy;
+		final int copiesPerRow = oneRowPerInd ? ploidy : 1;
+		for (int ind = 0; ind < numInds; ind++) {
+			for (int row = 0; row < rows; row++) {
+				// preceding columns, repeated in each row
+				String indLabel = label ? tokenizer.next() : Integer.toString(ind + 1);
+				if (popData) {
+					populations[ind] = tokenizer.nextInt();
+				}
+				if (popFlag) {
+					tokenizer.skip(1);
+				}
+				if (locData) {
+					tokenizer.skip(1);
+				}
+				if (phenotype) {
+					tokenizer.skip(1);
+				}
+				tokenizer.skip(extraCols);
+				if (row == 0) {
+					labels[ind] = indLabel;
+				}
+				for (int locus = 0; locus < numLoci; locus++) {
+					for (int c = 0; c < copiesPerRow; c++) {
+						final int copy = oneRowPerInd ? c : row;
+						final int code = tokenizer.nextInt();
+						final int index = (ind * ploidy + copy) * numLoci + locus;
+						if (code == missing) {
+							alleles[index] = MISSING_ALLELE;
+						} else {
+							alleles[index] = (short) recode(locus, code, numAlleles, alleleCodes);
+						}
+					}
+				}
+			}
+		}
+		for (int locus = 0; locus < numLoci; locus++) {
+			final int[] codes = new int[numAlleles[locus]];
+			System.arraycopy(alleleCodes[locus], 0, codes, 0, codes.length);
+			alleleCodes[locus] = codes;
+		}
+		return new GenotypeData(numInds, numLoci, ploidy, alleles, numAlleles, alleleCodes, labels, populations);
+	}
+	/**
+	 * Finds the index of an allele code in a locus, adding it when not found.
+	 */
+	private static int recode(int locus, int code, int[] numAlleles, int[][] alleleCodes) throws ParserException {
+		final int[] codes = alleleCodes[locus];
+		final int count = numAlleles[locus];
+		for (int i = 0; i < count; i++) {
+			if (codes[i] == code) {
+				return i;
+			}
+		}
+		if (count == Short.MAX_VALUE) {
+			throw new ParserException("Too many alleles in locus " + (locus + 1));
+		}
+		if (count == codes.length) {
+			final int[] grown = new int[codes.length * 2];
+			System.arraycopy(codes, 0, grown, 0, codes.length);
+			alleleCodes[locus] = grown;
+		}
+		alleleCodes[locus][count] = code;
+		numAlleles[locus] = count + 1;
+		return count;
+	}
+	/**
+	 * Splits the input file into whitespace separated tokens, the same way 
+	 * structure reads its input.
+	 */
+	private static final class Tokenizer {
+		private final BufferedReader reader;
+		private String[] tokens = new String[0];
+		private int position = 0;
+		private long lineNumber = 0;
+		Tokenizer(Reader reader) {
+			this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+		}
+		String next() throws IOException, ParserException {
+			while (position >= tokens.length) {
+				final String line = reader.readLine();
+				if (line == null) {
+					throw new ParserException("Unexpected end of input file at line " + lineNumber);
+				}
+				lineNumber++;
+				final String trimmed = line.trim();
+				tokens = trimmed.length() == 0 ? new String[0] : trimmed.split("\\s+");
+				position = 0;
+			}
+			return tokens[position++];
+		}
+		int nextInt() throws IOException, ParserException {
+			final String token = next();
+			try {
+				return Integer.parseInt(token);
+			} catch (NumberFormatException nfe) {
+				throw new ParserException("Invalid integer '" + token + "' at line " + lineNumber, nfe);
+			}
+		}
+		void skip(int count) throws IOException, ParserException {
+			for (int i = 0; i < count; i++) {
+				next();
+			}
+		}
+	}
+}
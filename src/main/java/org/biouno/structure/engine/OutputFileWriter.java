@@ -0,0 +1,213 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.engine;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes the results of the built-in engine in the same layout used by the 
+ * structure <code>_f</code> output files, so that tools that read structure 
+ * results can read them too.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class OutputFileWriter {
+	private static final String SEPARATOR = "--------------------------------------------";
+	/**
+	 * Genotypes.
+	 */
+	private final GenotypeData data;
+	/**
+	 * Sampler, after the run.
+	 */
+	private final AdmixtureSampler sampler;
+	/**
+	 * Engine parameters.
+	 */
+	private final EngineParameters params;
+	/**
+	 * Constructor with args.
+	 * @param data genotypes
+	 * @param sampler sampler, after the run
+	 * @param params engine parameters
+	 */
+	public OutputFileWriter(GenotypeData data, AdmixtureSampler sampler, EngineParameters params) {
+		this.data = data;
+		this.sampler = sampler;
+		this.params = params;
+	}
+	/**
+	 * Writes the results.
+	 * @param out writer
+	 * @param inFile name of the input file
+	 * @param burnIn length of the burn-in
+	 * @param numReps number of MCMC steps after the burn-in
+	 */
+	public void write(PrintWriter out, String inFile, long burnIn, long numReps) {
+		final int k = sampler.getK();
+		final int numInds = data.getNumInds();
+		final double[] q = sampler.getMeanQ();
+
+		out.println("----------------------------------------------------");
+		out.println("STRUCTURE by Pritchard, Stephens and Donnelly (2000)");
+		out.println("     and Falush, Stephens and Pritchard (2003)");
+		out.println("       Built-in engine of the Jenkins Structure plug-in");
+		out.println("----------------------------------------------------");
+		out.println();
+		out.println("Input File:    " + inFile);
+		out.println();
+		out.println("Run parameters:");
+		out.println("   " + numInds + " individuals");
+		out.println("   " + data.getNumLoci() + " loci");
+		out.println("   " + k + " populations assumed");
+		out.println("   " + burnIn + " Burn-in period");
+		out.println("   " + numReps + " Reps");
+		out.println();
+		out.println(SEPARATOR);
+		out.println("Overall proportion of membership of the");
+		out.println("sample in each of the " + k + " clusters");
+		out.println();
+		out.println("Inferred Clusters");
+		final StringBuilder clusters = new StringBuilder();
+		final StringBuilder membership = new StringBuilder();
+		for (int kk = 0; kk < k; kk++) {
+			double sum = 0;
+			for (int ind = 0; ind < numInds; ind++) {
+				sum += q[ind * k + kk];
+			}
+			clusters.append(format("%3d    ", kk + 1));
+			membership.append(format("%.3f  ", numInds == 0 ? 0 : sum / numInds));
+		}
+		out.println(clusters);
+		out.println(membership);
+		out.println();
+		out.println(SEPARATOR);
+		out.println(format("Estimated Ln Prob of Data   = %.1f", sampler.getEstimatedLnProb()));
+		out.println(format("Mean value of ln likelihood = %.1f", sampler.getMeanLnLike()));
+		out.println(format("Variance of ln likelihood   = %.1f", sampler.getVarianceLnLike()));
+		if (sampler.isAdmixture()) {
+			out.println(format("Mean value of alpha         = %.4f", sampler.getMeanAlpha()));
+		}
+		if (sampler.isFreqsCorr()) {
+			out.println();
+			final double[] f = sampler.getMeanF();
+			for (int kk = 0; kk < k; kk++) {
+				out.println(format("Mean value of Fst_%d         = %.4f", kk + 1, f[kk]));
+			}
+		}
+		out.println();
+		out.println();
+		writeAncestry(out, q);
+		out.println();
+		out.println();
+		writeFrequencies(out);
+		out.println();
+		out.println("Values of parameters used in structure:");
+		final StringBuilder values = new StringBuilder();
+		for (Map.Entry<String, String> entry : new TreeMap<String, String>(params.getValues()).entrySet()) {
+			values.append(entry.getKey()).append('=').append(entry.getValue()).append(",\t");
+		}
+		out.println(values);
+		out.flush();
+	}
+	/**
+	 * Writes the inferred ancestry of individuals.
+	 */
+	private void writeAncestry(PrintWriter out, double[] q) {
+		final int k = sampler.getK();
+		final int[] populations = data.getPopulations();
+		out.println("Inferred ancestry of individuals:");
+		out.println(populations != null ? "        Label (%Miss) Pop:  Inferred clusters" : "        Label (%Miss) :  Inferred clusters");
+		for (int ind = 0; ind < data.getNumInds(); ind++) {
+			final StringBuilder line = new StringBuilder();
+			line.append(format("%3d %8s   (%d)  ", ind + 1, data.getLabels()[ind], data.getPercentMissing(ind)));
+			if (populations != null) {
+				line.append(format(" %3d ", populations[ind]));
+			}
+			line.append(":  ");
+			for (int kk = 0; kk < k; kk++) {
+				line.append(format("%.3f ", q[ind * k + kk]));
+			}
+			out.println(line);
+		}
+	}
+	/**
+	 * Writes the estimated allele frequencies in each cluster.
+	 */
+	private void writeFrequencies(PrintWriter out) {
+		final int k = sampler.getK();
+		final double[] p = sampler.getMeanP();
+		final double[] ancestral = sampler.getMeanAncestral();
+		out.println("Estimated Allele Frequencies in each cluster");
+		if (sampler.isFreqsCorr()) {
+			out.println("First column gives estimated ancestral frequencies");
+		} else {
+			out.println("First column gives the allele frequencies in the sample");
+		}
+		out.println();
+		out.println();
+		for (int l = 0; l < data.getNumLoci(); l++) {
+			final int numA = data.getNumAlleles()[l];
+			final int[] counts = sampler.isFreqsCorr() ? null : sampleCounts(l, numA);
+			int total = 0;
+			if (counts != null) {
+				for (int count : counts) {
+					total += count;
+				}
+			}
+			out.println("Locus " + (l + 1) + " : ");
+			out.println(numA + " alleles");
+			out.println(format("%.1f%% missing data", 100.0 * data.getFractionMissing(l)));
+			for (int a = 0; a < numA; a++) {
+				final double first = counts == null ? ancestral[sampler.getAncestralOffset(l) + a]
+						: (total == 0 ? 0 : (double) counts[a] / total);
+				final StringBuilder line = new StringBuilder();
+				line.append(format("%4d   (%.3f) ", data.getAlleleCodes()[l][a], first));
+				for (int kk = 0; kk < k; kk++) {
+					line.append(format("%.3f ", p[sampler.getFrequencyOffset(l) + kk * numA + a]));
+				}
+				out.println(line);
+			}
+			out.println();
+		}
+	}
+	private int[] sampleCounts(int locus, int numA) {
+		final int[] counts = new int[numA];
+		final short[] alleles = data.getAlleles();
+		final int copies = data.getNumInds() * data.getPloidy();
+		for (int copy = 0; copy < copies; copy++) {
+			final int a = alleles[copy * data.getNumLoci() + locus];
+			if (a >= 0) {
+				counts[a]++;
+			}
+		}
+		return counts;
+	}
+	private static String format(String format, Object... args) {
+		return String.format(Locale.ENGLISH, format, args);
+	}
+}
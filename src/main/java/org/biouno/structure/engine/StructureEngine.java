@@ -0,0 +1,162 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.engine;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.io.IOUtils;
+import org.biouno.structure.parser.ParserException;
+
+/**
+ * Pure-Java alternative to the structure executable. Reads the input file, 
+ * runs the {@link AdmixtureSampler} using a pool of threads, prints the 
+ * progress the same way structure does, and writes the <code>_f</code> 
+ * output file.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class StructureEngine {
+	/**
+	 * Suffix of the output file, added by structure to OUTFILE.
+	 */
+	public static final String OUTPUT_FILE_SUFFIX = "_f";
+	/**
+	 * Encoding of the input and output files.
+	 */
+	public static final String ENCODING = "UTF-8";
+	/**
+	 * Number of progress lines between headers.
+	 */
+	private static final int HEADER_INTERVAL = 10;
+	/**
+	 * Engine parameters.
+	 */
+	private final EngineParameters params;
+	/**
+	 * Number of threads. 
+	 */
+	private final int numThreads;
+	/**
+	 * Constructor with args.
+	 * @param params engine parameters
+	 * @param numThreads number of threads, or less than 1 to use every 
+	 * available processor
+	 */
+	public StructureEngine(EngineParameters params, int numThreads) {
+		this.params = params;
+		this.numThreads = numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors();
+	}
+	/**
+	 * @return the numThreads
+	 */
+	public int getNumThreads() {
+		return numThreads;
+	}
+	/**
+	 * Runs the engine.
+	 * @param inFile input file
+	 * @param outFile output file, without the <code>_f</code> suffix
+	 * @param logger logger used for the progress
+	 * @throws IOException if an error occurs reading or writing the files
+	 * @throws ParserException if the parameters or input file are invalid
+	 * @throws InterruptedException if interrupted
+	 */
+	public void run(File inFile, File outFile, PrintStream logger) throws IOException, ParserException, InterruptedException {
+		final int k = params.getInt(EngineParameters.MAXPOPS, 0);
+		final long burnIn = params.getLong(EngineParameters.BURNIN, 0);
+		final long numReps = params.getLong(EngineParameters.NUMREPS, 0);
+		final long total = burnIn + numReps;
+		final long updateFreq = Math.max(1, params.getLong(EngineParameters.UPDATEFREQ, Math.max(1, total / 100)));
+		final long seed = params.getFlag(EngineParameters.RANDOMIZE, true) ? System.nanoTime() : params.getLong(EngineParameters.SEED, 2245);
+
+		final GenotypeData data;
+		final Reader reader = new InputStreamReader(new FileInputStream(inFile), ENCODING);
+		try {
+			data = GenotypeData.read(reader, params);
+		} finally {
+			IOUtils.closeQuietly(reader);
+		}
+		logger.println(String.format(Locale.ENGLISH, "Read %d individuals and %d loci from %s", data.getNumInds(), data.getNumLoci(), inFile.getPath()));
+		logger.println("Using " + numThreads + " thread(s), seed " + seed);
+
+		// the chunks of a sweep are independent and of similar size, so a fixed 
+		// pool is enough, and fork/join is not available in Java 6
+		final ExecutorService executor = numThreads > 1 ? Executors.newFixedThreadPool(numThreads) : null;
+		final AdmixtureSampler sampler;
+		try {
+			sampler = new AdmixtureSampler(data, params, k, seed, executor);
+			int lines = 0;
+			for (long rep = 1; rep <= total; rep++) {
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+				final double lnLike = sampler.sweep();
+				if (rep > burnIn) {
+					sampler.record(lnLike);
+				}
+				if (rep == burnIn) {
+					logger.println("BURNIN completed");
+					lines = 0;
+				}
+				if (rep % updateFreq == 0) {
+					if (lines % HEADER_INTERVAL == 0) {
+						logger.println(sampler.isAdmixture() ? " Rep#:      Alpha    Ln Like  Est Ln P(D)" : " Rep#:    Ln Like  Est Ln P(D)");
+					}
+					final String estimated = rep > burnIn ? String.format(Locale.ENGLISH, "%9.1f", sampler.getEstimatedLnProb()) : "       --";
+					if (sampler.isAdmixture()) {
+						logger.println(String.format(Locale.ENGLISH, "%6d:    %7.3f  %9.1f  %s", rep, sampler.getAlpha(), lnLike, estimated));
+					} else {
+						logger.println(String.format(Locale.ENGLISH, "%6d:  %9.1f  %s", rep, lnLike, estimated));
+					}
+					lines++;
+				}
+			}
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+		}
+		logger.println("MCMC completed");
+
+		final File resultFile = new File(outFile.getPath() + OUTPUT_FILE_SUFFIX);
+		final PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(resultFile), ENCODING));
+		try {
+			new OutputFileWriter(data, sampler, params).write(writer, inFile.getName(), burnIn, numReps);
+		} finally {
+			writer.close();
+		}
+		logger.println("Final results printed to file " + resultFile.getPath());
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.engine;
+
+import hudson.FilePath.FileCallable;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.biouno.structure.parser.MainParamsParser;
+import org.biouno.structure.parser.ParserException;
+
+/**
+ * Runs the {@link StructureEngine} in the node where the workspace is, 
+ * returning an exit code like the structure executable does.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class StructureEngineCallable implements FileCallable<Integer> {
+	/**
+	 * serialVersionUID.
+	 */
+	private static final long serialVersionUID = -3427311905296183560L;
+	/**
+	 * Parser used for reading the mainparams and extraparams entries.
+	 */
+	private final MainParamsParser parser;
+	/**
+	 * mainparams content, with the values already replaced.
+	 */
+	private final String mainParams;
+	/**
+	 * extraparams content.
+	 */
+	private final String extraParams;
+	/**
+	 * K.
+	 */
+	private final int k;
+	/**
+	 * Input file, relative to the workspace.
+	 */
+	private final String inFile;
+	/**
+	 * Output file, relative to the workspace.
+	 */
+	private final String outFile;
+	/**
+	 * Number of threads, or less than 1 to share the available processors 
+	 * among the parallel runs.
+	 */
+	private final int numThreads;
+	/**
+	 * Number of runs sharing the node.
+	 */
+	private final int parallelRuns;
+	/**
+	 * Listener.
+	 */
+	private final TaskListener listener;
+	/**
+	 * Constructor with args.
+	 * @param parser mainparams parser
+	 * @param mainParams mainparams content
+	 * @param extraParams extraparams content
+	 * @param k K
+	 * @param inFile input file, relative to the workspace, or <code>null</code> to use INFILE
+	 * @param outFile output file, relative to the workspace, or <code>null</code> to use OUTFILE
+	 * @param numThreads number of threads, or less than 1 to share the 
+	 * available processors among the parallel runs
+	 * @param parallelRuns number of runs sharing the node, at least 1
+	 * @param listener listener
+	 */
+	public StructureEngineCallable(MainParamsParser parser, String mainParams, String extraParams, 
+			int k, String inFile, String outFile, int numThreads, int parallelRuns, TaskListener listener) {
+		this.parser = parser;
+		this.mainParams = mainParams;
+		this.extraParams = extraParams;
+		this.k = k;
+		this.inFile = inFile;
+		this.outFile = outFile;
+		this.numThreads = numThreads;
+		this.parallelRuns = Math.max(1, parallelRuns);
+		this.listener = listener;
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see hudson.FilePath.FileCallable#invoke(java.io.File, hudson.remoting.VirtualChannel)
+	 */
+	public Integer invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+		final EngineParameters params = new EngineParameters(parser.parseDefinitions(mainParams), parser.parseDefinitions(extraParams));
+		// same overrides done by the structure command line options
+		params.set(EngineParameters.MAXPOPS, k);
+		if (parser.getNumLoci() != null && parser.getNumLoci() > 0) {
+			params.set(EngineParameters.NUMLOCI, parser.getNumLoci());
+		}
+		if (parser.getNumInds() != null && parser.getNumInds() > 0) {
+			params.set(EngineParameters.NUMINDS, parser.getNumInds());
+		}
+		if (inFile != null) {
+			params.set(EngineParameters.INFILE, inFile);
+		}
+		if (outFile != null) {
+			params.set(EngineParameters.OUTFILE, outFile);
+		}
+		final StructureEngine engine = new StructureEngine(params, numThreads > 0 ? numThreads 
+				: Math.max(1, Runtime.getRuntime().availableProcessors() / parallelRuns));
+		try {
+			engine.run(resolve(workspace, params.get(EngineParameters.INFILE)), 
+					resolve(workspace, params.get(EngineParameters.OUTFILE)), listener.getLogger());
+		} catch (ParserException pe) {
+			pe.printStackTrace(listener.error(pe.getMessage()));
+			return 1;
+		}
+		return 0;
+	}
+	/**
+	 * Resolves a file name relative to the workspace, unless it is absolute.
+	 */
+	private static File resolve(File workspace, String name) throws IOException {
+		if (name == null) {
+			throw new IOException("Missing structure input or output file name");
+		}
+		final File file = new File(name);
+		return file.isAbsolute() ? file : new File(workspace, name);
+	}
+}
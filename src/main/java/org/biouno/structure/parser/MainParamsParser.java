@@ -24,6 +24,8 @@
 package org.biouno.structure.parser;
 
 import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -55,6 +57,7 @@ public class MainParamsParser implements Serializable {
 	 */
 	private static final String NEWLINE_UNIX_TOKEN = "\n";
 	private static final String DEFINE_TOKEN = "#define ";
+	private static final String COMMENT_TOKEN = "//";
 	/**
 	 * Regular expression used for finding mainparams entries. 
 	 * <p>
@@ -182,4 +185,30 @@ public class MainParamsParser implements Serializable {
 		}
 		return sb.toString();
 	}
+	/**
+	 * Reads the entries of a mainparams or extraparams file content. Trailing 
+	 * comments are removed from the values, and the entries are returned in 
+	 * the same order they appear in the file.
+	 * @param paramsContent mainparams or extraparams file content
+	 * @return map of parameter names and values
+	 */
+	public Map<String, String> parseDefinitions(String paramsContent) {
+		final Map<String, String> definitions = new LinkedHashMap<String, String>();
+		if (paramsContent == null) {
+			return definitions;
+		}
+		for (String line : paramsContent.split(NEWLINE_UNIX_TOKEN)) {
+			final Matcher matcher = pattern.matcher(line);
+			if(matcher.matches()) {
+				String name = matcher.group(4).trim();
+				String value = matcher.group(6);
+				int commentIndex = value.indexOf(COMMENT_TOKEN);
+				if (commentIndex >= 0) {
+					value = value.substring(0, commentIndex);
+				}
+				definitions.put(name, value.trim());
+			}
+		}
+		return definitions;
+	}
 }
@@ -0,0 +1,191 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.parser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A parser of structure output files (<code>_f</code>). The file is read 
+ * line by line and the values found are given to a {@link Handler}, so the 
+ * whole file is never kept in memory. Written specifically for this plug-in, 
+ * may not be useful for other projects.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class OutputFileParser {
+	/*
+	 * Names of the metrics given to the handler.
+	 */
+	public static final String K = "K";
+	public static final String NUMINDS = "NUMINDS";
+	public static final String NUMLOCI = "NUMLOCI";
+	public static final String ESTIMATED_LN_PROB = "Estimated Ln Prob of Data";
+	public static final String MEAN_LN_LIKELIHOOD = "Mean value of ln likelihood";
+	public static final String VARIANCE_LN_LIKELIHOOD = "Variance of ln likelihood";
+	public static final String MEAN_ALPHA = "Mean value of alpha";
+	/*
+	 * Patterns of the lines read.
+	 */
+	private static final Pattern METRIC = Pattern.compile("^\\s*(Estimated Ln Prob of Data|Mean value of ln likelihood|Variance of ln likelihood|Mean value of alpha)\\s*=\\s*(\\S+).*$");
+	private static final Pattern RUN_PARAMETER = Pattern.compile("^\\s*(\\d+)\\s+(individuals|loci|populations assumed)\\s*$");
+	private static final Pattern ANCESTRY_HEADER = Pattern.compile("^\\s*Inferred ancestry of individuals:\\s*$");
+	private static final Pattern ANCESTRY = Pattern.compile("^\\s*(\\d+)\\s+(\\S+)\\s+\\((\\d+)\\)\\s+(?:(\\S+)\\s+)?:\\s+(.*)$");
+	private static final Pattern FREQUENCIES_HEADER = Pattern.compile("^\\s*Estimated Allele Frequencies in each cluster\\s*$");
+	private static final Pattern LOCUS = Pattern.compile("^\\s*Locus\\s+(\\d+)\\s*:.*$");
+	private static final Pattern ALLELE = Pattern.compile("^\\s*(-?\\d+)\\s+\\(\\s*\\S+\\s*\\)\\s+(.*)$");
+	private static final Pattern PARAMETERS_HEADER = Pattern.compile("^\\s*Values of parameters used in structure.*$");
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+	/**
+	 * Receives the values found in the file.
+	 */
+	public interface Handler {
+		/**
+		 * Called for each metric found.
+		 * @param name metric name, one of the constants of the parser
+		 * @param value value
+		 */
+		void metric(String name, double value);
+		/**
+		 * Called for each individual of the inferred ancestry section.
+		 * @param index index of the individual, starting at 0
+		 * @param label label
+		 * @param percentMissing percentage of missing data
+		 * @param population population, or <code>null</code> without POPDATA
+		 * @param q membership coefficients, one per cluster
+		 * @return <code>false</code> to stop parsing
+		 */
+		boolean individual(int index, String label, int percentMissing, String population, double[] q);
+	}
+	/**
+	 * A handler that also receives the estimated allele frequencies in each 
+	 * cluster. Other handlers skip that section.
+	 */
+	public interface FrequencyHandler extends Handler {
+		/**
+		 * Called for each allele of the allele frequencies section.
+		 * @param locus index of the locus, starting at 0
+		 * @param allele allele code
+		 * @param frequencies frequency of the allele in each cluster
+		 * @return <code>false</code> to stop parsing
+		 */
+		boolean allele(int locus, int allele, double[] frequencies);
+	}
+	/**
+	 * Parses a structure output file.
+	 * @param reader output file reader
+	 * @param handler handler
+	 * @throws IOException if an error occurs reading the file
+	 */
+	public void parse(Reader reader, Handler handler) throws IOException {
+		final BufferedReader in = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+		final FrequencyHandler frequencyHandler = handler instanceof FrequencyHandler ? (FrequencyHandler) handler : null;
+		boolean ancestry = false;
+		boolean frequencies = false;
+		int index = 0;
+		int locus = -1;
+		String line;
+		while ((line = in.readLine()) != null) {
+			if (frequencies) {
+				Matcher matcher = ALLELE.matcher(line);
+				if (matcher.matches() && locus >= 0) {
+					if (!frequencyHandler.allele(locus, Integer.parseInt(matcher.group(1)), parseValues(matcher.group(2)))) {
+						return;
+					}
+					continue;
+				}
+				matcher = LOCUS.matcher(line);
+				if (matcher.matches()) {
+					locus = Integer.parseInt(matcher.group(1)) - 1;
+				} else if (PARAMETERS_HEADER.matcher(line).matches()) {
+					frequencies = false;
+				}
+				continue;
+			}
+			if (ancestry) {
+				final Matcher matcher = ANCESTRY.matcher(line);
+				if (matcher.matches()) {
+					final double[] q = parseValues(matcher.group(5));
+					if (!handler.individual(index++, matcher.group(2), Integer.parseInt(matcher.group(3)), matcher.group(4), q)) {
+						return;
+					}
+				} else if (index > 0 && line.trim().length() == 0) {
+					ancestry = false;
+				}
+				continue;
+			}
+			Matcher matcher = METRIC.matcher(line);
+			if (matcher.matches()) {
+				try {
+					handler.metric(matcher.group(1), Double.parseDouble(matcher.group(2)));
+				} catch (NumberFormatException nfe) {
+					// e.g. nan
+				}
+				continue;
+			}
+			matcher = RUN_PARAMETER.matcher(line);
+			if (matcher.matches()) {
+				final String parameter = matcher.group(2);
+				final double value = Double.parseDouble(matcher.group(1));
+				if ("individuals".equals(parameter)) {
+					handler.metric(NUMINDS, value);
+				} else if ("loci".equals(parameter)) {
+					handler.metric(NUMLOCI, value);
+				} else {
+					handler.metric(K, value);
+				}
+				continue;
+			}
+			if (ANCESTRY_HEADER.matcher(line).matches()) {
+				ancestry = true;
+			} else if (frequencyHandler != null && FREQUENCIES_HEADER.matcher(line).matches()) {
+				frequencies = true;
+			}
+		}
+	}
+	/**
+	 * Parses the membership coefficients, stopping at the first value that is 
+	 * not a number (structure may print probability intervals after them).
+	 */
+	private static double[] parseValues(String values) {
+		final List<Double> q = new ArrayList<Double>();
+		for (String token : WHITESPACE.split(values.trim())) {
+			try {
+				q.add(Double.parseDouble(token));
+			} catch (NumberFormatException nfe) {
+				break;
+			}
+		}
+		final double[] result = new double[q.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = q.get(i);
+		}
+		return result;
+	}
+}
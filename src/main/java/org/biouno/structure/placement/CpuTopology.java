@@ -0,0 +1,263 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.placement;
+
+import hudson.remoting.Callable;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Physical cores and NUMA nodes of a Linux node, read from 
+ * <code>/sys/devices/system</code>, limited to the CPUs the agent process 
+ * may run on (its cgroup or affinity mask), as structure inherits them. 
+ * Other systems have an empty topology.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class CpuTopology implements Serializable {
+	/**
+	 * serialVersionUID.
+	 */
+	private static final long serialVersionUID = 5349168420437727411L;
+	/**
+	 * Default location of the sysfs system devices.
+	 */
+	public static final String SYSFS_SYSTEM = "/sys/devices/system";
+	/**
+	 * Status of the current process, with its allowed CPUs.
+	 */
+	public static final String PROC_SELF_STATUS = "/proc/self/status";
+	private static final String CPUS_ALLOWED_LIST = "Cpus_allowed_list:";
+	private static final Pattern CPU_DIR = Pattern.compile("cpu\\d+");
+	private static final Pattern NODE_DIR = Pattern.compile("node\\d+");
+	/**
+	 * Physical cores.
+	 */
+	private final List<Core> cores;
+	/**
+	 * Constructor with args.
+	 * @param cores physical cores
+	 */
+	public CpuTopology(List<Core> cores) {
+		this.cores = Collections.unmodifiableList(new ArrayList<Core>(cores));
+	}
+	/**
+	 * @return the physical cores
+	 */
+	public List<Core> getCores() {
+		return cores;
+	}
+	/**
+	 * @return <code>true</code> if no core was found
+	 */
+	public boolean isEmpty() {
+		return cores.isEmpty();
+	}
+	/**
+	 * Reads the topology, with every CPU.
+	 * @param system sysfs system devices directory
+	 * @return CpuTopology, empty if it could not be read
+	 * @throws IOException if an error occurs reading the files
+	 */
+	public static CpuTopology detect(File system) throws IOException {
+		return detect(system, null);
+	}
+	/**
+	 * Reads the topology, with the CPUs a process may run on. Cores without 
+	 * such CPUs are left out.
+	 * @param system sysfs system devices directory
+	 * @param status status file of the process, like 
+	 * <code>/proc/self/status</code>, or <code>null</code> for every CPU
+	 * @return CpuTopology, empty if it could not be read
+	 * @throws IOException if an error occurs reading the files
+	 */
+	public static CpuTopology detect(File system, File status) throws IOException {
+		final Set<Integer> allowed = status == null ? null : readAllowedCpus(status);
+		final File[] cpuDirs = new File(system, "cpu").listFiles();
+		if (cpuDirs == null) {
+			return new CpuTopology(Collections.<Core>emptyList());
+		}
+		// logical cpu -> NUMA node
+		final Map<Integer, Integer> cpuNodes = new HashMap<Integer, Integer>();
+		final File[] nodeDirs = new File(system, "node").listFiles();
+		if (nodeDirs != null) {
+			for (File nodeDir : nodeDirs) {
+				final File cpuList = new File(nodeDir, "cpulist");
+				if (NODE_DIR.matcher(nodeDir.getName()).matches() && cpuList.isFile()) {
+					final int node = Integer.parseInt(nodeDir.getName().substring(4));
+					for (Integer cpu : parseList(read(cpuList))) {
+						cpuNodes.put(cpu, node);
+					}
+				}
+			}
+		}
+		// (package, core id) -> logical cpus
+		final Map<String, Core> cores = new TreeMap<String, Core>();
+		for (File cpuDir : cpuDirs) {
+			if (!CPU_DIR.matcher(cpuDir.getName()).matches()) {
+				continue;
+			}
+			final File online = new File(cpuDir, "online");
+			if (online.isFile() && "0".equals(read(online))) {
+				continue;
+			}
+			final File topology = new File(cpuDir, "topology");
+			if (!topology.isDirectory()) {
+				continue;
+			}
+			final int cpu = Integer.parseInt(cpuDir.getName().substring(3));
+			if (allowed != null && !allowed.contains(cpu)) {
+				continue;
+			}
+			final int socket = Integer.parseInt(read(new File(topology, "physical_package_id")));
+			final int coreId = Integer.parseInt(read(new File(topology, "core_id")));
+			final Integer node = cpuNodes.get(cpu);
+			final String key = String.format("%05d-%05d", socket, coreId);
+			Core core = cores.get(key);
+			if (core == null) {
+				core = new Core(socket, node == null ? socket : node);
+				cores.put(key, core);
+			}
+			core.cpus.add(cpu);
+		}
+		for (Core core : cores.values()) {
+			Collections.sort(core.cpus);
+		}
+		return new CpuTopology(new ArrayList<Core>(cores.values()));
+	}
+	/**
+	 * Parses a sysfs list, like <code>0-3,8-11</code>.
+	 * @param list the list
+	 * @return the values
+	 */
+	static List<Integer> parseList(String list) {
+		final List<Integer> values = new ArrayList<Integer>();
+		for (String range : list.split(",")) {
+			final String trimmed = range.trim();
+			if (trimmed.length() == 0) {
+				continue;
+			}
+			final int dash = trimmed.indexOf('-');
+			if (dash < 0) {
+				values.add(Integer.parseInt(trimmed));
+			} else {
+				final int end = Integer.parseInt(trimmed.substring(dash + 1));
+				for (int i = Integer.parseInt(trimmed.substring(0, dash)); i <= end; i++) {
+					values.add(i);
+				}
+			}
+		}
+		return values;
+	}
+	/**
+	 * Reads the CPUs a process may run on.
+	 * @param status status file of the process
+	 * @return the CPUs, or <code>null</code> if not available
+	 * @throws IOException if an error occurs reading the file
+	 */
+	static Set<Integer> readAllowedCpus(File status) throws IOException {
+		if (!status.isFile()) {
+			return null;
+		}
+		final BufferedReader reader = new BufferedReader(new FileReader(status));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith(CPUS_ALLOWED_LIST)) {
+					return new TreeSet<Integer>(parseList(line.substring(CPUS_ALLOWED_LIST.length())));
+				}
+			}
+			return null;
+		} finally {
+			reader.close();
+		}
+	}
+	private static String read(File file) throws IOException {
+		final BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			final String line = reader.readLine();
+			return line == null ? "" : line.trim();
+		} finally {
+			reader.close();
+		}
+	}
+	/**
+	 * A physical core, with its logical CPUs (hyper-threads).
+	 */
+	public static final class Core implements Serializable {
+		private static final long serialVersionUID = -1436946420170914322L;
+		private final int socket;
+		private final int numaNode;
+		private final List<Integer> cpus = new ArrayList<Integer>();
+		Core(int socket, int numaNode) {
+			this.socket = socket;
+			this.numaNode = numaNode;
+		}
+		/**
+		 * @return the socket (physical package)
+		 */
+		public int getSocket() {
+			return socket;
+		}
+		/**
+		 * @return the NUMA node
+		 */
+		public int getNumaNode() {
+			return numaNode;
+		}
+		/**
+		 * @return the logical CPUs
+		 */
+		public List<Integer> getCpus() {
+			return Collections.unmodifiableList(cpus);
+		}
+	}
+	/**
+	 * Detects the topology of the node where it runs, limited to the CPUs of 
+	 * the agent process.
+	 */
+	public static final class DetectCallable implements Callable<CpuTopology, IOException> {
+		private static final long serialVersionUID = 3160553047424396024L;
+		/*
+		 * (non-Javadoc)
+		 * @see hudson.remoting.Callable#call()
+		 */
+		public CpuTopology call() throws IOException {
+			return detect(new File(SYSFS_SYSTEM), new File(PROC_SELF_STATUS));
+		}
+	}
+}
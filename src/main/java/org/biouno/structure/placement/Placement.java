@@ -0,0 +1,146 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.placement;
+
+import hudson.util.ArgumentListBuilder;
+
+import java.io.Serializable;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Placement of one structure process: the physical core reserved for it, 
+ * and how the process is bound to the CPUs of the node.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class Placement implements Serializable {
+	/**
+	 * serialVersionUID.
+	 */
+	private static final long serialVersionUID = -2906047416367385916L;
+	/*
+	 * Commands used for binding the process.
+	 */
+	public static final String TASKSET = "taskset";
+	public static final String NUMACTL = "numactl";
+	/**
+	 * Placement mode.
+	 */
+	private final PlacementMode mode;
+	/**
+	 * Name of the node, empty for the master.
+	 */
+	private final String nodeName;
+	/**
+	 * Index of the reserved core in the node topology.
+	 */
+	private final int coreIndex;
+	/**
+	 * Logical CPUs of the reserved core.
+	 */
+	private final String cpus;
+	/**
+	 * NUMA node of the reserved core.
+	 */
+	private final int numaNode;
+	/**
+	 * Constructor with args.
+	 * @param mode placement mode
+	 * @param nodeName name of the node
+	 * @param coreIndex index of the reserved core
+	 * @param cpus logical CPUs of the reserved core
+	 * @param numaNode NUMA node of the reserved core
+	 */
+	public Placement(PlacementMode mode, String nodeName, int coreIndex, List<Integer> cpus, int numaNode) {
+		this.mode = mode;
+		this.nodeName = nodeName;
+		this.coreIndex = coreIndex;
+		this.cpus = StringUtils.join(cpus, ',');
+		this.numaNode = numaNode;
+	}
+	/**
+	 * @return the mode
+	 */
+	public PlacementMode getMode() {
+		return mode;
+	}
+	/**
+	 * @return the nodeName
+	 */
+	public String getNodeName() {
+		return nodeName;
+	}
+	/**
+	 * @return the coreIndex
+	 */
+	public int getCoreIndex() {
+		return coreIndex;
+	}
+	/**
+	 * @return the logical CPUs, comma separated
+	 */
+	public String getCpus() {
+		return cpus;
+	}
+	/**
+	 * @return the numaNode
+	 */
+	public int getNumaNode() {
+		return numaNode;
+	}
+	/**
+	 * Prefixes the command with <code>taskset</code> or <code>numactl</code>.
+	 * @param args structure command
+	 * @return the wrapped command
+	 */
+	public ArgumentListBuilder wrap(ArgumentListBuilder args) {
+		final ArgumentListBuilder wrapped = new ArgumentListBuilder();
+		if (mode == PlacementMode.CORE) {
+			wrapped.add(TASKSET).add("-c").add(cpus);
+		} else if (mode == PlacementMode.NUMA_NODE) {
+			wrapped.add(NUMACTL).add("--cpunodebind=" + numaNode).add("--membind=" + numaNode);
+		}
+		wrapped.add(args.toCommandArray());
+		return wrapped;
+	}
+	/**
+	 * @return a description, recorded with the run
+	 */
+	public String getDescription() {
+		if (mode == PlacementMode.NUMA_NODE) {
+			return "NUMA node " + numaNode;
+		}
+		return "core " + coreIndex + " (cpus " + cpus + ", NUMA node " + numaNode + ")";
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return getDescription();
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.placement;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reserves one physical core of a node for each structure process placed 
+ * with {@link PlacementMode#CORE} or {@link PlacementMode#NUMA_NODE}. When 
+ * every core of the node is reserved, new processes wait for a core to be 
+ * released, so the number of concurrent processes never exceeds the number 
+ * of physical cores. Cores are taken from the NUMA node with the fewest 
+ * reserved cores, spreading the processes across sockets.
+ * <p>
+ * Reservations are kept in the master, for every build running in a node. 
+ * The topology of a node is read again when it comes online, as an agent 
+ * may be replaced under the same name by another machine, or have other 
+ * allowed CPUs.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public final class PlacementAllocator {
+	/**
+	 * Singleton.
+	 */
+	private static final PlacementAllocator INSTANCE = new PlacementAllocator();
+	/**
+	 * Topology of each node, by node name.
+	 */
+	private final Map<String, CpuTopology> topologies = new HashMap<String, CpuTopology>();
+	/**
+	 * Reserved cores of each node, by node name.
+	 */
+	private final Map<String, boolean[]> reserved = new HashMap<String, boolean[]>();
+	/**
+	 * Reserved cores of the topology each placement was made with.
+	 */
+	private final Map<Placement, boolean[]> placements = new IdentityHashMap<Placement, boolean[]>();
+	/**
+	 * Hidden constructor.
+	 */
+	private PlacementAllocator() {
+	}
+	/**
+	 * @return the allocator
+	 */
+	public static PlacementAllocator get() {
+		return INSTANCE;
+	}
+	/**
+	 * Reserves a core in the node of the workspace, waiting for one to be 
+	 * released if necessary.
+	 * @param workspace workspace, used for finding the node
+	 * @param mode placement mode, other than {@link PlacementMode#NONE}
+	 * @param listener listener
+	 * @return the placement, or <code>null</code> if the node topology is 
+	 * not available
+	 * @throws IOException if an error occurs reading the topology
+	 * @throws InterruptedException if interrupted while waiting for a core
+	 */
+	public Placement acquire(FilePath workspace, PlacementMode mode, TaskListener listener) throws IOException, InterruptedException {
+		final Computer computer = workspace.toComputer();
+		if (computer == null) {
+			return null;
+		}
+		final String nodeName = computer.getName();
+		final CpuTopology topology = getTopology(nodeName, workspace);
+		if (topology.isEmpty()) {
+			listener.getLogger().println("CPU topology not available in " + computer.getDisplayName() + ", placement disabled");
+			return null;
+		}
+		synchronized (this) {
+			boolean[] cores = reserved.get(nodeName);
+			if (cores == null) {
+				cores = new boolean[topology.getCores().size()];
+				reserved.put(nodeName, cores);
+			}
+			boolean waiting = false;
+			while (reserved.get(nodeName) == cores) {
+				final int index = choose(topology.getCores(), cores);
+				if (index >= 0) {
+					cores[index] = true;
+					final CpuTopology.Core core = topology.getCores().get(index);
+					final Placement placement = new Placement(mode, nodeName, index, core.getCpus(), core.getNumaNode());
+					placements.put(placement, cores);
+					return placement;
+				}
+				if (!waiting) {
+					listener.getLogger().println("All " + cores.length + " physical cores of " + computer.getDisplayName() 
+							+ " are in use by structure, waiting for one to be released");
+					waiting = true;
+				}
+				wait();
+			}
+		}
+		// the node came online again while waiting, read its topology again
+		return acquire(workspace, mode, listener);
+	}
+	/**
+	 * Releases the core of a placement.
+	 * @param placement placement
+	 */
+	public synchronized void release(Placement placement) {
+		final boolean[] cores = placements.remove(placement);
+		if (cores != null) {
+			cores[placement.getCoreIndex()] = false;
+		}
+		notifyAll();
+	}
+	/**
+	 * Forgets the topology and the reservations of a node, e.g. when it 
+	 * comes online. Processes placed before release their cores in the old 
+	 * topology.
+	 * @param nodeName name of the node, empty for the master
+	 */
+	public void invalidate(String nodeName) {
+		synchronized (topologies) {
+			topologies.remove(nodeName);
+		}
+		synchronized (this) {
+			reserved.remove(nodeName);
+			notifyAll();
+		}
+	}
+	/**
+	 * Gets the topology of a node, reading it once.
+	 */
+	private CpuTopology getTopology(String nodeName, FilePath workspace) throws IOException, InterruptedException {
+		synchronized (topologies) {
+			CpuTopology topology = topologies.get(nodeName);
+			if (topology == null) {
+				topology = workspace.act(new CpuTopology.DetectCallable());
+				topologies.put(nodeName, topology);
+			}
+			return topology;
+		}
+	}
+	/**
+	 * Chooses a free core in the NUMA node with the fewest reserved cores.
+	 * @return core index, or -1 if every core is reserved
+	 */
+	static int choose(List<CpuTopology.Core> topology, boolean[] cores) {
+		final Map<Integer, Integer> load = new HashMap<Integer, Integer>();
+		for (int i = 0; i < cores.length; i++) {
+			final Integer node = topology.get(i).getNumaNode();
+			final Integer current = load.get(node);
+			load.put(node, (current == null ? 0 : current) + (cores[i] ? 1 : 0));
+		}
+		int chosen = -1;
+		int chosenLoad = Integer.MAX_VALUE;
+		for (int i = 0; i < cores.length; i++) {
+			if (cores[i]) {
+				continue;
+			}
+			final int nodeLoad = load.get(topology.get(i).getNumaNode());
+			if (nodeLoad < chosenLoad) {
+				chosen = i;
+				chosenLoad = nodeLoad;
+			}
+		}
+		return chosen;
+	}
+	/**
+	 * Reads the topology of nodes again when they come online.
+	 */
+	@Extension
+	public static final class TopologyListener extends ComputerListener {
+		@Override
+		public void onOnline(Computer c, TaskListener listener) {
+			PlacementAllocator.get().invalidate(c.getName());
+		}
+	}
+}
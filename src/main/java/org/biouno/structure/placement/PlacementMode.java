@@ -0,0 +1,71 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.placement;
+
+/**
+ * How structure processes are placed on the CPUs of a node.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public enum PlacementMode {
+	/**
+	 * Processes are left to the operating system scheduler.
+	 */
+	NONE("none"),
+	/**
+	 * Each process is pinned to one physical core (taskset).
+	 */
+	CORE("core"),
+	/**
+	 * Each process is bound to the CPUs and memory of one NUMA node 
+	 * (numactl).
+	 */
+	NUMA_NODE("numa");
+	/**
+	 * Value used in the job configuration.
+	 */
+	private final String value;
+	private PlacementMode(String value) {
+		this.value = value;
+	}
+	/**
+	 * @return the value used in the job configuration
+	 */
+	public String getValue() {
+		return value;
+	}
+	/**
+	 * Gets a mode by its configuration value. 
+	 * @param value configuration value, may be <code>null</code>
+	 * @return the mode, {@link #NONE} if not found
+	 */
+	public static PlacementMode fromValue(String value) {
+		for (PlacementMode mode : values()) {
+			if (mode.value.equals(value)) {
+				return mode;
+			}
+		}
+		return NONE;
+	}
+}
@@ -0,0 +1,239 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.plot;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+import javax.imageio.ImageIO;
+
+import org.biouno.structure.results.QMatrix;
+
+/**
+ * Renders Distruct-style bar plots of membership coefficients. Each 
+ * individual is a vertical bar split in one segment per cluster. Individuals 
+ * are sorted by population, then by dominant cluster and membership in it.
+ * When there are more individuals than pixel columns, the individuals of 
+ * each column are averaged, so the cost of drawing depends on the size of 
+ * the image, not on the number of individuals.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public final class BarPlotRenderer {
+	/**
+	 * Colours of the clusters, similar to the Distruct defaults.
+	 */
+	private static final Color[] PALETTE = {
+		new Color(0xE69F00), new Color(0x56B4E9), new Color(0x009E73), new Color(0xF0E442), 
+		new Color(0x0072B2), new Color(0xD55E00), new Color(0xCC79A7), new Color(0x999999), 
+		new Color(0x8C510A), new Color(0x01665E), new Color(0x762A83), new Color(0xB2182B), 
+		new Color(0x4D9221), new Color(0x2166AC), new Color(0xFDB863), new Color(0x80CDC1), 
+		new Color(0xC2A5CF), new Color(0xF4A582), new Color(0xA6DBA0), new Color(0x92C5DE)
+	};
+	/**
+	 * Colour of the lines separating populations.
+	 */
+	private static final Color SEPARATOR = Color.BLACK;
+	/**
+	 * Hidden constructor.
+	 */
+	private BarPlotRenderer() {
+	}
+	/**
+	 * @param cluster cluster index
+	 * @return the colour of the cluster
+	 */
+	public static Color getColor(int cluster) {
+		final Color base = PALETTE[cluster % PALETTE.length];
+		// darker shades once the palette is exhausted
+		return cluster < PALETTE.length ? base : base.darker();
+	}
+	/**
+	 * Sorts the individuals by population, dominant cluster and descending 
+	 * membership in the dominant cluster.
+	 * @param q membership coefficients
+	 * @return the individual indexes, in plot order
+	 */
+	public static Integer[] order(final QMatrix q) {
+		final int numInds = q.getNumInds();
+		final Integer[] order = new Integer[numInds];
+		final int[] dominant = new int[numInds];
+		for (int ind = 0; ind < numInds; ind++) {
+			order[ind] = ind;
+			dominant[ind] = q.getDominantCluster(ind);
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				final int byPopulation = comparePopulations(q.getPopulation(a), q.getPopulation(b));
+				if (byPopulation != 0) {
+					return byPopulation;
+				}
+				if (dominant[a] != dominant[b]) {
+					return dominant[a] < dominant[b] ? -1 : 1;
+				}
+				return Float.compare(q.get(b, dominant[b]), q.get(a, dominant[a]));
+			}
+		});
+		return order;
+	}
+	/**
+	 * Writes the plot as PNG.
+	 * @param q membership coefficients
+	 * @param width width in pixels
+	 * @param height height in pixels
+	 * @param output output stream, not closed
+	 * @throws IOException if an error occurs writing the image
+	 */
+	public static void writePng(QMatrix q, int width, int height, OutputStream output) throws IOException {
+		final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		final int[] white = new int[width * height];
+		Arrays.fill(white, Color.WHITE.getRGB());
+		image.setRGB(0, 0, width, height, white, 0, width);
+		final Bars bars = new Bars(q, width);
+		for (int bar = 0; bar < bars.count; bar++) {
+			final int x0 = Math.round(bars.x[bar]);
+			final int x1 = Math.max(x0 + 1, Math.round(bars.x[bar + 1]));
+			float bottom = height;
+			for (int cluster = 0; cluster < q.getK(); cluster++) {
+				final float top = bottom - bars.values[bar * q.getK() + cluster] * height;
+				fill(image, x0, x1, Math.round(top), Math.round(bottom), getColor(cluster).getRGB());
+				bottom = top;
+			}
+			if (bars.separator[bar]) {
+				fill(image, x0, x0 + 1, 0, height, SEPARATOR.getRGB());
+			}
+		}
+		ImageIO.write(image, "png", output);
+	}
+	/**
+	 * Writes the plot as SVG.
+	 * @param q membership coefficients
+	 * @param width width in pixels
+	 * @param height height in pixels
+	 * @param output output stream, not closed
+	 * @throws IOException if an error occurs writing the image
+	 */
+	public static void writeSvg(QMatrix q, int width, int height, OutputStream output) throws IOException {
+		final Writer writer = new OutputStreamWriter(output, "UTF-8");
+		writer.write("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"" + width + "\" height=\"" + height 
+				+ "\" viewBox=\"0 0 " + width + " " + height + "\" shape-rendering=\"crispEdges\">\n");
+		writer.write("<rect width=\"" + width + "\" height=\"" + height + "\" fill=\"#ffffff\"/>\n");
+		final Bars bars = new Bars(q, width);
+		for (int bar = 0; bar < bars.count; bar++) {
+			final float x0 = bars.x[bar];
+			final float barWidth = bars.x[bar + 1] - x0;
+			float bottom = height;
+			for (int cluster = 0; cluster < q.getK(); cluster++) {
+				final float segment = bars.values[bar * q.getK() + cluster] * height;
+				if (segment > 0f) {
+					writer.write(String.format(Locale.ENGLISH, 
+							"<rect x=\"%.2f\" y=\"%.2f\" width=\"%.2f\" height=\"%.2f\" fill=\"#%06x\"/>\n", 
+							x0, bottom - segment, barWidth, segment, getColor(cluster).getRGB() & 0xFFFFFF));
+				}
+				bottom -= segment;
+			}
+			if (bars.separator[bar]) {
+				writer.write(String.format(Locale.ENGLISH, 
+						"<line x1=\"%.2f\" y1=\"0\" x2=\"%.2f\" y2=\"%d\" stroke=\"#000000\"/>\n", x0, x0, height));
+			}
+		}
+		writer.write("</svg>\n");
+		writer.flush();
+	}
+	private static void fill(BufferedImage image, int x0, int x1, int y0, int y1, int rgb) {
+		for (int x = Math.max(0, x0); x < Math.min(x1, image.getWidth()); x++) {
+			for (int y = Math.max(0, y0); y < Math.min(y1, image.getHeight()); y++) {
+				image.setRGB(x, y, rgb);
+			}
+		}
+	}
+	private static int comparePopulations(String a, String b) {
+		if (a == null) {
+			return b == null ? 0 : 1;
+		}
+		if (b == null) {
+			return -1;
+		}
+		return a.compareTo(b);
+	}
+	/**
+	 * The bars drawn: one per individual, or one per pixel column when there 
+	 * are more individuals than columns.
+	 */
+	private static final class Bars {
+		/**
+		 * Number of bars.
+		 */
+		private final int count;
+		/**
+		 * Left coordinate of each bar, plus the right end of the last one.
+		 */
+		private final float[] x;
+		/**
+		 * Membership coefficients of each bar, <code>[bar * k + cluster]</code>.
+		 */
+		private final float[] values;
+		/**
+		 * Whether a population starts at the bar.
+		 */
+		private final boolean[] separator;
+		Bars(QMatrix q, int width) {
+			final Integer[] order = order(q);
+			final int numInds = order.length;
+			final int k = q.getK();
+			count = Math.min(numInds, width);
+			x = new float[count + 1];
+			values = new float[count * k];
+			separator = new boolean[count];
+			for (int bar = 0; bar <= count; bar++) {
+				x[bar] = count == 0 ? 0f : (float) bar * width / count;
+			}
+			for (int bar = 0; bar < count; bar++) {
+				final int first = (int) ((long) bar * numInds / count);
+				final int last = (int) ((long) (bar + 1) * numInds / count);
+				for (int i = first; i < last; i++) {
+					for (int cluster = 0; cluster < k; cluster++) {
+						values[bar * k + cluster] += q.get(order[i], cluster);
+					}
+					if (i > 0 && !equal(q.getPopulation(order[i]), q.getPopulation(order[i - 1]))) {
+						separator[bar] = true;
+					}
+				}
+				for (int cluster = 0; cluster < k; cluster++) {
+					values[bar * k + cluster] /= (last - first);
+				}
+			}
+		}
+		private static boolean equal(String a, String b) {
+			return a == null ? b == null : a.equals(b);
+		}
+	}
+}
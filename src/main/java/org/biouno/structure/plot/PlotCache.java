@@ -0,0 +1,127 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.plot;
+
+import hudson.Util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.biouno.structure.results.QMatrix;
+
+/**
+ * Disk cache of rendered plots. Plots are kept in a directory of the build, 
+ * named after a digest of everything that affects the image, which is also 
+ * used as the HTTP entity tag. A plot is rendered once, and later requests 
+ * only read the file.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class PlotCache {
+	/**
+	 * Directory, within the build directory, where the plots are cached.
+	 */
+	public static final String DIRECTORY = "structure-plots";
+	/**
+	 * Loads the membership coefficients of a plot not rendered yet.
+	 */
+	public interface Source {
+		/**
+		 * @return the membership coefficients
+		 * @throws IOException if an error occurs reading the results
+		 * @throws InterruptedException if interrupted
+		 */
+		QMatrix load() throws IOException, InterruptedException;
+	}
+	/**
+	 * Cache directory.
+	 */
+	private final File directory;
+	/**
+	 * Constructor with args.
+	 * @param directory cache directory
+	 */
+	public PlotCache(File directory) {
+		this.directory = directory;
+	}
+	/**
+	 * Creates the key of a plot.
+	 * @param parts everything that affects the image
+	 * @return the key, also usable as entity tag
+	 */
+	public static String key(Object... parts) {
+		final StringBuilder sb = new StringBuilder();
+		for (Object part : parts) {
+			sb.append(part).append('|');
+		}
+		return Util.getDigestOf(sb.toString());
+	}
+	/**
+	 * Gets a plot, rendering it if it is not in the cache.
+	 * @param key key of the plot
+	 * @param format format
+	 * @param width width in pixels
+	 * @param height height in pixels
+	 * @param source membership coefficients, only loaded on a cache miss
+	 * @return the plot file
+	 * @throws IOException if an error occurs reading the results or writing 
+	 * the plot
+	 * @throws InterruptedException if interrupted
+	 */
+	public File get(String key, PlotFormat format, int width, int height, Source source) 
+			throws IOException, InterruptedException {
+		final File plot = new File(directory, key + "." + format.getExtension());
+		if (plot.isFile()) {
+			return plot;
+		}
+		final QMatrix q = source.load();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Failed to create directory " + directory);
+		}
+		// concurrent requests may render the same plot, the file is only 
+		// visible once complete
+		final File temp = File.createTempFile(key, ".tmp", directory);
+		try {
+			final OutputStream output = new BufferedOutputStream(new FileOutputStream(temp));
+			try {
+				if (format == PlotFormat.SVG) {
+					BarPlotRenderer.writeSvg(q, width, height, output);
+				} else {
+					BarPlotRenderer.writePng(q, width, height, output);
+				}
+			} finally {
+				output.close();
+			}
+			if (!temp.renameTo(plot) && !plot.isFile()) {
+				throw new IOException("Failed to create " + plot);
+			}
+		} finally {
+			temp.delete();
+		}
+		return plot;
+	}
+}
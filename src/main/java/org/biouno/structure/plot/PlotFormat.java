@@ -0,0 +1,70 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.plot;
+
+/**
+ * Formats of the rendered plots.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public enum PlotFormat {
+	PNG("png", "image/png"),
+	SVG("svg", "image/svg+xml");
+	/**
+	 * File extension.
+	 */
+	private final String extension;
+	/**
+	 * Content type.
+	 */
+	private final String contentType;
+	private PlotFormat(String extension, String contentType) {
+		this.extension = extension;
+		this.contentType = contentType;
+	}
+	/**
+	 * @return the file extension
+	 */
+	public String getExtension() {
+		return extension;
+	}
+	/**
+	 * @return the content type
+	 */
+	public String getContentType() {
+		return contentType;
+	}
+	/**
+	 * @param extension file extension, may be <code>null</code>
+	 * @return the format, PNG by default
+	 */
+	public static PlotFormat fromExtension(String extension) {
+		for (PlotFormat format : values()) {
+			if (format.extension.equalsIgnoreCase(extension)) {
+				return format;
+			}
+		}
+		return PNG;
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.plot;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+
+import org.biouno.structure.trace.TraceSeries;
+
+/**
+ * Renders the Ln Like traces of replicates as SVG line charts, one line per 
+ * replicate, so that the mixing of the chains can be compared. The burn-in, 
+ * when included, is shaded.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public final class TraceChartRenderer {
+	/*
+	 * Margins, in pixels, for the axis labels.
+	 */
+	private static final int LEFT = 70;
+	private static final int RIGHT = 10;
+	private static final int TOP = 10;
+	private static final int BOTTOM = 20;
+	/**
+	 * Hidden constructor.
+	 */
+	private TraceChartRenderer() {
+	}
+	/**
+	 * Writes the chart as SVG. The traces should be downsampled to about the 
+	 * width of the chart.
+	 * @param traces traces
+	 * @param names names of the traces, shown in the legend
+	 * @param width width in pixels
+	 * @param height height in pixels
+	 * @param output output stream, not closed
+	 * @throws IOException if an error occurs writing the chart
+	 */
+	public static void writeSvg(List<TraceSeries> traces, List<String> names, int width, int height, 
+			OutputStream output) throws IOException {
+		long minRep = Long.MAX_VALUE;
+		long maxRep = Long.MIN_VALUE;
+		long burnInEnd = Long.MIN_VALUE;
+		float minLnLike = Float.POSITIVE_INFINITY;
+		float maxLnLike = Float.NEGATIVE_INFINITY;
+		for (TraceSeries trace : traces) {
+			for (int i = 0; i < trace.size(); i++) {
+				minRep = Math.min(minRep, trace.getRep(i));
+				maxRep = Math.max(maxRep, trace.getRep(i));
+				minLnLike = Math.min(minLnLike, trace.getLnLike(i));
+				maxLnLike = Math.max(maxLnLike, trace.getLnLike(i));
+			}
+			if (trace.getBurnInSize() > 0) {
+				burnInEnd = Math.max(burnInEnd, trace.getRep(trace.getBurnInSize() - 1));
+			}
+		}
+		final Writer writer = new OutputStreamWriter(output, "UTF-8");
+		writer.write("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"" + width + "\" height=\"" + height 
+				+ "\" viewBox=\"0 0 " + width + " " + height + "\" font-family=\"sans-serif\" font-size=\"10\">\n");
+		writer.write("<rect width=\"" + width + "\" height=\"" + height + "\" fill=\"#ffffff\"/>\n");
+		final int plotWidth = Math.max(1, width - LEFT - RIGHT);
+		final int plotHeight = Math.max(1, height - TOP - BOTTOM);
+		if (minRep <= maxRep) {
+			final double repRange = Math.max(1, maxRep - minRep);
+			final double lnLikeRange = maxLnLike > minLnLike ? maxLnLike - minLnLike : 1;
+			if (burnInEnd > Long.MIN_VALUE) {
+				writer.write(String.format(Locale.ENGLISH, 
+						"<rect x=\"%d\" y=\"%d\" width=\"%.1f\" height=\"%d\" fill=\"#eeeeee\"/>\n", 
+						LEFT, TOP, (burnInEnd - minRep) / repRange * plotWidth, plotHeight));
+			}
+			for (int t = 0; t < traces.size(); t++) {
+				final TraceSeries trace = traces.get(t);
+				final StringBuilder points = new StringBuilder(trace.size() * 14);
+				for (int i = 0; i < trace.size(); i++) {
+					points.append(String.format(Locale.ENGLISH, "%.1f,%.1f ", 
+							LEFT + (trace.getRep(i) - minRep) / repRange * plotWidth, 
+							TOP + (maxLnLike - trace.getLnLike(i)) / lnLikeRange * plotHeight));
+				}
+				writer.write(String.format(Locale.ENGLISH, 
+						"<polyline fill=\"none\" stroke=\"#%06x\" stroke-width=\"1\" points=\"%s\"/>\n", 
+						BarPlotRenderer.getColor(t).getRGB() & 0xFFFFFF, points.toString().trim()));
+			}
+			writer.write(String.format(Locale.ENGLISH, 
+					"<text x=\"%d\" y=\"%d\" text-anchor=\"end\">%.1f</text>\n", LEFT - 4, TOP + 8, maxLnLike));
+			writer.write(String.format(Locale.ENGLISH, 
+					"<text x=\"%d\" y=\"%d\" text-anchor=\"end\">%.1f</text>\n", LEFT - 4, TOP + plotHeight, minLnLike));
+			writer.write(String.format(Locale.ENGLISH, 
+					"<text x=\"%d\" y=\"%d\">%d</text>\n", LEFT, height - 6, minRep));
+			writer.write(String.format(Locale.ENGLISH, 
+					"<text x=\"%d\" y=\"%d\" text-anchor=\"end\">%d</text>\n", width - RIGHT, height - 6, maxRep));
+		}
+		writer.write(String.format(Locale.ENGLISH, 
+				"<rect x=\"%d\" y=\"%d\" width=\"%d\" height=\"%d\" fill=\"none\" stroke=\"#000000\"/>\n", 
+				LEFT, TOP, plotWidth, plotHeight));
+		for (int t = 0; t < names.size(); t++) {
+			writer.write(String.format(Locale.ENGLISH, 
+					"<text x=\"%d\" y=\"%d\" text-anchor=\"end\" fill=\"#%06x\">%s</text>\n", 
+					width - RIGHT - 4, TOP + 12 * (t + 1), BarPlotRenderer.getColor(t).getRGB() & 0xFFFFFF, 
+					escape(names.get(t))));
+		}
+		writer.write("</svg>\n");
+		writer.flush();
+	}
+	private static String escape(String text) {
+		return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+	}
+}
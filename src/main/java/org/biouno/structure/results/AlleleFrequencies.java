@@ -0,0 +1,159 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.results;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Estimated allele frequencies in each cluster of a structure run. Like 
+ * {@link QMatrix}, the table is a view over primitive buffers, with one row 
+ * per allele: <code>[row * k + cluster]</code>. The rows of locus 
+ * <code>l</code> start at <code>loci[l]</code>.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class AlleleFrequencies {
+	/**
+	 * Number of loci.
+	 */
+	private final int numLoci;
+	/**
+	 * Number of clusters.
+	 */
+	private final int k;
+	/**
+	 * First row of each locus, plus the number of rows.
+	 */
+	private final IntBuffer loci;
+	/**
+	 * Allele code of each row.
+	 */
+	private final IntBuffer alleles;
+	/**
+	 * Frequencies.
+	 */
+	private final FloatBuffer values;
+	/**
+	 * Cluster <code>c</code> of the view is cluster <code>clusters[c]</code> 
+	 * of the buffer, or <code>null</code> for the identity.
+	 */
+	private final int[] clusters;
+	/**
+	 * Constructor with args.
+	 * @param numLoci number of loci
+	 * @param k number of clusters
+	 * @param loci first row of each locus, plus the number of rows
+	 * @param alleles allele code of each row
+	 * @param values frequencies
+	 * @param clusters cluster mapping, or <code>null</code>
+	 */
+	AlleleFrequencies(int numLoci, int k, IntBuffer loci, IntBuffer alleles, FloatBuffer values, int[] clusters) {
+		this.numLoci = numLoci;
+		this.k = k;
+		this.loci = loci;
+		this.alleles = alleles;
+		this.values = values;
+		this.clusters = clusters;
+	}
+	/**
+	 * @return the number of loci
+	 */
+	public int getNumLoci() {
+		return numLoci;
+	}
+	/**
+	 * @return the number of clusters
+	 */
+	public int getK() {
+		return k;
+	}
+	/**
+	 * @param locus locus index
+	 * @return the number of alleles of the locus
+	 */
+	public int getNumAlleles(int locus) {
+		return loci.get(locus + 1) - loci.get(locus);
+	}
+	/**
+	 * @param locus locus index
+	 * @param allele allele index within the locus
+	 * @return the allele code
+	 */
+	public int getAllele(int locus, int allele) {
+		return alleles.get(loci.get(locus) + allele);
+	}
+	/**
+	 * @param locus locus index
+	 * @param allele allele index within the locus
+	 * @param cluster cluster index
+	 * @return the frequency of the allele in the cluster
+	 */
+	public float get(int locus, int allele, int cluster) {
+		return values.get((loci.get(locus) + allele) * k + (clusters == null ? cluster : clusters[cluster]));
+	}
+	/**
+	 * Computes the expected heterozygosity of each cluster, averaged over the 
+	 * loci, as reported by structure.
+	 * @return the expected heterozygosity of each cluster
+	 */
+	public double[] getExpectedHeterozygosity() {
+		final double[] heterozygosity = new double[k];
+		if (numLoci == 0) {
+			return heterozygosity;
+		}
+		final double[] homozygosity = new double[k];
+		for (int locus = 0; locus < numLoci; locus++) {
+			Arrays.fill(homozygosity, 0);
+			for (int allele = 0; allele < getNumAlleles(locus); allele++) {
+				for (int cluster = 0; cluster < k; cluster++) {
+					final float frequency = get(locus, allele, cluster);
+					homozygosity[cluster] += frequency * frequency;
+				}
+			}
+			for (int cluster = 0; cluster < k; cluster++) {
+				heterozygosity[cluster] += 1 - homozygosity[cluster];
+			}
+		}
+		for (int cluster = 0; cluster < k; cluster++) {
+			heterozygosity[cluster] /= numLoci;
+		}
+		return heterozygosity;
+	}
+	/**
+	 * Creates a view of the table with the clusters reordered, as aligned by 
+	 * {@link ClusterAligner}. The frequencies are not copied.
+	 * @param permutation new cluster <code>c</code> is the old cluster 
+	 * <code>permutation[c]</code>
+	 * @return AlleleFrequencies
+	 */
+	public AlleleFrequencies permute(int[] permutation) {
+		final int[] permuted = new int[k];
+		for (int cluster = 0; cluster < k; cluster++) {
+			permuted[cluster] = clusters == null ? permutation[cluster] : clusters[permutation[cluster]];
+		}
+		return new AlleleFrequencies(numLoci, k, loci, alleles, values, permuted);
+	}
+}
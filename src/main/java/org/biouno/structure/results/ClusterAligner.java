@@ -0,0 +1,135 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.results;
+
+/**
+ * Aligns the clusters of replicate runs with the same K, which are labelled 
+ * arbitrarily by each run (label switching). The clusters of a run are 
+ * permuted to maximise their similarity with the clusters of a reference 
+ * run. Every permutation is tried for small K, and a greedy matching is used 
+ * for larger K.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public final class ClusterAligner {
+	/**
+	 * Largest K for which every permutation is tried.
+	 */
+	private static final int EXHAUSTIVE_MAX_K = 8;
+	/**
+	 * Hidden constructor.
+	 */
+	private ClusterAligner() {
+	}
+	/**
+	 * Finds the permutation of the clusters of a run that best matches the 
+	 * reference run.
+	 * @param reference reference matrix
+	 * @param other matrix aligned to the reference, with the same individuals
+	 * @return permutation, to be used with {@link QMatrix#permute(int[])}
+	 */
+	public static int[] align(QMatrix reference, QMatrix other) {
+		final int k = Math.min(reference.getK(), other.getK());
+		final int numInds = Math.min(reference.getNumInds(), other.getNumInds());
+		// similarity between reference cluster a and other cluster b
+		final double[][] similarity = new double[k][k];
+		for (int ind = 0; ind < numInds; ind++) {
+			for (int a = 0; a < k; a++) {
+				final float ref = reference.get(ind, a);
+				if (ref == 0f) {
+					continue;
+				}
+				for (int b = 0; b < k; b++) {
+					similarity[a][b] += ref * other.get(ind, b);
+				}
+			}
+		}
+		if (k <= EXHAUSTIVE_MAX_K) {
+			final int[] best = identity(k);
+			final int[] current = identity(k);
+			final double[] bestScore = { score(similarity, best) };
+			permutations(similarity, current, 0, best, bestScore);
+			return best;
+		}
+		return greedy(similarity, k);
+	}
+	private static void permutations(double[][] similarity, int[] current, int position, int[] best, double[] bestScore) {
+		if (position == current.length) {
+			final double score = score(similarity, current);
+			if (score > bestScore[0]) {
+				bestScore[0] = score;
+				System.arraycopy(current, 0, best, 0, current.length);
+			}
+			return;
+		}
+		for (int i = position; i < current.length; i++) {
+			swap(current, position, i);
+			permutations(similarity, current, position + 1, best, bestScore);
+			swap(current, position, i);
+		}
+	}
+	private static int[] greedy(double[][] similarity, int k) {
+		final int[] permutation = new int[k];
+		final boolean[] usedReference = new boolean[k];
+		final boolean[] usedOther = new boolean[k];
+		for (int step = 0; step < k; step++) {
+			int bestA = -1;
+			int bestB = -1;
+			for (int a = 0; a < k; a++) {
+				if (usedReference[a]) {
+					continue;
+				}
+				for (int b = 0; b < k; b++) {
+					if (!usedOther[b] && (bestA < 0 || similarity[a][b] > similarity[bestA][bestB])) {
+						bestA = a;
+						bestB = b;
+					}
+				}
+			}
+			permutation[bestA] = bestB;
+			usedReference[bestA] = true;
+			usedOther[bestB] = true;
+		}
+		return permutation;
+	}
+	private static double score(double[][] similarity, int[] permutation) {
+		double score = 0;
+		for (int a = 0; a < permutation.length; a++) {
+			score += similarity[a][permutation[a]];
+		}
+		return score;
+	}
+	private static int[] identity(int k) {
+		final int[] identity = new int[k];
+		for (int i = 0; i < k; i++) {
+			identity[i] = i;
+		}
+		return identity;
+	}
+	private static void swap(int[] values, int i, int j) {
+		final int tmp = values[i];
+		values[i] = values[j];
+		values[j] = tmp;
+	}
+}
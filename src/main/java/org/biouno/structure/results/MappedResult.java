@@ -0,0 +1,353 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.results;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Results of a structure run stored by a {@link ResultStore}. The membership 
+ * coefficients and the allele frequencies are memory mapped when a view is 
+ * requested, so they are read from the page cache of the operating system 
+ * instead of being copied to the heap.
+ * <p>
+ * Each request gets its own result, and must close it at the end of the 
+ * request. Concurrent requests for the same stored file share one mapping, 
+ * with its file open and its sections mapped once, which is unmapped when 
+ * the last of them closes its result. A mapping replaced in the store, e.g. 
+ * when the output file changes, is no longer shared, and is unmapped once the 
+ * requests still reading it close their results, so a view is never unmapped 
+ * while a request uses it. Until a mapping is released, Windows refuses to 
+ * replace or delete the file. Buffers are unmapped with the cleaner of the 
+ * JDK; where it is not accessible they are released when garbage collected, 
+ * and replacing the file may fail until then. Views obtained from a result 
+ * must not be used after it is closed.
+ * <p>
+ * The file starts with a header: magic, version, the digest of the output 
+ * file it was parsed from (an int length and UTF-8 bytes), and ints with the 
+ * number of individuals, K, number of loci, number of allele rows and number 
+ * of bytes of strings. The sections follow: membership coefficients (floats), 
+ * percentage of missing data (ints), offsets of the label and population of 
+ * each individual (ints), allele rows of each locus (ints), allele codes 
+ * (ints), allele frequencies (floats) and the UTF-8 bytes of the strings.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class MappedResult implements Closeable {
+	private static final Logger LOGGER = Logger.getLogger("org.biouno.structure");
+	/*
+	 * Header.
+	 */
+	static final int MAGIC = 0x53545255;
+	static final int VERSION = 2;
+	/**
+	 * Mappings shared by the open results, by stored file.
+	 */
+	private static final Map<File, Mapping> MAPPINGS = new HashMap<File, Mapping>();
+	/*
+	 * Unsafe.invokeCleaner, in Java 9 and later.
+	 */
+	private static final Object UNSAFE;
+	private static final Method INVOKE_CLEANER;
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		try {
+			final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			unsafe = theUnsafe.get(null);
+		} catch (Exception e) {
+			// before Java 9, the cleaner of the buffer is used
+			invokeCleaner = null;
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+	}
+	/**
+	 * Whether a failure to unmap was logged already.
+	 */
+	private static final AtomicBoolean UNMAP_FAILURE_LOGGED = new AtomicBoolean();
+	/**
+	 * Shared mapping of the stored file.
+	 */
+	private final Mapping mapping;
+	/**
+	 * Whether this result was closed.
+	 */
+	private boolean closed = false;
+	/**
+	 * Constructor with args.
+	 * @param mapping shared mapping, already counting this result
+	 */
+	private MappedResult(Mapping mapping) {
+		this.mapping = mapping;
+	}
+	/**
+	 * Opens a stored file, sharing its mapping with the other open results of 
+	 * the same file.
+	 * @param file stored file
+	 * @return MappedResult, to be closed
+	 * @throws IOException if the file cannot be read or is not a stored result
+	 */
+	static MappedResult open(File file) throws IOException {
+		synchronized (MAPPINGS) {
+			final Mapping mapping = MAPPINGS.get(file);
+			if (mapping != null) {
+				mapping.references++;
+				return new MappedResult(mapping);
+			}
+		}
+		final Mapping mapping = new Mapping(file);
+		synchronized (MAPPINGS) {
+			final Mapping other = MAPPINGS.get(file);
+			if (other != null) {
+				other.references++;
+				mapping.unmap();
+				return new MappedResult(other);
+			}
+			MAPPINGS.put(file, mapping);
+			return new MappedResult(mapping);
+		}
+	}
+	/**
+	 * Stops sharing the mapping of a stored file, before it is replaced. It 
+	 * is unmapped once the results still using it are closed.
+	 * @param file stored file
+	 */
+	static void evict(File file) {
+		synchronized (MAPPINGS) {
+			MAPPINGS.remove(file);
+		}
+	}
+	/**
+	 * @return the digest of the output file the result was parsed from
+	 */
+	public String getDigest() {
+		return mapping.digest;
+	}
+	/**
+	 * @return the number of individuals
+	 */
+	public int getNumInds() {
+		return mapping.numInds;
+	}
+	/**
+	 * @return the number of clusters
+	 */
+	public int getK() {
+		return mapping.k;
+	}
+	/**
+	 * @return the number of loci with allele frequencies
+	 */
+	public int getNumLoci() {
+		return mapping.numLoci;
+	}
+	/**
+	 * Maps the membership coefficients.
+	 * @return QMatrix backed by the file
+	 * @throws IOException if an error occurs mapping the file
+	 */
+	public QMatrix getQ() throws IOException {
+		final int numInds = mapping.numInds;
+		final int k = mapping.k;
+		long position = mapping.headerSize;
+		final ByteBuffer values = map(position, 4L * numInds * k);
+		position += 4L * numInds * k;
+		final ByteBuffer missing = map(position, 4L * numInds);
+		position += 4L * numInds;
+		final ByteBuffer offsets = map(position, 4L * (2L * numInds + 1));
+		final ByteBuffer strings = map(getStringsPosition(), mapping.stringBytes);
+		return new QMatrix(numInds, k, values.asFloatBuffer(), missing.asIntBuffer(), 
+				StringColumn.mapped(offsets.asIntBuffer(), strings, 2, 0), 
+				StringColumn.mapped(offsets.asIntBuffer(), strings, 2, 1), null);
+	}
+	/**
+	 * Maps the allele frequencies.
+	 * @return AlleleFrequencies backed by the file
+	 * @throws IOException if an error occurs mapping the file
+	 */
+	public AlleleFrequencies getFrequencies() throws IOException {
+		final int numInds = mapping.numInds;
+		final int k = mapping.k;
+		final int numLoci = mapping.numLoci;
+		final int numRows = mapping.numRows;
+		long position = mapping.headerSize + 4L * numInds * k + 4L * numInds + 4L * (2L * numInds + 1);
+		final ByteBuffer loci = map(position, 4L * (numLoci + 1));
+		position += 4L * (numLoci + 1);
+		final ByteBuffer alleles = map(position, 4L * numRows);
+		position += 4L * numRows;
+		final ByteBuffer values = map(position, 4L * numRows * k);
+		return new AlleleFrequencies(numLoci, k, loci.asIntBuffer(), alleles.asIntBuffer(), values.asFloatBuffer(), null);
+	}
+	private long getStringsPosition() {
+		final int numInds = mapping.numInds;
+		final int k = mapping.k;
+		return mapping.headerSize + 4L * numInds * k + 4L * numInds + 4L * (2L * numInds + 1) 
+				+ 4L * (mapping.numLoci + 1) + 4L * mapping.numRows + 4L * mapping.numRows * k;
+	}
+	private ByteBuffer map(long position, long size) throws IOException {
+		synchronized (this) {
+			if (closed) {
+				throw new IOException("Closed: " + mapping.file);
+			}
+		}
+		return mapping.map(position, size);
+	}
+	/**
+	 * Closes this result, whose views must not be used anymore. The shared 
+	 * mapping is unmapped if no other result uses it.
+	 */
+	public void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		synchronized (MAPPINGS) {
+			if (--mapping.references > 0) {
+				return;
+			}
+			if (MAPPINGS.get(mapping.file) == mapping) {
+				MAPPINGS.remove(mapping.file);
+			}
+		}
+		mapping.unmap();
+	}
+	/**
+	 * Unmaps a buffer with the cleaner of the JDK, if accessible.
+	 * @param buffer mapped buffer
+	 */
+	private static void unmap(ByteBuffer buffer) {
+		try {
+			if (INVOKE_CLEANER != null) {
+				INVOKE_CLEANER.invoke(UNSAFE, buffer);
+				return;
+			}
+			final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			final Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner != null) {
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+		} catch (Exception e) {
+			if (UNMAP_FAILURE_LOGGED.compareAndSet(false, true)) {
+				LOGGER.log(Level.INFO, "Could not unmap a stored structure result, mapped results are released " 
+						+ "when garbage collected", e);
+			}
+		}
+	}
+	/**
+	 * A stored file, open with its header read, and its mapped sections. 
+	 * Shared by the results open on it, and counting them.
+	 */
+	private static final class Mapping {
+		private final File file;
+		private final RandomAccessFile input;
+		/**
+		 * Mapped sections, by position and size.
+		 */
+		private final Map<String, ByteBuffer> buffers = new HashMap<String, ByteBuffer>();
+		/**
+		 * Number of open results, guarded by {@link MappedResult#MAPPINGS}.
+		 */
+		private int references = 1;
+		/*
+		 * Header.
+		 */
+		private final String digest;
+		private final int headerSize;
+		private final int numInds;
+		private final int k;
+		private final int numLoci;
+		private final int numRows;
+		private final int stringBytes;
+		Mapping(File file) throws IOException {
+			this.file = file;
+			// kept open, so the sections come from this file even if it is 
+			// replaced later
+			input = new RandomAccessFile(file, "r");
+			try {
+				if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+					throw new IOException("Not a stored structure result: " + file);
+				}
+				final int digestBytes = input.readInt();
+				if (digestBytes < 0 || digestBytes > input.length()) {
+					throw new IOException("Not a stored structure result: " + file);
+				}
+				final byte[] bytes = new byte[digestBytes];
+				input.readFully(bytes);
+				digest = new String(bytes, "UTF-8");
+				headerSize = 3 * 4 + digestBytes + 5 * 4;
+				numInds = input.readInt();
+				k = input.readInt();
+				numLoci = input.readInt();
+				numRows = input.readInt();
+				stringBytes = input.readInt();
+			} catch (IOException e) {
+				input.close();
+				throw e;
+			}
+		}
+		synchronized ByteBuffer map(long position, long size) throws IOException {
+			final String key = position + ":" + size;
+			ByteBuffer buffer = buffers.get(key);
+			if (buffer == null) {
+				final FileChannel channel = input.getChannel();
+				if (size > Integer.MAX_VALUE || position + size > channel.size()) {
+					throw new IOException("Invalid section of " + size + " bytes at " + position + " in " + file);
+				}
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+				buffers.put(key, buffer);
+			}
+			// the views of each request have their own position
+			return buffer.duplicate();
+		}
+		synchronized void unmap() {
+			for (ByteBuffer buffer : buffers.values()) {
+				MappedResult.unmap(buffer);
+			}
+			buffers.clear();
+			try {
+				input.close();
+			} catch (IOException e) {
+				LOGGER.log(Level.FINE, "Could not close a stored structure result", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.results;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Membership coefficients (Q) of the individuals of a structure run, stored 
+ * as a primitive matrix <code>[individual * k + cluster]</code>. The matrix is 
+ * a view over a float buffer, either on the heap or mapped from a 
+ * {@link MappedResult}, so reordering the clusters creates no copy.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class QMatrix {
+	/**
+	 * Number of individuals.
+	 */
+	private final int numInds;
+	/**
+	 * Number of clusters.
+	 */
+	private final int k;
+	/**
+	 * Membership coefficients.
+	 */
+	private final FloatBuffer values;
+	/**
+	 * Percentage of missing data of the individuals, or <code>null</code> if 
+	 * unknown.
+	 */
+	private final IntBuffer missing;
+	/**
+	 * Individual labels.
+	 */
+	private final StringColumn labels;
+	/**
+	 * Individual populations, entries may be <code>null</code>.
+	 */
+	private final StringColumn populations;
+	/**
+	 * Cluster <code>c</code> of the view is cluster <code>clusters[c]</code> 
+	 * of the buffer, or <code>null</code> for the identity.
+	 */
+	private final int[] clusters;
+	/**
+	 * Constructor with args.
+	 * @param numInds number of individuals
+	 * @param k number of clusters
+	 * @param values membership coefficients
+	 * @param labels individual labels
+	 * @param populations individual populations
+	 */
+	public QMatrix(int numInds, int k, float[] values, String[] labels, String[] populations) {
+		this(numInds, k, FloatBuffer.wrap(values), null, StringColumn.of(labels), StringColumn.of(populations), null);
+	}
+	/**
+	 * Constructor with args.
+	 * @param numInds number of individuals
+	 * @param k number of clusters
+	 * @param values membership coefficients
+	 * @param missing percentage of missing data, or <code>null</code>
+	 * @param labels individual labels
+	 * @param populations individual populations
+	 * @param clusters cluster mapping, or <code>null</code>
+	 */
+	QMatrix(int numInds, int k, FloatBuffer values, IntBuffer missing, StringColumn labels, StringColumn populations, 
+			int[] clusters) {
+		this.numInds = numInds;
+		this.k = k;
+		this.values = values;
+		this.missing = missing;
+		this.labels = labels;
+		this.populations = populations;
+		this.clusters = clusters;
+	}
+	/**
+	 * @return the number of individuals
+	 */
+	public int getNumInds() {
+		return numInds;
+	}
+	/**
+	 * @return the number of clusters
+	 */
+	public int getK() {
+		return k;
+	}
+	/**
+	 * @param ind individual index
+	 * @param cluster cluster index
+	 * @return the membership coefficient
+	 */
+	public float get(int ind, int cluster) {
+		return values.get(ind * k + (clusters == null ? cluster : clusters[cluster]));
+	}
+	/**
+	 * @param ind individual index
+	 * @return the label
+	 */
+	public String getLabel(int ind) {
+		return labels.get(ind);
+	}
+	/**
+	 * @param ind individual index
+	 * @return the percentage of missing data, or -1 if unknown
+	 */
+	public int getPercentMissing(int ind) {
+		return missing == null ? -1 : missing.get(ind);
+	}
+	/**
+	 * @param ind individual index
+	 * @return the population, or <code>null</code>
+	 */
+	public String getPopulation(int ind) {
+		return populations.get(ind);
+	}
+	/**
+	 * @param ind individual index
+	 * @return the cluster with the largest membership coefficient
+	 */
+	public int getDominantCluster(int ind) {
+		int dominant = 0;
+		for (int cluster = 1; cluster < k; cluster++) {
+			if (get(ind, cluster) > get(ind, dominant)) {
+				dominant = cluster;
+			}
+		}
+		return dominant;
+	}
+	/**
+	 * Creates a view of the matrix with the clusters reordered. The 
+	 * coefficients are not copied.
+	 * @param permutation new cluster <code>c</code> is the old cluster 
+	 * <code>permutation[c]</code>
+	 * @return QMatrix
+	 */
+	public QMatrix permute(int[] permutation) {
+		final int[] permuted = new int[k];
+		for (int cluster = 0; cluster < k; cluster++) {
+			permuted[cluster] = clusters == null ? permutation[cluster] : clusters[permutation[cluster]];
+		}
+		return new QMatrix(numInds, k, values, missing, labels, populations, permuted);
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.results;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * A page of the membership coefficients of a run, read from a 
+ * {@link QMatrix}, usually mapped by a {@link ResultStore}, so the whole 
+ * matrix is never copied to the heap.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class QRowQuery {
+	/*
+	 * Column names. Membership coefficients are named q1 to qK.
+	 */
+	public static final String COLUMN_INDEX = "index";
+	public static final String COLUMN_LABEL = "label";
+	public static final String COLUMN_MISSING = "missing";
+	public static final String COLUMN_POPULATION = "population";
+	public static final String COLUMN_Q_PREFIX = "q";
+	/**
+	 * Index of the first matching row returned.
+	 */
+	private final int offset;
+	/**
+	 * Maximum number of rows returned.
+	 */
+	private final int limit;
+	/**
+	 * Columns returned, or empty for all.
+	 */
+	private final Collection<String> columns;
+	/**
+	 * Populations of the rows returned, or empty for all.
+	 */
+	private final Collection<String> populations;
+	/**
+	 * Constructor with args.
+	 * @param offset index of the first matching row returned
+	 * @param limit maximum number of rows returned
+	 * @param columns columns returned, or empty for all
+	 * @param populations populations of the rows returned, or empty for all
+	 */
+	public QRowQuery(int offset, int limit, Collection<String> columns, Collection<String> populations) {
+		this.offset = offset;
+		this.limit = limit;
+		this.columns = columns == null ? Collections.<String>emptyList() : columns;
+		this.populations = populations == null ? Collections.<String>emptyList() : populations;
+	}
+	/**
+	 * Reads the page from a matrix. Only the individuals before the end of 
+	 * the page are visited.
+	 * @param q membership coefficients
+	 * @return JSON object with the <code>offset</code>, <code>limit</code>, 
+	 * <code>rows</code> and whether there are <code>more</code> rows
+	 */
+	public JSONObject execute(QMatrix q) {
+		final List<JSONObject> rows = new ArrayList<JSONObject>();
+		final double[] values = new double[q.getK()];
+		boolean more = false;
+		int matched = 0;
+		for (int ind = 0; ind < q.getNumInds(); ind++) {
+			final String population = q.getPopulation(ind);
+			if (!populations.isEmpty() && !populations.contains(population)) {
+				continue;
+			}
+			if (matched++ < offset) {
+				continue;
+			}
+			if (rows.size() == limit) {
+				more = true;
+				break;
+			}
+			for (int cluster = 0; cluster < values.length; cluster++) {
+				// shortest decimal of the float, as printed by structure
+				values[cluster] = Double.parseDouble(Float.toString(q.get(ind, cluster)));
+			}
+			rows.add(toRow(ind, q.getLabel(ind), q.getPercentMissing(ind), population, values));
+		}
+		return toPage(rows, more);
+	}
+	private JSONObject toPage(List<JSONObject> rows, boolean more) {
+		final JSONObject page = new JSONObject();
+		page.put("offset", offset);
+		page.put("limit", limit);
+		page.put("more", more);
+		page.put("rows", JSONArray.fromObject(rows));
+		return page;
+	}
+	private JSONObject toRow(int index, String label, int percentMissing, String population, double[] q) {
+		final JSONObject row = new JSONObject();
+		if (selected(COLUMN_INDEX)) {
+			row.put(COLUMN_INDEX, index);
+		}
+		if (selected(COLUMN_LABEL)) {
+			row.put(COLUMN_LABEL, label);
+		}
+		if (selected(COLUMN_MISSING) && percentMissing >= 0) {
+			row.put(COLUMN_MISSING, percentMissing);
+		}
+		if (selected(COLUMN_POPULATION) && population != null) {
+			row.put(COLUMN_POPULATION, population);
+		}
+		for (int cluster = 0; cluster < q.length; cluster++) {
+			final String column = COLUMN_Q_PREFIX + (cluster + 1);
+			if (selected(column)) {
+				row.put(column, q[cluster]);
+			}
+		}
+		return row;
+	}
+	private boolean selected(String column) {
+		return columns.isEmpty() || columns.contains(column);
+	}
+}
@@ -0,0 +1,329 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.results;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.biouno.structure.parser.OutputFileParser;
+
+/**
+ * Disk store of the results of structure runs, in a directory of the build. 
+ * The output file of a run is parsed once, streaming, into a binary 
+ * {@link MappedResult}, and later requests map that file. Neither the output 
+ * file nor the matrices are ever held on the heap, whatever the number of 
+ * individuals, loci and K.
+ * <p>
+ * Results are stored by name, with the digest of the output file in their 
+ * header, so a changed output file replaces its stored result instead of 
+ * adding another one. Concurrent misses of the same name are serialised, so 
+ * the output file is parsed once. Concurrent requests share the mapping of a 
+ * stored file, see {@link MappedResult}.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class ResultStore {
+	/**
+	 * Directory, within the build directory, where the results are stored.
+	 */
+	public static final String DIRECTORY = "structure-results";
+	/**
+	 * Extension of stored results.
+	 */
+	public static final String EXTENSION = ".results";
+	/**
+	 * Opens the output file of a result not stored yet.
+	 */
+	public interface Source {
+		/**
+		 * @return output file reader, closed by the store
+		 * @throws IOException if an error occurs opening the file
+		 * @throws InterruptedException if interrupted
+		 */
+		Reader open() throws IOException, InterruptedException;
+	}
+	/**
+	 * Locks of the stored files being read or written, with the number of 
+	 * requests using each lock.
+	 */
+	private static final Map<File, int[]> LOCKS = new HashMap<File, int[]>();
+	/**
+	 * Store directory.
+	 */
+	private final File directory;
+	/**
+	 * Constructor with args.
+	 * @param directory store directory
+	 */
+	public ResultStore(File directory) {
+		this.directory = directory;
+	}
+	/**
+	 * Gets a result, parsing its output file if it is not in the store or if 
+	 * the output file changed.
+	 * @param name name of the result, e.g. a digest of the path of the output 
+	 * file
+	 * @param digest digest of the output file, e.g. of its size and 
+	 * modification time
+	 * @param source output file, only read on a store miss
+	 * @return MappedResult, to be closed by the caller
+	 * @throws IOException if an error occurs reading the output file or 
+	 * writing the store
+	 * @throws InterruptedException if interrupted
+	 */
+	public MappedResult get(String name, String digest, Source source) throws IOException, InterruptedException {
+		final File file = new File(directory, name + EXTENSION);
+		final int[] lock = lock(file);
+		try {
+			synchronized (lock) {
+				if (file.isFile()) {
+					try {
+						final MappedResult result = MappedResult.open(file);
+						if (digest.equals(result.getDigest())) {
+							return result;
+						}
+						result.close();
+					} catch (IOException ioe) {
+						// written by an older version, replaced below
+					}
+				}
+				// requests still reading the previous file keep its mapping
+				MappedResult.evict(file);
+				store(file, digest, source);
+				return MappedResult.open(file);
+			}
+		} finally {
+			unlock(file, lock);
+		}
+	}
+	private void store(File file, String digest, Source source) throws IOException, InterruptedException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Failed to create directory " + directory);
+		}
+		// the file is only visible once complete
+		final File temp = File.createTempFile(file.getName(), ".tmp", directory);
+		final SectionWriter writer = new SectionWriter(directory);
+		try {
+			final Reader reader = source.open();
+			try {
+				new OutputFileParser().parse(reader, writer);
+			} finally {
+				reader.close();
+			}
+			writer.write(temp, digest);
+			if (!temp.renameTo(file)) {
+				// Windows does not rename over an existing file, nor delete 
+				// it while a request still maps it
+				if (!file.delete() || !temp.renameTo(file)) {
+					throw new IOException("Failed to replace " + file + ", it may still be in use");
+				}
+			}
+		} finally {
+			writer.delete();
+			temp.delete();
+		}
+	}
+	private static int[] lock(File file) {
+		synchronized (LOCKS) {
+			int[] lock = LOCKS.get(file);
+			if (lock == null) {
+				lock = new int[1];
+				LOCKS.put(file, lock);
+			}
+			lock[0]++;
+			return lock;
+		}
+	}
+	private static void unlock(File file, int[] lock) {
+		synchronized (LOCKS) {
+			if (--lock[0] == 0) {
+				LOCKS.remove(file);
+			}
+		}
+	}
+	/**
+	 * Writes the values given by the parser to one temporary file per 
+	 * section, as their sizes are only known at the end of the output file, 
+	 * then concatenates the sections.
+	 */
+	private static final class SectionWriter implements OutputFileParser.FrequencyHandler {
+		private final Section values;
+		private final Section missing;
+		private final Section offsets;
+		private final Section loci;
+		private final Section alleles;
+		private final Section frequencies;
+		private final Section strings;
+		private final List<Section> sections = new ArrayList<Section>();
+		private IOException error;
+		private int numInds = 0;
+		private int k = 0;
+		private int numLoci = 0;
+		private int numRows = 0;
+		private int stringBytes = 0;
+		SectionWriter(File directory) throws IOException {
+			try {
+				values = add(new Section(directory));
+				missing = add(new Section(directory));
+				offsets = add(new Section(directory));
+				loci = add(new Section(directory));
+				alleles = add(new Section(directory));
+				frequencies = add(new Section(directory));
+				strings = add(new Section(directory));
+			} catch (IOException e) {
+				delete();
+				throw e;
+			}
+		}
+		private Section add(Section section) {
+			sections.add(section);
+			return section;
+		}
+		public void metric(String name, double value) {
+		}
+		public boolean individual(int index, String label, int percentMissing, String population, double[] q) {
+			if (k == 0) {
+				k = q.length;
+			}
+			try {
+				writeFloats(values, q);
+				missing.out.writeInt(percentMissing);
+				writeString(label);
+				writeString(population);
+				numInds++;
+				return true;
+			} catch (IOException e) {
+				error = e;
+				return false;
+			}
+		}
+		public boolean allele(int locus, int allele, double[] row) {
+			if (k == 0) {
+				k = row.length;
+			}
+			try {
+				// loci without alleles have no rows
+				while (numLoci <= locus) {
+					loci.out.writeInt(numRows);
+					numLoci++;
+				}
+				alleles.out.writeInt(allele);
+				writeFloats(frequencies, row);
+				numRows++;
+				return true;
+			} catch (IOException e) {
+				error = e;
+				return false;
+			}
+		}
+		private void writeFloats(Section section, double[] row) throws IOException {
+			for (int cluster = 0; cluster < k; cluster++) {
+				section.out.writeFloat(cluster < row.length ? (float) row[cluster] : 0f);
+			}
+		}
+		private void writeString(String value) throws IOException {
+			offsets.out.writeInt(stringBytes);
+			if (value != null) {
+				final byte[] bytes = value.getBytes("UTF-8");
+				strings.out.write(bytes);
+				stringBytes += bytes.length;
+			}
+		}
+		/**
+		 * Writes the stored result.
+		 * @param file destination
+		 * @param digest digest of the output file
+		 * @throws IOException if an error occurred parsing or writing
+		 */
+		void write(File file, String digest) throws IOException {
+			if (error != null) {
+				throw error;
+			}
+			offsets.out.writeInt(stringBytes);
+			loci.out.writeInt(numRows);
+			final FileOutputStream output = new FileOutputStream(file);
+			try {
+				final DataOutputStream header = new DataOutputStream(output);
+				header.writeInt(MappedResult.MAGIC);
+				header.writeInt(MappedResult.VERSION);
+				final byte[] digestBytes = digest.getBytes("UTF-8");
+				header.writeInt(digestBytes.length);
+				header.write(digestBytes);
+				header.writeInt(numInds);
+				header.writeInt(k);
+				header.writeInt(numLoci);
+				header.writeInt(numRows);
+				header.writeInt(stringBytes);
+				header.flush();
+				final FileChannel channel = output.getChannel();
+				for (Section section : sections) {
+					section.out.close();
+					final FileInputStream input = new FileInputStream(section.file);
+					try {
+						final FileChannel in = input.getChannel();
+						long position = 0;
+						while (position < in.size()) {
+							position += in.transferTo(position, in.size() - position, channel);
+						}
+					} finally {
+						input.close();
+					}
+				}
+			} finally {
+				output.close();
+			}
+		}
+		void delete() {
+			for (Section section : sections) {
+				try {
+					section.out.close();
+				} catch (IOException e) {
+					// deleted anyway
+				}
+				section.file.delete();
+			}
+		}
+	}
+	/**
+	 * A temporary file with one section of a stored result.
+	 */
+	private static final class Section {
+		private final File file;
+		private final DataOutputStream out;
+		Section(File directory) throws IOException {
+			file = File.createTempFile("section", ".tmp", directory);
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		}
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.results;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * A column of strings, either held in an array or decoded on demand from 
+ * UTF-8 bytes in a buffer, delimited by offsets.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+abstract class StringColumn {
+	/**
+	 * @param row row index
+	 * @return the string, or <code>null</code>
+	 */
+	abstract String get(int row);
+	/**
+	 * @param values strings
+	 * @return a column backed by the array
+	 */
+	static StringColumn of(final String[] values) {
+		return new StringColumn() {
+			String get(int row) {
+				return values[row];
+			}
+		};
+	}
+	/**
+	 * Creates a column backed by a buffer. Row <code>r</code> is made of the 
+	 * bytes between <code>offsets[r * stride + first]</code> and the next 
+	 * offset. Empty strings are read as <code>null</code>.
+	 * @param offsets offsets of the strings in the bytes
+	 * @param bytes UTF-8 bytes
+	 * @param stride number of offsets per row
+	 * @param first offset of the column within a row
+	 * @return a column backed by the buffers
+	 */
+	static StringColumn mapped(final IntBuffer offsets, final ByteBuffer bytes, final int stride, final int first) {
+		return new StringColumn() {
+			String get(int row) {
+				final int start = offsets.get(row * stride + first);
+				final int end = offsets.get(row * stride + first + 1);
+				if (end <= start) {
+					return null;
+				}
+				final byte[] value = new byte[end - start];
+				for (int i = 0; i < value.length; i++) {
+					value[i] = bytes.get(start + i);
+				}
+				try {
+					return new String(value, "UTF-8");
+				} catch (UnsupportedEncodingException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.results;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.biouno.structure.parser.OutputFileParser;
+
+/**
+ * Metrics of a structure run, read from the beginning of its output file. 
+ * The membership coefficients and allele frequencies are read from a 
+ * {@link MappedResult}, see {@link ResultStore}.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class StructureResult {
+	/*
+	 * Metrics, NaN when not present in the output file.
+	 */
+	private double k = Double.NaN;
+	private double numInds = Double.NaN;
+	private double numLoci = Double.NaN;
+	private double estimatedLnProb = Double.NaN;
+	private double meanLnLikelihood = Double.NaN;
+	private double varianceLnLikelihood = Double.NaN;
+	private double meanAlpha = Double.NaN;
+	/**
+	 * Hidden constructor, see {@link #readMetrics(Reader)}.
+	 */
+	private StructureResult() {
+	}
+	/**
+	 * @return K, or 0 if not found
+	 */
+	public int getK() {
+		return Double.isNaN(k) ? 0 : (int) k;
+	}
+	/**
+	 * @return the number of individuals, or NaN
+	 */
+	public double getNumInds() {
+		return numInds;
+	}
+	/**
+	 * @return the number of loci, or NaN
+	 */
+	public double getNumLoci() {
+		return numLoci;
+	}
+	/**
+	 * @return the estimated ln probability of the data, or NaN
+	 */
+	public double getEstimatedLnProb() {
+		return estimatedLnProb;
+	}
+	/**
+	 * @return the mean ln likelihood, or NaN
+	 */
+	public double getMeanLnLikelihood() {
+		return meanLnLikelihood;
+	}
+	/**
+	 * @return the variance of the ln likelihood, or NaN
+	 */
+	public double getVarianceLnLikelihood() {
+		return varianceLnLikelihood;
+	}
+	/**
+	 * @return the mean alpha, or NaN
+	 */
+	public double getMeanAlpha() {
+		return meanAlpha;
+	}
+	/**
+	 * Reads the metrics of a run, stopping at the inferred ancestry section.
+	 * @param reader output file reader
+	 * @return StructureResult
+	 * @throws IOException if an error occurs reading the file
+	 */
+	public static StructureResult readMetrics(Reader reader) throws IOException {
+		final StructureResult result = new StructureResult();
+		new OutputFileParser().parse(reader, new OutputFileParser.Handler() {
+			public void metric(String name, double value) {
+				if (OutputFileParser.K.equals(name)) {
+					result.k = value;
+				} else if (OutputFileParser.NUMLOCI.equals(name)) {
+					result.numLoci = value;
+				} else if (OutputFileParser.NUMINDS.equals(name)) {
+					result.numInds = value;
+				} else if (OutputFileParser.ESTIMATED_LN_PROB.equals(name)) {
+					result.estimatedLnProb = value;
+				} else if (OutputFileParser.MEAN_LN_LIKELIHOOD.equals(name)) {
+					result.meanLnLikelihood = value;
+				} else if (OutputFileParser.VARIANCE_LN_LIKELIHOOD.equals(name)) {
+					result.varianceLnLikelihood = value;
+				} else if (OutputFileParser.MEAN_ALPHA.equals(name)) {
+					result.meanAlpha = value;
+				}
+			}
+			public boolean individual(int index, String label, int percentMissing, String population, double[] q) {
+				return false;
+			}
+		});
+		return result;
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.throttle;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Permits of the structure processes of one node. Waiting permits are 
+ * granted in order of priority, then to the owner (build) holding the 
+ * fewest permits, then in order of arrival, so that a large batch cannot 
+ * starve the builds queued after it. A permit is granted when the number of 
+ * processes and their estimated memory stay within the limits; a permit 
+ * larger than the memory limit is granted alone. The permit at the head of 
+ * the queue is never overtaken by smaller ones, so it is not starved either.
+ * <p>
+ * Not thread safe, {@link ProcessThrottle} synchronizes the calls.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+class NodeQueue {
+	/**
+	 * Maximum number of processes, 0 for no limit.
+	 */
+	private int maxProcesses;
+	/**
+	 * Maximum estimated memory, in MB, 0 for no limit.
+	 */
+	private long maxMemory;
+	/**
+	 * Number of granted permits.
+	 */
+	private int running;
+	/**
+	 * Estimated memory of the granted permits, in MB.
+	 */
+	private long memory;
+	/**
+	 * Granted permits of each owner.
+	 */
+	private final Map<String, Integer> held = new HashMap<String, Integer>();
+	/**
+	 * Waiting permits, in order of arrival.
+	 */
+	private final List<Permit> waiting = new ArrayList<Permit>();
+	/**
+	 * Updates the limits.
+	 * @param maxProcesses maximum number of processes, 0 for no limit
+	 * @param maxMemory maximum estimated memory, in MB, 0 for no limit
+	 */
+	void setLimits(int maxProcesses, long maxMemory) {
+		this.maxProcesses = Math.max(0, maxProcesses);
+		this.maxMemory = Math.max(0, maxMemory);
+	}
+	/**
+	 * Queues a permit.
+	 * @param permit permit
+	 */
+	void offer(Permit permit) {
+		waiting.add(permit);
+	}
+	/**
+	 * Releases a granted permit, or removes a waiting one.
+	 * @param permit permit
+	 */
+	void release(Permit permit) {
+		if (!permit.isGranted()) {
+			waiting.remove(permit);
+			return;
+		}
+		if (permit.isReleased()) {
+			return;
+		}
+		permit.setReleased();
+		running--;
+		memory -= permit.getMemory();
+		final int count = held.get(permit.getOwner()) - 1;
+		if (count == 0) {
+			held.remove(permit.getOwner());
+		} else {
+			held.put(permit.getOwner(), count);
+		}
+	}
+	/**
+	 * Grants the waiting permits that fit in the limits.
+	 * @return the permits granted
+	 */
+	List<Permit> dispatch() {
+		final List<Permit> granted = new ArrayList<Permit>();
+		while (!waiting.isEmpty()) {
+			final Permit next = next();
+			final boolean fits = (maxProcesses == 0 || running < maxProcesses) 
+					&& (maxMemory == 0 || running == 0 || memory + next.getMemory() <= maxMemory);
+			if (!fits) {
+				break;
+			}
+			waiting.remove(next);
+			grant(next);
+			granted.add(next);
+		}
+		return granted;
+	}
+	/**
+	 * Grants a permit regardless of the limits, e.g. for a process that was 
+	 * already running before a restart.
+	 * @param permit permit
+	 */
+	void grant(Permit permit) {
+		permit.setGranted();
+		running++;
+		memory += permit.getMemory();
+		final Integer count = held.get(permit.getOwner());
+		held.put(permit.getOwner(), count == null ? 1 : count + 1);
+	}
+	/**
+	 * @return the waiting permit to grant first
+	 */
+	private Permit next() {
+		Permit best = null;
+		for (Permit permit : waiting) {
+			if (best == null || permit.getPriority() > best.getPriority() 
+					|| (permit.getPriority() == best.getPriority() && getHeld(permit.getOwner()) < getHeld(best.getOwner()))) {
+				best = permit;
+			}
+		}
+		return best;
+	}
+	private int getHeld(String owner) {
+		final Integer count = held.get(owner);
+		return count == null ? 0 : count;
+	}
+	/**
+	 * @return the number of granted permits
+	 */
+	int getRunning() {
+		return running;
+	}
+	/**
+	 * @return the estimated memory of the granted permits, in MB
+	 */
+	long getMemory() {
+		return memory;
+	}
+	/**
+	 * @return the number of waiting permits
+	 */
+	int getWaiting() {
+		return waiting.size();
+	}
+	/**
+	 * @return the maximum number of processes, 0 for no limit
+	 */
+	int getMaxProcesses() {
+		return maxProcesses;
+	}
+	/**
+	 * @return the maximum estimated memory, in MB, 0 for no limit
+	 */
+	long getMaxMemory() {
+		return maxMemory;
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.throttle;
+
+/**
+ * Permit to run one structure process in a node, obtained from 
+ * {@link ProcessThrottle}.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public final class Permit {
+	/**
+	 * Name of the node, empty for the master.
+	 */
+	private final String nodeName;
+	/**
+	 * Owner, usually the build, used for sharing the node fairly.
+	 */
+	private final String owner;
+	/**
+	 * Priority, higher first.
+	 */
+	private final int priority;
+	/**
+	 * Estimated memory of the process, in MB.
+	 */
+	private final long memory;
+	/**
+	 * Called when the permit is granted, or <code>null</code>.
+	 */
+	private final Runnable onGranted;
+	private boolean granted;
+	private boolean released;
+	/**
+	 * Constructor with args.
+	 * @param nodeName name of the node, empty for the master
+	 * @param owner owner, usually the build
+	 * @param priority priority, higher first
+	 * @param memory estimated memory of the process, in MB
+	 * @param onGranted called when the permit is granted, or <code>null</code>
+	 */
+	Permit(String nodeName, String owner, int priority, long memory, Runnable onGranted) {
+		this.nodeName = nodeName;
+		this.owner = owner;
+		this.priority = priority;
+		this.memory = memory;
+		this.onGranted = onGranted;
+	}
+	/**
+	 * @return the name of the node
+	 */
+	public String getNodeName() {
+		return nodeName;
+	}
+	/**
+	 * @return the owner
+	 */
+	public String getOwner() {
+		return owner;
+	}
+	/**
+	 * @return the priority
+	 */
+	public int getPriority() {
+		return priority;
+	}
+	/**
+	 * @return the estimated memory of the process, in MB
+	 */
+	public long getMemory() {
+		return memory;
+	}
+	Runnable getOnGranted() {
+		return onGranted;
+	}
+	/**
+	 * @return whether the permit was granted
+	 */
+	public synchronized boolean isGranted() {
+		return granted;
+	}
+	synchronized void setGranted() {
+		granted = true;
+	}
+	synchronized boolean isReleased() {
+		return released;
+	}
+	synchronized void setReleased() {
+		released = true;
+	}
+}
@@ -0,0 +1,241 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.throttle;
+
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+
+import org.biouno.structure.StructureBuilder;
+
+/**
+ * Limits the structure processes of each node, across every build and job 
+ * of the master. The limits of a node are the number of concurrent 
+ * processes and their total estimated memory, given by its 
+ * {@link StructureNodeProperty}, or by the global configuration of the 
+ * builder. Processes wait in a fair queue with priorities, see 
+ * {@link NodeQueue}.
+ * <p>
+ * Permits are kept in the master, so they are lost on a restart. Executions 
+ * that survive it register the permits of their running processes again 
+ * with {@link #register(String, String, int, long)}, and queue the others 
+ * again.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public final class ProcessThrottle {
+	private static final Logger LOGGER = Logger.getLogger("org.biouno.structure");
+	/**
+	 * Memory of a process besides its data, in MB.
+	 */
+	private static final long BASE_MEMORY = 16L;
+	/**
+	 * Singleton.
+	 */
+	private static final ProcessThrottle INSTANCE = new ProcessThrottle();
+	/**
+	 * Queue of each node, by node name.
+	 */
+	private final Map<String, NodeQueue> queues = new HashMap<String, NodeQueue>();
+	/**
+	 * Hidden constructor.
+	 */
+	private ProcessThrottle() {
+	}
+	/**
+	 * @return the throttle
+	 */
+	public static ProcessThrottle get() {
+		return INSTANCE;
+	}
+	/**
+	 * Forgets the permits of a previous Jenkins instance of the same JVM, 
+	 * e.g. in tests restarting Jenkins, before the executions resume and 
+	 * register theirs again.
+	 */
+	@Initializer(after = InitMilestone.PLUGINS_STARTED)
+	public static void reset() {
+		synchronized (INSTANCE) {
+			INSTANCE.queues.clear();
+			INSTANCE.notifyAll();
+		}
+	}
+	/**
+	 * Obtains a permit to run a process in a node, waiting for it if 
+	 * necessary.
+	 * @param nodeName name of the node, empty for the master
+	 * @param owner owner, usually the build
+	 * @param priority priority, higher first
+	 * @param memory estimated memory of the process, in MB
+	 * @param listener listener
+	 * @return the permit, to be released when the process exits
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public synchronized Permit acquire(String nodeName, String owner, int priority, long memory, TaskListener listener) 
+			throws InterruptedException {
+		final Permit permit = new Permit(nodeName, owner, priority, memory, null);
+		final NodeQueue queue = offer(permit);
+		if (!permit.isGranted()) {
+			listener.getLogger().println(describe(nodeName, queue) + ", waiting for a structure process to finish");
+		}
+		try {
+			while (!permit.isGranted()) {
+				wait();
+			}
+		} catch (InterruptedException ie) {
+			release(permit);
+			throw ie;
+		}
+		return permit;
+	}
+	/**
+	 * Queues a permit to run a process in a node, without waiting. The 
+	 * callback is called when the permit is granted, possibly before this 
+	 * method returns, from the thread releasing another permit. It must not 
+	 * block.
+	 * @param nodeName name of the node, empty for the master
+	 * @param owner owner, usually the build
+	 * @param priority priority, higher first
+	 * @param memory estimated memory of the process, in MB
+	 * @param onGranted callback
+	 * @return the permit, to be released when the process exits, or when the 
+	 * process is not needed anymore
+	 */
+	public synchronized Permit enqueue(String nodeName, String owner, int priority, long memory, Runnable onGranted) {
+		final Permit permit = new Permit(nodeName, owner, priority, memory, onGranted);
+		offer(permit);
+		return permit;
+	}
+	/**
+	 * Registers a process that is already running in a node, e.g. after a 
+	 * restart of the master. The permit is granted even if the node is over 
+	 * its limits, and the waiting permits wait for it to be released.
+	 * @param nodeName name of the node, empty for the master
+	 * @param owner owner, usually the build
+	 * @param priority priority, higher first
+	 * @param memory estimated memory of the process, in MB
+	 * @return the granted permit, to be released when the process exits
+	 */
+	public synchronized Permit register(String nodeName, String owner, int priority, long memory) {
+		final Permit permit = new Permit(nodeName, owner, priority, memory, null);
+		getQueue(nodeName).grant(permit);
+		return permit;
+	}
+	/**
+	 * Releases a permit, or removes it from the queue if it was not granted.
+	 * @param permit permit
+	 */
+	public synchronized void release(Permit permit) {
+		final NodeQueue queue = queues.get(permit.getNodeName());
+		if (queue != null) {
+			queue.release(permit);
+			dispatch(queue);
+		}
+	}
+	/**
+	 * Describes the use of a node.
+	 * @param nodeName name of the node, empty for the master
+	 * @return description
+	 */
+	public synchronized String describe(String nodeName) {
+		final NodeQueue queue = queues.get(nodeName);
+		return queue == null ? (nodeName.length() == 0 ? "master" : nodeName) + ": idle" : describe(nodeName, queue);
+	}
+	private static String describe(String nodeName, NodeQueue queue) {
+		return String.format("%s: %d structure process(es) of %s, %d MB of %s estimated, %d waiting", 
+				nodeName.length() == 0 ? "master" : nodeName, 
+				queue.getRunning(), queue.getMaxProcesses() == 0 ? "unlimited" : String.valueOf(queue.getMaxProcesses()), 
+				queue.getMemory(), queue.getMaxMemory() == 0 ? "unlimited" : String.valueOf(queue.getMaxMemory()), 
+				queue.getWaiting());
+	}
+	private NodeQueue offer(Permit permit) {
+		final NodeQueue queue = getQueue(permit.getNodeName());
+		queue.offer(permit);
+		dispatch(queue);
+		return queue;
+	}
+	private NodeQueue getQueue(String nodeName) {
+		NodeQueue queue = queues.get(nodeName);
+		if (queue == null) {
+			queue = new NodeQueue();
+			queues.put(nodeName, queue);
+		}
+		// the limits may have been changed since the last process
+		final StructureNodeProperty property = getProperty(nodeName);
+		queue.setLimits(
+				property != null && property.getMaxProcesses() != null ? property.getMaxProcesses() 
+						: StructureBuilder.DESCRIPTOR.getMaxProcessesPerNode(), 
+				property != null && property.getMaxMemory() != null ? property.getMaxMemory() 
+						: StructureBuilder.DESCRIPTOR.getMaxMemoryPerNode());
+		return queue;
+	}
+	private void dispatch(NodeQueue queue) {
+		for (Permit granted : queue.dispatch()) {
+			if (granted.getOnGranted() != null) {
+				try {
+					granted.getOnGranted().run();
+				} catch (RuntimeException re) {
+					LOGGER.log(Level.WARNING, "Could not start the structure process of " + granted.getOwner(), re);
+				}
+			}
+		}
+		notifyAll();
+	}
+	private static StructureNodeProperty getProperty(String nodeName) {
+		final Jenkins jenkins = Jenkins.getInstance();
+		final Node node = nodeName.length() == 0 ? jenkins : jenkins.getNode(nodeName);
+		return node == null ? null : node.getNodeProperties().get(StructureNodeProperty.class);
+	}
+	/**
+	 * Estimates the memory of a structure process, from the genotypes, 
+	 * cluster assignments, allele frequencies and membership coefficients it 
+	 * keeps, assuming diploid and biallelic loci.
+	 * @param numInds number of individuals, or <code>null</code>
+	 * @param numLoci number of loci, or <code>null</code>
+	 * @param k K
+	 * @return the estimated memory, in MB
+	 */
+	public static long estimateMemory(Integer numInds, Integer numLoci, int k) {
+		if (numInds == null || numLoci == null) {
+			return BASE_MEMORY;
+		}
+		final long inds = numInds;
+		final long loci = numLoci;
+		// genotypes and cluster assignments, as ints
+		long bytes = 2L * inds * loci * 2 * 4;
+		// allele frequencies and their sums, as doubles
+		bytes += 3L * k * loci * 2 * 8;
+		// membership coefficients and their sums, as doubles
+		bytes += 3L * inds * k * 8;
+		return BASE_MEMORY + (bytes + (1 << 20) - 1) / (1 << 20);
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.throttle;
+
+import hudson.Extension;
+import hudson.model.Node;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.NodePropertyDescriptor;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * Limits of the structure processes of a node, overriding the global limits 
+ * of the builder descriptor. A blank limit uses the global one, and 0 means 
+ * no limit.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class StructureNodeProperty extends NodeProperty<Node> {
+	/**
+	 * Maximum number of concurrent structure processes, or <code>null</code>.
+	 */
+	private final Integer maxProcesses;
+	/**
+	 * Maximum estimated memory of the concurrent structure processes, in MB, 
+	 * or <code>null</code>.
+	 */
+	private final Integer maxMemory;
+	/**
+	 * Constructor with args.
+	 * @param maxProcesses maximum number of concurrent processes
+	 * @param maxMemory maximum estimated memory, in MB
+	 */
+	@DataBoundConstructor
+	public StructureNodeProperty(Integer maxProcesses, Integer maxMemory) {
+		this.maxProcesses = maxProcesses;
+		this.maxMemory = maxMemory;
+	}
+	/**
+	 * @return the maximum number of concurrent processes, or <code>null</code>
+	 */
+	public Integer getMaxProcesses() {
+		return maxProcesses;
+	}
+	/**
+	 * @return the maximum estimated memory, in MB, or <code>null</code>
+	 */
+	public Integer getMaxMemory() {
+		return maxMemory;
+	}
+	/**
+	 * Descriptor of the node property.
+	 */
+	@Extension
+	public static final class DescriptorImpl extends NodePropertyDescriptor {
+		/* (non-Javadoc)
+		 * @see hudson.model.Descriptor#getDisplayName()
+		 */
+		@Override
+		public String getDisplayName() {
+			return "Structure process limits";
+		}
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.trace;
+
+import hudson.console.LineTransformationOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Copies the output of structure to another stream, recording the Ln Like 
+ * of each progress line in a trace. The column of the Ln Like is taken from 
+ * the last <code>Rep#:</code> header, as it depends on the model, or is the 
+ * one before the last column when no header was seen yet. Lines after 
+ * <code>BURNIN completed</code> are recorded as MCMC repetitions.
+ * <p>
+ * A line without a line terminator when the stream is closed is copied, but 
+ * not recorded, as it may be incomplete.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class TraceRecorder extends LineTransformationOutputStream {
+	private static final Logger LOGGER = Logger.getLogger("org.biouno.structure");
+	/**
+	 * Header of the progress lines.
+	 */
+	private static final String HEADER = "Rep#:";
+	/**
+	 * Name of the Ln Like column.
+	 */
+	private static final String LN_LIKE = "Ln Like";
+	/**
+	 * End of the burn-in.
+	 */
+	private static final String BURNIN_COMPLETED = "BURNIN completed";
+	/**
+	 * Stream where the output is copied, not closed.
+	 */
+	private final OutputStream out;
+	/**
+	 * Trace writer, or <code>null</code> after an error writing the trace.
+	 */
+	private TraceWriter writer;
+	/**
+	 * Index of the Ln Like among the fields of the progress lines, or -1.
+	 */
+	private int column = -1;
+	/**
+	 * Whether the burn-in is completed.
+	 */
+	private boolean mcmc;
+	/**
+	 * Constructor with args.
+	 * @param out stream where the output is copied, not closed
+	 * @param writer trace writer, closed with this stream
+	 */
+	public TraceRecorder(OutputStream out, TraceWriter writer) {
+		this.out = out;
+		this.writer = writer;
+	}
+	/**
+	 * @return the number of points recorded
+	 */
+	public int getCount() {
+		return writer == null ? 0 : writer.getCount();
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see hudson.console.LineTransformationOutputStream#eol(byte[], int)
+	 */
+	@Override
+	protected void eol(byte[] b, int len) throws IOException {
+		out.write(b, 0, len);
+		if (writer != null && len > 0 && b[len - 1] == '\n') {
+			record(b, len);
+		}
+	}
+	/**
+	 * Records the Ln Like of a progress line.
+	 * @param b line
+	 * @param len length of the line
+	 */
+	private void record(byte[] b, int len) {
+		int start = 0;
+		while (start < len && (b[start] == ' ' || b[start] == '\t')) {
+			start++;
+		}
+		// only progress lines, headers and the end of the burn-in are parsed
+		if (start == len || !(Character.isDigit(b[start]) || b[start] == 'R' || b[start] == 'B')) {
+			return;
+		}
+		final String line = new String(b, start, len - start).trim();
+		if (line.startsWith(HEADER)) {
+			column = -1;
+			final String[] names = line.split("\\s{2,}");
+			for (int i = 0; i < names.length; i++) {
+				if (LN_LIKE.equalsIgnoreCase(names[i])) {
+					column = i;
+				}
+			}
+			return;
+		}
+		if (line.startsWith(BURNIN_COMPLETED)) {
+			mcmc = true;
+			return;
+		}
+		final String[] fields = line.split("\\s+");
+		if (fields.length < 3 || !fields[0].endsWith(":")) {
+			return;
+		}
+		final int index = column >= 0 ? column : fields.length - 2;
+		if (index < 1 || index >= fields.length) {
+			return;
+		}
+		try {
+			final long rep = Long.parseLong(fields[0].substring(0, fields[0].length() - 1));
+			final float lnLike = Float.parseFloat(fields[index]);
+			writer.add(rep, !mcmc, lnLike);
+		} catch (NumberFormatException nfe) {
+			// not a progress line
+		} catch (IOException ioe) {
+			// the output must still be copied, stop recording
+			LOGGER.log(Level.WARNING, "Could not write the Ln Like trace", ioe);
+			closeWriter();
+		}
+	}
+	private void closeWriter() {
+		try {
+			writer.close();
+		} catch (IOException ioe) {
+			LOGGER.log(Level.FINE, "Could not close the Ln Like trace", ioe);
+		}
+		writer = null;
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see java.io.OutputStream#flush()
+	 */
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see hudson.console.LineTransformationOutputStream#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		super.close();
+		out.flush();
+		if (writer != null) {
+			writer.close();
+		}
+	}
+}
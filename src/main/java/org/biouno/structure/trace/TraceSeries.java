@@ -0,0 +1,213 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.trace;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Ln Like trace of a run, as written by {@link TraceWriter}. Burn-in 
+ * repetitions come before the MCMC ones. Long traces are reduced for charts 
+ * with the Largest-Triangle-Three-Buckets algorithm, which keeps the peaks 
+ * and the overall shape of the series with a few hundred points.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class TraceSeries {
+	/**
+	 * Directory, within the build directory, where the traces are kept.
+	 */
+	public static final String DIRECTORY = "structure-traces";
+	/**
+	 * Extension of the trace files.
+	 */
+	public static final String EXTENSION = ".trace";
+	/**
+	 * Repetition numbers.
+	 */
+	private final long[] reps;
+	/**
+	 * Ln Like values.
+	 */
+	private final float[] values;
+	/**
+	 * Number of points.
+	 */
+	private final int size;
+	/**
+	 * Number of points in the burn-in.
+	 */
+	private final int burnInSize;
+	/**
+	 * Constructor with args.
+	 * @param reps repetition numbers
+	 * @param values Ln Like values
+	 * @param size number of points
+	 * @param burnInSize number of points in the burn-in
+	 */
+	public TraceSeries(long[] reps, float[] values, int size, int burnInSize) {
+		this.reps = reps;
+		this.values = values;
+		this.size = size;
+		this.burnInSize = burnInSize;
+	}
+	/**
+	 * Reads a trace.
+	 * @param input trace, gzipped, not closed
+	 * @return TraceSeries
+	 * @throws IOException if an error occurs reading the trace
+	 */
+	public static TraceSeries read(InputStream input) throws IOException {
+		final DataInputStream data = new DataInputStream(new BufferedInputStream(new GZIPInputStream(input)));
+		long[] reps = new long[1024];
+		float[] values = new float[1024];
+		int size = 0;
+		int burnInSize = 0;
+		while (true) {
+			long value = 0;
+			int shift = 0;
+			int b = data.read();
+			if (b < 0) {
+				break;
+			}
+			while ((b & 0x80) != 0) {
+				value |= (long) (b & 0x7F) << shift;
+				shift += 7;
+				b = data.read();
+				if (b < 0) {
+					throw new EOFException("Truncated trace");
+				}
+			}
+			value |= (long) b << shift;
+			if (size == reps.length) {
+				reps = Arrays.copyOf(reps, size * 2);
+				values = Arrays.copyOf(values, size * 2);
+			}
+			reps[size] = value >>> 1;
+			values[size] = data.readFloat();
+			if ((value & 1) == 0) {
+				burnInSize++;
+			}
+			size++;
+		}
+		return new TraceSeries(reps, values, size, burnInSize);
+	}
+	/**
+	 * @return the number of points
+	 */
+	public int size() {
+		return size;
+	}
+	/**
+	 * @return the number of points in the burn-in
+	 */
+	public int getBurnInSize() {
+		return burnInSize;
+	}
+	/**
+	 * @param index point index
+	 * @return the repetition number of the point
+	 */
+	public long getRep(int index) {
+		return reps[index];
+	}
+	/**
+	 * @param index point index
+	 * @return the Ln Like of the point
+	 */
+	public float getLnLike(int index) {
+		return values[index];
+	}
+	/**
+	 * Reduces the trace to at most <code>threshold</code> points, keeping its 
+	 * shape, with the Largest-Triangle-Three-Buckets algorithm. The first and 
+	 * last points are always kept.
+	 * @param threshold maximum number of points, at least 3
+	 * @param burnIn whether to keep the burn-in
+	 * @return the reduced trace
+	 */
+	public TraceSeries downsample(int threshold, boolean burnIn) {
+		final int from = burnIn ? 0 : burnInSize;
+		final int count = size - from;
+		if (count <= threshold || threshold < 3) {
+			return new TraceSeries(Arrays.copyOfRange(reps, from, size), Arrays.copyOfRange(values, from, size), 
+					count, burnIn ? burnInSize : 0);
+		}
+		final long[] sampledReps = new long[threshold];
+		final float[] sampledValues = new float[threshold];
+		int sampledBurnIn = 0;
+		// buckets of the points between the first and the last ones
+		final double every = (double) (count - 2) / (threshold - 2);
+		int a = from;
+		sampledReps[0] = reps[a];
+		sampledValues[0] = values[a];
+		if (a < burnInSize) {
+			sampledBurnIn++;
+		}
+		for (int bucket = 0; bucket < threshold - 2; bucket++) {
+			// average of the next bucket
+			final int nextStart = from + (int) Math.floor((bucket + 1) * every) + 1;
+			final int nextEnd = Math.min(from + (int) Math.floor((bucket + 2) * every) + 1, size);
+			double averageX = 0;
+			double averageY = 0;
+			for (int i = nextStart; i < nextEnd; i++) {
+				averageX += reps[i];
+				averageY += values[i];
+			}
+			final int nextCount = Math.max(1, nextEnd - nextStart);
+			averageX /= nextCount;
+			averageY /= nextCount;
+			// point of this bucket with the largest triangle
+			final int start = from + (int) Math.floor(bucket * every) + 1;
+			final int end = from + (int) Math.floor((bucket + 1) * every) + 1;
+			double maxArea = -1;
+			int selected = start;
+			for (int i = start; i < end; i++) {
+				final double area = Math.abs((reps[a] - averageX) * (values[i] - values[a]) 
+						- (reps[a] - (double) reps[i]) * (averageY - values[a]));
+				if (area > maxArea) {
+					maxArea = area;
+					selected = i;
+				}
+			}
+			sampledReps[bucket + 1] = reps[selected];
+			sampledValues[bucket + 1] = values[selected];
+			if (selected < burnInSize) {
+				sampledBurnIn++;
+			}
+			a = selected;
+		}
+		sampledReps[threshold - 1] = reps[size - 1];
+		sampledValues[threshold - 1] = values[size - 1];
+		if (size - 1 < burnInSize) {
+			sampledBurnIn++;
+		}
+		return new TraceSeries(sampledReps, sampledValues, threshold, sampledBurnIn);
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.trace;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the Ln Like trace of a run. The file is a gzip stream of records, 
+ * one per progress line of structure: the repetition number shifted left by 
+ * one bit, with the lowest bit set after the burn-in, as an unsigned 
+ * variable length integer, followed by the Ln Like as a 32 bits float. 
+ * Appending to an existing trace adds a gzip member, which readers 
+ * decompress as a single stream.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class TraceWriter implements Closeable {
+	/**
+	 * Output stream.
+	 */
+	private final DataOutputStream output;
+	/**
+	 * Number of points written.
+	 */
+	private int count;
+	/**
+	 * Constructor with args.
+	 * @param file trace file
+	 * @param append whether to append to an existing trace
+	 * @throws IOException if the file cannot be opened
+	 */
+	public TraceWriter(File file, boolean append) throws IOException {
+		this.output = new DataOutputStream(new GZIPOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file, append))));
+	}
+	/**
+	 * Writes a point.
+	 * @param rep repetition number
+	 * @param burnIn whether the repetition is in the burn-in
+	 * @param lnLike Ln Like
+	 * @throws IOException if an error occurs writing
+	 */
+	public void add(long rep, boolean burnIn, float lnLike) throws IOException {
+		long value = (rep << 1) | (burnIn ? 0 : 1);
+		while ((value & ~0x7FL) != 0) {
+			output.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		output.write((int) value);
+		output.writeFloat(lnLike);
+		count++;
+	}
+	/**
+	 * @return the number of points written
+	 */
+	public int getCount() {
+		return count;
+	}
+	/* (non-Javadoc)
+	 * @see java.io.Closeable#close()
+	 */
+	public void close() throws IOException {
+		output.close();
+	}
+}
@@ -0,0 +1,380 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+
+import org.apache.commons.io.IOUtils;
+import org.biouno.structure.engine.EngineParameters;
+import org.biouno.structure.parser.MainParamsParser;
+import org.biouno.structure.parser.ParserException;
+
+/**
+ * A stand-in for the structure executable, for testing the orchestration of 
+ * many runs without spending CPU on MCMC. It accepts the command line options 
+ * created by the builder, prints progress like structure does, sleeps for a 
+ * configurable time and writes a well-formed <code>_f</code> output file with 
+ * random results.
+ * <p>
+ * It is configured with environment variables: the run time in 
+ * milliseconds ({@link #DELAY_ENV_VAR}), a value of K for which the run 
+ * fails ({@link #FAIL_K_ENV_VAR}), a directory where running processes 
+ * are counted ({@link #RUNNING_ENV_VAR}) and a directory where the start 
+ * time of each run is recorded ({@link #LAUNCHES_ENV_VAR}). Tests use it as the executable of 
+ * a structure installation with a wrapper script like:
+ * <pre>
+ * #!/bin/sh
+ * exec java -cp &lt;test classpath&gt; org.biouno.structure.FakeStructure "$@"
+ * </pre>
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class FakeStructure {
+	/**
+	 * Environment variable with the run time in milliseconds.
+	 */
+	public static final String DELAY_ENV_VAR = "FAKE_STRUCTURE_DELAY";
+	/**
+	 * Environment variable with a value of K for which the run fails.
+	 */
+	public static final String FAIL_K_ENV_VAR = "FAKE_STRUCTURE_FAIL_K";
+	/**
+	 * Environment variable with a directory where each running process keeps 
+	 * a file, so that the number of concurrent processes can be counted.
+	 */
+	public static final String RUNNING_ENV_VAR = "FAKE_STRUCTURE_RUNNING";
+	/**
+	 * Environment variable with a directory where each run writes its start 
+	 * time, in milliseconds, to a file named after its output file.
+	 */
+	public static final String LAUNCHES_ENV_VAR = "FAKE_STRUCTURE_LAUNCHES";
+	/**
+	 * Printed with the number of processes running, this one included, when 
+	 * {@link #RUNNING_ENV_VAR} is set.
+	 */
+	public static final String CONCURRENT_RUNS = "Concurrent runs: ";
+	/**
+	 * Exit code of the runs that fail.
+	 */
+	public static final int FAILURE_EXIT_CODE = 3;
+	/**
+	 * Default run time in milliseconds.
+	 */
+	private static final long DEFAULT_DELAY = 100L;
+	/**
+	 * Maximum number of progress lines printed.
+	 */
+	private static final int MAX_PROGRESS_LINES = 100;
+	private static final String SEPARATOR = "--------------------------------------------";
+	private static final String PROGRESS_HEADER = " Rep#:      Alpha    Ln Like  Est Ln P(D)";
+	/*
+	 * Run parameters.
+	 */
+	private String mainParamsFile = "mainparams";
+	private String extraParamsFile = "extraparams";
+	private Integer k;
+	private Integer numLoci;
+	private Integer numInds;
+	private String inFile;
+	private String outFile;
+	private Long seed;
+	/**
+	 * Runs the stand-in, exiting with the exit code of the run.
+	 * @param args structure command line options
+	 */
+	public static void main(String[] args) {
+		System.exit(new FakeStructure().execute(args, System.out));
+	}
+	/**
+	 * Runs the stand-in.
+	 * @param args structure command line options
+	 * @param out standard output
+	 * @return the exit code
+	 */
+	int execute(String[] args, PrintStream out) {
+		File running = null;
+		try {
+			parseArgs(args);
+			final String launchesDirectory = System.getenv(LAUNCHES_ENV_VAR);
+			if (launchesDirectory != null && outFile != null) {
+				recordLaunch(new File(launchesDirectory, new File(outFile).getName()));
+			}
+			final String failK = System.getenv(FAIL_K_ENV_VAR);
+			if (k != null && failK != null && failK.trim().equals(k.toString())) {
+				out.println("Error: failing the run of K=" + k);
+				return FAILURE_EXIT_CODE;
+			}
+			final String runningDirectory = System.getenv(RUNNING_ENV_VAR);
+			if (runningDirectory != null) {
+				running = new File(runningDirectory, UUID.randomUUID().toString());
+				running.getParentFile().mkdirs();
+				running.createNewFile();
+				out.println(CONCURRENT_RUNS + running.getParentFile().list().length);
+			}
+			run(out, getDelay());
+			return 0;
+		} catch (Exception e) {
+			out.println("Error: " + e.getMessage());
+			return 1;
+		} finally {
+			if (running != null) {
+				running.delete();
+			}
+		}
+	}
+	/**
+	 * Records the time the process started, with the start of its JVM.
+	 */
+	private static void recordLaunch(File file) throws IOException {
+		file.getParentFile().mkdirs();
+		final FileOutputStream output = new FileOutputStream(file);
+		try {
+			output.write(Long.toString(ManagementFactory.getRuntimeMXBean().getStartTime()).getBytes("UTF-8"));
+		} finally {
+			output.close();
+		}
+	}
+	private static long getDelay() {
+		final String delay = System.getenv(DELAY_ENV_VAR);
+		if (delay == null || delay.trim().length() == 0) {
+			return DEFAULT_DELAY;
+		}
+		return Long.parseLong(delay.trim());
+	}
+	private void parseArgs(String[] args) {
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			final String option = args[i];
+			final String value = args[i + 1];
+			if (StructureBuilder.MAINPARAMS_OPTION.equals(option)) {
+				mainParamsFile = value;
+			} else if (StructureBuilder.EXTRAPARAMS_OPTION.equals(option)) {
+				extraParamsFile = value;
+			} else if (StructureBuilder.MAXPOPS_OPTION.equals(option)) {
+				k = Integer.valueOf(value);
+			} else if (StructureBuilder.NUMLOCI_OPTION.equals(option)) {
+				numLoci = Integer.valueOf(value);
+			} else if (StructureBuilder.NUMINDS_OPTION.equals(option)) {
+				numInds = Integer.valueOf(value);
+			} else if (StructureBuilder.INFILE_OPTION.equals(option)) {
+				inFile = value;
+			} else if (StructureBuilder.OUTFILE_OPTION.equals(option)) {
+				outFile = value;
+			} else if (StructureBuilder.SEED_OPTION.equals(option)) {
+				seed = Long.valueOf(value);
+			} else {
+				throw new IllegalArgumentException("Unknown option " + option);
+			}
+		}
+	}
+	/**
+	 * Simulates a run.
+	 * @param out standard output
+	 * @param delay run time in milliseconds
+	 * @throws IOException if an error occurs reading the parameters or 
+	 * writing the output file
+	 * @throws ParserException if a parameter is invalid
+	 * @throws InterruptedException if interrupted
+	 */
+	void run(PrintStream out, long delay) throws IOException, ParserException, InterruptedException {
+		final MainParamsParser parser = new MainParamsParser(null, null, null, null, null, null);
+		final EngineParameters params = new EngineParameters(parser.parseDefinitions(read(mainParamsFile)), 
+				parser.parseDefinitions(read(extraParamsFile)));
+		// same overrides done by the structure command line options
+		if (k != null) {
+			params.set(EngineParameters.MAXPOPS, k);
+		}
+		if (numLoci != null) {
+			params.set(EngineParameters.NUMLOCI, numLoci);
+		}
+		if (numInds != null) {
+			params.set(EngineParameters.NUMINDS, numInds);
+		}
+		if (inFile != null) {
+			params.set(EngineParameters.INFILE, inFile);
+		}
+		if (outFile != null) {
+			params.set(EngineParameters.OUTFILE, outFile);
+		}
+		final int maxPops = params.getInt(EngineParameters.MAXPOPS, 2);
+		final int inds = params.getInt(EngineParameters.NUMINDS, 0);
+		final int loci = params.getInt(EngineParameters.NUMLOCI, 0);
+		final long burnIn = params.getLong(EngineParameters.BURNIN, 1000);
+		final long numReps = params.getLong(EngineParameters.NUMREPS, 1000);
+		final boolean popData = params.getFlag(EngineParameters.POPDATA, true);
+		final String output = params.get(EngineParameters.OUTFILE);
+		if (maxPops <= 0 || inds <= 0 || loci <= 0 || output == null) {
+			throw new ParserException("MAXPOPS, NUMINDS, NUMLOCI and OUTFILE are required");
+		}
+		final Random random = seed != null ? new Random(seed) : new Random();
+
+		out.println();
+		out.println("----------------------------------------------------");
+		out.println("STRUCTURE by Pritchard, Stephens and Donnelly (2000)");
+		out.println("     and Falush, Stephens and Pritchard (2003)");
+		out.println("       Stand-in of the Jenkins Structure plug-in");
+		out.println("----------------------------------------------------");
+		out.println();
+		out.println("Reading file \"" + params.get(EngineParameters.INFILE) + "\".");
+		out.println(String.format(Locale.ENGLISH, "Number of alleles per locus: min= 2; ave=2.0; max= 2"));
+		out.println();
+
+		// progress, spread over the run time
+		final long steps = burnIn + numReps;
+		final long interval = Math.max(1, steps / MAX_PROGRESS_LINES);
+		final long sleep = delay / Math.max(1, steps / interval);
+		final double target = -1.0 * inds * loci * (0.9 + random.nextDouble() * 0.2);
+		double lnLike = target * 1.5;
+		double sum = 0;
+		double sumSquares = 0;
+		long recorded = 0;
+		boolean burnInCompleted = false;
+		out.println(PROGRESS_HEADER);
+		for (long rep = interval; rep <= steps; rep += interval) {
+			if (!burnInCompleted && rep > burnIn) {
+				burnInCompleted = true;
+				out.println("BURNIN completed");
+				out.println(PROGRESS_HEADER);
+			}
+			lnLike += (target - lnLike) * 0.2 + random.nextGaussian() * Math.sqrt(inds * loci) * 0.1;
+			String estimated = "       --";
+			if (rep > burnIn) {
+				sum += lnLike;
+				sumSquares += lnLike * lnLike;
+				recorded++;
+				final double mean = sum / recorded;
+				final double variance = Math.max(0, sumSquares / recorded - mean * mean);
+				estimated = String.format(Locale.ENGLISH, "%9.1f", mean - variance / 2);
+			}
+			out.println(String.format(Locale.ENGLISH, "%6d:    %7.3f  %9.1f  %s", rep, 0.5 + random.nextDouble() * 0.1, lnLike, estimated));
+			out.flush();
+			Thread.sleep(sleep);
+		}
+		out.println("MCMC completed");
+
+		final double mean = recorded == 0 ? lnLike : sum / recorded;
+		final double variance = recorded == 0 ? 0 : Math.max(0, sumSquares / recorded - mean * mean);
+		final File resultFile = new File(output + StructureBuilder.STRUCTURE_OUTPUT_FILE_SUFFIX);
+		final PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(resultFile), 
+				StructureBuilder.STRUCTURE_FILES_ENCODING));
+		try {
+			writeResults(writer, params, random, maxPops, inds, loci, burnIn, numReps, popData, mean, variance);
+		} finally {
+			writer.close();
+		}
+		out.println();
+		out.println("Final results printed to file " + resultFile.getPath());
+		out.println();
+	}
+	private static void writeResults(PrintWriter out, EngineParameters params, Random random, int k, int inds, int loci, 
+			long burnIn, long numReps, boolean popData, double mean, double variance) {
+		out.println("----------------------------------------------------");
+		out.println("STRUCTURE by Pritchard, Stephens and Donnelly (2000)");
+		out.println("     and Falush, Stephens and Pritchard (2003)");
+		out.println("       Stand-in of the Jenkins Structure plug-in");
+		out.println("----------------------------------------------------");
+		out.println();
+		out.println("Input File:    " + params.get(EngineParameters.INFILE));
+		out.println();
+		out.println("Run parameters:");
+		out.println("   " + inds + " individuals");
+		out.println("   " + loci + " loci");
+		out.println("   " + k + " populations assumed");
+		out.println("   " + burnIn + " Burn-in period");
+		out.println("   " + numReps + " Reps");
+		out.println();
+		out.println(SEPARATOR);
+		out.println(String.format(Locale.ENGLISH, "Estimated Ln Prob of Data   = %.1f", mean - variance / 2));
+		out.println(String.format(Locale.ENGLISH, "Mean value of ln likelihood = %.1f", mean));
+		out.println(String.format(Locale.ENGLISH, "Variance of ln likelihood   = %.1f", variance));
+		out.println(String.format(Locale.ENGLISH, "Mean value of alpha         = %.4f", 0.5 + random.nextDouble() * 0.1));
+		out.println();
+		out.println();
+		out.println("Inferred ancestry of individuals:");
+		out.println(popData ? "        Label (%Miss) Pop:  Inferred clusters" : "        Label (%Miss) :  Inferred clusters");
+		final double[] q = new double[k];
+		for (int ind = 0; ind < inds; ind++) {
+			// individuals mostly from the cluster of their population
+			final int population = ind * k / inds;
+			double total = 0;
+			for (int kk = 0; kk < k; kk++) {
+				q[kk] = (kk == population ? 8.0 : 0.0) + random.nextDouble();
+				total += q[kk];
+			}
+			final StringBuilder line = new StringBuilder();
+			line.append(String.format(Locale.ENGLISH, "%3d %8s   (0)  ", ind + 1, "ind" + (ind + 1)));
+			if (popData) {
+				line.append(String.format(Locale.ENGLISH, " %3d ", population + 1));
+			}
+			line.append(":  ");
+			for (int kk = 0; kk < k; kk++) {
+				line.append(String.format(Locale.ENGLISH, "%.3f ", q[kk] / total));
+			}
+			out.println(line);
+		}
+		out.println();
+		out.println();
+		out.println("Estimated Allele Frequencies in each cluster");
+		out.println("First column gives the allele frequencies in the sample");
+		out.println();
+		out.println();
+		for (int l = 0; l < loci; l++) {
+			out.println("Locus " + (l + 1) + " : ");
+			out.println("2 alleles");
+			out.println("0.0% missing data");
+			for (int a = 0; a < 2; a++) {
+				final StringBuilder line = new StringBuilder();
+				line.append(String.format(Locale.ENGLISH, "%4d   (%.3f) ", a + 1, 0.5));
+				for (int kk = 0; kk < k; kk++) {
+					line.append(String.format(Locale.ENGLISH, "%.3f ", random.nextDouble()));
+				}
+				out.println(line);
+			}
+			out.println();
+		}
+		out.println("Values of parameters used in structure:");
+		out.println(params.getValues());
+	}
+	private static String read(String file) throws IOException {
+		final File params = new File(file);
+		if (!params.isFile()) {
+			return "";
+		}
+		final FileInputStream input = new FileInputStream(params);
+		try {
+			return IOUtils.toString(input, StructureBuilder.STRUCTURE_FILES_ENCODING);
+		} finally {
+			IOUtils.closeQuietly(input);
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import hudson.FilePath;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link ResultFiles}.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class ResultFilesTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	private File createRunDirectory() throws IOException {
+		final File directory = folder.newFolder("run");
+		FileUtils.writeStringToFile(new File(directory, "out_f"), "results", "UTF-8");
+		FileUtils.writeStringToFile(new File(directory, "out_q"), "q", "UTF-8");
+		FileUtils.writeStringToFile(new File(directory, "seed.txt"), "1234", "UTF-8");
+		return directory;
+	}
+	@Test
+	public void testRetainMovesKeptFilesAndDeletesRunDirectory() throws Exception {
+		final File directory = createRunDirectory();
+		final File workspace = folder.newFolder("workspace");
+		new ResultFiles.RetainCallable(false)
+				.keep("out_f", new File(workspace, "results/out_f").getPath())
+				.keep("missing", new File(workspace, "results/missing").getPath())
+				.invoke(directory, null);
+		assertEquals("results", FileUtils.readFileToString(new File(workspace, "results/out_f"), "UTF-8"));
+		assertFalse(new File(workspace, "results/missing").exists());
+		assertFalse(new File(workspace, "results/out_q").exists());
+		assertFalse(directory.exists());
+	}
+	@Test
+	public void testRetainCompressesAndReplacesPreviousResults() throws Exception {
+		final File directory = createRunDirectory();
+		final File workspace = folder.newFolder("workspace");
+		final File previous = new File(workspace, "out_f");
+		FileUtils.writeStringToFile(previous, "previous", "UTF-8");
+		new ResultFiles.RetainCallable(true).keep("out_f", previous.getPath()).invoke(directory, null);
+		assertFalse(previous.exists());
+		final InputStream input = new GZIPInputStream(new FileInputStream(new File(workspace, "out_f.gz")));
+		try {
+			assertEquals("results", IOUtils.toString(input, "UTF-8"));
+		} finally {
+			input.close();
+		}
+		assertFalse(directory.exists());
+	}
+	@Test
+	public void testFindAndOpenCompressedFiles() throws Exception {
+		final File directory = createRunDirectory();
+		final File workspace = folder.newFolder("workspace");
+		new ResultFiles.RetainCallable(true).keep("out_f", new File(workspace, "out_f").getPath())
+				.invoke(directory, null);
+		final FilePath results = new FilePath(workspace);
+		final FilePath file = ResultFiles.find(results, "out_f");
+		assertTrue(file.getName().endsWith(ResultFiles.COMPRESSED_SUFFIX));
+		final InputStream input = ResultFiles.open(file);
+		try {
+			assertEquals("results", IOUtils.toString(input, "UTF-8"));
+		} finally {
+			input.close();
+		}
+		assertNull(ResultFiles.find(results, "out_q"));
+		assertNull(ResultFiles.find(null, "out_f"));
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import hudson.tools.InstallSourceProperty;
+import hudson.tools.ToolProperty;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+/**
+ * Tests for {@link StructureArchiveInstaller}, the executable of a 
+ * {@link StructureInstallation} and the migration of older installations.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class StructureArchiveInstallerTest {
+	@Rule
+	public JenkinsRule j = new JenkinsRule();
+	private File createArchive(String content) throws Exception {
+		final File archive = new File(j.jenkins.getRootDir(), "structure.zip");
+		final ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(archive));
+		try {
+			zip.putNextEntry(new ZipEntry("bin/structure"));
+			zip.write(content.getBytes("UTF-8"));
+			zip.closeEntry();
+		} finally {
+			zip.close();
+		}
+		return archive;
+	}
+	private StructureInstallation createInstallation(StructureArchiveInstaller installer) throws Exception {
+		return new StructureInstallation("archive", null, "bin/structure", StructureInstallation.ENGINE_EXTERNAL, 
+				null, Collections.singletonList(new InstallSourceProperty(
+						Collections.singletonList(installer))));
+	}
+	@Test
+	public void testExecutableIsResolvedAgainstHome() {
+		assertEquals("/opt/structure/bin/structure", new StructureInstallation("a", "/opt/structure", 
+				"bin/structure", null, null, Collections.<ToolProperty<?>>emptyList()).getExecutable());
+		assertEquals("/opt/structure/bin/structure", new StructureInstallation("a", "/opt/structure/", 
+				"bin/structure", null, null, Collections.<ToolProperty<?>>emptyList()).getExecutable());
+		assertEquals("/usr/bin/structure", new StructureInstallation("a", "/opt/structure", 
+				"/usr/bin/structure", null, null, Collections.<ToolProperty<?>>emptyList()).getExecutable());
+		assertEquals("structure", new StructureInstallation("a", null, 
+				"structure", null, null, Collections.<ToolProperty<?>>emptyList()).getExecutable());
+		assertEquals(StructureInstallation.ENGINE_EXTERNAL, new StructureInstallation("a", null, 
+				"structure", null, null, Collections.<ToolProperty<?>>emptyList()).getEngine());
+	}
+	@Test
+	public void testArchiveIsExtractedOnce() throws Exception {
+		createArchive("#!/bin/sh\n");
+		final StructureArchiveInstaller installer = new StructureArchiveInstaller(null, "structure.zip");
+		final StructureInstallation installation = createInstallation(installer);
+		final FilePath directory = installer.performInstallation(installation, j.jenkins, TaskListener.NULL);
+		final FilePath executable = directory.child("bin/structure");
+		assertTrue(executable.exists());
+		assertTrue(directory.child(StructureArchiveInstaller.INSTALLED_MARKER).exists());
+		assertEquals(0755, executable.mode() & 0777);
+		// a second installation of the same archive reuses the directory
+		executable.delete();
+		assertEquals(directory, installer.performInstallation(installation, j.jenkins, TaskListener.NULL));
+		assertFalse(executable.exists());
+	}
+	@Test
+	public void testChangedArchiveIsExtractedAgain() throws Exception {
+		final File archive = createArchive("#!/bin/sh\n");
+		final StructureArchiveInstaller installer = new StructureArchiveInstaller(null, "structure.zip");
+		final StructureInstallation installation = createInstallation(installer);
+		final FilePath first = installer.performInstallation(installation, j.jenkins, TaskListener.NULL);
+		createArchive("#!/bin/sh\necho 2.3.4\n");
+		archive.setLastModified(archive.lastModified() + 2000L);
+		final FilePath second = installer.performInstallation(installation, j.jenkins, TaskListener.NULL);
+		assertFalse(first.equals(second));
+		assertEquals("#!/bin/sh\necho 2.3.4\n", second.child("bin/structure").readToString());
+	}
+	@Test
+	public void testConcurrentInstallationsShareTheDirectory() throws Exception {
+		createArchive("#!/bin/sh\n");
+		final StructureArchiveInstaller installer = new StructureArchiveInstaller(null, "structure.zip");
+		final StructureInstallation installation = createInstallation(installer);
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			final List<Future<FilePath>> installations = new ArrayList<Future<FilePath>>();
+			for (int i = 0; i < 8; i++) {
+				installations.add(executor.submit(new Callable<FilePath>() {
+					public FilePath call() throws Exception {
+						final FilePath directory = installer.performInstallation(installation, j.jenkins, TaskListener.NULL);
+						// never a partial installation
+						assertTrue(directory.child("bin/structure").exists());
+						return directory;
+					}
+				}));
+			}
+			final FilePath directory = installations.get(0).get();
+			for (Future<FilePath> other : installations) {
+				assertEquals(directory, other.get());
+			}
+			// no temporary directories are left
+			assertEquals(1, directory.getParent().list().size());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	@Test
+	public void testLegacyInstallationsAreMigratedOnce() throws Exception {
+		final File config = new File(j.jenkins.getRootDir(), StructureBuilder.class.getName() + ".xml");
+		FileUtils.writeStringToFile(config, "<?xml version='1.0' encoding='UTF-8'?>\n"
+				+ "<org.biouno.structure.StructureBuilderDescriptor>\n"
+				+ "  <installations>\n"
+				+ "    <org.biouno.structure.StructureInstallation>\n"
+				+ "      <name>legacy</name>\n"
+				+ "      <pathToExecutable>/usr/bin/structure</pathToExecutable>\n"
+				+ "    </org.biouno.structure.StructureInstallation>\n"
+				+ "  </installations>\n"
+				+ "</org.biouno.structure.StructureBuilderDescriptor>\n", "UTF-8");
+		StructureBuilder.DESCRIPTOR.load();
+		// reading the installations has no side effects
+		assertEquals(0, StructureBuilder.DESCRIPTOR.getInstallations().length);
+		assertTrue(FileUtils.readFileToString(config, "UTF-8").contains("legacy"));
+		StructureBuilderDescriptor.migrateInstallations();
+		final StructureInstallation[] installations = StructureBuilder.DESCRIPTOR.getInstallations();
+		assertEquals(1, installations.length);
+		assertEquals("legacy", installations[0].getName());
+		assertEquals("/usr/bin/structure", installations[0].getPathToExecutable());
+		assertFalse(FileUtils.readFileToString(config, "UTF-8").contains("legacy"));
+	}
+}
@@ -0,0 +1,307 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Functions;
+import hudson.model.Descriptor;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.Channel;
+import hudson.slaves.ComputerLauncher;
+import hudson.slaves.DumbSlave;
+import hudson.slaves.EnvironmentVariablesNodeProperty;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.RetentionStrategy;
+import hudson.slaves.SlaveComputer;
+import hudson.tools.ToolProperty;
+import hudson.util.StreamCopyThread;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.sf.json.JSONObject;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.biouno.structure.throttle.Permit;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
+
+/**
+ * Load test of the orchestration of structure runs. Drives hundreds of 
+ * {@link FakeStructure} runs through the builder in an agent, then reports:
+ * <ul>
+ * <li>the scheduling overhead of each run, from the moment the builder 
+ * enqueues it for a permit until its process starts, and the part of it 
+ * spent waiting for the permit</li>
+ * <li>the bytes received and sent by the master over the channel of the 
+ * agent, while building and while rendering the results</li>
+ * <li>the time spent rendering the build page with <code>summary.jelly</code>, 
+ * the runs (<code>doRuns</code>) and the plots (<code>doPlot</code>), 
+ * first rendered and then cached</li>
+ * </ul>
+ * It is not part of the test phase, and runs with the <code>load-test</code> 
+ * profile, configured with system properties:
+ * <pre>
+ * mvn test -Pload-test -Dstructure.load.runs=500 -Dstructure.load.parallel=16
+ * </pre>
+ * The properties are <code>structure.load.runs</code> (200), 
+ * <code>structure.load.parallel</code> (maximum parallel runs, 8), 
+ * <code>structure.load.inds</code> (200), <code>structure.load.loci</code> 
+ * (500) and <code>structure.load.delay</code> (run time, 50 ms).
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class StructureBuilderLoadHarness {
+	private static final String PROPERTY_PREFIX = "structure.load.";
+	private static final String MAINPARAMS = "#define BURNIN 200\n#define NUMREPS 200\n" 
+			+ "#define LABEL 1\n#define POPDATA 1\n";
+	/**
+	 * Maximum number of values of K, the other runs are replicates.
+	 */
+	private static final int MAX_K_VALUES = 10;
+	/**
+	 * Number of times the build page and the runs are rendered.
+	 */
+	private static final int PAGE_REQUESTS = 5;
+	/**
+	 * Times each run was enqueued and got its permit, by name of its output 
+	 * file.
+	 */
+	private static final Map<String, long[]> PERMITS = new ConcurrentHashMap<String, long[]>();
+	@Rule
+	public JenkinsRule j = new JenkinsRule() {
+		{
+			// hundreds of runs take longer than the default timeout
+			timeout = 0;
+		}
+	};
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	private final int runs = Integer.getInteger(PROPERTY_PREFIX + "runs", 200);
+	private final int parallel = Integer.getInteger(PROPERTY_PREFIX + "parallel", 8);
+	private final int inds = Integer.getInteger(PROPERTY_PREFIX + "inds", 200);
+	private final int loci = Integer.getInteger(PROPERTY_PREFIX + "loci", 500);
+	private final int delay = Integer.getInteger(PROPERTY_PREFIX + "delay", 50);
+	@Test
+	public void testLoad() throws Exception {
+		Assume.assumeFalse(Functions.isWindows());
+		PERMITS.clear();
+		// the stand-in runs in its own JVM, like the structure executable
+		final File executable = folder.newFile("structure");
+		FileUtils.writeStringToFile(executable, "#!/bin/sh\nexec '" 
+				+ new File(System.getProperty("java.home"), "bin/java").getPath() + "' -cp '" 
+				+ System.getProperty("java.class.path") + "' " + FakeStructure.class.getName() + " \"$@\"\n", "UTF-8");
+		assertTrue(executable.setExecutable(true));
+		j.jenkins.getDescriptorByType(StructureInstallation.DescriptorImpl.class).setInstallations(
+				new StructureInstallation("fake", null, executable.getPath(), StructureInstallation.ENGINE_EXTERNAL, 
+						null, Collections.<ToolProperty<?>>emptyList()));
+		StructureBuilder.DESCRIPTOR.configure(null, new JSONObject());
+		final File launches = folder.newFolder("launches");
+		j.jenkins.getGlobalNodeProperties().replaceBy(Collections.singleton(new EnvironmentVariablesNodeProperty(
+				new EnvironmentVariablesNodeProperty.Entry(FakeStructure.DELAY_ENV_VAR, Integer.toString(delay)), 
+				new EnvironmentVariablesNodeProperty.Entry(FakeStructure.LAUNCHES_ENV_VAR, launches.getPath()))));
+
+		// an agent whose channel counts the bytes it carries
+		final CountingLauncher launcher = new CountingLauncher(
+				new File(System.getProperty("java.home"), "bin/java").getPath(), 
+				new File(j.jenkins.getJnlpJars("slave.jar").getURL().toURI()).getPath());
+		final DumbSlave agent = new DumbSlave("load", "", folder.newFolder("agent").getPath(), "1", Node.Mode.NORMAL, 
+				"", launcher, RetentionStrategy.NOOP, Collections.<NodeProperty<?>>emptyList());
+		j.jenkins.addNode(agent);
+		agent.toComputer().connect(false).get();
+
+		final int kValues = Math.max(1, Math.min(MAX_K_VALUES, runs));
+		final int replicates = (runs + kValues - 1) / kValues;
+		final int total = kValues * replicates;
+		final FreeStyleProject project = j.createFreeStyleProject();
+		project.setAssignedNode(agent);
+		project.getBuildersList().add(new TimedStructureBuilder("fake", loci, inds, "data.txt", "results/out", 
+				MAINPARAMS, "2-" + (kValues + 1), replicates, parallel));
+
+		final long[] bytes = launcher.getBytes();
+		long start = System.nanoTime();
+		final FreeStyleBuild build = j.assertBuildStatusSuccess(project.scheduleBuild2(0));
+		final long buildTime = System.nanoTime() - start;
+		final long[] buildBytes = launcher.getBytesSince(bytes);
+		final StructureBuildSummaryAction action = build.getAction(StructureBuildSummaryAction.class);
+		assertEquals(total, action.getRuns().size());
+
+		// enqueued, permitted and launched, for every run
+		assertEquals(total, PERMITS.size());
+		final List<Long> scheduling = new ArrayList<Long>();
+		final List<Long> waiting = new ArrayList<Long>();
+		for (Map.Entry<String, long[]> run : PERMITS.entrySet()) {
+			final long launched = Long.parseLong(FileUtils.readFileToString(new File(launches, run.getKey()), "UTF-8"));
+			scheduling.add(launched - run.getValue()[0]);
+			waiting.add(run.getValue()[1] - run.getValue()[0]);
+		}
+
+		// rendering, with the results read from the workspace in the agent
+		final JenkinsRule.WebClient wc = j.createWebClient();
+		wc.setJavaScriptEnabled(false);
+		final long[] renderBytes = launcher.getBytes();
+		final List<Long> summary = new ArrayList<Long>();
+		final List<Long> runsJson = new ArrayList<Long>();
+		for (int i = 0; i < PAGE_REQUESTS; i++) {
+			start = System.nanoTime();
+			wc.getPage(build);
+			summary.add(millisSince(start));
+			start = System.nanoTime();
+			wc.goTo(build.getUrl() + action.getUrlName() + "/runs", "application/json");
+			runsJson.add(millisSince(start));
+		}
+		final List<Long> plots = new ArrayList<Long>();
+		final List<Long> cachedPlots = new ArrayList<Long>();
+		for (List<Long> times : Arrays.asList(plots, cachedPlots)) {
+			for (int i = 0; i < total; i++) {
+				start = System.nanoTime();
+				wc.goTo(build.getUrl() + action.getUrlName() + "/plot?run=" + i + "&format=svg", "image/svg+xml");
+				times.add(millisSince(start));
+			}
+		}
+		final long[] renderedBytes = launcher.getBytesSince(renderBytes);
+
+		System.out.println(String.format(Locale.ENGLISH, 
+				"Structure load test: %d runs (%d values of K, %d replicates), %d in parallel, %d individuals, " 
+				+ "%d loci, %d ms each", total, kValues, replicates, parallel, inds, loci, delay));
+		System.out.println(String.format(Locale.ENGLISH, "  Build:                        %d ms", buildTime / 1000000L));
+		System.out.println("  Scheduling, enqueue to launch: " + summarize(scheduling));
+		System.out.println("    waiting for the permit:     " + summarize(waiting));
+		System.out.println("  Channel while building:       " + describeBytes(buildBytes));
+		System.out.println("  Build page (summary.jelly):   " + summarize(summary));
+		System.out.println("  doRuns:                       " + summarize(runsJson));
+		System.out.println("  doPlot, first request:        " + summarize(plots));
+		System.out.println("  doPlot, cached:               " + summarize(cachedPlots));
+		System.out.println("  Channel while rendering:      " + describeBytes(renderedBytes));
+	}
+	private static long millisSince(long start) {
+		return (System.nanoTime() - start) / 1000000L;
+	}
+	private static String summarize(List<Long> values) {
+		final List<Long> sorted = new ArrayList<Long>(values);
+		Collections.sort(sorted);
+		long sum = 0;
+		for (long value : sorted) {
+			sum += value;
+		}
+		return String.format(Locale.ENGLISH, "mean %d ms, p50 %d ms, p95 %d ms, max %d ms (%d)", 
+				sum / sorted.size(), sorted.get(sorted.size() / 2), sorted.get((int) (sorted.size() * 0.95)), 
+				sorted.get(sorted.size() - 1), sorted.size());
+	}
+	private static String describeBytes(long[] bytes) {
+		return String.format(Locale.ENGLISH, "%d bytes from the agent, %d bytes to the agent", bytes[0], bytes[1]);
+	}
+	/**
+	 * The builder, recording when each run is enqueued and gets its permit.
+	 */
+	public static class TimedStructureBuilder extends StructureBuilder {
+		public TimedStructureBuilder(String structureInstallationName, Integer numLoci, Integer numInds, 
+				String inFile, String outFile, String mainParams, String kValue, Integer replicates, 
+				Integer maxParallelRuns) {
+			super(structureInstallationName, numLoci, numInds, null, null, inFile, outFile, mainParams, "", kValue, 
+					null, null, replicates, maxParallelRuns, null, null, null);
+		}
+		@Override
+		Permit acquirePermit(FilePath workspace, EnvVars envVars, StructureJob job, TaskListener listener) 
+				throws AbortException, InterruptedException {
+			final long enqueued = System.currentTimeMillis();
+			final Permit permit = super.acquirePermit(workspace, envVars, job, listener);
+			PERMITS.put(new File(job.getOutFile()).getName(), new long[] { enqueued, System.currentTimeMillis() });
+			return permit;
+		}
+		@Override
+		public StructureBuilderDescriptor getDescriptor() {
+			return DESCRIPTOR;
+		}
+	}
+	/**
+	 * Launches an agent in a local process, counting the bytes of its channel.
+	 */
+	public static class CountingLauncher extends ComputerLauncher {
+		private final String java;
+		private final String agentJar;
+		private transient CountingInputStream in;
+		private transient CountingOutputStream out;
+		public CountingLauncher(String java, String agentJar) {
+			this.java = java;
+			this.agentJar = agentJar;
+		}
+		@Override
+		public void launch(SlaveComputer computer, TaskListener listener) throws IOException, InterruptedException {
+			final Process process = new ProcessBuilder(java, "-jar", agentJar).start();
+			new StreamCopyThread("stderr of " + computer.getName(), process.getErrorStream(), listener.getLogger()).start();
+			synchronized (this) {
+				in = new CountingInputStream(process.getInputStream());
+				out = new CountingOutputStream(process.getOutputStream());
+			}
+			computer.setChannel(in, out, listener, new Channel.Listener() {
+				@Override
+				public void onClosed(Channel channel, IOException cause) {
+					process.destroy();
+				}
+			});
+		}
+		/**
+		 * @return the bytes received from and sent to the agent so far
+		 */
+		synchronized long[] getBytes() {
+			return new long[] { in.getByteCount(), out.getByteCount() };
+		}
+		/**
+		 * @param bytes bytes received and sent before
+		 * @return the bytes received from and sent to the agent since then
+		 */
+		long[] getBytesSince(long[] bytes) {
+			final long[] now = getBytes();
+			return new long[] { now[0] - bytes[0], now[1] - bytes[1] };
+		}
+		@TestExtension
+		public static class DescriptorImpl extends Descriptor<ComputerLauncher> {
+			@Override
+			public String getDisplayName() {
+				return "Agent with counted channel";
+			}
+		}
+	}
+}
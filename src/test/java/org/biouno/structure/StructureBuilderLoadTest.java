@@ -0,0 +1,216 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import hudson.FilePath;
+import hudson.Functions;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import hudson.slaves.EnvironmentVariablesNodeProperty;
+import hudson.tools.ToolProperty;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.apache.commons.io.FileUtils;
+import org.biouno.structure.placement.CpuTopology;
+import org.biouno.structure.plot.PlotCache;
+import org.biouno.structure.throttle.ProcessThrottle;
+import org.biouno.structure.trace.TraceSeries;
+import org.biouno.structure.util.Messages;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import com.gargoylesoftware.htmlunit.Page;
+
+/**
+ * Drives batches of {@link FakeStructure} runs through the builder, with the 
+ * command line, scratch directories, process throttle and placement used 
+ * for the real executable, then reads the results through the build summary.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class StructureBuilderLoadTest {
+	private static final String MAINPARAMS = "#define BURNIN 200\n#define NUMREPS 200\n" 
+			+ "#define LABEL 1\n#define POPDATA 1\n";
+	private static final Pattern CONCURRENT_RUNS = Pattern.compile(Pattern.quote(FakeStructure.CONCURRENT_RUNS) + "(\\d+)");
+	@Rule
+	public JenkinsRule j = new JenkinsRule();
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	@Before
+	public void setUp() throws Exception {
+		Assume.assumeFalse(Functions.isWindows());
+		// the stand-in runs in its own JVM, like the structure executable
+		final File executable = folder.newFile("structure");
+		FileUtils.writeStringToFile(executable, "#!/bin/sh\nexec '" 
+				+ new File(System.getProperty("java.home"), "bin/java").getPath() + "' -cp '" 
+				+ System.getProperty("java.class.path") + "' " + FakeStructure.class.getName() + " \"$@\"\n", "UTF-8");
+		assertTrue(executable.setExecutable(true));
+		j.jenkins.getDescriptorByType(StructureInstallation.DescriptorImpl.class).setInstallations(
+				new StructureInstallation("fake", null, executable.getPath(), StructureInstallation.ENGINE_EXTERNAL, 
+						null, Collections.<ToolProperty<?>>emptyList()));
+		configure(false, 0);
+	}
+	private static void configure(boolean compressResults, int maxProcessesPerNode) throws Exception {
+		final JSONObject json = new JSONObject();
+		json.put("compressResults", compressResults);
+		json.put("maxProcessesPerNode", maxProcessesPerNode);
+		StructureBuilder.DESCRIPTOR.configure(null, json);
+	}
+	private void setEnvironment(String... keysAndValues) {
+		final EnvironmentVariablesNodeProperty.Entry[] entries = new EnvironmentVariablesNodeProperty.Entry[keysAndValues.length / 2];
+		for (int i = 0; i < entries.length; i++) {
+			entries[i] = new EnvironmentVariablesNodeProperty.Entry(keysAndValues[2 * i], keysAndValues[2 * i + 1]);
+		}
+		j.jenkins.getGlobalNodeProperties().replaceBy(Collections.singleton(new EnvironmentVariablesNodeProperty(entries)));
+	}
+	private FreeStyleProject createProject(String kValue, int replicates, String placement) throws Exception {
+		final FreeStyleProject project = j.createFreeStyleProject();
+		project.getBuildersList().add(new StructureBuilder("fake", 10, 20, null, null, "data.txt", "results/out", 
+				MAINPARAMS, "", kValue, placement, null, replicates, 6, null, null, null));
+		return project;
+	}
+	private static int maxConcurrentRuns(String log, int expectedRuns) {
+		final Matcher matcher = CONCURRENT_RUNS.matcher(log);
+		int runs = 0;
+		int max = 0;
+		while (matcher.find()) {
+			runs++;
+			max = Math.max(max, Integer.parseInt(matcher.group(1)));
+		}
+		assertEquals(expectedRuns, runs);
+		return max;
+	}
+	private static void assertThrottleIdle() {
+		final String master = ProcessThrottle.get().describe("");
+		assertTrue(master, master.endsWith("idle") || (master.contains(": 0 structure process(es)") 
+				&& master.endsWith(", 0 waiting")));
+	}
+	@Test
+	public void testBatchInScratchDirectoriesWithinProcessLimit() throws Exception {
+		configure(true, 2);
+		final File scratch = folder.newFolder("scratch");
+		setEnvironment(FakeStructure.DELAY_ENV_VAR, "300", 
+				FakeStructure.RUNNING_ENV_VAR, folder.newFolder("running").getPath(), 
+				StructureBuilder.SCRATCH_ENV_VAR, scratch.getPath());
+		final FreeStyleBuild build = j.assertBuildStatusSuccess(createProject("2-3", 3, null).scheduleBuild2(0));
+		final String log = FileUtils.readFileToString(build.getLogFile());
+
+		// every run got a permit, and no more than 2 ran at the same time
+		assertTrue(maxConcurrentRuns(log, 6) <= 2);
+		assertTrue(log.contains("waiting for a structure process to finish"));
+		assertThrottleIdle();
+
+		// the compressed output and the mainparams of each run are kept, the 
+		// run directories are deleted
+		final StructureBuildSummaryAction action = build.getAction(StructureBuildSummaryAction.class);
+		assertNotNull(action);
+		assertEquals(6, action.getRuns().size());
+		final FilePath workspace = build.getWorkspace();
+		for (StructureRun run : action.getRuns()) {
+			final FilePath output = ResultFiles.find(workspace, run.getFile());
+			assertNotNull(run.getFile(), output);
+			assertTrue(output.getName().endsWith(ResultFiles.COMPRESSED_SUFFIX));
+			assertTrue(workspace.child(StructureBuilder.MAINPARAMS_PARAM_SET_PREFIX + "_k" + run.getK() 
+					+ "_r" + run.getReplicate()).exists());
+			assertNotNull(run.getTrace());
+			assertNull(run.getPlacement());
+		}
+		assertEquals(0, scratch.list().length);
+
+		// the summary reads the compressed results
+		final JenkinsRule.WebClient wc = j.createWebClient();
+		final String summary = wc.getPage(build).getWebResponse().getContentAsString();
+		for (int i = 0; i < 6; i++) {
+			assertTrue(summary.contains(action.getUrlName() + "/plot?run=" + i));
+		}
+		final JSONArray runs = JSONObject.fromObject(wc.goTo(build.getUrl() + action.getUrlName() + "/runs", 
+				"application/json").getWebResponse().getContentAsString()).getJSONArray("runs");
+		assertEquals(6, runs.size());
+		assertEquals(20, runs.getJSONObject(5).getInt("numInds"));
+		assertEquals(10, runs.getJSONObject(5).getInt("numLoci"));
+		final JSONObject q = JSONObject.fromObject(wc.goTo(build.getUrl() + action.getUrlName() + "/q?run=4", 
+				"application/json").getWebResponse().getContentAsString());
+		assertEquals(20, q.getJSONArray("rows").size());
+
+		// plots are rendered once, in the cache file named after the entity tag
+		final Page plot = wc.goTo(build.getUrl() + action.getUrlName() + "/plot?run=4&format=svg", "image/svg+xml");
+		assertTrue(plot.getWebResponse().getContentAsString().startsWith("<svg"));
+		final String etag = plot.getWebResponse().getResponseHeaderValue("ETag");
+		final File plots = new File(build.getRootDir(), PlotCache.DIRECTORY);
+		assertEquals(1, plots.list().length);
+		assertEquals(etag.replace("\"", "") + ".svg", plots.list()[0]);
+		wc.goTo(build.getUrl() + action.getUrlName() + "/plot?run=4&format=svg", "image/svg+xml");
+		assertEquals(1, plots.list().length);
+	}
+	@Test
+	public void testFailedRunsAreReported() throws Exception {
+		setEnvironment(FakeStructure.DELAY_ENV_VAR, "100", FakeStructure.FAIL_K_ENV_VAR, "3", 
+				FakeStructure.RUNNING_ENV_VAR, folder.newFolder("running").getPath());
+		final FreeStyleBuild build = j.assertBuildStatus(Result.FAILURE, createProject("2-3", 2, null).scheduleBuild2(0).get());
+		j.assertLogContains(Messages.StructureKBuilder_ExecuteStructureError(FakeStructure.FAILURE_EXIT_CODE), build);
+		j.assertLogContains(Messages.StructureBuilder_BatchFailures(2, 4), build);
+		// the failed runs exit before they are counted
+		maxConcurrentRuns(FileUtils.readFileToString(build.getLogFile()), 2);
+		assertThrottleIdle();
+
+		// only the successful runs are shown, with their traces
+		final StructureBuildSummaryAction action = build.getAction(StructureBuildSummaryAction.class);
+		assertEquals(2, action.getRuns().size());
+		for (StructureRun run : action.getRuns()) {
+			assertEquals(2, run.getK());
+			assertNotNull(ResultFiles.find(build.getWorkspace(), run.getFile()));
+		}
+		assertNull(ResultFiles.find(build.getWorkspace(), "results/out_k3_r1_f"));
+		assertEquals(2, new File(build.getRootDir(), TraceSeries.DIRECTORY).list().length);
+	}
+	@Test
+	public void testRunsArePlacedOnCores() throws Exception {
+		Assume.assumeTrue(new File("/usr/bin/taskset").canExecute());
+		Assume.assumeFalse(CpuTopology.detect(new File(CpuTopology.SYSFS_SYSTEM)).isEmpty());
+		setEnvironment(FakeStructure.DELAY_ENV_VAR, "100");
+		final FreeStyleBuild build = j.assertBuildStatusSuccess(createProject("2", 2, "core").scheduleBuild2(0));
+		j.assertLogContains("taskset", build);
+		final StructureBuildSummaryAction action = build.getAction(StructureBuildSummaryAction.class);
+		assertEquals(2, action.getRuns().size());
+		for (StructureRun run : action.getRuns()) {
+			assertTrue(run.getPlacement(), run.getPlacement().startsWith("core "));
+		}
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import hudson.AbortException;
+import hudson.EnvVars;
+
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+/**
+ * Tests for the expansion of K and the batch detection of {@link StructureBuilder}.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class StructureBuilderTest {
+	@Rule
+	public JenkinsRule j = new JenkinsRule();
+	private static StructureBuilder createBuilder(String kValue, String inFiles, Integer replicates) {
+		return new StructureBuilder("structure", null, null, null, null, "data.txt", "results/out", "", "", 
+				kValue, null, inFiles, replicates, null, null, null, null);
+	}
+	@Test
+	public void testKValuesAndRanges() throws Exception {
+		final EnvVars envVars = new EnvVars("MAX_K", "8");
+		assertEquals(Arrays.asList(2, 3, 5, 6, 7, 8), createBuilder("2,3 5-${MAX_K}", null, null).expandKValues(envVars));
+		assertEquals(Arrays.asList(4), createBuilder("4", null, null).expandKValues(envVars));
+		assertEquals(8, createBuilder("${MAX_K}", null, null).expandK(envVars));
+	}
+	@Test
+	public void testInvalidKValues() {
+		for (String kValue : new String[] { "2,x", "2-", " , " }) {
+			try {
+				createBuilder(kValue, null, null).expandKValues(new EnvVars());
+				fail("Expected K not to be expanded: " + kValue);
+			} catch (AbortException e) {
+				// expected
+			}
+		}
+	}
+	@Test
+	public void testBatch() throws Exception {
+		final EnvVars envVars = new EnvVars();
+		assertFalse(createBuilder("2", null, null).isBatch(envVars));
+		assertFalse(createBuilder("2", "", 1).isBatch(envVars));
+		assertTrue(createBuilder("2-3", null, null).isBatch(envVars));
+		assertTrue(createBuilder("2", "data/*.str", null).isBatch(envVars));
+		assertTrue(createBuilder("2", null, 3).isBatch(envVars));
+	}
+}
@@ -0,0 +1,208 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import hudson.Functions;
+import hudson.model.Result;
+import hudson.model.TaskListener;
+import hudson.tools.ToolProperty;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import net.sf.json.JSONObject;
+
+import org.apache.commons.io.FileUtils;
+import org.biouno.structure.throttle.ProcessThrottle;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runners.model.Statement;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.RestartableJenkinsRule;
+
+/**
+ * Tests that the {@link StructureStep} survives a restart of the master, 
+ * while waiting for a permit and while structure runs.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class StructureStepRestartTest {
+	private static final String MAINPARAMS = "#define MAXPOPS 2\\n#define BURNIN 10\\n#define NUMREPS 10\\n";
+	private static final long TIMEOUT = 60000L;
+	public RestartableJenkinsRule story = new RestartableJenkinsRule();
+	public TemporaryFolder folder = new TemporaryFolder();
+	/**
+	 * The folder outlives the steps of the story.
+	 */
+	@Rule
+	public RuleChain chain = RuleChain.outerRule(folder).around(story);
+	/**
+	 * Each launch of the fake structure adds a line to this file.
+	 */
+	private File launches;
+	/**
+	 * The fake structure exits once this file exists.
+	 */
+	private File go;
+	@Before
+	public void setUp() throws Exception {
+		Assume.assumeFalse(Functions.isWindows());
+		launches = new File(folder.getRoot(), "launches");
+		go = new File(folder.getRoot(), "go");
+	}
+	/**
+	 * Installs a fake structure that records its launch, prints a progress 
+	 * line, waits for the go file and writes a <code>_f</code> file.
+	 */
+	private void install(int maxProcessesPerNode) throws Exception {
+		final File executable = folder.newFile("fake-structure.sh");
+		FileUtils.writeStringToFile(executable, "#!/bin/sh\n" 
+				+ "while [ $# -gt 0 ]; do case \"$1\" in -o) out=\"$2\"; shift;; esac; shift; done\n" 
+				+ "echo launched >> '" + launches.getAbsolutePath() + "'\n" 
+				+ "echo ' Rep#:      Alpha    Ln Like  Est Ln P(D)'\n" 
+				+ "echo '     1:      0.500    -1000.0       --'\n" 
+				+ "while [ ! -f '" + go.getAbsolutePath() + "' ]; do sleep 1; done\n" 
+				+ "printf 'Run parameters:\\n   2 individuals\\n   1 loci\\n   2 populations assumed\\n\\n" 
+				+ "Inferred ancestry of individuals:\\n        Label (%%Miss) :  Inferred clusters\\n" 
+				+ "  1     ind1    (0)   :  0.900 0.100\\n  2     ind2    (0)   :  0.200 0.800\\n\\n' > \"${out}_f\"\n", 
+				"UTF-8");
+		assertTrue(executable.setExecutable(true));
+		story.j.jenkins.getDescriptorByType(StructureInstallation.DescriptorImpl.class).setInstallations(
+				new StructureInstallation("fake", null, executable.getAbsolutePath(), StructureInstallation.ENGINE_EXTERNAL, 
+						null, Collections.<ToolProperty<?>>emptyList()));
+		final JSONObject json = new JSONObject();
+		json.put("maxProcessesPerNode", maxProcessesPerNode);
+		StructureBuilder.DESCRIPTOR.configure(null, json);
+	}
+	private WorkflowRun start() throws Exception {
+		final WorkflowJob job = story.j.jenkins.createProject(WorkflowJob.class, "structure-step");
+		job.setDefinition(new CpsFlowDefinition("node { structure structureInstallationName: 'fake', " 
+				+ "kValue: '2', inFile: 'data.txt', outFile: 'results/k2', mainParams: '" + MAINPARAMS 
+				+ "', extraParams: '' }"));
+		return job.scheduleBuild2(0).waitForStart();
+	}
+	private WorkflowRun getRun() {
+		return story.j.jenkins.getItemByFullName("structure-step", WorkflowJob.class).getBuildByNumber(1);
+	}
+	private static void waitFor(String what, Callable<Boolean> condition) throws Exception {
+		final long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (!condition.call()) {
+			if (System.currentTimeMillis() > deadline) {
+				fail("Timed out waiting for " + what);
+			}
+			Thread.sleep(100L);
+		}
+	}
+	private static void waitForLog(final WorkflowRun run, final String message) throws Exception {
+		waitFor(message, new Callable<Boolean>() {
+			public Boolean call() throws Exception {
+				return JenkinsRule.getLog(run).contains(message);
+			}
+		});
+	}
+	/**
+	 * Waits for the run to finish, and checks that structure ran once and 
+	 * that its results were collected once.
+	 */
+	private void assertCompletedOnce() throws Exception {
+		final WorkflowRun run = getRun();
+		waitFor("the end of the build", new Callable<Boolean>() {
+			public Boolean call() {
+				return !run.isBuilding();
+			}
+		});
+		story.j.assertBuildStatus(Result.SUCCESS, run);
+		assertEquals(Arrays.asList("launched"), FileUtils.readLines(launches, "UTF-8"));
+		assertEquals(1, run.getActions(StructureBuildSummaryAction.class).size());
+		final List<StructureRun> runs = run.getAction(StructureBuildSummaryAction.class).getRuns();
+		assertEquals(1, runs.size());
+		assertEquals("k2_f", runs.get(0).getFile());
+		final String[] results = new File(run.getRootDir(), StructureBuildSummaryAction.RESULTS_DIRECTORY).list();
+		assertEquals(Arrays.asList("k2_f"), Arrays.asList(results));
+		assertTrue(ProcessThrottle.get().describe("").startsWith("master: 0 structure process(es)"));
+	}
+	@Test
+	public void testResumesWhileQueued() {
+		story.addStep(new Statement() {
+			@Override
+			public void evaluate() throws Throwable {
+				install(1);
+				// the only process of the master is taken
+				ProcessThrottle.get().acquire("", "other build", 0, 1, TaskListener.NULL);
+				assertTrue(go.createNewFile());
+				final WorkflowRun run = start();
+				waitForLog(run, "waiting for a structure process to finish");
+				assertFalse(launches.exists());
+			}
+		});
+		story.addStep(new Statement() {
+			@Override
+			public void evaluate() throws Throwable {
+				// the permits of the other build are gone with the restart, 
+				// the step is queued again and launched
+				assertCompletedOnce();
+			}
+		});
+	}
+	@Test
+	public void testResumesWhileRunning() {
+		story.addStep(new Statement() {
+			@Override
+			public void evaluate() throws Throwable {
+				install(1);
+				final WorkflowRun run = start();
+				// copied from the output of the process by a check
+				waitForLog(run, "Ln Like");
+				assertTrue(launches.isFile());
+			}
+		});
+		story.addStep(new Statement() {
+			@Override
+			public void evaluate() throws Throwable {
+				// the running process registers its permit again
+				waitFor("the permit of the running process", new Callable<Boolean>() {
+					public Boolean call() {
+						return ProcessThrottle.get().describe("").startsWith("master: 1 structure process(es)");
+					}
+				});
+				assertTrue(go.createNewFile());
+				assertCompletedOnce();
+			}
+		});
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import hudson.FilePath;
+import hudson.Functions;
+import hudson.model.Result;
+import hudson.tools.ToolProperty;
+
+import java.util.Collections;
+
+import org.biouno.structure.util.Messages;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+/**
+ * Tests for {@link StructureStep}.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class StructureStepTest {
+	/**
+	 * Prints a progress line and writes a <code>_f</code> file with two 
+	 * individuals to the file given with <code>-o</code>.
+	 */
+	private static final String FAKE_STRUCTURE = "#!/bin/sh\n" 
+			+ "while [ $# -gt 0 ]; do case \"$1\" in -o) out=\"$2\"; shift;; esac; shift; done\n" 
+			+ "echo ' Rep#:      Alpha    Ln Like  Est Ln P(D)'\n" 
+			+ "echo '     1:      0.500    -1000.0       --'\n" 
+			+ "printf 'Run parameters:\\n   2 individuals\\n   1 loci\\n   2 populations assumed\\n\\n" 
+			+ "Inferred ancestry of individuals:\\n        Label (%%Miss) :  Inferred clusters\\n" 
+			+ "  1     ind1    (0)   :  0.900 0.100\\n  2     ind2    (0)   :  0.200 0.800\\n\\n' > \"${out}_f\"\n";
+	private static final String MAINPARAMS = "#define MAXPOPS 2\\n#define BURNIN 10\\n#define NUMREPS 10\\n";
+	@Rule
+	public JenkinsRule j = new JenkinsRule();
+	private void install(String name, String pathToExecutable, String engine) {
+		j.jenkins.getDescriptorByType(StructureInstallation.DescriptorImpl.class).setInstallations(
+				new StructureInstallation(name, null, pathToExecutable, engine, null, 
+						Collections.<ToolProperty<?>>emptyList()));
+	}
+	private WorkflowJob createJob(String installation) throws Exception {
+		final WorkflowJob job = j.jenkins.createProject(WorkflowJob.class, "structure-step");
+		job.setDefinition(new CpsFlowDefinition("node { structure structureInstallationName: '" + installation 
+				+ "', kValue: '2', inFile: 'data.txt', outFile: 'results/k2', mainParams: '" + MAINPARAMS 
+				+ "', extraParams: '' }"));
+		return job;
+	}
+	@Test
+	public void testBuiltInEngineIsRejected() throws Exception {
+		install("builtin", null, StructureInstallation.ENGINE_BUILT_IN);
+		final WorkflowRun run = j.assertBuildStatus(Result.FAILURE, createJob("builtin").scheduleBuild2(0).get());
+		j.assertLogContains(Messages.StructureStep_BuiltInEngineNotSupported("builtin"), run);
+	}
+	@Test
+	public void testRunsExecutableAsDurableTask() throws Exception {
+		Assume.assumeFalse(Functions.isWindows());
+		final FilePath executable = new FilePath(j.jenkins.getRootPath(), "fake-structure.sh");
+		executable.write(FAKE_STRUCTURE, "UTF-8");
+		executable.chmod(0755);
+		install("fake", executable.getRemote(), StructureInstallation.ENGINE_EXTERNAL);
+		final WorkflowRun run = j.assertBuildStatusSuccess(createJob("fake").scheduleBuild2(0));
+		j.assertLogContains("Ln Like", run);
+		final StructureBuildSummaryAction action = run.getAction(StructureBuildSummaryAction.class);
+		assertNotNull(action);
+		assertEquals(1, action.getRuns().size());
+		assertEquals(2, action.getRuns().get(0).getK());
+		assertNotNull(action.getRuns().get(0).getTrace());
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link AdaptiveKSearch}.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class AdaptiveKSearchTest {
+	private static final List<Integer> CANDIDATES = Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+	/**
+	 * Ln P(D) increasing up to K=4 and slowly decreasing after it.
+	 */
+	private static double plateauAtFour(int k) {
+		return k <= 4 ? -1000 - (4 - k) * 200 : -1000 - (k - 4) * 0.1;
+	}
+	/**
+	 * Runs the search until it stops, each run of K getting the Ln P(D) of 
+	 * the given function, plus or minus the noise of K on alternate 
+	 * replicates.
+	 * @return the decisions of the last round
+	 */
+	private static List<String> search(AdaptiveKSearch search, int maxRounds, double[] lnProb, double[] noise) {
+		for (int round = 0; round < maxRounds; round++) {
+			final List<String> decisions = new ArrayList<String>();
+			final SortedMap<Integer, Integer> runs = search.next(decisions);
+			assertTrue(decisions.size() > 0);
+			if (runs.isEmpty()) {
+				return decisions;
+			}
+			for (Map.Entry<Integer, Integer> entry : runs.entrySet()) {
+				final int k = entry.getKey();
+				for (int i = 0; i < entry.getValue(); i++) {
+					final int replicate = search.getScheduled(k) - entry.getValue() + i;
+					search.add(k, lnProb[k] + (replicate % 2 == 0 ? noise[k] : -noise[k]));
+				}
+			}
+		}
+		fail("The search did not stop after " + maxRounds + " rounds");
+		return null;
+	}
+	private static double[] values(double value) {
+		final double[] values = new double[CANDIDATES.size() + 1];
+		Arrays.fill(values, value);
+		return values;
+	}
+	@Test
+	public void testStopsAtThePlateau() {
+		final AdaptiveKSearch search = new AdaptiveKSearch(CANDIDATES, 10, AdaptiveKSearch.DEFAULT_TOLERANCE);
+		final double[] lnProb = values(0);
+		for (int k : CANDIDATES) {
+			lnProb[k] = plateauAtFour(k);
+		}
+		final List<String> decisions = search(search, 5, lnProb, values(0.2));
+		assertEquals(4, search.getPlateau());
+		assertEquals("Stopping, Ln P(D) reaches a plateau at K=4", decisions.get(decisions.size() - 1));
+		// K=4 and K=6 are added next to the first plateau, at K=5
+		for (int k : new int[] { 1, 3, 4, 5, 6, 7, 9, 10 }) {
+			assertEquals(2, search.getScheduled(k));
+		}
+		// away from the plateau, never run
+		assertEquals(0, search.getScheduled(2));
+		assertEquals(0, search.getScheduled(8));
+		assertTrue(decisions.contains("K=2: skipped, Ln P(D) still increases there, away from the plateau"));
+		assertTrue(decisions.contains("K=8: skipped, past the plateau of Ln P(D)"));
+		assertEquals(-1000, search.getMean(4), 1e-9);
+		assertTrue(search.getDeltaK(4) > 0);
+	}
+	@Test
+	public void testReplicatesOfNoisyValuesAreBounded() {
+		final AdaptiveKSearch search = new AdaptiveKSearch(CANDIDATES, 5, AdaptiveKSearch.DEFAULT_TOLERANCE);
+		final double[] lnProb = values(0);
+		for (int k : CANDIDATES) {
+			lnProb[k] = plateauAtFour(k);
+		}
+		final double[] noise = values(0.2);
+		noise[4] = 5;
+		search(search, 10, lnProb, noise);
+		assertEquals(4, search.getPlateau());
+		// 2, 4, then the single replicate left
+		assertEquals(5, search.getScheduled(4));
+		assertEquals(2, search.getScheduled(3));
+		assertEquals(2, search.getScheduled(5));
+		assertTrue(search.getStandardDeviation(4) > 1);
+	}
+	@Test
+	public void testStopsWhenStillIncreasingAtTheLargestK() {
+		final AdaptiveKSearch search = new AdaptiveKSearch(CANDIDATES, 3, AdaptiveKSearch.DEFAULT_TOLERANCE);
+		final double[] lnProb = values(0);
+		for (int k : CANDIDATES) {
+			lnProb[k] = -2000 + k * 100;
+		}
+		final List<String> decisions = search(search, 5, lnProb, values(0));
+		assertEquals(10, search.getPlateau());
+		assertEquals("Stopping, Ln P(D) still increases at the largest candidate K=10", 
+				decisions.get(decisions.size() - 1));
+		assertEquals(2, search.getScheduled(9));
+		assertEquals(0, search.getScheduled(8));
+	}
+	@Test
+	public void testStopsWhenEveryRunFails() {
+		final AdaptiveKSearch search = new AdaptiveKSearch(CANDIDATES, 3, AdaptiveKSearch.DEFAULT_TOLERANCE);
+		final List<String> decisions = search(search, 2, values(Double.NaN), values(0));
+		assertEquals(Arrays.asList("Stopping, no run succeeded"), decisions);
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.batch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import hudson.FilePath;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.biouno.structure.engine.EngineParameters;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link DatasetDetector}.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class DatasetDetectorTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	private int[] detect(String content, Map<String, String> definitions) throws Exception {
+		final File file = folder.newFile();
+		FileUtils.writeStringToFile(file, content, "UTF-8");
+		return new DatasetDetector.DimensionsCallable(definitions).invoke(file, null);
+	}
+	@Test
+	public void testTwoRowsPerIndividual() throws Exception {
+		final Map<String, String> definitions = new HashMap<String, String>();
+		definitions.put(EngineParameters.LABEL, "1");
+		definitions.put(EngineParameters.POPDATA, "1");
+		// 3 individuals, 4 loci, and a trailing empty line
+		assertArrayEquals(new int[] { 3, 4 }, detect("a 1 1 2 3 4\na 1 1 2 3 4\n" 
+				+ "b 1 1 2 3 4\nb 1 1 2 3 4\n" 
+				+ "c 2 1 2 3 4\nc 2 1 2 3 4\n\n", definitions));
+	}
+	@Test
+	public void testOneRowPerIndividualWithHeader() throws Exception {
+		final Map<String, String> definitions = new HashMap<String, String>();
+		definitions.put(EngineParameters.ONEROWPERIND, "1");
+		definitions.put(EngineParameters.LABEL, "1");
+		definitions.put(EngineParameters.POPDATA, "0");
+		definitions.put(EngineParameters.MARKERNAMES, "1");
+		assertArrayEquals(new int[] { 2, 3 }, detect("l1 l2 l3\n" 
+				+ "a 1 1 2 2 3 3\n" 
+				+ "b 1 2 2 2 3 1\n", definitions));
+	}
+	@Test
+	public void testLayoutMismatch() throws Exception {
+		final Map<String, String> definitions = new HashMap<String, String>();
+		definitions.put(EngineParameters.LABEL, "1");
+		definitions.put(EngineParameters.POPDATA, "1");
+		try {
+			// three rows cannot be diploid individuals
+			detect("a 1 1 2\na 1 1 2\nb 1 1 2\n", definitions);
+			fail("Expected the dimensions not to be detected");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+	@Test
+	public void testFindSortsDatasets() throws Exception {
+		final File workspace = folder.newFolder("workspace");
+		FileUtils.writeStringToFile(new File(workspace, "data/b.str"), "a 1 1 2\na 1 1 2\n", "UTF-8");
+		FileUtils.writeStringToFile(new File(workspace, "data/a.str"), "a 1 1 2 3\na 1 1 2 3\n", "UTF-8");
+		FileUtils.writeStringToFile(new File(workspace, "data/notes.txt"), "notes", "UTF-8");
+		final List<Dataset> datasets = DatasetDetector.find(new FilePath(workspace), "data/*.str", 
+				new HashMap<String, String>());
+		assertEquals(2, datasets.size());
+		assertEquals("data/a.str", datasets.get(0).getFile().replace('\\', '/'));
+		assertEquals("data_a", datasets.get(0).getName());
+		assertEquals(1, datasets.get(0).getNumInds());
+		assertEquals(3, datasets.get(0).getNumLoci());
+		assertEquals("data_b", datasets.get(1).getName());
+		assertEquals(2, datasets.get(1).getNumLoci());
+	}
+	@Test
+	public void testNames() {
+		assertEquals("data_pop_1", DatasetDetector.toName("data/pop 1.str"));
+		assertEquals("data_pop1", DatasetDetector.toName("data\\pop1"));
+		assertEquals("data_v1_pop", DatasetDetector.toName("data.v1/pop"));
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import hudson.util.StreamTaskListener;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link GridRunner}.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class GridRunnerTest {
+	/**
+	 * Records how many tasks run at the same time.
+	 */
+	private static final class Cell implements GridRunner.Task<Integer> {
+		private final int value;
+		private final AtomicInteger running;
+		private final AtomicInteger maxRunning;
+		Cell(int value, AtomicInteger running, AtomicInteger maxRunning) {
+			this.value = value;
+			this.running = running;
+			this.maxRunning = maxRunning;
+		}
+		public String getName() {
+			return "cell " + value;
+		}
+		public Integer call() throws Exception {
+			final int now = running.incrementAndGet();
+			synchronized (maxRunning) {
+				maxRunning.set(Math.max(maxRunning.get(), now));
+			}
+			try {
+				Thread.sleep(20);
+				if (value == 3) {
+					throw new IllegalStateException("failed run");
+				}
+				return value;
+			} finally {
+				running.decrementAndGet();
+			}
+		}
+	}
+	@Test
+	public void testResultsInTaskOrderWithBoundedPool() throws Exception {
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		final List<Cell> cells = new ArrayList<Cell>();
+		for (int i = 0; i < 10; i++) {
+			cells.add(new Cell(i, running, maxRunning));
+		}
+		final ByteArrayOutputStream log = new ByteArrayOutputStream();
+		final List<Integer> results = new GridRunner(3, new StreamTaskListener(log)).run(cells);
+		assertEquals(10, results.size());
+		for (int i = 0; i < 10; i++) {
+			if (i == 3) {
+				// a failed task does not stop the others
+				assertNull(results.get(i));
+			} else {
+				assertEquals(Integer.valueOf(i), results.get(i));
+			}
+		}
+		assertTrue(maxRunning.get() <= 3);
+		assertTrue(log.toString("UTF-8").contains("Structure run cell 3 failed"));
+	}
+	@Test
+	public void testPrefixedOutput() throws Exception {
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		final PrefixedOutputStream prefixed = new PrefixedOutputStream(new java.io.PrintStream(output, true), "[k2] ");
+		prefixed.write("first\nsecond\n".getBytes("UTF-8"));
+		prefixed.close();
+		assertEquals("[k2] first\n[k2] second\n", output.toString("UTF-8"));
+	}
+}
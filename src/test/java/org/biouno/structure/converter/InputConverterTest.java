@@ -0,0 +1,125 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.converter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.biouno.structure.engine.EngineParameters;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link InputConverter}, with the VCF encoding and the STRUCTURE 
+ * file writer.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class InputConverterTest {
+	private static final String VCF = "##fileformat=VCFv4.2\n" 
+			+ "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\ts1\ts2\ts3\n" 
+			+ "1\t100\trs1\tA\tG\t.\tPASS\t.\tGT\t0/0\t0/1\t1|1\n" 
+			+ "1\t200\t.\tC\tT\t.\tPASS\t.\tGT:DP\t1/0:5\t./.:0\t0/0:3\n" 
+			// multiallelic, and without GT
+			+ "1\t300\trs3\tA\tG,T\t.\tPASS\t.\tGT\t0/0\t0/1\t1/2\n" 
+			+ "1\t400\trs4\tA\tG\t.\tPASS\t.\tDP\t5\t5\t5\n";
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	private final ByteArrayOutputStream log = new ByteArrayOutputStream();
+	private InputConverter createConverter(boolean oneRowPerInd, boolean markerNames, long blockBytes) throws Exception {
+		final Map<String, String> definitions = new HashMap<String, String>();
+		definitions.put(EngineParameters.ONEROWPERIND, oneRowPerInd ? "1" : "0");
+		definitions.put(EngineParameters.MARKERNAMES, markerNames ? "1" : "0");
+		definitions.put(EngineParameters.LABEL, "1");
+		definitions.put(EngineParameters.POPDATA, "1");
+		return new InputConverter(new Layout(definitions), 2, blockBytes, new PrintStream(log, true));
+	}
+	@Test
+	public void testVcf() throws Exception {
+		final File vcf = folder.newFile("data.vcf");
+		FileUtils.writeStringToFile(vcf, VCF, "UTF-8");
+		final File target = new File(folder.getRoot(), "data.str");
+		assertArrayEquals(new int[] { 3, 2 }, createConverter(false, true, InputConverter.DEFAULT_BLOCK_BYTES)
+				.convert(vcf, target));
+		assertEquals("rs1 1:200\n" 
+				+ "s1 1 1 1\ns1 1 1 2\n" 
+				+ "s2 1 1 -9\ns2 1 2 -9\n" 
+				+ "s3 1 2 1\ns3 1 2 1\n", FileUtils.readFileToString(target, "UTF-8"));
+		assertTrue(log.toString("UTF-8").contains("Skipped 2 multiallelic sites or sites without GT"));
+	}
+	@Test
+	public void testPlinkInBlocks() throws Exception {
+		final int[][] codes = { 
+				{ 0, 1, 2, 3, 3, 0 }, 
+				{ 3, 2, 1, 0, 2, 2 }, 
+				{ 2, 2, 2, 2, 1, 3 } };
+		final File bed = PackedGenotypesTest.writeBed(new File(folder.getRoot(), "data.bed"), codes);
+		FileUtils.writeStringToFile(new File(folder.getRoot(), "data.fam"), 
+				"A i1 0 0 0 -9\nA i2 0 0 0 -9\nB i3 0 0 0 -9\nB i4 0 0 0 -9\nC i5 0 0 0 -9\nA i6 0 0 0 -9\n", "UTF-8");
+		FileUtils.writeStringToFile(new File(folder.getRoot(), "data.bim"), 
+				"1 m1 0 100 A G\n1 m2 0 200 C T\n1 m3 0 300 A G\n", "UTF-8");
+		final StringBuilder expected = new StringBuilder();
+		final int[] populations = { 1, 1, 2, 2, 3, 1 };
+		final String[][] alleles = { { "1", "1" }, { "-9", "-9" }, { "1", "2" }, { "2", "2" } };
+		for (int ind = 0; ind < 6; ind++) {
+			expected.append("i").append(ind + 1).append(' ').append(populations[ind]);
+			for (int locus = 0; locus < 3; locus++) {
+				expected.append(' ').append(alleles[codes[locus][ind]][0]).append(' ').append(alleles[codes[locus][ind]][1]);
+			}
+			expected.append('\n');
+		}
+		// blocks of 4 individuals, and a single block
+		final File blocks = new File(folder.getRoot(), "blocks.str");
+		assertArrayEquals(new int[] { 6, 3 }, createConverter(true, false, 1).convert(bed, blocks));
+		assertEquals(expected.toString(), FileUtils.readFileToString(blocks, "UTF-8"));
+		final File whole = new File(folder.getRoot(), "whole.str");
+		createConverter(true, false, InputConverter.DEFAULT_BLOCK_BYTES).convert(bed, whole);
+		assertEquals(expected.toString(), FileUtils.readFileToString(whole, "UTF-8"));
+	}
+	@Test
+	public void testUnchangedSourceIsNotConvertedAgain() throws Exception {
+		final File vcf = folder.newFile("data.vcf");
+		FileUtils.writeStringToFile(vcf, VCF, "UTF-8");
+		final File target = new File(folder.getRoot(), "data.str");
+		createConverter(true, false, InputConverter.DEFAULT_BLOCK_BYTES).convert(vcf, target);
+		final long converted = target.lastModified();
+		assertArrayEquals(new int[] { 3, 2 }, createConverter(true, false, InputConverter.DEFAULT_BLOCK_BYTES)
+				.convert(vcf, target));
+		assertTrue(log.toString("UTF-8").contains("is up to date"));
+		assertEquals(converted, target.lastModified());
+		// the same content with a new timestamp
+		vcf.setLastModified(vcf.lastModified() + 5000L);
+		createConverter(true, false, InputConverter.DEFAULT_BLOCK_BYTES).convert(vcf, target);
+		assertTrue(log.toString("UTF-8").contains("is up to date (same content)"));
+	}
+}
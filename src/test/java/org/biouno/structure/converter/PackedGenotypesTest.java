@@ -0,0 +1,120 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.converter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link PackedGenotypes}.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class PackedGenotypesTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	/**
+	 * Packs genotype codes, <code>codes[locus][ind]</code>, as a 
+	 * <code>.bed</code> file.
+	 */
+	static File writeBed(File file, int[][] codes) throws IOException {
+		final int numInds = codes[0].length;
+		final int bytesPerLocus = PackedGenotypes.bytesPerLocus(numInds);
+		final byte[] bytes = new byte[PackedGenotypes.MAGIC.length + codes.length * bytesPerLocus];
+		System.arraycopy(PackedGenotypes.MAGIC, 0, bytes, 0, PackedGenotypes.MAGIC.length);
+		for (int locus = 0; locus < codes.length; locus++) {
+			for (int ind = 0; ind < numInds; ind++) {
+				bytes[PackedGenotypes.MAGIC.length + locus * bytesPerLocus + ind / 4] |= codes[locus][ind] << (2 * (ind % 4));
+			}
+		}
+		FileUtils.writeByteArrayToFile(file, bytes);
+		return file;
+	}
+	@Test
+	public void testDecoding() throws Exception {
+		// 0b11_10_01_00: individuals 0 to 3 are HOM_FIRST, MISSING, HET, HOM_SECOND
+		final byte[] row = { (byte) 0xE4, 0x02 };
+		assertEquals(PackedGenotypes.HOM_FIRST, PackedGenotypes.genotype(row, 0, 0));
+		assertEquals(PackedGenotypes.MISSING, PackedGenotypes.genotype(row, 0, 1));
+		assertEquals(PackedGenotypes.HET, PackedGenotypes.genotype(row, 0, 2));
+		assertEquals(PackedGenotypes.HOM_SECOND, PackedGenotypes.genotype(row, 0, 3));
+		assertEquals(PackedGenotypes.HET, PackedGenotypes.genotype(row, 0, 4));
+		assertEquals(PackedGenotypes.HET, PackedGenotypes.genotype(row, 1, 0));
+	}
+	@Test
+	public void testReadRows() throws Exception {
+		final int[][] codes = { 
+				{ 0, 1, 2, 3, 3 }, 
+				{ 3, 2, 1, 0, 2 }, 
+				{ 2, 2, 2, 2, 1 } };
+		final PackedGenotypes genotypes = new PackedGenotypes(writeBed(folder.newFile("data.bed"), codes), 5, 3);
+		assertEquals(2, PackedGenotypes.bytesPerLocus(5));
+		assertEquals(5, genotypes.getNumInds());
+		assertEquals(3, genotypes.getNumLoci());
+		final byte[] row = new byte[3];
+		for (int locus = 0; locus < 3; locus++) {
+			genotypes.read(locus, 0, row, 1, 2);
+			final int[] decoded = new int[5];
+			for (int ind = 0; ind < 5; ind++) {
+				decoded[ind] = PackedGenotypes.genotype(row, 1, ind);
+			}
+			assertArrayEquals(codes[locus], decoded);
+		}
+		// the second byte of a row only
+		genotypes.read(1, 1, row, 0, 1);
+		assertEquals(PackedGenotypes.HET, PackedGenotypes.genotype(row, 0, 0));
+	}
+	@Test
+	public void testInvalidMagicNumber() throws Exception {
+		final File file = folder.newFile("individual-major.bed");
+		FileUtils.writeByteArrayToFile(file, new byte[] { 0x6c, 0x1b, 0x00, 0x00 });
+		try {
+			new PackedGenotypes(file, 4, 1);
+			fail("Expected the individual-major file to be rejected");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("not a SNP-major"));
+		}
+	}
+	@Test
+	public void testLengthMismatch() throws Exception {
+		final File file = writeBed(folder.newFile("data.bed"), new int[][] { { 0, 1, 2, 3, 0 } });
+		try {
+			// 5 individuals in 2 bytes per locus, 2 loci expected
+			new PackedGenotypes(file, 5, 2);
+			fail("Expected the dimensions not to match");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("expected 7"));
+		}
+	}
+}
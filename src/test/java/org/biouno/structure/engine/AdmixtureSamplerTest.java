@@ -0,0 +1,139 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.engine;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link AdmixtureSampler}.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class AdmixtureSamplerTest {
+	private static final int NUM_INDS = 20;
+	private static final int NUM_LOCI = 30;
+	/**
+	 * Two populations, individuals of the first population carry allele 1 
+	 * and of the second population allele 2 in most loci.
+	 */
+	static String createInput(long seed) {
+		final Random random = new Random(seed);
+		final StringBuilder sb = new StringBuilder();
+		for (int ind = 0; ind < NUM_INDS; ind++) {
+			final int population = ind < NUM_INDS / 2 ? 1 : 2;
+			for (int row = 0; row < 2; row++) {
+				sb.append("ind").append(ind + 1).append(' ').append(population);
+				for (int locus = 0; locus < NUM_LOCI; locus++) {
+					final boolean common = random.nextDouble() < 0.95;
+					sb.append(' ').append(common ? population : 3 - population);
+				}
+				sb.append('\n');
+			}
+		}
+		return sb.toString();
+	}
+	static EngineParameters createParams(int k) {
+		final Map<String, String> main = new HashMap<String, String>();
+		main.put(EngineParameters.MAXPOPS, Integer.toString(k));
+		main.put(EngineParameters.NUMINDS, Integer.toString(NUM_INDS));
+		main.put(EngineParameters.NUMLOCI, Integer.toString(NUM_LOCI));
+		main.put(EngineParameters.BURNIN, "50");
+		main.put(EngineParameters.NUMREPS, "100");
+		main.put(EngineParameters.LABEL, "1");
+		main.put(EngineParameters.POPDATA, "1");
+		final Map<String, String> extra = new HashMap<String, String>();
+		extra.put(EngineParameters.RANDOMIZE, "0");
+		extra.put(EngineParameters.SEED, "1234");
+		return new EngineParameters(main, extra);
+	}
+	private static AdmixtureSampler run(int k, long seed, ExecutorService executor) throws Exception {
+		final EngineParameters params = createParams(k);
+		final GenotypeData data = GenotypeData.read(new StringReader(createInput(7)), params);
+		final AdmixtureSampler sampler = new AdmixtureSampler(data, params, k, seed, executor);
+		for (int rep = 1; rep <= 150; rep++) {
+			final double lnLike = sampler.sweep();
+			if (rep > 50) {
+				sampler.record(lnLike);
+			}
+		}
+		return sampler;
+	}
+	@Test
+	public void testSameSeedSameResults() throws Exception {
+		final AdmixtureSampler first = run(2, 42L, null);
+		final AdmixtureSampler second = run(2, 42L, null);
+		assertArrayEquals(first.getMeanQ(), second.getMeanQ(), 0.0);
+		assertArrayEquals(first.getMeanP(), second.getMeanP(), 0.0);
+		assertEquals(first.getEstimatedLnProb(), second.getEstimatedLnProb(), 0.0);
+	}
+	@Test
+	public void testResultsDoNotDependOnThreads() throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			final AdmixtureSampler single = run(2, 42L, null);
+			final AdmixtureSampler multi = run(2, 42L, executor);
+			assertArrayEquals(single.getMeanQ(), multi.getMeanQ(), 0.0);
+			assertEquals(single.getMeanLnLike(), multi.getMeanLnLike(), 0.0);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	@Test
+	public void testDifferentSeedsDiffer() throws Exception {
+		assertFalse(run(2, 1L, null).getMeanLnLike() == run(2, 2L, null).getMeanLnLike());
+	}
+	@Test
+	public void testSeparatesPopulations() throws Exception {
+		final AdmixtureSampler sampler = run(2, 42L, null);
+		final double[] q = sampler.getMeanQ();
+		final int first = q[0] > q[1] ? 0 : 1;
+		for (int ind = 0; ind < NUM_INDS; ind++) {
+			final int expected = ind < NUM_INDS / 2 ? first : 1 - first;
+			assertTrue("individual " + ind, q[ind * 2 + expected] > 0.8);
+		}
+		assertEquals(100, sampler.getSamples());
+		assertTrue(sampler.getEstimatedLnProb() < 0);
+		assertTrue(sampler.getEstimatedLnProb() <= sampler.getMeanLnLike());
+	}
+	@Test
+	public void testMembershipSumsToOne() throws Exception {
+		final AdmixtureSampler sampler = run(3, 5L, null);
+		final double[] q = sampler.getMeanQ();
+		for (int ind = 0; ind < NUM_INDS; ind++) {
+			assertEquals(1.0, q[ind * 3] + q[ind * 3 + 1] + q[ind * 3 + 2], 1e-9);
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.engine;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.biouno.structure.parser.ParserException;
+import org.junit.Test;
+
+/**
+ * Tests for {@link GenotypeData}.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class GenotypeDataTest {
+	private static EngineParameters params(String... entries) {
+		final Map<String, String> values = new HashMap<String, String>();
+		for (int i = 0; i < entries.length; i += 2) {
+			values.put(entries[i], entries[i + 1]);
+		}
+		return new EngineParameters(values, null);
+	}
+	@Test
+	public void testReadTwoRowsPerIndividual() throws Exception {
+		final GenotypeData data = GenotypeData.read(new StringReader(
+				"a 1 10 -9\n" + 
+				"a 1 12 5\n" + 
+				"b 2 12 5\n" + 
+				"b 2 12 7\n"), 
+				params(EngineParameters.NUMINDS, "2", EngineParameters.NUMLOCI, "2"));
+		assertEquals(2, data.getNumInds());
+		assertArrayEquals(new String[] { "a", "b" }, data.getLabels());
+		assertArrayEquals(new int[] { 1, 2 }, data.getPopulations());
+		assertArrayEquals(new int[] { 2, 2 }, data.getNumAlleles());
+		assertArrayEquals(new int[] { 10, 12 }, data.getAlleleCodes()[0]);
+		assertArrayEquals(new int[] { 5, 7 }, data.getAlleleCodes()[1]);
+		// [(ind * ploidy + copy) * numLoci + locus]
+		assertArrayEquals(new short[] { 0, GenotypeData.MISSING_ALLELE, 1, 0, 1, 0, 1, 1 }, data.getAlleles());
+		assertEquals(25, data.getPercentMissing(0));
+		assertEquals(0, data.getPercentMissing(1));
+	}
+	@Test
+	public void testReadOneRowPerIndividual() throws Exception {
+		final GenotypeData data = GenotypeData.read(new StringReader("1 2 1 1\n2 2 2 1\n"), 
+				params(EngineParameters.NUMINDS, "2", EngineParameters.NUMLOCI, "2", 
+						EngineParameters.ONEROWPERIND, "1", EngineParameters.LABEL, "0", EngineParameters.POPDATA, "0"));
+		assertArrayEquals(new String[] { "1", "2" }, data.getLabels());
+		assertArrayEquals(new short[] { 0, 0, 1, 0, 1, 1, 1, 0 }, data.getAlleles());
+	}
+	@Test(expected = ParserException.class)
+	public void testTruncatedInput() throws Exception {
+		GenotypeData.read(new StringReader("a 1 10 11\n"), 
+				params(EngineParameters.NUMINDS, "2", EngineParameters.NUMLOCI, "2"));
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.biouno.structure.parser.OutputFileParser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link StructureEngine}.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class StructureEngineTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	private String run(int threads, String name, ByteArrayOutputStream log) throws Exception {
+		final File inFile = new File(folder.getRoot(), "data.txt");
+		FileUtils.writeStringToFile(inFile, AdmixtureSamplerTest.createInput(7), StructureEngine.ENCODING);
+		final File outFile = new File(folder.getRoot(), name);
+		new StructureEngine(AdmixtureSamplerTest.createParams(2), threads).run(inFile, outFile, new PrintStream(log, true));
+		final File resultFile = new File(outFile.getPath() + StructureEngine.OUTPUT_FILE_SUFFIX);
+		assertTrue(resultFile.isFile());
+		// the input file name is the only difference between runs
+		return FileUtils.readFileToString(resultFile, StructureEngine.ENCODING);
+	}
+	@Test
+	public void testFixedSeedIsReproducible() throws Exception {
+		final String first = run(1, "first", new ByteArrayOutputStream());
+		final String second = run(3, "second", new ByteArrayOutputStream());
+		assertEquals(first, second);
+	}
+	@Test
+	public void testProgressAndOutputFile() throws Exception {
+		final ByteArrayOutputStream log = new ByteArrayOutputStream();
+		run(2, "results", log);
+		final String progress = log.toString(StructureEngine.ENCODING);
+		assertTrue(progress.contains("BURNIN completed"));
+		assertTrue(progress.contains("Ln Like"));
+		assertTrue(progress.contains("MCMC completed"));
+		final AtomicInteger individuals = new AtomicInteger();
+		final double[] metrics = new double[2];
+		final FileInputStream input = new FileInputStream(new File(folder.getRoot(), "results" + StructureEngine.OUTPUT_FILE_SUFFIX));
+		try {
+			new OutputFileParser().parse(new InputStreamReader(input, StructureEngine.ENCODING), new OutputFileParser.Handler() {
+				public void metric(String name, double value) {
+					if (OutputFileParser.NUMINDS.equals(name)) {
+						metrics[0] = value;
+					} else if (OutputFileParser.ESTIMATED_LN_PROB.equals(name)) {
+						metrics[1] = value;
+					}
+				}
+				public boolean individual(int index, String label, int percentMissing, String population, double[] q) {
+					assertEquals(2, q.length);
+					individuals.incrementAndGet();
+					return true;
+				}
+			});
+		} finally {
+			IOUtils.closeQuietly(input);
+		}
+		assertEquals(20, metrics[0], 0.0);
+		assertTrue(metrics[1] < 0);
+		assertEquals(20, individuals.get());
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.placement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link CpuTopology}.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class CpuTopologyTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	private void cpu(File system, int cpu, int socket, int core, boolean online) throws Exception {
+		final File dir = new File(system, "cpu/cpu" + cpu);
+		FileUtils.writeStringToFile(new File(dir, "topology/physical_package_id"), socket + "\n");
+		FileUtils.writeStringToFile(new File(dir, "topology/core_id"), core + "\n");
+		if (!online) {
+			FileUtils.writeStringToFile(new File(dir, "online"), "0\n");
+		}
+	}
+	@Test
+	public void testParseList() {
+		assertEquals(Arrays.asList(0, 1, 2, 3, 8, 10, 11), CpuTopology.parseList("0-3,8, 10-11,"));
+		assertTrue(CpuTopology.parseList("").isEmpty());
+	}
+	@Test
+	public void testDetectGroupsHyperThreadsByCore() throws Exception {
+		// two sockets with two cores each, two hyper-threads per core
+		final File system = folder.getRoot();
+		for (int cpu = 0; cpu < 8; cpu++) {
+			cpu(system, cpu, cpu % 4 / 2, cpu % 2, cpu != 7);
+		}
+		FileUtils.writeStringToFile(new File(system, "cpu/cpulist"), "ignored");
+		FileUtils.writeStringToFile(new File(system, "node/node0/cpulist"), "0-1,4-5\n");
+		FileUtils.writeStringToFile(new File(system, "node/node1/cpulist"), "2-3,6-7\n");
+		final CpuTopology topology = CpuTopology.detect(system);
+		assertEquals(4, topology.getCores().size());
+		assertEquals(Arrays.asList(0, 4), topology.getCores().get(0).getCpus());
+		assertEquals(Arrays.asList(1, 5), topology.getCores().get(1).getCpus());
+		assertEquals(0, topology.getCores().get(1).getNumaNode());
+		assertEquals(Arrays.asList(2, 6), topology.getCores().get(2).getCpus());
+		// cpu 7 is offline
+		assertEquals(Arrays.asList(3), topology.getCores().get(3).getCpus());
+		assertEquals(1, topology.getCores().get(3).getSocket());
+		assertEquals(1, topology.getCores().get(3).getNumaNode());
+	}
+	@Test
+	public void testDetectOnlyAllowedCpus() throws Exception {
+		// one socket with four cores, two hyper-threads per core
+		final File system = folder.newFolder("system");
+		for (int cpu = 0; cpu < 8; cpu++) {
+			cpu(system, cpu, 0, cpu % 4, true);
+		}
+		// the agent may only run on cpus 0, 1 and 4, e.g. with a cgroup
+		final File status = folder.newFile("status");
+		FileUtils.writeStringToFile(status, "Name:\tjava\nCpus_allowed:\t13\nCpus_allowed_list:\t0-1,4\n");
+		final CpuTopology topology = CpuTopology.detect(system, status);
+		assertEquals(2, topology.getCores().size());
+		assertEquals(Arrays.asList(0, 4), topology.getCores().get(0).getCpus());
+		assertEquals(Arrays.asList(1), topology.getCores().get(1).getCpus());
+		// without the allowed cpus every cpu is used
+		assertEquals(4, CpuTopology.detect(system, new File(folder.getRoot(), "missing")).getCores().size());
+	}
+	@Test
+	public void testDetectWithoutSysfs() throws Exception {
+		assertTrue(CpuTopology.detect(new File(folder.getRoot(), "missing")).isEmpty());
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.placement;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link PlacementAllocator}.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class PlacementAllocatorTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	/**
+	 * Two NUMA nodes with two cores each.
+	 */
+	private List<CpuTopology.Core> createCores() throws Exception {
+		final File system = folder.getRoot();
+		for (int cpu = 0; cpu < 4; cpu++) {
+			FileUtils.writeStringToFile(new File(system, "cpu/cpu" + cpu + "/topology/physical_package_id"), Integer.toString(cpu / 2));
+			FileUtils.writeStringToFile(new File(system, "cpu/cpu" + cpu + "/topology/core_id"), Integer.toString(cpu % 2));
+		}
+		return CpuTopology.detect(system).getCores();
+	}
+	@Test
+	public void testSpreadsAcrossNumaNodes() throws Exception {
+		final List<CpuTopology.Core> cores = createCores();
+		final boolean[] reserved = new boolean[cores.size()];
+		final List<Integer> nodes = new ArrayList<Integer>();
+		for (int i = 0; i < cores.size(); i++) {
+			final int index = PlacementAllocator.choose(cores, reserved);
+			reserved[index] = true;
+			nodes.add(cores.get(index).getNumaNode());
+		}
+		assertEquals(0, (int) nodes.get(0));
+		assertEquals(1, (int) nodes.get(1));
+		assertEquals(0, (int) nodes.get(2));
+		assertEquals(1, (int) nodes.get(3));
+		assertEquals(-1, PlacementAllocator.choose(cores, reserved));
+	}
+	@Test
+	public void testReusesReleasedCore() throws Exception {
+		final List<CpuTopology.Core> cores = createCores();
+		final boolean[] reserved = { true, true, true, false };
+		assertEquals(3, PlacementAllocator.choose(cores, reserved));
+		reserved[3] = true;
+		reserved[1] = false;
+		assertEquals(1, PlacementAllocator.choose(cores, reserved));
+	}
+}
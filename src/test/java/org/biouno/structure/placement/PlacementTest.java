@@ -0,0 +1,59 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.placement;
+
+import static org.junit.Assert.assertEquals;
+import hudson.util.ArgumentListBuilder;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link Placement}.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class PlacementTest {
+	private static final ArgumentListBuilder ARGS = new ArgumentListBuilder("structure", "-K", "2");
+	@Test
+	public void testCorePlacementUsesTaskset() {
+		final Placement placement = new Placement(PlacementMode.CORE, "agent", 1, Arrays.asList(1, 5), 0);
+		assertEquals(Arrays.asList("taskset", "-c", "1,5", "structure", "-K", "2"), placement.wrap(ARGS).toList());
+		assertEquals("core 1 (cpus 1,5, NUMA node 0)", placement.getDescription());
+	}
+	@Test
+	public void testNumaPlacementUsesNumactl() {
+		final Placement placement = new Placement(PlacementMode.NUMA_NODE, "agent", 2, Arrays.asList(2), 1);
+		assertEquals(Arrays.asList("numactl", "--cpunodebind=1", "--membind=1", "structure", "-K", "2"), 
+				placement.wrap(ARGS).toList());
+		assertEquals("NUMA node 1", placement.getDescription());
+	}
+	@Test
+	public void testModeFromValue() {
+		assertEquals(PlacementMode.CORE, PlacementMode.fromValue("core"));
+		assertEquals(PlacementMode.NUMA_NODE, PlacementMode.fromValue("numa"));
+		assertEquals(PlacementMode.NONE, PlacementMode.fromValue(null));
+	}
+}
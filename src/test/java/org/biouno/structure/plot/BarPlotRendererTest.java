@@ -0,0 +1,88 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.plot;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.lang.StringUtils;
+import org.biouno.structure.results.QMatrix;
+import org.junit.Test;
+
+/**
+ * Tests for {@link BarPlotRenderer}.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class BarPlotRendererTest {
+	private static QMatrix createMatrix() {
+		return new QMatrix(5, 2, new float[] { 
+				0.6f, 0.4f, 
+				0.2f, 0.8f, 
+				0.9f, 0.1f, 
+				0.7f, 0.3f, 
+				1.0f, 0.0f }, 
+				new String[] { "a", "b", "c", "d", "e" }, 
+				new String[] { "2", "1", "1", null, "1" });
+	}
+	@Test
+	public void testOrderByPopulationAndDominantCluster() {
+		// population 1 first, sorted by dominant cluster and descending 
+		// membership, then population 2, then individuals without population
+		assertArrayEquals(new Integer[] { 4, 2, 1, 0, 3 }, BarPlotRenderer.order(createMatrix()));
+	}
+	@Test
+	public void testSvg() throws Exception {
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		BarPlotRenderer.writeSvg(createMatrix(), 100, 50, output);
+		final String svg = output.toString("UTF-8");
+		// background and one segment per non-zero coefficient
+		assertEquals(1 + 9, StringUtils.countMatches(svg, "<rect "));
+		// one separator between each population
+		assertEquals(2, StringUtils.countMatches(svg, "<line "));
+	}
+	@Test
+	public void testPngWithMoreIndividualsThanPixels() throws Exception {
+		final int numInds = 1000;
+		final float[] values = new float[numInds * 2];
+		for (int ind = 0; ind < numInds; ind++) {
+			values[ind * 2] = 1f;
+		}
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		BarPlotRenderer.writePng(new QMatrix(numInds, 2, values, new String[numInds], new String[numInds]), 
+				200, 40, output);
+		final BufferedImage image = ImageIO.read(new ByteArrayInputStream(output.toByteArray()));
+		assertNotNull(image);
+		assertEquals(200, image.getWidth());
+		assertEquals(40, image.getHeight());
+		assertEquals(BarPlotRenderer.getColor(0).getRGB(), image.getRGB(199, 20));
+	}
+}
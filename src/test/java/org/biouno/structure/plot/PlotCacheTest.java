@@ -0,0 +1,75 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.plot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.biouno.structure.results.QMatrix;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link PlotCache}.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class PlotCacheTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	/**
+	 * Counts how many times the membership coefficients are loaded.
+	 */
+	private static final class CountingSource implements PlotCache.Source {
+		private int loads;
+		public QMatrix load() throws IOException {
+			loads++;
+			return new QMatrix(2, 2, new float[] { 0.5f, 0.5f, 0.1f, 0.9f }, new String[2], new String[2]);
+		}
+	}
+	@Test
+	public void testPlotIsRenderedOnce() throws Exception {
+		final PlotCache cache = new PlotCache(new File(folder.getRoot(), PlotCache.DIRECTORY));
+		final CountingSource source = new CountingSource();
+		final String key = PlotCache.key("out_f", 1L, 2L, PlotFormat.PNG, 800, 120);
+		final File plot = cache.get(key, PlotFormat.PNG, 800, 120, source);
+		assertTrue(plot.isFile());
+		assertEquals(key + ".png", plot.getName());
+		assertEquals(plot, cache.get(key, PlotFormat.PNG, 800, 120, source));
+		assertEquals(1, source.loads);
+		// no temporary files are left
+		assertEquals(1, plot.getParentFile().list().length);
+	}
+	@Test
+	public void testKeyDependsOnEveryPart() {
+		assertEquals(PlotCache.key("out_f", 800, 120), PlotCache.key("out_f", 800, 120));
+		assertFalse(PlotCache.key("out_f", 800, 120).equals(PlotCache.key("out_f", 800, 121)));
+		assertFalse(PlotCache.key("out_f", 800, 120).equals(PlotCache.key("out_f", 800, 120, "aligned")));
+	}
+}
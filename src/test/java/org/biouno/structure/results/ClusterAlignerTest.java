@@ -0,0 +1,101 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.results;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link ClusterAligner}.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class ClusterAlignerTest {
+	/**
+	 * Creates a matrix where individual <code>i</code> belongs mostly to 
+	 * cluster <code>clusters[i % clusters.length]</code>.
+	 */
+	private static QMatrix createMatrix(int numInds, int k, int[] clusters) {
+		final float[] values = new float[numInds * k];
+		for (int ind = 0; ind < numInds; ind++) {
+			for (int cluster = 0; cluster < k; cluster++) {
+				values[ind * k + cluster] = 0.1f / (k - 1);
+			}
+			values[ind * k + clusters[ind % clusters.length]] = 0.9f;
+		}
+		return new QMatrix(numInds, k, values, new String[numInds], new String[numInds]);
+	}
+	private static int[] identity(int k) {
+		final int[] identity = new int[k];
+		for (int i = 0; i < k; i++) {
+			identity[i] = i;
+		}
+		return identity;
+	}
+	@Test
+	public void testPermutationIsRecovered() {
+		final int[] permutation = { 2, 0, 3, 1 };
+		final QMatrix reference = createMatrix(40, 4, identity(4));
+		final QMatrix other = createMatrix(40, 4, permutation);
+		final int[] aligned = ClusterAligner.align(reference, other);
+		assertArrayEquals(permutation, aligned);
+		final QMatrix permuted = other.permute(aligned);
+		for (int ind = 0; ind < 40; ind++) {
+			for (int cluster = 0; cluster < 4; cluster++) {
+				assertEquals(reference.get(ind, cluster), permuted.get(ind, cluster), 0f);
+			}
+		}
+	}
+	@Test
+	public void testGreedyMatchingForLargeK() {
+		final int k = 10;
+		final int[] permutation = { 9, 3, 0, 7, 1, 8, 2, 5, 4, 6 };
+		final int[] aligned = ClusterAligner.align(createMatrix(100, k, identity(k)), createMatrix(100, k, permutation));
+		assertArrayEquals(permutation, aligned);
+	}
+	@Test
+	public void testEveryPermutationIsTriedForSmallK() {
+		// 20 individuals in reference cluster 0, split 0.55/0.45 in the other 
+		// run, and 10 in reference cluster 1, in cluster 0 of the other run. 
+		// The greedy matching would pair the 0.55 clusters first and keep the 
+		// identity (score 11), the best permutation swaps them (score 19).
+		final float[] reference = new float[30 * 2];
+		final float[] other = new float[30 * 2];
+		for (int ind = 0; ind < 30; ind++) {
+			if (ind < 20) {
+				reference[ind * 2] = 1f;
+				other[ind * 2] = 0.55f;
+				other[ind * 2 + 1] = 0.45f;
+			} else {
+				reference[ind * 2 + 1] = 1f;
+				other[ind * 2] = 1f;
+			}
+		}
+		final int[] aligned = ClusterAligner.align(new QMatrix(30, 2, reference, new String[30], new String[30]), 
+				new QMatrix(30, 2, other, new String[30], new String[30]));
+		assertArrayEquals(new int[] { 1, 0 }, aligned);
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.results;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.util.Arrays;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link QRowQuery} and the metrics read by {@link StructureResult}.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class QRowQueryTest {
+	/**
+	 * Excerpt of a structure output file.
+	 */
+	static final String OUTPUT_FILE = "----------------------------------------------------\n" 
+			+ "STRUCTURE by Pritchard, Stephens and Donnelly (2000)\n" 
+			+ "----------------------------------------------------\n\n" 
+			+ "Run parameters:\n" 
+			+ "   4 individuals\n" 
+			+ "   3 loci\n" 
+			+ "   2 populations assumed\n" 
+			+ "   10000 Burn-in period\n" 
+			+ "   10000 Reps\n\n" 
+			+ "Estimated Ln Prob of Data   = -1234.5\n" 
+			+ "Mean value of ln likelihood = -1200.3\n" 
+			+ "Variance of ln likelihood   = 68.4\n" 
+			+ "Mean value of alpha         = 0.0421\n\n" 
+			+ "Inferred ancestry of individuals:\n" 
+			+ "        Label (%Miss) Pop:  Inferred clusters\n" 
+			+ "  1     ind1    (0)    1 :  0.912 0.088 \n" 
+			+ "  2     ind2    (5)    1 :  0.850 0.150 \n" 
+			+ "  3     ind3    (0)    2 :  0.031 0.969 \n" 
+			+ "  4     ind4   (10)    2 :  0.102 0.898 \n\n" 
+			+ "Estimated Allele Frequencies in each cluster\n" 
+			+ "First column gives estimated ancestral frequencies\n\n\n" 
+			+ "Locus 1 : \n" 
+			+ "2 alleles\n" 
+			+ "0.0% missing data\n" 
+			+ "  101   (0.600) 0.900 0.100 \n" 
+			+ "  103   (0.400) 0.100 0.900 \n\n" 
+			+ "Values of parameters used in structure:\n";
+	private static QMatrix createMatrix() {
+		return new QMatrix(4, 2, new float[] { 0.912f, 0.088f, 0.850f, 0.150f, 0.031f, 0.969f, 0.102f, 0.898f }, 
+				new String[] { "ind1", "ind2", "ind3", "ind4" }, new String[] { "1", "1", "2", "2" });
+	}
+	@Test
+	public void testPaging() {
+		final JSONObject first = new QRowQuery(0, 3, null, null).execute(createMatrix());
+		assertEquals(3, first.getJSONArray("rows").size());
+		assertTrue(first.getBoolean("more"));
+		final JSONObject second = new QRowQuery(3, 3, null, null).execute(createMatrix());
+		final JSONArray rows = second.getJSONArray("rows");
+		assertEquals(1, rows.size());
+		assertFalse(second.getBoolean("more"));
+		final JSONObject row = rows.getJSONObject(0);
+		assertEquals(3, row.getInt(QRowQuery.COLUMN_INDEX));
+		assertEquals("ind4", row.getString(QRowQuery.COLUMN_LABEL));
+		assertEquals("2", row.getString(QRowQuery.COLUMN_POPULATION));
+		assertEquals(0.102, row.getDouble("q1"), 0d);
+		assertEquals(0.898, row.getDouble("q2"), 0d);
+	}
+	@Test
+	public void testColumnsAndPopulations() {
+		final JSONObject page = new QRowQuery(1, 10, Arrays.asList(QRowQuery.COLUMN_LABEL, "q2"), Arrays.asList("2"))
+				.execute(createMatrix());
+		final JSONArray rows = page.getJSONArray("rows");
+		assertEquals(1, rows.size());
+		final JSONObject row = rows.getJSONObject(0);
+		assertEquals(2, row.size());
+		assertEquals("ind4", row.getString(QRowQuery.COLUMN_LABEL));
+		assertEquals(0.898, row.getDouble("q2"), 0d);
+	}
+	@Test
+	public void testMetrics() throws Exception {
+		final StructureResult result = StructureResult.readMetrics(new StringReader(OUTPUT_FILE));
+		assertEquals(2, result.getK());
+		assertEquals(4d, result.getNumInds(), 0d);
+		assertEquals(3d, result.getNumLoci(), 0d);
+		assertEquals(-1234.5, result.getEstimatedLnProb(), 0d);
+		assertEquals(-1200.3, result.getMeanLnLikelihood(), 0d);
+		assertEquals(68.4, result.getVarianceLnLikelihood(), 0d);
+		assertEquals(0.0421, result.getMeanAlpha(), 0d);
+	}
+}
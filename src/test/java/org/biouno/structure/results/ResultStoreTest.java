@@ -0,0 +1,201 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.results;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link ResultStore} and {@link MappedResult}.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class ResultStoreTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	private File directory;
+	private ResultStore store;
+	/**
+	 * Number of times the output file was read.
+	 */
+	private final AtomicInteger opened = new AtomicInteger();
+	private final ResultStore.Source source = new ResultStore.Source() {
+		public Reader open() throws IOException, InterruptedException {
+			opened.incrementAndGet();
+			// give concurrent requests the time to miss too
+			Thread.sleep(50L);
+			return new StringReader(QRowQueryTest.OUTPUT_FILE);
+		}
+	};
+	@Before
+	public void setUp() {
+		directory = new File(folder.getRoot(), ResultStore.DIRECTORY);
+		store = new ResultStore(directory);
+	}
+	private static void assertResult(MappedResult result) throws IOException {
+		assertEquals(4, result.getNumInds());
+		assertEquals(2, result.getK());
+		assertEquals(1, result.getNumLoci());
+		final QMatrix q = result.getQ();
+		assertEquals(0.850f, q.get(1, 0), 0f);
+		assertEquals(0.898f, q.get(3, 1), 0f);
+		assertEquals("ind3", q.getLabel(2));
+		assertEquals("2", q.getPopulation(3));
+		assertEquals(10, q.getPercentMissing(3));
+		final AlleleFrequencies frequencies = result.getFrequencies();
+		assertEquals(2, frequencies.getNumAlleles(0));
+		assertEquals(103, frequencies.getAllele(0, 1));
+		assertEquals(0.900f, frequencies.get(0, 1, 1), 0f);
+	}
+	private List<String> listStore() {
+		final List<String> names = new ArrayList<String>(Arrays.asList(directory.list()));
+		Collections.sort(names);
+		return names;
+	}
+	@Test
+	public void testRoundTrip() throws Exception {
+		final MappedResult result = store.get("run", "digest1", source);
+		try {
+			assertEquals("digest1", result.getDigest());
+			assertResult(result);
+		} finally {
+			result.close();
+		}
+		assertEquals(Arrays.asList("run" + ResultStore.EXTENSION), listStore());
+	}
+	@Test
+	public void testParsedOnceAndReplacedWhenChanged() throws Exception {
+		store.get("run", "digest1", source).close();
+		final MappedResult stored = store.get("run", "digest1", source);
+		assertResult(stored);
+		stored.close();
+		assertEquals(1, opened.get());
+		// the output file changed
+		final MappedResult changed = store.get("run", "digest2", source);
+		assertEquals("digest2", changed.getDigest());
+		assertResult(changed);
+		changed.close();
+		assertEquals(2, opened.get());
+		assertEquals(Arrays.asList("run" + ResultStore.EXTENSION), listStore());
+	}
+	@Test
+	public void testFileOfAnOlderVersionIsReplaced() throws Exception {
+		assertTrue(directory.mkdirs());
+		final FileOutputStream output = new FileOutputStream(new File(directory, "run" + ResultStore.EXTENSION));
+		output.write(new byte[] { 0x53, 0x54, 0x52, 0x55, 0, 0, 0, 1 });
+		output.close();
+		final MappedResult result = store.get("run", "digest1", source);
+		assertResult(result);
+		result.close();
+		assertEquals(1, opened.get());
+	}
+	@Test
+	public void testConcurrentMissesParseOnce() throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			final List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			for (int i = 0; i < 8; i++) {
+				futures.add(executor.submit(new Callable<Integer>() {
+					public Integer call() throws Exception {
+						final MappedResult result = store.get("run", "digest1", source);
+						try {
+							return result.getQ().getNumInds();
+						} finally {
+							result.close();
+						}
+					}
+				}));
+			}
+			for (Future<Integer> future : futures) {
+				assertEquals(4, future.get().intValue());
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(1, opened.get());
+		assertEquals(Arrays.asList("run" + ResultStore.EXTENSION), listStore());
+	}
+	@Test
+	public void testViewsOutliveTheResultsOfOtherRequests() throws Exception {
+		final MappedResult first = store.get("run", "digest1", source);
+		final QMatrix q = first.getQ();
+		// another request shares the mapping and closes its result first
+		final MappedResult second = store.get("run", "digest1", source);
+		assertResult(second);
+		second.close();
+		assertEquals(0.850f, q.get(1, 0), 0f);
+		assertEquals("ind3", q.getLabel(2));
+		first.close();
+	}
+	@Test
+	public void testViewsOutliveTheReplacementOfTheirFile() throws Exception {
+		final MappedResult first = store.get("run", "digest1", source);
+		final QMatrix q = first.getQ();
+		// the output file changed while the first request reads its views
+		final MappedResult changed = store.get("run", "digest2", source);
+		assertEquals("digest2", changed.getDigest());
+		assertResult(changed);
+		changed.close();
+		assertEquals(0.898f, q.get(3, 1), 0f);
+		assertEquals("digest1", first.getDigest());
+		assertResult(first);
+		first.close();
+		assertEquals(2, opened.get());
+	}
+	@Test
+	public void testClosedResultCannotBeMapped() throws Exception {
+		final MappedResult result = store.get("run", "digest1", source);
+		result.getQ();
+		result.close();
+		result.close();
+		try {
+			result.getFrequencies();
+			fail("Mapped after being closed");
+		} catch (IOException expected) {
+			// expected
+		}
+		assertTrue(new File(directory, "run" + ResultStore.EXTENSION).delete());
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.throttle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link NodeQueue}.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class NodeQueueTest {
+	private static Permit permit(String owner, int priority, long memory) {
+		return new Permit("", owner, priority, memory, null);
+	}
+	private static NodeQueue queue(int maxProcesses, long maxMemory) {
+		final NodeQueue queue = new NodeQueue();
+		queue.setLimits(maxProcesses, maxMemory);
+		return queue;
+	}
+	@Test
+	public void testHigherPriorityFirst() {
+		final NodeQueue queue = queue(1, 0);
+		final Permit running = permit("a", 0, 10);
+		queue.offer(running);
+		assertEquals(Arrays.asList(running), queue.dispatch());
+		final Permit low = permit("b", 0, 10);
+		final Permit high = permit("c", 5, 10);
+		queue.offer(low);
+		queue.offer(high);
+		assertEquals(Collections.emptyList(), queue.dispatch());
+		assertEquals(2, queue.getWaiting());
+		queue.release(running);
+		assertEquals(Arrays.asList(high), queue.dispatch());
+		queue.release(high);
+		assertEquals(Arrays.asList(low), queue.dispatch());
+	}
+	@Test
+	public void testOwnerWithFewerPermitsFirst() {
+		final NodeQueue queue = queue(3, 0);
+		final Permit batch1 = permit("batch", 0, 10);
+		final Permit batch2 = permit("batch", 0, 10);
+		queue.offer(batch1);
+		queue.offer(batch2);
+		assertEquals(Arrays.asList(batch1, batch2), queue.dispatch());
+		// the batch queued first, but already holds two permits
+		final Permit batch3 = permit("batch", 0, 10);
+		final Permit other1 = permit("other", 0, 10);
+		final Permit other2 = permit("other", 0, 10);
+		queue.offer(batch3);
+		queue.offer(other1);
+		queue.offer(other2);
+		assertEquals(Arrays.asList(other1), queue.dispatch());
+		queue.release(batch1);
+		// one permit each, in order of arrival
+		assertEquals(Arrays.asList(batch3), queue.dispatch());
+		queue.release(batch2);
+		assertEquals(Arrays.asList(other2), queue.dispatch());
+	}
+	@Test
+	public void testMemoryLimit() {
+		final NodeQueue queue = queue(0, 100);
+		final Permit first = permit("a", 0, 60);
+		final Permit second = permit("b", 0, 40);
+		final Permit third = permit("c", 0, 1);
+		queue.offer(first);
+		queue.offer(second);
+		queue.offer(third);
+		assertEquals(Arrays.asList(first, second), queue.dispatch());
+		assertEquals(100, queue.getMemory());
+		queue.release(second);
+		assertEquals(Arrays.asList(third), queue.dispatch());
+		assertEquals(61, queue.getMemory());
+		assertEquals(2, queue.getRunning());
+	}
+	@Test
+	public void testHeadIsNotOvertaken() {
+		final NodeQueue queue = queue(0, 100);
+		final Permit running = permit("a", 0, 60);
+		queue.offer(running);
+		queue.dispatch();
+		final Permit head = permit("b", 5, 50);
+		final Permit small = permit("c", 0, 10);
+		queue.offer(head);
+		queue.offer(small);
+		// the small one fits, but would delay the head
+		assertEquals(Collections.emptyList(), queue.dispatch());
+		assertFalse(small.isGranted());
+		queue.release(running);
+		assertEquals(Arrays.asList(head, small), queue.dispatch());
+	}
+	@Test
+	public void testOversizedPermitRunsAlone() {
+		final NodeQueue queue = queue(4, 100);
+		final Permit running = permit("a", 0, 10);
+		queue.offer(running);
+		queue.dispatch();
+		final Permit huge = permit("b", 0, 500);
+		final Permit small = permit("c", 0, 10);
+		queue.offer(huge);
+		queue.offer(small);
+		assertEquals(Collections.emptyList(), queue.dispatch());
+		queue.release(running);
+		assertEquals(Arrays.asList(huge), queue.dispatch());
+		assertEquals(1, queue.getRunning());
+		queue.release(huge);
+		assertEquals(Arrays.asList(small), queue.dispatch());
+		assertEquals(10, queue.getMemory());
+	}
+	@Test
+	public void testGrantedProcessesCountAgainstTheLimits() {
+		final NodeQueue queue = queue(1, 0);
+		// e.g. still running after a restart
+		final Permit restored = permit("a", 0, 10);
+		queue.grant(restored);
+		assertTrue(restored.isGranted());
+		final Permit waiting = permit("b", 0, 10);
+		queue.offer(waiting);
+		assertEquals(Collections.emptyList(), queue.dispatch());
+		queue.release(restored);
+		// released only once
+		queue.release(restored);
+		assertEquals(0, queue.getRunning());
+		assertEquals(Arrays.asList(waiting), queue.dispatch());
+	}
+	@Test
+	public void testWaitingPermitIsRemoved() {
+		final NodeQueue queue = queue(1, 0);
+		queue.offer(permit("a", 0, 10));
+		queue.dispatch();
+		final Permit waiting = permit("b", 0, 10);
+		queue.offer(waiting);
+		assertEquals(1, queue.getWaiting());
+		queue.release(waiting);
+		assertEquals(0, queue.getWaiting());
+		assertEquals(1, queue.getRunning());
+	}
+}
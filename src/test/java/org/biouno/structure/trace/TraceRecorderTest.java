@@ -0,0 +1,133 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.trace;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link TraceRecorder} and {@link TraceWriter}.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class TraceRecorderTest {
+	/**
+	 * Output of structure 2.3.4 with the admixture model and LOCPRIOR, which 
+	 * adds the r column after the burn-in.
+	 */
+	private static final String OUTPUT = "\n" 
+			+ "----------------------------------------------------\n" 
+			+ "STRUCTURE by Pritchard, Stephens and Donnelly (2000)\n" 
+			+ "     and Falush, Stephens and Pritchard (2003)\n" 
+			+ "       Code by Pritchard, Falush and Hubisz\n" 
+			+ "             Version 2.3.4 (Jul 2012)\n" 
+			+ "----------------------------------------------------\n" 
+			+ "\n" 
+			+ "Reading file \"project_data\".\n" 
+			+ "Number of alleles per locus: min= 2; ave=5.3; max= 9\n" 
+			+ "200 individuals\n" 
+			+ "\n" 
+			+ " Rep#:      Alpha     Ln Like\n" 
+			+ "     100:    0.123   -13526  \n" 
+			+ "     200:    0.097   -13441  \n" 
+			+ "     300:    0.088   -13437  \n" 
+			+ "BURNIN completed\n" 
+			+ " Rep#:      Alpha      r       Ln Like  Est Ln P(D) \n" 
+			+ "     400:    0.086    1.204   -13432         --  \n" 
+			+ "     500:    0.085    1.198   -13430.5  -13470  \n" 
+			+ "MCMC completed\n" 
+			+ "\n" 
+			+ "Final results printed to file project_data_f\n" 
+			+ "     600:    0.084    1.190   -13429";
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	private static TraceSeries read(File file) throws Exception {
+		final InputStream input = new FileInputStream(file);
+		try {
+			return TraceSeries.read(input);
+		} finally {
+			input.close();
+		}
+	}
+	@Test
+	public void testProgressLinesAreRecorded() throws Exception {
+		final File file = folder.newFile("run.trace");
+		final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+		final TraceRecorder recorder = new TraceRecorder(copy, new TraceWriter(file, false));
+		// written in pieces, as the process output arrives
+		final byte[] bytes = OUTPUT.getBytes("UTF-8");
+		for (int i = 0; i < bytes.length; i += 7) {
+			recorder.write(bytes, i, Math.min(7, bytes.length - i));
+		}
+		recorder.close();
+		// everything is copied, the incomplete last line is not recorded
+		assertEquals(OUTPUT, copy.toString("UTF-8"));
+		assertEquals(5, recorder.getCount());
+		final TraceSeries series = read(file);
+		assertEquals(5, series.size());
+		assertEquals(3, series.getBurnInSize());
+		final long[] reps = { 100, 200, 300, 400, 500 };
+		final float[] lnLikes = { -13526f, -13441f, -13437f, -13432f, -13430.5f };
+		for (int i = 0; i < reps.length; i++) {
+			assertEquals(reps[i], series.getRep(i));
+			assertEquals(lnLikes[i], series.getLnLike(i), 0f);
+		}
+	}
+	@Test
+	public void testLnLikeBeforeTheLastColumnWithoutHeader() throws Exception {
+		final File file = folder.newFile("run.trace");
+		final TraceRecorder recorder = new TraceRecorder(new ByteArrayOutputStream(), new TraceWriter(file, false));
+		recorder.write("  1000:    0.050   -2500.5   -2600\n".getBytes("UTF-8"));
+		recorder.close();
+		final TraceSeries series = read(file);
+		assertEquals(1, series.size());
+		assertEquals(-2500.5f, series.getLnLike(0), 0f);
+	}
+	@Test
+	public void testAppendedTraceIsReadAsOneSeries() throws Exception {
+		final File file = folder.newFile("run.trace");
+		TraceWriter writer = new TraceWriter(file, false);
+		writer.add(100, true, -10f);
+		// a repetition number needing several bytes
+		writer.add(5000000000L, false, -5f);
+		writer.close();
+		writer = new TraceWriter(file, true);
+		writer.add(5000000100L, false, -4.5f);
+		writer.close();
+		final TraceSeries series = read(file);
+		assertEquals(3, series.size());
+		assertEquals(1, series.getBurnInSize());
+		assertEquals(5000000000L, series.getRep(1));
+		assertEquals(5000000100L, series.getRep(2));
+		assertEquals(-4.5f, series.getLnLike(2), 0f);
+	}
+}
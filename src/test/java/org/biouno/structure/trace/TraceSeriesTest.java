@@ -0,0 +1,93 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.structure.trace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link TraceSeries}.
+ * @author Bruno P. Kinoshita - http://www.kinoshita.eti.br
+ * @since 0.2
+ */
+public class TraceSeriesTest {
+	/**
+	 * A trace of 1000 points, every 10 repetitions, the first 400 in the 
+	 * burn-in, with a spike at point 700.
+	 */
+	private static TraceSeries createSeries() {
+		final long[] reps = new long[1000];
+		final float[] values = new float[1000];
+		for (int i = 0; i < reps.length; i++) {
+			reps[i] = (i + 1) * 10L;
+			values[i] = (float) (-1000 - 500 * Math.exp(-i / 50.0) + Math.sin(i));
+		}
+		values[700] = -900f;
+		return new TraceSeries(reps, values, reps.length, 400);
+	}
+	private static int countBurnIn(TraceSeries series, long lastBurnInRep) {
+		int count = 0;
+		for (int i = 0; i < series.size(); i++) {
+			if (series.getRep(i) <= lastBurnInRep) {
+				count++;
+			}
+		}
+		return count;
+	}
+	@Test
+	public void testDownsampleKeepsEndpointsAndPeaks() {
+		final TraceSeries sampled = createSeries().downsample(100, true);
+		assertEquals(100, sampled.size());
+		assertEquals(10L, sampled.getRep(0));
+		assertEquals(10000L, sampled.getRep(99));
+		assertEquals(countBurnIn(sampled, 4000L), sampled.getBurnInSize());
+		boolean spike = false;
+		for (int i = 1; i < sampled.size(); i++) {
+			assertTrue(sampled.getRep(i) > sampled.getRep(i - 1));
+			spike |= sampled.getLnLike(i) == -900f;
+		}
+		assertTrue(spike);
+	}
+	@Test
+	public void testDownsampleWithoutBurnIn() {
+		final TraceSeries sampled = createSeries().downsample(50, false);
+		assertEquals(50, sampled.size());
+		assertEquals(0, sampled.getBurnInSize());
+		assertEquals(4010L, sampled.getRep(0));
+		assertEquals(10000L, sampled.getRep(49));
+		assertEquals(0, countBurnIn(sampled, 4000L));
+	}
+	@Test
+	public void testShortSeriesIsKept() {
+		final TraceSeries all = createSeries().downsample(2000, true);
+		assertEquals(1000, all.size());
+		assertEquals(400, all.getBurnInSize());
+		final TraceSeries mcmc = createSeries().downsample(600, false);
+		assertEquals(600, mcmc.size());
+		assertEquals(0, mcmc.getBurnInSize());
+		assertEquals(4010L, mcmc.getRep(0));
+	}
+}